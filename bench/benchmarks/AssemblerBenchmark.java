@@ -0,0 +1,63 @@
+package benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import backEndParsing.AbsToMachine;
+import backEndParsing.MachineToAbs;
+import intermediateRepresentation.intermediateRepresentation;
+import parse.ParseException;
+import parse.ParseOutput;
+import util.Pair;
+
+/**
+ * Assembles parsed RISC-V programs to machine code and disassembles the machine
+ * code back to abstract instructions.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class AssemblerBenchmark {
+
+	@Param({"r:RISC-examples/sieve.txt", "r:RISC-examples/ulam.txt", "r:RISC-examples/LinkedList.txt"})
+	public String program;
+
+	private ParseOutput _parsed;
+	private List<intermediateRepresentation> _instructions;
+	private ArrayList<Integer> _machineCode;
+
+	@Setup
+	public void setup() throws Exception {
+		_parsed = BenchPrograms.parse(program);
+		_instructions = new ArrayList<>();
+		for (Pair<intermediateRepresentation, Integer> pair : _parsed.getInstructions().getList()) {
+			_instructions.add(pair.first());
+		}
+		_machineCode = assemble();
+	}
+
+	@Benchmark
+	public ArrayList<Integer> assemble() throws ParseException {
+		return AbsToMachine.parseAbstracts(_instructions, _parsed.getSymbolTable(), _parsed.getData());
+	}
+
+	@Benchmark
+	public ArrayList<intermediateRepresentation> disassemble() throws ParseException {
+		return new MachineToAbs().constructCode(_machineCode);
+	}
+
+	@Benchmark
+	public ArrayList<intermediateRepresentation> roundTrip() throws ParseException {
+		return new MachineToAbs().constructCode(assemble());
+	}
+}
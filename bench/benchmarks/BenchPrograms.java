@@ -0,0 +1,44 @@
+package benchmarks;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import parse.ParseException;
+import parse.ParseOutput;
+import textInterface.BatchRunner;
+import textInterface.BatchRunner_IOF;
+
+/**
+ * Shared loading for the benchmarks: programs are named "arch:path", for example
+ * "r:RISC-examples/sieve.txt", and read input from a fixed script so every
+ * invocation runs the same instructions.
+ */
+final class BenchPrograms {
+
+	static final String INPUT = "97 13 89 1234 5 6 7 8 9 10\nhello\n";
+	static final PrintStream DISCARD = new PrintStream(OutputStream.nullOutputStream());
+
+	private BenchPrograms() {}
+
+	static String architecture(String program) {
+		return program.substring(0, program.indexOf(':'));
+	}
+
+	static String read(String program) throws IOException {
+		return new String(Files.readAllBytes(Paths.get(program.substring(program.indexOf(':') + 1))));
+	}
+
+	static ParseOutput parse(String program) throws IOException, ParseException {
+		return BatchRunner.parse(architecture(program), read(program));
+	}
+
+	static BatchRunner runner(String program) {
+		return new BatchRunner(architecture(program),
+				new BatchRunner_IOF(new BufferedReader(new StringReader(INPUT)), DISCARD));
+	}
+}
@@ -0,0 +1,78 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import parse.ParseOutput;
+import textInterface.BatchRunner;
+import virtual_machine.ExecVM;
+
+/**
+ * Runs example programs to completion, or for BUDGET instructions for programs that never
+ * halt, either through BatchRunner.execute, as batch runs do, or one ExecVM.tick at a
+ * time with the per tick state tracking on, as the GUI's step and animate modes do.
+ * Parsing is done once per trial; each invocation gets a fresh virtual machine so memory
+ * and frames start empty.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class InterpreterBenchmark {
+
+	private static final long BUDGET = 2_000_000;
+
+	//RISC-examples/quicksort.txt does not parse, the YAAL version is used instead
+	@Param({"r:RISC-examples/sieve.txt", "r:RISC-examples/ulam.txt", "r:RISC-examples/remainderTheorem.txt",
+			"y:YAAL-examples/quicksort.txt", "y:YAAL-examples/yaal-sieve.txt", "y:YAAL-examples/yaal-ulam.txt",
+			"y:YAAL-examples/pollard.txt", "y:YAAL-examples/modExp.txt"})
+	public String program;
+
+	//0 interprets only, otherwise hot RISC-V blocks are compiled to bytecode; tick never compiles
+	@Param({"0", "1000"})
+	public int compileThreshold;
+
+	@Param({"run", "tick"})
+	public String mode;
+
+	private ParseOutput _parsed;
+	private BatchRunner _runner;
+
+	@Setup(Level.Trial)
+	public void parse() throws Exception {
+		_parsed = BenchPrograms.parse(program);
+	}
+
+	@Setup(Level.Invocation)
+	public void load() throws Exception {
+		_runner = BenchPrograms.runner(program);
+		_runner.load(_parsed);
+		_runner.getVM().setCompileThreshold(compileThreshold);
+		if (mode.equals("tick")) {
+			_runner.getVM().setTracking(true);
+		}
+	}
+
+	@Benchmark
+	public long run() throws Exception {
+		if (mode.equals("tick")) {
+			ExecVM vm = _runner.getVM();
+			long ticks = 0;
+			while (vm.running() && ticks < BUDGET && !vm.awaitingInput()) {
+				vm.tick();
+				ticks++;
+			}
+			return ticks;
+		}
+		_runner.execute(BUDGET);
+		return _runner.getInstructionCount();
+	}
+}
@@ -0,0 +1,102 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import virtual_machine.MemoryException;
+import virtual_machine.MemorySystem;
+
+/**
+ * Access patterns the example programs put on main memory: word sweeps,
+ * byte sweeps like the sieves, scattered word access like linked lists,
+ * and the bulk operations. Every result is per word or byte touched.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MemoryBenchmark {
+
+	private static final int HEAP = 4000;
+	private static final int WORDS = 16 * 1024;
+
+	@Param({"MAP", "PAGED"})
+	public MemorySystem.Backend backend;
+
+	private MemorySystem _mem;
+	private int[] _scattered;
+	private int[] _buffer;
+
+	@Setup(Level.Iteration)
+	public void setup() throws MemoryException {
+		_mem = MemorySystem.create(backend);
+		_mem.fillWords(HEAP, WORDS, 1);
+		_scattered = new int[WORDS];
+		long seed = 42;
+		for (int i = 0; i < WORDS; i++) {
+			seed = seed * 6364136223846793005L + 1442695040888963407L;
+			_scattered[i] = HEAP + 4 * (int) ((seed >>> 33) % WORDS);
+		}
+		_buffer = new int[WORDS];
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(WORDS)
+	public void putWordSequential() throws MemoryException {
+		for (int i = 0; i < WORDS; i++) {
+			_mem.putMemory(HEAP + 4 * i, 4, i);
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(WORDS)
+	public int getWordSequential() throws MemoryException {
+		int sum = 0;
+		for (int i = 0; i < WORDS; i++) {
+			sum += _mem.getMemory(HEAP + 4 * i, 4);
+		}
+		return sum;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(WORDS * 4)
+	public int byteSweep() throws MemoryException {
+		int set = 0;
+		for (int a = HEAP; a < HEAP + WORDS * 4; a++) {
+			_mem.putMemory(a, 1, 0);
+			set += _mem.getMemory(a, 1);
+		}
+		return set;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(WORDS)
+	public int getWordScattered() throws MemoryException {
+		int sum = 0;
+		for (int address : _scattered) {
+			sum += _mem.getMemory(address, 4);
+		}
+		return sum;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(WORDS)
+	public void bulkPutWords() throws MemoryException {
+		_mem.putWords(HEAP, _buffer, 0, WORDS);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(WORDS)
+	public void bulkFillWords() throws MemoryException {
+		_mem.fillWords(HEAP, WORDS, 0);
+	}
+}
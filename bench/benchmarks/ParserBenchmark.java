@@ -0,0 +1,88 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import RISC.RiscvParse;
+import YAAL.YaalParse;
+import parse.ParseException;
+import parse.ParseOutput;
+
+/**
+ * Parses generated sources of a given number of repeated blocks. Each block is a
+ * small labelled loop, so the symbol table grows with the source.
+ * Labels may only contain letters, so block numbers are spelled in base 26.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ParserBenchmark {
+
+	@Param({"100", "1000"})
+	public int blocks;
+
+	private String _riscSource;
+	private String _yaalSource;
+
+	@Setup
+	public void generate() {
+		StringBuilder risc = new StringBuilder("main: addi s1, zero, 100\n");
+		for (int b = 0; b < blocks; b++) {
+			risc.append("loop").append(name(b)).append(": addi t0, t0, 1\n")
+				.append("\tslli t1, t0, 2\n")
+				.append("\tadd t1, sp, t1\n")
+				.append("\tsw t0, -4(t1)\n")
+				.append("\tlw t2, -4(t1)\n")
+				.append("\tslt t3, t0, s1\n")
+				.append("\tbne t3, zero, loop").append(name(b)).append('\n');
+		}
+		risc.append("exit: addi t0, t0, 0\n");
+		_riscSource = risc.toString();
+
+		StringBuilder yaal = new StringBuilder("function main()\n");
+		for (int b = 0; b < blocks; b++) {
+			yaal.append("\tcall f").append(name(b)).append("(").append(b).append(", 10)\n");
+		}
+		yaal.append("\treturn 0\n\n");
+		for (int b = 0; b < blocks; b++) {
+			yaal.append("function f").append(name(b)).append("($n, $m)\n")
+				.append("\t$r = 0\n")
+				.append("loop").append(name(b)).append(":\n")
+				.append("\tif $n >= $m goto done").append(name(b)).append('\n')
+				.append("\t$t = $n * 2\n")
+				.append("\t$r = $r + $t\n")
+				.append("\t$n = $n + 1\n")
+				.append("\tgoto loop").append(name(b)).append('\n')
+				.append("done").append(name(b)).append(":\n")
+				.append("\treturn $r\n\n");
+		}
+		_yaalSource = yaal.toString();
+	}
+
+	private static String name(int block) {
+		StringBuilder name = new StringBuilder();
+		do {
+			name.append((char) ('a' + block % 26));
+			block /= 26;
+		} while (block > 0);
+		return name.toString();
+	}
+
+	@Benchmark
+	public ParseOutput parseRisc() throws ParseException {
+		return new RiscvParse().parseSource(_riscSource);
+	}
+
+	@Benchmark
+	public ParseOutput parseYaal() throws ParseException {
+		return new YaalParse().parseSource(_yaalSource);
+	}
+}
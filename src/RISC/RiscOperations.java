@@ -8,7 +8,7 @@ import operation_syntax.OperationException;
 
 public class RiscOperations{
 
-	private static Map<String, Operation> _operations = new HashMap<>();
+	private static final Map<String, Operation> _operations = new HashMap<>();
 
 	public Map<String, Operation> getOperations() {
 		return _operations;
@@ -26,7 +26,8 @@ public class RiscOperations{
 		return _operations.get(op);
 	}
 
-	public RiscOperations(){
+	//filled once when the class loads, so parsers on different threads only read it
+	static {
 		_operations.put("add", Operation.ADD);
 		_operations.put("sub", Operation.SUB);
 		_operations.put("sll", Operation.SHIFT_LEFT);
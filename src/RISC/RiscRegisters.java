@@ -14,4 +14,14 @@ public class RiscRegisters {
 					"t3", "t4", "t5", "t6"));
 	public static final Set<String> READ_ONLY = new HashSet<>(Arrays.asList("zero"));
 	public static final String SYSCALL = "a7";
-}
\ No newline at end of file
+
+	//register file indexes, in the order of REGISTERS
+	public static final int ZERO_INDEX = 0;
+	public static final int SP_INDEX = REGISTERS.indexOf("sp");
+	public static final int A0_INDEX = REGISTERS.indexOf("a0");
+	public static final int SYSCALL_INDEX = REGISTERS.indexOf(SYSCALL);
+
+	public static int indexOf(String register) {
+		return REGISTERS.indexOf(register);
+	}
+}
@@ -55,7 +55,7 @@ public class RiscvParse implements ParseInterface {
 	public intermediateRepresentation parseTextLine(String code, int sourceLine) throws ParseException {
 
 		pseudo = "";
-		Pattern p = Pattern.compile("^([a-z]+)\\b(.*)"); // split into command and rest of line
+		Pattern p = Pattern.compile("^([a-z]+(?:\\.[a-z]+)*)\\b(.*)"); // split into command and rest of line
 		Matcher m = p.matcher(code);
 		if (m.matches()) {
 			String command = m.group(1);
@@ -232,6 +232,9 @@ public class RiscvParse implements ParseInterface {
 
 			} else if(command.equals("ecall")) {
 				return parseSysCall(command, rest, sourceLine);
+
+			} else if (command.matches("(lr|sc|amoadd|amoswap)\\.w(\\.aq|\\.rl|\\.aqrl)?")) {
+				return parseAtomic(command, rest, sourceLine);
 			}else {
 				throw new ParseException("invalid command: " + command, sourceLine);
 			}
@@ -392,6 +395,40 @@ public class RiscvParse implements ParseInterface {
 	}
 
 
+	/**
+	 * lr.w rd, (rs1) and sc.w / amoadd.w / amoswap.w rd, rs2, (rs1). Every atomic is
+	 * sequentially consistent, so .aq and .rl are accepted and change nothing.
+	 */
+	private intermediateRepresentation parseAtomic(String command, String rest, int sourceLine)
+			throws ParseException {
+
+		String name = command.substring(0, command.indexOf('.'));
+		if (name.equals("lr")) {
+			Matcher raMatcher = ParseRegex.REG_ADDRESS.matcher(rest);
+			if (raMatcher.matches()) {
+				return new Atomic(Atomic.Kind.LOAD_RESERVED, parseRegister(raMatcher.group(1), command, sourceLine),
+						parseRegister(raMatcher.group(2), command, sourceLine), null);
+			}
+		} else {
+			Matcher rraMatcher = ParseRegex.REG_REG_ADDRESS.matcher(rest);
+			if (rraMatcher.matches()) {
+				Atomic.Kind kind = name.equals("sc") ? Atomic.Kind.STORE_CONDITIONAL
+						: name.equals("amoadd") ? Atomic.Kind.ADD : Atomic.Kind.SWAP;
+				return new Atomic(kind, parseRegister(rraMatcher.group(1), command, sourceLine),
+						parseRegister(rraMatcher.group(3), command, sourceLine),
+						parseRegister(rraMatcher.group(2), command, sourceLine));
+			}
+		}
+		throw new ParseException("bad syntax for command: " + command, sourceLine);
+	}
+
+	private Abs_Expression parseRegister(String r, String command, int sourceLine) throws ParseException {
+		if (!RiscRegisters.REGISTERS.contains(r.trim())) {
+			throw new ParseException("expected a register in command " + command + ": " + r, sourceLine);
+		}
+		return parseElement(r, sourceLine);
+	}
+
 	private intermediateRepresentation parseSysCall(String command, String rest, int sourceLine) 
 			throws ParseException {
 
@@ -411,7 +448,7 @@ public class RiscvParse implements ParseInterface {
 		if (_data.containsLabel(r)) {
 			return new DataLabel(r);
 		} else if (RiscRegisters.REGISTERS.contains(r)) {
-			return new Temporary(r, true);
+			return new Temporary(r, true, RiscRegisters.indexOf(r));
 		} else if (hexMatcher.matches()) {
 			r = r.substring(2); //trim 0x
 			return new Literal(Integer.parseInt(r, 16));
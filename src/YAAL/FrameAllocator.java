@@ -0,0 +1,121 @@
+package YAAL;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import intermediateRepresentation.Abs_Expression;
+import intermediateRepresentation.BinOp;
+import intermediateRepresentation.Branch;
+import intermediateRepresentation.Call;
+import intermediateRepresentation.Jump;
+import intermediateRepresentation.MemoryAddress;
+import intermediateRepresentation.Move;
+import intermediateRepresentation.Return;
+import intermediateRepresentation.Temporary;
+import intermediateRepresentation.intermediateRepresentation;
+import parse.FrameLayout;
+import parse.Instructions;
+import parse.SymbolTable;
+import util.Pair;
+
+/**
+ * Pass run after YAAL parsing: splits the code into functions at their labels
+ * and gives each function's temporaries dense slot numbers, written back onto
+ * the Temporary objects so the VM can keep them in array frames.
+ */
+public class FrameAllocator {
+
+	public static FrameLayout allocate(Instructions instructions, SymbolTable st, 
+			Map<String, String[]> functToParams) {
+
+		//function entry points, in code order
+		List<Pair<Integer, String>> entries = new ArrayList<>();
+		boolean hasEntry = false;
+		for (String label : st.getLabels()) {
+			if (functToParams.containsKey(label)) {
+				int line = st.getCodeLine(label);
+				entries.add(new Pair<Integer, String>(line, label));
+				hasEntry |= line == 0;
+			}
+		}
+		if (!hasEntry) {
+			entries.add(new Pair<Integer, String>(0, ""));
+		}
+		entries.sort((a, b) -> Integer.compare(a.first(), b.first()));
+
+		List<Pair<intermediateRepresentation, Integer>> code = instructions.getList();
+		FrameLayout layout = new FrameLayout();
+		for (int f = 0; f < entries.size(); f++) {
+			int start = entries.get(f).first();
+			int end = f + 1 < entries.size() ? entries.get(f + 1).first() : code.size();
+			String name = entries.get(f).second();
+
+			Map<String, Integer> slots = new LinkedHashMap<>();
+			int params = functToParams.containsKey(name) ? functToParams.get(name).length : 0;
+			for (int n = 0; n < params; n++) {
+				slots.put("@" + n, n);
+			}
+			for (int pc = start; pc < end; pc++) {
+				assignInstr(code.get(pc).first(), slots);
+			}
+			layout.addFrame(makeFrame(name, slots), start == 0);
+		}
+		return layout;
+	}
+
+	private static FrameLayout.Frame makeFrame(String name, Map<String, Integer> slots) {
+		String[] slotNames = slots.keySet().toArray(new String[0]);
+		int args = 0;
+		while (slots.containsKey("@" + args)) {
+			args++;
+		}
+		int[] argSlots = new int[args];
+		for (int n = 0; n < args; n++) {
+			argSlots[n] = slots.get("@" + n);
+		}
+		return new FrameLayout.Frame(name, slotNames, argSlots);
+	}
+
+	private static void assignInstr(intermediateRepresentation i, Map<String, Integer> slots) {
+		if (i instanceof Move) {
+			assignExp(((Move) i).getDestination(), slots);
+			assignExp(((Move) i).getSource(), slots);
+		} else if (i instanceof Branch) {
+			assignExp(((Branch) i).getRelOp(), slots);
+			assignExp(((Branch) i).getDestination(), slots);
+		} else if (i instanceof Call) {
+			assignExp(((Call) i).getDestReg(), slots);
+			if (((Call) i).getArgs() != null) {
+				for (Abs_Expression a : ((Call) i).getArgs()) {
+					assignExp(a, slots);
+				}
+			}
+		} else if (i instanceof Return) {
+			assignExp(((Return) i).getValue(), slots);
+		} else if (i instanceof Jump) {
+			assignExp(((Jump) i).getRegForPC(), slots);
+			assignExp(((Jump) i).getTarget(), slots);
+		}
+	}
+
+	private static void assignExp(Abs_Expression e, Map<String, Integer> slots) {
+		if (e instanceof Temporary) {
+			Temporary t = (Temporary) e;
+			if (!t.isGlobal()) {
+				Integer slot = slots.get(t.get());
+				if (slot == null) {
+					slot = slots.size();
+					slots.put(t.get(), slot);
+				}
+				t.setIndex(slot);
+			}
+		} else if (e instanceof BinOp) {
+			assignExp(((BinOp) e).getArg1(), slots);
+			assignExp(((BinOp) e).getArg2(), slots);
+		} else if (e instanceof MemoryAddress) {
+			assignExp(((MemoryAddress) e).getAddress(), slots);
+		}
+	}
+}
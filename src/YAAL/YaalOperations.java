@@ -7,13 +7,14 @@ import operation_syntax.Operation;
 
 public class YaalOperations {
 	
-	private static Map<String, Operation> _operations = new HashMap<>();
+	private static final Map<String, Operation> _operations = new HashMap<>();
 
 	public Operation opOf(String op) {
 		return _operations.get(op);
 	}
 	
-	public YaalOperations() {
+	//filled once when the class loads, so parsers on different threads only read it
+	static {
 		_operations.put("+",Operation.ADD);
 		_operations.put("-", Operation.SUB);
 		_operations.put("*", Operation.MULT);
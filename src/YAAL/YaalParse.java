@@ -18,6 +18,7 @@ import intermediateRepresentation.Temporary;
 import intermediateRepresentation.Return;
 import intermediateRepresentation.Symbol;
 import operation_syntax.Operation;
+import parse.FrameLayout;
 import parse.HiToLowTranslate;
 import parse.Instructions;
 import parse.ParseException;
@@ -45,7 +46,7 @@ public class YaalParse implements ParseInterface {
 
 		syntax = new HiToLowTranslate();
 		yaalSyntax = syntax.hiToLowSyntax(source);
-		System.out.println(yaalSyntax);        //Uncomment for intermediate yaal debugging
+		//System.out.println(yaalSyntax);        //Uncomment for intermediate yaal debugging
 
 		PreParseOutput p = 
 				Preprocess.preprocess(yaalSyntax, "yaal");
@@ -60,7 +61,8 @@ public class YaalParse implements ParseInterface {
 			}
 			yaalCodes.add(new Pair<intermediateRepresentation, Integer>(ir, codePair.second()));
 		}
-		return new ParseOutput(_st, yaalCodes);
+		FrameLayout frames = FrameAllocator.allocate(yaalCodes, _st, syntax.getFunctMap());
+		return new ParseOutput(_st, yaalCodes, frames);
 	}
 
 	public intermediateRepresentation parseTextLine(String code, int sourceLine) throws ParseException {
@@ -161,7 +163,7 @@ public class YaalParse implements ParseInterface {
 				throw new ParseException("not enough arguments for " + sym, sourceLine);
 			}
 		} else if (sym.equals("_print") || sym.equals("_print_string") ||
-				sym.equals("_allocate") || sym.equals("_random") || sym.equals("_print_char")) {
+				sym.equals("_allocate") || sym.equals("_free") || sym.equals("_random") || sym.equals("_print_char")) {
 			if (absArgs.size() > 1) {
 				throw new ParseException("too many arguments for " + sym, sourceLine);
 			}
@@ -5,6 +5,7 @@ import java.util.List;
 
 import RISC.RiscRegisters;
 import intermediateRepresentation.Abs_Expression;
+import intermediateRepresentation.Atomic;
 import intermediateRepresentation.intermediateRepresentation;
 import intermediateRepresentation.BinOp;
 import intermediateRepresentation.Branch;
@@ -18,51 +19,92 @@ import intermediateRepresentation.Symbol;
 import intermediateRepresentation.SysCall;
 import operation_syntax.Operation;
 import parse.Data;
+import parse.Instructions;
 import parse.ParseException;
 import parse.SymbolTable;
+import util.Pair;
 
 /**
  * A class that takes abstract instructions and translates them to
  * RISC-V machine code. The method parseAbstracts takes an ArrayList
  * of abstract instructions and returns an ArrayList of corresponding
  * integers representing machine code, with a one-to-one relationship
- * between each ArrayList.
+ * between each ArrayList. Instruction i is meant to sit at byte address
+ * 4 * i from the start of the code, and branches and jumps are encoded
+ * relative to that, so the words run as they are on MachineVM.
+ * la has no single RV32I form; it is encoded under DATA_OPCODE with
+ * the label's data index as a U type immediate. An instance holds the
+ * labels and data of one program, so programs can be encoded at once.
  */
 public class AbsToMachine {
 	//Temporary until we get the ra register from user
 	public final static Temporary RA = new Temporary("ra");
-	private static SymbolTable _st;
-	private static Data _data;
+	private final SymbolTable _st;
+	private final Data _data;
+
+	/**
+	 * @param st - the labels branches and jumps are resolved with
+	 * @param d - the data section la instructions index into
+	 */
+	public AbsToMachine(SymbolTable st, Data d) {
+		_st = st;
+		_data = d;
+	}
 
 	public static ArrayList<Integer> parseAbstracts
 	(List<intermediateRepresentation> abs, SymbolTable st, Data d) throws ParseException {
+		AbsToMachine encoder = new AbsToMachine(st, d);
 		ArrayList<Integer> mc = new ArrayList<Integer>();
-		_st = st;
-		_data = d;
-		for (intermediateRepresentation a : abs) {
-			int i = parseInstruction(a);
-			mc.add(i);
+		for (int line = 0; line < abs.size(); line++) {
+			mc.add(encoder.parseInstruction(abs.get(line), line));
+		}
+		return mc;
+	}
+
+	/**
+	 * Encodes parsed instructions like parseAbstracts does the bare ones, but an instruction
+	 * that has no machine code form is reported on its source line.
+	 */
+	public static ArrayList<Integer> parseAbstracts
+	(Instructions abs, SymbolTable st, Data d) throws ParseException {
+		AbsToMachine encoder = new AbsToMachine(st, d);
+		ArrayList<Integer> mc = new ArrayList<Integer>();
+		List<Pair<intermediateRepresentation, Integer>> list = abs.getList();
+		for (int line = 0; line < list.size(); line++) {
+			try {
+				mc.add(encoder.parseInstruction(list.get(line).first(), line));
+			}catch (ParseException e) {
+				if (e.getLineNumber() != null) {
+					throw e;
+				}
+				throw new ParseException(e.getMessage(), list.get(line).second());
+			}
 		}
 		return mc;
 	}
 
-	public static int parseInstruction(intermediateRepresentation i) throws ParseException {
+	/**
+	 * @param line - the index of i in the program, which branch and jump offsets are taken from
+	 */
+	public int parseInstruction(intermediateRepresentation i, int line) throws ParseException {
 
 		if (i instanceof Move) {
 			return moveCode((Move) i);
 		} else if (i instanceof Branch) {
-			return branchCode((Branch) i);
+			return branchCode((Branch) i, line);
 		} else if (i instanceof Jump) {
-			return jumpCode((Jump) i);
+			return jumpCode((Jump) i, line);
 		} else if (i instanceof SysCall) {
 			return MachineNumber.SYSCALL_OPCODE;
+		} else if (i instanceof Atomic) {
+			return atomicCode((Atomic) i);
 		} else {
 			throw new ParseException
 			("Disassembly not implemented for instruction", null);
 		}
 	}
 
-	public static int moveCode(Move i) throws ParseException {
+	public int moveCode(Move i) throws ParseException {
 		int machine = 0;
 
 
@@ -110,14 +152,8 @@ public class AbsToMachine {
 
 				Abs_Expression arg1 = ((BinOp) address).getArg1();
 				if (arg1 instanceof Literal) {
-					int imm = ((Literal) arg1).get();
-
-					machine += (imm & MachineNumber.BITS_4TO0_MASK) 
-							<< MachineNumber.BITS_4TO1_SHAMT;
-
-					machine += (imm & MachineNumber.BITS_11TO5_MASK)
-							<< MachineNumber.BITS_11TO5_SHAMT;
-
+					int imm = checkImmediate(((Literal) arg1).get());
+					machine += MachineNumber.sEncode(imm);
 					machine += funct3 << MachineNumber.FUNCT3_SHAMT;
 				} else {
 					throw new ParseException
@@ -249,7 +285,7 @@ public class AbsToMachine {
 
 
 			}else if (arg2 instanceof Literal) {
-				int imm = ((Literal) arg2).get();
+				int imm = checkImmediate(((Literal) arg2).get());
 				machine += imm << MachineNumber.I_IMM_SHAMT;
 				//ADDI INSTRUCTION
 				if (op.equals(Operation.ADD)) { 
@@ -321,7 +357,8 @@ public class AbsToMachine {
 			String s = ((DataLabel) src).getLabel().get();
 			if (_data.containsLabel(s)) {
 				Integer val = _data.getVal(s);
-				machine += val;
+				machine += MachineNumber.DATA_OPCODE;
+				machine += val << MachineNumber.U_IMM_SHAMT;
 			} else {
 				throw new ParseException("undefined data label " + s, null);
 			}
@@ -356,7 +393,7 @@ public class AbsToMachine {
 
 				Abs_Expression arg1 = ((BinOp) address).getArg1();
 				if (arg1 instanceof Literal) {
-					int imm = ((Literal) arg1).get();
+					int imm = checkImmediate(((Literal) arg1).get());
 					machine += imm << MachineNumber.I_IMM_SHAMT;
 					machine += funct3 << MachineNumber.FUNCT3_SHAMT;
 				} else {
@@ -389,7 +426,7 @@ public class AbsToMachine {
 		return machine;
 	}
 
-	public static int branchCode(Branch i) throws ParseException {
+	public int branchCode(Branch i, int line) throws ParseException {
 		int machine = 0;
 		Abs_Expression relOp = ((Branch) i).getRelOp();
 		if (relOp instanceof BinOp) {
@@ -458,20 +495,8 @@ public class AbsToMachine {
 
 		Abs_Expression dest = ((Branch) i).getDestination();
 		if (dest instanceof Symbol) {
-			String s = ((Symbol) dest).get();
-			int linePos = _st.getCodeLine(s);
-
-			machine += (linePos & MachineNumber.BIT_12_MASK_INT)
-					<< MachineNumber.BIT_12_SHAMT;
-
-			machine += (linePos & MachineNumber.BITS_10TO5_MASK_INT)
-					<< MachineNumber.BITS_10TO5_SHAMT;
-
-			machine += (linePos & MachineNumber.BITS_4TO1_MASK_INT)
-					<< MachineNumber.BITS_4TO1_SHAMT;
-
-			machine += (linePos & MachineNumber.BIT_11_MASK)
-					<< MachineNumber.B_BIT_11_SHAMT;
+			int offset = offsetTo((Symbol) dest, line, MachineNumber.B_OFFSET_LIMIT);
+			machine += MachineNumber.bEncode(offset);
 
 		} else {
 			throw new ParseException
@@ -481,41 +506,24 @@ public class AbsToMachine {
 		return machine;
 	}
 
-	public static int jumpCode(Jump i) throws ParseException {
+	public int jumpCode(Jump i, int line) throws ParseException {
 		int machine = 0;
 		Abs_Expression dest = i.getTarget();
+		Abs_Expression link = i.getRegForPC();
+		if (link instanceof Temporary) {
+			int rd = RiscRegisters.REGISTERS.indexOf(((Temporary) link).get());
+			machine += rd << MachineNumber.RD_SHAMT;
+		}
 
 		if (dest instanceof Symbol) {
 			machine += MachineNumber.JAL_OPCODE; //jal opcode
-			String s = ((Symbol) dest).get();
-			int linePos = _st.getCodeLine(s);
+			int offset = offsetTo((Symbol) dest, line, MachineNumber.J_OFFSET_LIMIT);
+			machine += MachineNumber.jEncode(offset);
 
-			machine += (linePos & MachineNumber.BIT_12_MASK_INT)
-					<< MachineNumber.BIT_12_SHAMT;
-
-			machine += (linePos & MachineNumber.BITS_19TO12_MASK_INT)
-					<< MachineNumber.UPPER_MIDDLE_BITS_SHAMT;
-
-			machine += (linePos & MachineNumber.BITS_10TO1_MASK_INT)
-					<< MachineNumber.BITS_10TO1_SHAMT;
-
-			machine += (linePos & MachineNumber.BIT_11_MASK)
-					<< MachineNumber.J_BIT_11_SHAMT;
 		} else if (dest instanceof Temporary) { 
-			machine += MachineNumber.JAL_OPCODE; //jalr opcode
-			int val =  RiscRegisters.REGISTERS.indexOf(((Temporary) dest).get());
-
-			machine += (val & MachineNumber.BIT_12_MASK_INT)
-					<< MachineNumber.BIT_12_SHAMT;
-
-			machine += (val & MachineNumber.BITS_19TO12_MASK_INT)
-					<< MachineNumber.UPPER_MIDDLE_BITS_SHAMT;
-
-			machine += (val & MachineNumber.BITS_10TO1_MASK_INT)
-					<< MachineNumber.BITS_10TO1_SHAMT;
-
-			machine += (val & MachineNumber.BIT_11_MASK)
-					<< MachineNumber.J_BIT_11_SHAMT;
+			machine += MachineNumber.JALR_OPCODE; //jalr opcode, offset 0
+			int rs1 =  RiscRegisters.REGISTERS.indexOf(((Temporary) dest).get());
+			machine += rs1 << MachineNumber.RS1_SHAMT;
 		} else {
 			throw new ParseException
 			("Invalid destination type in Jump " + 
@@ -524,4 +532,62 @@ public class AbsToMachine {
 
 		return machine;
 	}
-}
\ No newline at end of file
+
+	/**
+	 * R type layout with funct5 in place of funct7; the aq and rl bits are left clear.
+	 */
+	public static int atomicCode(Atomic i) throws ParseException {
+		int funct5;
+		switch (i.getKind()) {
+		case LOAD_RESERVED:
+			funct5 = MachineNumber.LR_FUNCT5;
+			break;
+		case STORE_CONDITIONAL:
+			funct5 = MachineNumber.SC_FUNCT5;
+			break;
+		case SWAP:
+			funct5 = MachineNumber.AMOSWAP_FUNCT5;
+			break;
+		default:
+			funct5 = MachineNumber.AMOADD_FUNCT5;
+		}
+		int machine = MachineNumber.AMO_OPCODE;
+		machine += funct5 << MachineNumber.FUNCT5_SHAMT;
+		machine += MachineNumber.AMO_W_FUNCT3 << MachineNumber.FUNCT3_SHAMT;
+		machine += registerIndex(i.getDestination()) << MachineNumber.RD_SHAMT;
+		machine += registerIndex(i.getAddress()) << MachineNumber.RS1_SHAMT;
+		if (i.getValue() != null) {
+			machine += registerIndex(i.getValue()) << MachineNumber.RS2_SHAMT;
+		}
+		return machine;
+	}
+
+	private static int registerIndex(Abs_Expression e) throws ParseException {
+		if (!(e instanceof Temporary) || RiscRegisters.indexOf(((Temporary) e).get()) < 0) {
+			throw new ParseException("expected a register, found " + e, null);
+		}
+		return RiscRegisters.indexOf(((Temporary) e).get());
+	}
+
+	/**
+	 * @return the byte offset from line to the line label is on
+	 */
+	private int offsetTo(Symbol label, int line, int limit) throws ParseException {
+		String s = label.get().trim();
+		if (!_st.containsSymbol(s)) {
+			throw new ParseException("undefined label " + s, null);
+		}
+		int offset = (_st.getCodeLine(s) - line) * MachineNumber.WORD_SIZE;
+		if (offset < -limit || offset >= limit) {
+			throw new ParseException("label " + s + " is too far away for machine code", null);
+		}
+		return offset;
+	}
+
+	private static int checkImmediate(int imm) throws ParseException {
+		if (imm < MachineNumber.I_IMM_MIN || imm > MachineNumber.I_IMM_MAX) {
+			throw new ParseException("immediate " + imm + " does not fit in 12 bits of machine code", null);
+		}
+		return imm;
+	}
+}
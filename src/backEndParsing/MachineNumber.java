@@ -13,6 +13,7 @@ public class MachineNumber {
 	public static final int JALR_OPCODE = 103;
 	public static final int SYSCALL_OPCODE = 115;
 	public static final int DATA_OPCODE = 1; //just chose a value for this...
+	public static final int AMO_OPCODE = 47;
 //-------------------------------------------------------------------
 	
 //--------RISC V funct3 and funct7 codes-----------------------------
@@ -76,6 +77,13 @@ public class MachineNumber {
 	public static final int BGE_FUNCT3 = 5;
 	public static final int BLTU_FUNCT3 = 6;
 	public static final int BGEU_FUNCT3 = 7;
+	
+	//A extension, funct5 sits above the aq and rl bits
+	public static final int AMO_W_FUNCT3 = 2;
+	public static final int AMOADD_FUNCT5 = 0;
+	public static final int AMOSWAP_FUNCT5 = 1;
+	public static final int LR_FUNCT5 = 2;
+	public static final int SC_FUNCT5 = 3;
 //-------------------------------------------------------------------
 	
 //--------Byte amounts for load/store instructions-------------------
@@ -139,6 +147,7 @@ public class MachineNumber {
 	
 	//For R type instructions...
 	public static final int FUNCT7_SHAMT = 25;	
+	public static final int FUNCT5_SHAMT = 27;
 	
 	//For I type instructions...
     public static final int I_IMM_SHAMT = 20; 
@@ -169,6 +178,46 @@ public class MachineNumber {
     public static final int BITS_10TO1_SHAMT = 21;
     public static final int J_BIT_11_SHAMT = 20;
 
+//--------Immediate fields------------------------------------------
+    //Branch and jump immediates are byte offsets from the instruction's own address.
+    public static final int I_IMM_MIN = -2048;
+    public static final int I_IMM_MAX = 2047;
+    public static final int B_OFFSET_LIMIT = 1 << 12;
+    public static final int J_OFFSET_LIMIT = 1 << 20;
+
+    public static int iImmediate(int instruct) {
+    	return instruct >> I_IMM_SHAMT;
+    }
+
+    public static int sImmediate(int instruct) {
+    	return ((instruct >> FUNCT7_SHAMT) << 5) | ((instruct >>> RD_SHAMT) & BITS_4TO0_MASK);
+    }
+
+    public static int sEncode(int imm) {
+    	return ((imm & BITS_4TO0_MASK) << RD_SHAMT) | ((imm & BITS_11TO5_MASK) << (FUNCT7_SHAMT - 5));
+    }
+
+    public static int bImmediate(int instruct) {
+    	return ((instruct >> 31) << 12) | (((instruct >>> 7) & 1) << 11)
+    			| (((instruct >>> 25) & 0x3F) << 5) | (((instruct >>> 8) & 0xF) << 1);
+    }
+
+    public static int bEncode(int offset) {
+    	return (((offset >> 12) & 1) << 31) | (((offset >> 5) & 0x3F) << 25)
+    			| (((offset >> 1) & 0xF) << 8) | (((offset >> 11) & 1) << 7);
+    }
+
+    public static int jImmediate(int instruct) {
+    	return ((instruct >> 31) << 20) | (((instruct >>> 12) & 0xFF) << 12)
+    			| (((instruct >>> 20) & 1) << 11) | (((instruct >>> 21) & 0x3FF) << 1);
+    }
+
+    public static int jEncode(int offset) {
+    	return (((offset >> 20) & 1) << 31) | (((offset >> 1) & 0x3FF) << 21)
+    			| (((offset >> 11) & 1) << 20) | (((offset >> 12) & 0xFF) << 12);
+    }
+//-------------------------------------------------------------------
+
 //--------Miscellaneous----------------------------------------------s
     public static final int SRAI_BIT = 0x40000000; 
     public static final int RA_SHAMT = 7;
@@ -5,6 +5,7 @@ import java.util.ArrayList;
 import RISC.RiscOperations;
 import RISC.RiscRegisters;
 import intermediateRepresentation.Abs_Expression;
+import intermediateRepresentation.Atomic;
 import intermediateRepresentation.intermediateRepresentation;
 import intermediateRepresentation.BinOp;
 import intermediateRepresentation.Branch;
@@ -34,7 +35,8 @@ public class MachineToAbs {
 	
 	public ArrayList<intermediateRepresentation> constructCode(ArrayList<Integer> raw) throws ParseException {
 		ArrayList<intermediateRepresentation> instruct = new ArrayList<intermediateRepresentation>();
-		for (int i : raw) {
+		for (int line = 0; line < raw.size(); line++) {
+			int i = raw.get(line);
 			int op = i & MachineNumber.OP_MASK;
 			switch (op) {
 				case MachineNumber.R_OPCODE: //R instruction
@@ -51,17 +53,22 @@ public class MachineToAbs {
 					instruct.add(translateSLineToAbs(rParse(i))); 
 					break;
 				case MachineNumber.B_OPCODE: //B instruction
-					instruct.add(translateBLineToAbs(bParse(i)));
+					instruct.add(translateBLineToAbs(bParse(i), line));
 					break;
-				case MachineNumber.JAL_OPCODE: //J instructions 
-				case MachineNumber.JALR_OPCODE:
-					instruct.add(translateJLineToAbs(jParse(i)));
+				case MachineNumber.JAL_OPCODE: //J instruction
+					instruct.add(translateJLineToAbs(jParse(i), line));
+					break;
+				case MachineNumber.JALR_OPCODE: //jalr, I format
+					instruct.add(translateJalrToAbs(iParse(i)));
 					break;
 				case MachineNumber.SYSCALL_OPCODE:
 					instruct.add(translateSysCallToAbs());
 					break;
+				case MachineNumber.AMO_OPCODE: //lr, sc and amos, R format
+					instruct.add(translateAtomicToAbs(rParse(i)));
+					break;
 				default:
-					throw new ParseException("Invalid opcode: " + (op) + " " + raw.indexOf(i), null);
+					throw new ParseException("Invalid opcode: " + (op) + " " + line, null);
 			}
 		}
 		return instruct;	
@@ -100,16 +107,7 @@ public class MachineToAbs {
 	
 	public int[] bParse(int instruct) {
 		int[] tokens = new int[4]; //only 8 tokens in a B format instruction, immediates combine
-		int upper_bit = (instruct & MachineNumber.BIT_12_MASK_MACHINE) 
-					 	 >> MachineNumber.B_UPPER_BIT_SHAMT; //want highest bit to still represent accurate value
-		int second_upper_bit = (instruct & MachineNumber.BIT_11_MASK_B)
-								<< MachineNumber.SECOND_UPPER_BIT_SHAMT;
-		int middle_bits = (instruct & MachineNumber.BITS_10TO5_MASK_MACHINE)
-					  	  >> MachineNumber.MIDDLE_BITS_SHAMT;
-		int lower_bits = (instruct & MachineNumber.BITS_4TO1_MASK_MACHINE)
-					 	  >> MachineNumber.B_LOWER_BITS_SHAMT;
-		tokens[0] =  (upper_bit + second_upper_bit + middle_bits + lower_bits) 
-					 << MachineNumber.B_IMM_SHAMT; //since we discarded last bit during assembly, need to bring it back
+		tokens[0] = MachineNumber.bImmediate(instruct); //byte offset from this instruction
 		tokens[1] = (instruct & MachineNumber.RS2_MASK)
 					 >> MachineNumber.RS2_SHAMT;
 		tokens[2] = (instruct & MachineNumber.RS1_MASK)
@@ -121,16 +119,7 @@ public class MachineToAbs {
 	
 	public int[] jParse(int instruct) {
 		int[] tokens = new int[2]; //only 6 tokens in a J format instruction, immediates combine
-		
-		int upper_bit = (instruct & MachineNumber.BIT_12_MASK_MACHINE) 
-						>> MachineNumber.J_UPPER_BIT_SHAMT;
-		int upper_middle_bits = (instruct & MachineNumber.BITS_19TO12_MASK_MACHINE) 
-								 >> MachineNumber.UPPER_MIDDLE_BITS_SHAMT;
-		int bit_11 = (instruct & MachineNumber.BIT_11_MASK_J) 
-					  >> MachineNumber.BIT_11_SHAMT_MACHINE;
-		int lower_bits = ( instruct & MachineNumber.BITS_10TO1_MASK_MACHINE)
-						 >> MachineNumber.J_LOWER_BITS_SHAMT;
-		tokens[0] = upper_bit + upper_middle_bits + bit_11 + lower_bits;
+		tokens[0] = MachineNumber.jImmediate(instruct); //byte offset from this instruction
 		tokens[1] = (instruct & MachineNumber.RD_MASK) 
 					>> MachineNumber.RD_SHAMT;
 		return tokens;
@@ -211,7 +200,7 @@ public class MachineToAbs {
 			command = "srli";
 		} else if (token[4] == MachineNumber.I_OPCODE && 
 				   token[2] == MachineNumber.SRAI_FUNCT3 &&
-				   token[5] == 1) {
+				   token[5] != 0) {
 			command = "srai";
 		} else if (token[4] == MachineNumber.I_OPCODE && 
 				   token[2] == MachineNumber.SLTI_FUNCT3) {
@@ -234,7 +223,9 @@ public class MachineToAbs {
 		
 		Abs_Expression rd = new Temporary(RiscRegisters.REGISTERS.get(token[3]));
 		Abs_Expression rs1 = new Temporary(RiscRegisters.REGISTERS.get(token[1]));
-		Abs_Expression imm = new Literal(token[0]);
+		int value = token[2] == MachineNumber.SLLI_FUNCT3 || token[2] == MachineNumber.SRLI_FUNCT3
+				? token[0] & MachineNumber.BITS_4TO0_MASK : token[0]; //shift amounts leave out the srai bit
+		Abs_Expression imm = new Literal(value);
 		Abs_Expression source = new BinOp(parseOp(command), rs1, imm);
 		intermediateRepresentation a = new Move(rd, source);
 		return a;
@@ -274,15 +265,16 @@ public class MachineToAbs {
 		}
 		
 		Abs_Expression rs2 = new Temporary(RiscRegisters.REGISTERS.get(token[1]));
-		Abs_Expression imm = new Literal(token[4] + token[0]);
+		//funct7 holds the sign extended upper immediate, rd the lower five bits
+		Abs_Expression imm = new Literal((token[0] << 5) + token[4]);
 	    Abs_Expression rs1 = new Temporary(RiscRegisters.REGISTERS.get(token[2]));
 		Abs_Expression binop = new BinOp(parseOp("add"), imm, rs1);
-		Abs_Expression source = new MemoryAddress(binop, bytes);
-		intermediateRepresentation a = new Move(rs2, source);
+		Abs_Expression dest = new MemoryAddress(binop, bytes);
+		intermediateRepresentation a = new Move(dest, rs2);
 		return a;
 	}
 	
-	public intermediateRepresentation translateBLineToAbs(int[] token) throws ParseException {
+	public intermediateRepresentation translateBLineToAbs(int[] token, int line) throws ParseException {
 		String command = null;
 		if (token[3] == MachineNumber.BEQ_FUNCT3) {
 			command = "beq";
@@ -302,23 +294,54 @@ public class MachineToAbs {
 		
 		Abs_Expression rs1 = new Temporary(RiscRegisters.REGISTERS.get(token[2]));
 		Abs_Expression rs2 = new Temporary(RiscRegisters.REGISTERS.get(token[1])); 
-		Abs_Expression imm = new Literal(token[0]); 
-		Abs_Expression symbol = new Symbol("line" + imm);
+		int target = line + token[0] / MachineNumber.WORD_SIZE;
+		Abs_Expression symbol = new Symbol("line" + target);
 		Abs_Expression binop = new BinOp(parseOp(command), rs1, rs2);
 		intermediateRepresentation branch = new Branch(binop, symbol);
 		return branch;
 	}
 	
-	public intermediateRepresentation translateJLineToAbs(int[] token) {
+	public intermediateRepresentation translateJLineToAbs(int[] token, int line) {
 		//"j" instruction
 		Abs_Expression rd = new Temporary(RiscRegisters.REGISTERS.get(token[1]));
 		
-		Abs_Expression imm = new Literal(token[0]);
-		Abs_Expression newLabel = new Symbol("line" + imm);
+		int target = line + token[0] / MachineNumber.WORD_SIZE;
+		Abs_Expression newLabel = new Symbol("line" + target);
 		intermediateRepresentation jump = new Jump(rd, newLabel);
 		return jump;
 	}
 	
+	public intermediateRepresentation translateJalrToAbs(int[] token) {
+		Abs_Expression rd = new Temporary(RiscRegisters.REGISTERS.get(token[3]));
+		Abs_Expression rs1 = new Temporary(RiscRegisters.REGISTERS.get(token[1]));
+		return new Jump(rd, rs1);
+	}
+	
+	public intermediateRepresentation translateAtomicToAbs(int[] token) throws ParseException {
+		int funct5 = token[0] >> 2; //funct7 without the aq and rl bits
+		Atomic.Kind kind;
+		if (funct5 == MachineNumber.LR_FUNCT5) {
+			kind = Atomic.Kind.LOAD_RESERVED;
+		} else if (funct5 == MachineNumber.SC_FUNCT5) {
+			kind = Atomic.Kind.STORE_CONDITIONAL;
+		} else if (funct5 == MachineNumber.AMOSWAP_FUNCT5) {
+			kind = Atomic.Kind.SWAP;
+		} else if (funct5 == MachineNumber.AMOADD_FUNCT5) {
+			kind = Atomic.Kind.ADD;
+		} else {
+			throw new ParseException("Invalid atomic command " + funct5, null);
+		}
+		if (token[3] != MachineNumber.AMO_W_FUNCT3) {
+			throw new ParseException("Only word atomics are supported", null);
+		}
+
+		Abs_Expression rd = new Temporary(RiscRegisters.REGISTERS.get(token[4]));
+		Abs_Expression rs1 = new Temporary(RiscRegisters.REGISTERS.get(token[2]));
+		Abs_Expression rs2 = kind == Atomic.Kind.LOAD_RESERVED ? null
+				: new Temporary(RiscRegisters.REGISTERS.get(token[1]));
+		return new Atomic(kind, rd, rs1, rs2);
+	}
+	
 	public intermediateRepresentation translateSysCallToAbs() {	
 		return new SysCall();
 	}	
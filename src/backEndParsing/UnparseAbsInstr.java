@@ -44,6 +44,12 @@ public class UnparseAbsInstr {
 		}else if(i instanceof Jump) {
 			Jump j = (Jump) i;
 			s = "j " + unparseExp(j.getTarget());
+		}else if(i instanceof Atomic) {
+			Atomic a = (Atomic) i;
+			String[] names = {"lr.w", "sc.w", "amoswap.w", "amoadd.w"};
+			s = names[a.getKind().ordinal()] + " " + unparseExp(a.getDestination()) + ", "
+					+ (a.getValue() != null ? unparseExp(a.getValue()) + ", " : "")
+					+ "(" + unparseExp(a.getAddress()) + ")";
 		}else if(i instanceof Call) {
 			s = "Call";
 		}
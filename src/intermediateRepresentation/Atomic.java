@@ -0,0 +1,50 @@
+package intermediateRepresentation;
+
+/**
+ * A RISC-V A extension instruction on the word at address. The old
+ * word goes to destination, except for a store conditional, which puts
+ * 0 there when it stored and 1 when it did not.
+ */
+public class Atomic extends intermediateRepresentation {
+
+	public enum Kind {
+		LOAD_RESERVED,		//lr.w
+		STORE_CONDITIONAL,	//sc.w
+		SWAP,				//amoswap.w
+		ADD					//amoadd.w
+	}
+
+	private Kind _kind;
+	private Abs_Expression _destination;
+	private Abs_Expression _address;
+	private Abs_Expression _value; //null for lr.w
+
+	public Atomic(Kind kind, Abs_Expression destination, Abs_Expression address, Abs_Expression value) {
+		_kind = kind;
+		_destination = destination;
+		_address = address;
+		_value = value;
+	}
+
+	public Kind getKind() {
+		return _kind;
+	}
+
+	public Abs_Expression getDestination() {
+		return _destination;
+	}
+
+	public Abs_Expression getAddress() {
+		return _address;
+	}
+
+	public Abs_Expression getValue() {
+		return _value;
+	}
+
+	@Override
+	public String toString() {
+		return "Atomic " + _kind + " (" + _destination + ", " + _address
+				+ (_value != null ? ", " + _value : "") + ")";
+	}
+}
@@ -4,15 +4,24 @@ public class Temporary extends Abs_Expression {
 	
 	private String _register;
 	private boolean _global;
+	private int _index; //register file index resolved by the parser, -1 if unresolved
 
 	public Temporary(String reg) {
 		_register = reg;
 		_global = false;
+		_index = -1;
 	}
 	
 	public Temporary(String reg, boolean global) {
 		_register = reg;
 		_global = global;
+		_index = -1;
+	}
+	
+	public Temporary(String reg, boolean global, int index) {
+		_register = reg;
+		_global = global;
+		_index = index;
 	}
 	
 	public String get() {
@@ -22,6 +31,14 @@ public class Temporary extends Abs_Expression {
 	public boolean isGlobal() {
 		return _global;
 	}
+	
+	public int getIndex() {
+		return _index;
+	}
+	
+	public void setIndex(int index) {
+		_index = index;
+	}
 
 	@Override
 	public String toString() {
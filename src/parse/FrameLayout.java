@@ -0,0 +1,91 @@
+package parse;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Slot assignment for the temporaries of each YAAL function.
+ * Every function gets a frame of getSize() ints; its parameters @0..@n-1 take
+ * the first slots, the rest of its temporaries are numbered densely after them.
+ */
+public class FrameLayout {
+
+	public static class Frame {
+
+		private String _name;
+		private String[] _slotNames;
+		private int[] _argSlots;
+
+		public Frame(String name, String[] slotNames, int[] argSlots) {
+			_name = name;
+			_slotNames = slotNames;
+			_argSlots = argSlots;
+		}
+
+		public String getName() {
+			return _name;
+		}
+
+		public int getSize() {
+			return _slotNames.length;
+		}
+
+		public String getSlotName(int slot) {
+			return _slotNames[slot];
+		}
+
+		/**
+		 * @return the slot of argument register @n, or -1 if the function never reads it
+		 */
+		public int argSlot(int n) {
+			if (n < _argSlots.length) {
+				return _argSlots[n];
+			}
+			return -1;
+		}
+
+		@Override
+		public String toString() {
+			return _name + "[" + _slotNames.length + "]";
+		}
+	}
+
+	private Map<String, Frame> _frames;
+	private Frame _entry;
+	private int _maxSize;
+
+	public FrameLayout() {
+		_frames = new HashMap<>();
+		_maxSize = 0;
+	}
+
+	public void addFrame(Frame f, boolean entry) {
+		_frames.put(f.getName(), f);
+		_maxSize = Math.max(_maxSize, f.getSize());
+		if (entry) {
+			_entry = f;
+		}
+	}
+
+	public Frame getFrame(String function) {
+		return _frames.get(function);
+	}
+
+	public Frame getEntryFrame() {
+		return _entry;
+	}
+
+	public Collection<Frame> getFrames() {
+		return _frames.values();
+	}
+
+	public int getMaxFrameSize() {
+		return _maxSize;
+	}
+
+	@Override
+	public String toString() {
+		return _frames.values().toString();
+	}
+}
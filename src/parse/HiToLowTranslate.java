@@ -21,7 +21,7 @@ public class HiToLowTranslate {
 		ArrayList<String> sysOps = OperatingSystem.getSystemOps();
 		for (String op : sysOps) {
 			if (op.equals("_print") || op.equals("_print_string") ||
-					op.equals("_random") || op.equals("_allocate") || op.equals("_print_char")) {
+					op.equals("_random") || op.equals("_allocate") || op.equals("_free") || op.equals("_print_char")) {
 				String[] items = new String[1];
 				items[0] = op + "_0";
 				functToParams.put(op, items);
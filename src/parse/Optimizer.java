@@ -0,0 +1,763 @@
+package parse;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import RISC.RiscRegisters;
+import intermediateRepresentation.*;
+import operation_syntax.Operation;
+import util.Pair;
+
+/**
+ * Optional rewriting of parsed code before it is loaded into the VM. Each pass can be
+ * switched on by itself; the chosen passes are repeated until none of them changes anything.
+ * Instructions keep the source line they were parsed from and labels are moved to the
+ * line that now follows them, so highlighting and breakpoints still line up with the source.
+ */
+public class Optimizer {
+
+	public enum Pass {
+		CONSTANT_FOLDING,			//operations on literals become literals
+		ALGEBRAIC_SIMPLIFICATION,	//x + 0, x * 1, literal first operands, nested literal adds
+		COPY_PROPAGATION,			//reads of a temp copied from a temp or literal use the original
+		DEAD_TEMPORARIES,			//moves into YAAL temps that are never read again
+		JUMP_THREADING				//jumps to jumps, and jumps and branches to the next line
+	}
+
+	private static final int MAX_ROUNDS = 8;
+	private static final int MAX_CHAIN = 16;
+
+	private final Set<Pass> _passes;
+	private int _removed;
+
+	public Optimizer(Set<Pass> passes) {
+		_passes = EnumSet.noneOf(Pass.class);
+		_passes.addAll(passes);
+	}
+
+	public static Optimizer all() {
+		return new Optimizer(EnumSet.allOf(Pass.class));
+	}
+
+	/**
+	 * @param spec - "all", or pass names separated by commas, e.g. constant_folding,jump_threading
+	 */
+	public static Optimizer fromSpec(String spec) {
+		if (spec.equalsIgnoreCase("all")) {
+			return all();
+		}
+		Set<Pass> passes = EnumSet.noneOf(Pass.class);
+		for (String name : spec.split(",")) {
+			passes.add(Pass.valueOf(name.trim().toUpperCase()));
+		}
+		return new Optimizer(passes);
+	}
+
+	/**
+	 * @return the number of instructions the last call to optimize removed
+	 */
+	public int getRemovedCount() {
+		return _removed;
+	}
+
+	public ParseOutput optimize(ParseOutput parsed) {
+		List<Pair<intermediateRepresentation, Integer>> code = new ArrayList<>(parsed.getInstructions().getList());
+		SymbolTable st = parsed.getSymbolTable();
+		Map<String, Integer> labels = new HashMap<>();
+		for (String label : st.getLabels()) {
+			labels.put(label, st.getCodeLine(label));
+		}
+		int before = code.size();
+
+		boolean changed = true;
+		for (int round = 0; changed && round < MAX_ROUNDS; round++) {
+			changed = false;
+			if (_passes.contains(Pass.CONSTANT_FOLDING) || _passes.contains(Pass.ALGEBRAIC_SIMPLIFICATION)) {
+				changed |= simplifyAll(code);
+			}
+			if (_passes.contains(Pass.COPY_PROPAGATION)) {
+				changed |= propagateCopies(code, labels);
+			}
+			if (_passes.contains(Pass.JUMP_THREADING)) {
+				changed |= threadJumps(code, labels);
+			}
+			if (_passes.contains(Pass.DEAD_TEMPORARIES)) {
+				changed |= removeDeadMoves(code, labels);
+			}
+		}
+		_removed = before - code.size();
+
+		Instructions instructions = new Instructions();
+		for (Pair<intermediateRepresentation, Integer> line : code) {
+			instructions.add(line);
+		}
+		SymbolTable remapped = new SymbolTable();
+		for (String label : st.getLabels()) {
+			remapped.add(label, new Pair<Integer, Integer>(st.getSourceLine(label), labels.get(label)));
+		}
+		return parsed.withCode(remapped, instructions);
+	}
+
+	//SECTION: EXPRESSION REWRITING
+	private boolean simplifyAll(List<Pair<intermediateRepresentation, Integer>> code) {
+		boolean changed = false;
+		for (int pc = 0; pc < code.size(); pc++) {
+			intermediateRepresentation i = code.get(pc).first();
+			intermediateRepresentation r = rewriteReads(i, e -> simplify(e));
+			if (r != i) {
+				code.set(pc, new Pair<intermediateRepresentation, Integer>(r, code.get(pc).second()));
+				changed = true;
+			}
+		}
+		return changed;
+	}
+
+	private interface Rewrite {
+		Abs_Expression apply(Abs_Expression e);
+	}
+
+	/**
+	 * Applies rw to every expression i reads; written temporaries and jump targets are left alone.
+	 * @return i itself when nothing changed, otherwise a new instruction
+	 */
+	private static intermediateRepresentation rewriteReads(intermediateRepresentation i, Rewrite rw) {
+		if (i instanceof Move) {
+			Move m = (Move) i;
+			Abs_Expression dest = m.getDestination();
+			Abs_Expression newDest = dest;
+			if (dest instanceof MemoryAddress) {
+				newDest = rw.apply(dest);
+			}
+			Abs_Expression source = m.getSource();
+			Abs_Expression newSource = source instanceof Symbol ? source : rw.apply(source);
+			if (newDest != dest || newSource != source) {
+				return new Move(newDest, newSource);
+			}
+
+		}else if (i instanceof Branch) {
+			Branch b = (Branch) i;
+			Abs_Expression relOp = rw.apply(b.getRelOp());
+			if (relOp != b.getRelOp()) {
+				return new Branch(relOp, b.getDestination());
+			}
+
+		}else if (i instanceof Return) {
+			Abs_Expression value = ((Return) i).getValue();
+			if (value != null) {
+				Abs_Expression v = rw.apply(value);
+				if (v != value) {
+					return new Return(v);
+				}
+			}
+
+		}else if (i instanceof Call) {
+			Call c = (Call) i;
+			List<Abs_Expression> args = new ArrayList<>();
+			boolean changed = false;
+			for (Abs_Expression arg : c.getArgs()) {
+				Abs_Expression a = arg instanceof Symbol ? arg : rw.apply(arg);
+				changed |= a != arg;
+				args.add(a);
+			}
+			if (changed) {
+				return new Call(c.getDestReg(), c.getSymbol(), args);
+			}
+		}
+		return i;
+	}
+
+	private Abs_Expression simplify(Abs_Expression e) {
+		if (e instanceof MemoryAddress) {
+			MemoryAddress m = (MemoryAddress) e;
+			Abs_Expression address = simplify(m.getAddress());
+			//base + offset addresses keep the offset first, the form loads and stores are decoded from
+			if (address instanceof BinOp && _passes.contains(Pass.ALGEBRAIC_SIMPLIFICATION)) {
+				BinOp b = (BinOp) address;
+				if (b.getOp() == Operation.ADD && b.getArg2() instanceof Literal && !(b.getArg1() instanceof Literal)) {
+					address = new BinOp(Operation.ADD, b.getArg2(), b.getArg1());
+				}
+			}
+			return !same(address, m.getAddress()) ? new MemoryAddress(address, m.getSize()) : e;
+
+		}else if (e instanceof Temporary) {
+			if (isZeroRegister((Temporary) e) && _passes.contains(Pass.CONSTANT_FOLDING)) {
+				return new Literal(0);
+			}
+			return e;
+
+		}else if (e instanceof BinOp) {
+			BinOp b = (BinOp) e;
+			Abs_Expression a1 = simplify(b.getArg1());
+			Abs_Expression a2 = simplify(b.getArg2());
+			Abs_Expression r = null;
+			if (_passes.contains(Pass.CONSTANT_FOLDING) && a1 instanceof Literal && a2 instanceof Literal) {
+				Integer value = fold(b.getOp(), ((Literal) a1).get(), ((Literal) a2).get());
+				if (value != null) {
+					return new Literal(value);
+				}
+			}
+			if (_passes.contains(Pass.ALGEBRAIC_SIMPLIFICATION)) {
+				r = algebraic(b.getOp(), a1, a2);
+			}
+			if (r != null) {
+				return r;
+			}
+			if (a1 != b.getArg1() || a2 != b.getArg2()) {
+				return new BinOp(b.getOp(), a1, a2);
+			}
+		}
+		return e;
+	}
+
+	/**
+	 * @return a simpler equivalent of a1 op a2, or null if there is none
+	 */
+	private static Abs_Expression algebraic(Operation op, Abs_Expression a1, Abs_Expression a2) {
+		//literals second, mirroring compares
+		if (a1 instanceof Literal && !(a2 instanceof Literal)) {
+			Operation swapped = swap(op);
+			if (swapped != null) {
+				Abs_Expression r = algebraic(swapped, a2, a1);
+				return r != null ? r : new BinOp(swapped, a2, a1);
+			}
+		}
+		boolean lit = a2 instanceof Literal;
+		int k = lit ? ((Literal) a2).get() : 0;
+		switch (op) {
+		case ADD:
+		case SUB:
+			if (lit && k == 0) {
+				return a1;
+			}
+			if (op == Operation.SUB && sameTemp(a1, a2)) {
+				return new Literal(0);
+			}
+			//(x + k1) + k2 is x + (k1 + k2)
+			if (lit && op == Operation.ADD && a1 instanceof BinOp && ((BinOp) a1).getOp() == Operation.ADD
+					&& ((BinOp) a1).getArg2() instanceof Literal) {
+				int k1 = ((Literal) ((BinOp) a1).getArg2()).get();
+				return simplified(Operation.ADD, ((BinOp) a1).getArg1(), k1 + k);
+			}
+			break;
+		case MULT:
+			if (lit && k == 1) {
+				return a1;
+			}
+			if (lit && k == 0 && removable(a1)) {
+				return new Literal(0);
+			}
+			if (lit && a1 instanceof BinOp && ((BinOp) a1).getOp() == Operation.MULT
+					&& ((BinOp) a1).getArg2() instanceof Literal) {
+				int k1 = ((Literal) ((BinOp) a1).getArg2()).get();
+				return simplified(Operation.MULT, ((BinOp) a1).getArg1(), k1 * k);
+			}
+			break;
+		case DIV:
+			if (lit && k == 1) {
+				return a1;
+			}
+			break;
+		case SHIFT_LEFT:
+		case SHIFT_RIGHT_L:
+		case SHIFT_RIGHT_A:
+		case OR:
+			if (lit && k == 0) {
+				return a1;
+			}
+			break;
+		case X_OR:
+			if (lit && k == 0) {
+				return a1;
+			}
+			if (sameTemp(a1, a2)) {
+				return new Literal(0);
+			}
+			break;
+		case AND:
+			if (lit && k == 0 && removable(a1)) {
+				return new Literal(0);
+			}
+			break;
+		default:
+		}
+		return null;
+	}
+
+	private static Abs_Expression simplified(Operation op, Abs_Expression a1, int k) {
+		Abs_Expression r = algebraic(op, a1, new Literal(k));
+		return r != null ? r : new BinOp(op, a1, new Literal(k));
+	}
+
+	/**
+	 * @return the operation that gives the same result with its operands swapped, or null
+	 */
+	private static Operation swap(Operation op) {
+		switch (op) {
+		case ADD:
+		case MULT:
+		case AND:
+		case OR:
+		case X_OR:
+		case EQUAL:
+		case NOT_EQUAL:
+			return op;
+		case LESS:
+			return Operation.GREATER;
+		case LESS_U:
+			return Operation.GREATER_U;
+		case LESS_EQUAL:
+			return Operation.GREATER_EQUAL;
+		case LESS_EQUAL_U:
+			return Operation.GREATER_EQUAL_U;
+		case GREATER:
+			return Operation.LESS;
+		case GREATER_U:
+			return Operation.LESS_U;
+		case GREATER_EQUAL:
+			return Operation.LESS_EQUAL;
+		case GREATER_EQUAL_U:
+			return Operation.LESS_EQUAL_U;
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * Same results as ExecVM.calculate; division by zero is left for the VM to report.
+	 */
+	private static Integer fold(Operation op, int a, int b) {
+		switch (op) {
+		case ADD:
+			return a + b;
+		case SUB:
+			return a - b;
+		case MULT:
+			return a * b;
+		case DIV:
+			return b != 0 ? a / b : null;
+		case DIV_U:
+			return b != 0 ? Integer.divideUnsigned(a, b) : null;
+		case REM:
+			return b != 0 ? a % b : null;
+		case REM_U:
+			return b != 0 ? Integer.remainderUnsigned(a, b) : null;
+		case SHIFT_LEFT:
+			return a << b;
+		case SHIFT_RIGHT_L:
+			return a >>> b;
+		case SHIFT_RIGHT_A:
+			return a >> b;
+		case X_OR:
+			return a ^ b;
+		case AND:
+			return a & b;
+		case OR:
+			return a | b;
+		case EQUAL:
+			return a == b ? 1 : 0;
+		case NOT_EQUAL:
+			return a != b ? 1 : 0;
+		case LESS:
+			return a < b ? 1 : 0;
+		case LESS_U:
+			return Integer.compareUnsigned(a, b) < 0 ? 1 : 0;
+		case LESS_EQUAL:
+			return a <= b ? 1 : 0;
+		case LESS_EQUAL_U:
+			return Integer.compareUnsigned(a, b) <= 0 ? 1 : 0;
+		case GREATER:
+			return a > b ? 1 : 0;
+		case GREATER_U:
+			return Integer.compareUnsigned(a, b) > 0 ? 1 : 0;
+		case GREATER_EQUAL:
+			return a >= b ? 1 : 0;
+		case GREATER_EQUAL_U:
+			return Integer.compareUnsigned(a, b) >= 0 ? 1 : 0;
+		default:
+			return null;
+		}
+	}
+
+	//SECTION: COPY PROPAGATION
+	/**
+	 * Within each basic block, reads of a frame local that was last set to another frame local
+	 * or a literal read that value instead. A fact ends when either side is written. Globals and
+	 * RISC registers are left alone, since calls, syscalls and event handlers may change them.
+	 */
+	private boolean propagateCopies(List<Pair<intermediateRepresentation, Integer>> code, Map<String, Integer> labels) {
+		Set<Integer> leaders = new HashSet<>(labels.values());
+		Map<String, Abs_Expression> facts = new HashMap<>();
+		boolean changed = false;
+		for (int pc = 0; pc < code.size(); pc++) {
+			if (leaders.contains(pc)) {
+				facts.clear();
+			}
+			intermediateRepresentation i = code.get(pc).first();
+			intermediateRepresentation r = rewriteReads(i, e -> substitute(e, facts));
+			if (r != i) {
+				code.set(pc, new Pair<intermediateRepresentation, Integer>(r, code.get(pc).second()));
+				changed = true;
+				i = r;
+			}
+
+			if (i instanceof Move && ((Move) i).getDestination() instanceof Temporary) {
+				Temporary d = (Temporary) ((Move) i).getDestination();
+				Abs_Expression s = ((Move) i).getSource();
+				kill(facts, key(d));
+				if (isLocal(d) && (s instanceof Literal || (s instanceof Temporary && isLocal((Temporary) s) && !sameTemp(s, d)))) {
+					facts.put(key(d), s);
+				}
+			}else if (i instanceof Call) {
+				if (((Call) i).getDestReg() != null) {
+					kill(facts, key(((Call) i).getDestReg()));
+				}
+			}else if (i instanceof Atomic) {
+				kill(facts, key((Temporary) ((Atomic) i).getDestination()));
+			}else if (i instanceof Jump) {
+				if (((Jump) i).getRegForPC() instanceof Temporary) {
+					kill(facts, key((Temporary) ((Jump) i).getRegForPC()));
+				}
+				facts.clear();
+			}else if (i instanceof Branch || i instanceof Return) {
+				facts.clear();
+			}
+		}
+		return changed;
+	}
+
+	private static Abs_Expression substitute(Abs_Expression e, Map<String, Abs_Expression> facts) {
+		if (e instanceof Temporary) {
+			Abs_Expression v = facts.get(key((Temporary) e));
+			return v != null ? v : e;
+		}else if (e instanceof MemoryAddress) {
+			MemoryAddress m = (MemoryAddress) e;
+			Abs_Expression address = substitute(m.getAddress(), facts);
+			return address != m.getAddress() ? new MemoryAddress(address, m.getSize()) : e;
+		}else if (e instanceof BinOp) {
+			BinOp b = (BinOp) e;
+			Abs_Expression a1 = substitute(b.getArg1(), facts);
+			Abs_Expression a2 = substitute(b.getArg2(), facts);
+			return a1 != b.getArg1() || a2 != b.getArg2() ? new BinOp(b.getOp(), a1, a2) : e;
+		}
+		return e;
+	}
+
+	private static void kill(Map<String, Abs_Expression> facts, String key) {
+		facts.remove(key);
+		facts.values().removeIf(v -> v instanceof Temporary && key((Temporary) v).equals(key));
+	}
+
+	//SECTION: JUMP THREADING
+	private boolean threadJumps(List<Pair<intermediateRepresentation, Integer>> code, Map<String, Integer> labels) {
+		Set<String> read = readTemps(code);
+		boolean[] remove = new boolean[code.size()];
+		boolean changed = false;
+		for (int pc = 0; pc < code.size(); pc++) {
+			intermediateRepresentation i = code.get(pc).first();
+			if (i instanceof Jump && ((Jump) i).getTarget() instanceof Symbol) {
+				Jump j = (Jump) i;
+				String target = finalTarget(code, labels, ((Symbol) j.getTarget()).get().trim(), read);
+				Integer line = labels.get(target);
+				if (line != null && line == pc + 1 && discarded(j.getRegForPC(), read)) {
+					remove[pc] = true;
+				}else if (!target.equals(((Symbol) j.getTarget()).get().trim())) {
+					code.set(pc, new Pair<intermediateRepresentation, Integer>(
+							new Jump(j.getRegForPC(), new Symbol(target)), code.get(pc).second()));
+					changed = true;
+				}
+
+			}else if (i instanceof Branch && ((Branch) i).getDestination() instanceof Symbol) {
+				Branch b = (Branch) i;
+				//only a result of exactly 1 takes a branch
+				if (b.getRelOp() instanceof Literal && ((Literal) b.getRelOp()).get() != 1) {
+					remove[pc] = true;
+					continue;
+				}
+				String target = finalTarget(code, labels, ((Symbol) b.getDestination()).get().trim(), read);
+				Integer line = labels.get(target);
+				if (line != null && line == pc + 1 && removable(b.getRelOp())) {
+					remove[pc] = true;
+				}else if (!target.equals(((Symbol) b.getDestination()).get().trim())) {
+					code.set(pc, new Pair<intermediateRepresentation, Integer>(
+							new Branch(b.getRelOp(), new Symbol(target)), code.get(pc).second()));
+					changed = true;
+				}
+			}
+		}
+		return removeLines(code, labels, remove) || changed;
+	}
+
+	/**
+	 * Follows a label through lines that only jump on, with a link nothing reads.
+	 */
+	private static String finalTarget(List<Pair<intermediateRepresentation, Integer>> code,
+			Map<String, Integer> labels, String label, Set<String> read) {
+		String target = label;
+		for (int n = 0; n < MAX_CHAIN; n++) {
+			Integer line = labels.get(target);
+			if (line == null || line >= code.size() || !(code.get(line).first() instanceof Jump)) {
+				break;
+			}
+			Jump next = (Jump) code.get(line).first();
+			if (!(next.getTarget() instanceof Symbol) || !discarded(next.getRegForPC(), read)) {
+				break;
+			}
+			String nextLabel = ((Symbol) next.getTarget()).get().trim();
+			if (nextLabel.equals(label) || !labels.containsKey(nextLabel)) {
+				break;
+			}
+			target = nextLabel;
+		}
+		return target;
+	}
+
+	private static boolean discarded(Abs_Expression link, Set<String> read) {
+		if (!(link instanceof Temporary)) {
+			return false;
+		}
+		Temporary t = (Temporary) link;
+		return isZeroRegister(t) || (!t.isGlobal() && !read.contains(key(t)));
+	}
+
+	//SECTION: DEAD TEMPORARIES
+	/**
+	 * Removes moves into YAAL function temps that no path reads before the next write.
+	 * Calls are followed to the next line, since a callee runs in its own frame.
+	 */
+	private boolean removeDeadMoves(List<Pair<intermediateRepresentation, Integer>> code, Map<String, Integer> labels) {
+		int n = code.size();
+		Map<String, Integer> ids = new HashMap<>();
+		BitSet[] use = new BitSet[n];
+		BitSet[] def = new BitSet[n];
+		int[][] successors = new int[n][];
+		for (int pc = 0; pc < n; pc++) {
+			intermediateRepresentation i = code.get(pc).first();
+			use[pc] = new BitSet();
+			def[pc] = new BitSet();
+			for (Temporary t : reads(i)) {
+				if (isLocal(t)) {
+					use[pc].set(id(ids, t));
+				}
+			}
+			Temporary written = written(i);
+			if (written != null && isLocal(written)) {
+				def[pc].set(id(ids, written));
+			}
+
+			if (i instanceof Return) {
+				successors[pc] = new int[0];
+			}else if (i instanceof Jump || i instanceof Branch) {
+				Abs_Expression target = i instanceof Jump ? ((Jump) i).getTarget() : ((Branch) i).getDestination();
+				Integer line = target instanceof Symbol ? labels.get(((Symbol) target).get().trim()) : null;
+				if (line == null) {
+					//a computed jump could land anywhere
+					return false;
+				}
+				successors[pc] = i instanceof Jump ? new int[] {line} : new int[] {line, pc + 1};
+			}else {
+				successors[pc] = new int[] {pc + 1};
+			}
+		}
+
+		BitSet[] liveOut = new BitSet[n];
+		BitSet[] liveIn = new BitSet[n + 1];
+		for (int pc = 0; pc < n; pc++) {
+			liveOut[pc] = new BitSet();
+			liveIn[pc] = new BitSet();
+		}
+		liveIn[n] = new BitSet();
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (int pc = n - 1; pc >= 0; pc--) {
+				BitSet out = new BitSet();
+				for (int s : successors[pc]) {
+					if (s >= 0 && s <= n) {
+						out.or(liveIn[s]);
+					}
+				}
+				BitSet in = (BitSet) out.clone();
+				in.andNot(def[pc]);
+				in.or(use[pc]);
+				if (!in.equals(liveIn[pc]) || !out.equals(liveOut[pc])) {
+					liveIn[pc] = in;
+					liveOut[pc] = out;
+					changed = true;
+				}
+			}
+		}
+
+		boolean[] remove = new boolean[n];
+		for (int pc = 0; pc < n; pc++) {
+			intermediateRepresentation i = code.get(pc).first();
+			if (i instanceof Move && ((Move) i).getDestination() instanceof Temporary) {
+				Temporary d = (Temporary) ((Move) i).getDestination();
+				if (isLocal(d) && !liveOut[pc].get(id(ids, d)) && removable(((Move) i).getSource())) {
+					remove[pc] = true;
+				}
+			}
+		}
+		return removeLines(code, labels, remove);
+	}
+
+	private static int id(Map<String, Integer> ids, Temporary t) {
+		return ids.computeIfAbsent(key(t), k -> ids.size());
+	}
+
+	/**
+	 * @return true if evaluating e can be skipped: no memory access, no error, no string to place
+	 */
+	private static boolean removable(Abs_Expression e) {
+		if (e instanceof MemoryAddress || e instanceof Symbol) {
+			return false;
+		}
+		if (e instanceof BinOp) {
+			BinOp b = (BinOp) e;
+			switch (b.getOp()) {
+			case DIV:
+			case DIV_U:
+			case REM:
+			case REM_U:
+				if (!(b.getArg2() instanceof Literal) || ((Literal) b.getArg2()).get() == 0) {
+					return false;
+				}
+				break;
+			default:
+			}
+			return removable(b.getArg1()) && removable(b.getArg2());
+		}
+		return true;
+	}
+
+	//SECTION: LINE REMOVAL
+	/**
+	 * Drops the marked lines; a label on a dropped line moves to the next line kept.
+	 */
+	private static boolean removeLines(List<Pair<intermediateRepresentation, Integer>> code,
+			Map<String, Integer> labels, boolean[] remove) {
+		int[] newLine = new int[code.size() + 1];
+		List<Pair<intermediateRepresentation, Integer>> kept = new ArrayList<>();
+		for (int pc = 0; pc < code.size(); pc++) {
+			newLine[pc] = kept.size();
+			if (!remove[pc]) {
+				kept.add(code.get(pc));
+			}
+		}
+		newLine[code.size()] = kept.size();
+		if (kept.size() == code.size()) {
+			return false;
+		}
+		for (Map.Entry<String, Integer> label : labels.entrySet()) {
+			int line = label.getValue();
+			if (line >= 0 && line <= code.size()) {
+				label.setValue(newLine[line]);
+			}
+		}
+		code.clear();
+		code.addAll(kept);
+		return true;
+	}
+
+	//SECTION: TEMPORARIES
+	private static List<Temporary> reads(intermediateRepresentation i) {
+		List<Temporary> temps = new ArrayList<>();
+		if (i instanceof Move) {
+			Move m = (Move) i;
+			if (m.getDestination() instanceof MemoryAddress) {
+				collect(m.getDestination(), temps);
+			}
+			collect(m.getSource(), temps);
+		}else if (i instanceof Branch) {
+			collect(((Branch) i).getRelOp(), temps);
+		}else if (i instanceof Jump) {
+			collect(((Jump) i).getTarget(), temps);
+		}else if (i instanceof Return) {
+			collect(((Return) i).getValue(), temps);
+		}else if (i instanceof Atomic) {
+			collect(((Atomic) i).getAddress(), temps);
+			collect(((Atomic) i).getValue(), temps);
+		}else if (i instanceof Call) {
+			for (Abs_Expression arg : ((Call) i).getArgs()) {
+				collect(arg, temps);
+			}
+		}
+		return temps;
+	}
+
+	private static Temporary written(intermediateRepresentation i) {
+		if (i instanceof Move && ((Move) i).getDestination() instanceof Temporary) {
+			return (Temporary) ((Move) i).getDestination();
+		}else if (i instanceof Call) {
+			return ((Call) i).getDestReg();
+		}else if (i instanceof Atomic) {
+			return (Temporary) ((Atomic) i).getDestination();
+		}else if (i instanceof Jump && ((Jump) i).getRegForPC() instanceof Temporary) {
+			return (Temporary) ((Jump) i).getRegForPC();
+		}
+		return null;
+	}
+
+	private static void collect(Abs_Expression e, List<Temporary> temps) {
+		if (e instanceof Temporary) {
+			temps.add((Temporary) e);
+		}else if (e instanceof MemoryAddress) {
+			collect(((MemoryAddress) e).getAddress(), temps);
+		}else if (e instanceof BinOp) {
+			collect(((BinOp) e).getArg1(), temps);
+			collect(((BinOp) e).getArg2(), temps);
+		}
+	}
+
+	private static Set<String> readTemps(List<Pair<intermediateRepresentation, Integer>> code) {
+		Set<String> read = new HashSet<>();
+		for (Pair<intermediateRepresentation, Integer> line : code) {
+			for (Temporary t : reads(line.first())) {
+				read.add(key(t));
+			}
+		}
+		return read;
+	}
+
+	private static String key(Temporary t) {
+		return (t.isGlobal() ? "$" : "") + t.get() + "#" + t.getIndex();
+	}
+
+	/**
+	 * @return true for a YAAL temp in a function frame, which only its own function can see
+	 */
+	private static boolean isLocal(Temporary t) {
+		return !t.isGlobal() && t.getIndex() >= 0;
+	}
+
+	private static boolean isZeroRegister(Temporary t) {
+		return t.isGlobal() && t.getIndex() == RiscRegisters.ZERO_INDEX;
+	}
+
+	private static boolean sameTemp(Abs_Expression a, Abs_Expression b) {
+		return a instanceof Temporary && b instanceof Temporary && key((Temporary) a).equals(key((Temporary) b));
+	}
+
+	private static boolean same(Abs_Expression a, Abs_Expression b) {
+		if (a == b) {
+			return true;
+		}else if (a instanceof Literal && b instanceof Literal) {
+			return ((Literal) a).get() == ((Literal) b).get();
+		}else if (a instanceof Temporary && b instanceof Temporary) {
+			return sameTemp(a, b);
+		}else if (a instanceof BinOp && b instanceof BinOp) {
+			BinOp x = (BinOp) a;
+			BinOp y = (BinOp) b;
+			return x.getOp() == y.getOp() && same(x.getArg1(), y.getArg1()) && same(x.getArg2(), y.getArg2());
+		}else if (a instanceof MemoryAddress && b instanceof MemoryAddress) {
+			return ((MemoryAddress) a).getSize() == ((MemoryAddress) b).getSize()
+					&& same(((MemoryAddress) a).getAddress(), ((MemoryAddress) b).getAddress());
+		}
+		return false;
+	}
+}
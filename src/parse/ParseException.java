@@ -4,7 +4,7 @@ public class ParseException extends Exception {
 
 
 	private static final long serialVersionUID = -792400898877506310L;
-	private int _lineNumber;
+	private Integer _lineNumber;
 	
 	public ParseException(String message, Integer lineNumber) {
 		super(message);
@@ -5,6 +5,7 @@ public class ParseOutput {
 	private SymbolTable _st;
 	private Instructions _instructs;
 	private Data _data;
+	private FrameLayout _frames;
 	
 	//RISC-V constructor
 	public ParseOutput(SymbolTable st, Instructions n, Data d) {
@@ -20,6 +21,14 @@ public class ParseOutput {
 		_data = null;
 	}
 	
+	//YAAL constructor with temporaries assigned to frame slots
+	public ParseOutput(SymbolTable st, Instructions n, FrameLayout frames) {
+		_st = st;
+		_instructs = n;
+		_data = null;
+		_frames = frames;
+	}
+	
 	public SymbolTable getSymbolTable() {
 		return _st;
 	}
@@ -28,6 +37,20 @@ public class ParseOutput {
 		return _instructs;
 	}
 	
+	public FrameLayout getFrameLayout() {
+		return _frames;
+	}
+	
+	/**
+	 * @return a copy of this output with rewritten code and labels, keeping its data and frames
+	 */
+	public ParseOutput withCode(SymbolTable st, Instructions n) {
+		ParseOutput p = new ParseOutput(st, n);
+		p._data = _data;
+		p._frames = _frames;
+		return p;
+	}
+
 	public Data getData() {
 		if (_data == null) {
 			System.err.println("Data not initialized in this run environment");
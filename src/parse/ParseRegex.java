@@ -65,6 +65,10 @@ public class ParseRegex {
 			Pattern.compile("(\\w+)\\s*,\\s*(\\w+),\\s*(-?\\w+)");  // t0, t1, 37
 	public static final Pattern REG_LIT_REG = 
 			Pattern.compile("(\\w+)\\s*,\\s*(-?\\w+)\\s*\\(\\s*(\\w+)\\s*\\)");  // t0, -48(t1)
+	public static final Pattern REG_ADDRESS =
+			Pattern.compile("(\\w+)\\s*,\\s*0?\\s*\\(\\s*(\\w+)\\s*\\)");  // t0, (a0)
+	public static final Pattern REG_REG_ADDRESS =
+			Pattern.compile("(\\w+)\\s*,\\s*(\\w+)\\s*,\\s*0?\\s*\\(\\s*(\\w+)\\s*\\)");  // t0, t1, (a0)
 	public static final Pattern REG_SYMBOL =
 			Pattern.compile("(\\w+)\\s*,\\s*(\\w+)");  // t0, loop_exit 
 	public static final Pattern DIR = 
@@ -92,7 +92,7 @@ public class Preprocess {
 						currentLine = currentLine.trim();
 						if (!currentLine.isEmpty() && !currentLine.matches("\\s*")) {
 							if (parseType.equals("risc") && dataLabel) {
-								System.out.println("parsing data " + currentLine);
+								//System.out.println("parsing data " + currentLine);
 								parseDataLine(currentLine, lineNumber, data);
 								dataLines++;
 							} else {
@@ -0,0 +1,328 @@
+package textInterface;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+import parse.Optimizer;
+import textInterface.BatchRunner.ExitState;
+import virtual_machine.MemoryLayout;
+
+/**
+ * Runs a batch of independent programs at once, each on its own BatchRunner and
+ * virtual machine, over a work stealing pool. Every job has its own instruction budget,
+ * timeout and scripted input, and its output is collected rather than printed, so the
+ * results come back together in the order the jobs were given.
+ *
+ * usage: BatchExecutor (r | y) [-b instruction-budget] [-T timeout-ms] [-j threads] [-O all | pass,pass...] [-m memory-layout] source-file...
+ *        BatchExecutor (r | y) [options] -f source-file input-file...
+ *
+ * Input for source-file is read from source-file.in when there is one. With -f, the one
+ * source file is run once for every input file instead: it is parsed and loaded once,
+ * and each run is a fork of that virtual machine. One JSON line
+ * per job is printed to standard out: its BatchRunner report with the program output added.
+ * The exit status is the highest ExitState ordinal of any job.
+ */
+public class BatchExecutor {
+
+	public static class Job {
+		private final String _name;
+		private final String _instructionType;
+		private final String _source;
+		private final String _input;
+		private final long _budget;
+		private final long _timeoutMillis;
+
+		/**
+		 * @param name - shown in the report, usually the file name
+		 * @param instructionType - r or y
+		 * @param input - scripted input, or null if the program should see no input
+		 * @param timeoutMillis - 0 for no timeout
+		 */
+		public Job(String name, String instructionType, String source, String input, long budget, long timeoutMillis) {
+			_name = name;
+			_instructionType = instructionType;
+			_source = source;
+			_input = input;
+			_budget = budget;
+			_timeoutMillis = timeoutMillis;
+		}
+
+		public String getName() {
+			return _name;
+		}
+	}
+
+	public static class Result {
+		private final Job _job;
+		private final ExitState _state;
+		private final String _output;
+		private final long _instructions;
+		private final long _wallNanos;
+		private final String _error;
+		private final String _report;
+
+		Result(Job job, ExitState state, String output, long instructions, long wallNanos, String error, String report) {
+			_job = job;
+			_state = state;
+			_output = output;
+			_instructions = instructions;
+			_wallNanos = wallNanos;
+			_error = error;
+			_report = report;
+		}
+
+		public Job getJob() {
+			return _job;
+		}
+
+		public ExitState getState() {
+			return _state;
+		}
+
+		public String getOutput() {
+			return _output;
+		}
+
+		public long getInstructionCount() {
+			return _instructions;
+		}
+
+		public long getWallNanos() {
+			return _wallNanos;
+		}
+
+		/**
+		 * @return why the job failed, null if it did not
+		 */
+		public String getError() {
+			return _error;
+		}
+
+		/**
+		 * @return the job's BatchRunner report, with its output as an "output" field
+		 */
+		public String getReport() {
+			return _report;
+		}
+	}
+
+	private static final long DEFAULT_BUDGET = 100_000_000L;
+
+	public static void main(String args[]) throws IOException, InterruptedException {
+		if (args.length < 2 || !(args[0].equals("r") || args[0].equals("y"))) {
+			System.err.println("usage: BatchExecutor (r | y) [-b instruction-budget] [-T timeout-ms] [-j threads] [-O all | pass,pass...] [-m memory-layout] [-f] source-file...");
+			System.exit(64);
+		}
+		String instructionType = args[0];
+		long budget = DEFAULT_BUDGET;
+		long timeout = 0;
+		int threads = Runtime.getRuntime().availableProcessors();
+		Optimizer optimizer = null;
+		MemoryLayout layout = MemoryLayout.DEFAULT;
+		boolean forked = false;
+
+		int a = 1;
+		for (; a + 1 < args.length && args[a].startsWith("-"); a += 2) {
+			if (args[a].equals("-f")) {
+				forked = true;
+				a--;
+			}else if (args[a].equals("-b")) {
+				budget = Long.parseLong(args[a + 1]);
+			}else if (args[a].equals("-T")) {
+				timeout = Long.parseLong(args[a + 1]);
+			}else if (args[a].equals("-j")) {
+				threads = Integer.parseInt(args[a + 1]);
+			}else if (args[a].equals("-O")) {
+				optimizer = Optimizer.fromSpec(args[a + 1]);
+			}else if (args[a].equals("-m")) {
+				layout = MemoryLayout.fromSpec(args[a + 1]);
+			}
+		}
+		if (a >= args.length || threads < 1) {
+			System.err.println("no source files, or fewer than one thread");
+			System.exit(64);
+		}
+
+		List<Job> jobs = new ArrayList<>();
+		if (forked) {
+			String source = new String(Files.readAllBytes(Paths.get(args[a])));
+			for (a++; a < args.length; a++) {
+				String input = new String(Files.readAllBytes(Paths.get(args[a])));
+				jobs.add(new Job(args[a], instructionType, source, input, budget, timeout));
+			}
+		}
+		for (; a < args.length; a++) {
+			Path file = Paths.get(args[a]);
+			Path inputFile = Paths.get(args[a] + ".in");
+			String source = new String(Files.readAllBytes(file));
+			String input = Files.exists(inputFile) ? new String(Files.readAllBytes(inputFile)) : null;
+			jobs.add(new Job(args[a], instructionType, source, input, budget, timeout));
+		}
+
+		BatchExecutor executor = new BatchExecutor(threads);
+		executor.setOptimizer(optimizer);
+		executor.setMemoryLayout(layout);
+		int worst = 0;
+		for (Result r : forked ? executor.runForked(jobs) : executor.runAll(jobs)) {
+			System.out.println(r.getReport());
+			worst = Math.max(worst, r.getState().ordinal());
+		}
+		System.exit(worst);
+	}
+
+	private int _parallelism;
+	private Optimizer _optimizer;
+	private boolean _machineCode;
+	private MemoryLayout _layout = MemoryLayout.DEFAULT;
+
+	/**
+	 * @param parallelism - how many jobs may run at the same time
+	 */
+	public BatchExecutor(int parallelism) {
+		_parallelism = parallelism;
+	}
+
+	/**
+	 * @param optimizer - applied to every job's program, or null to run them as written
+	 */
+	public void setOptimizer(Optimizer optimizer) {
+		_optimizer = optimizer;
+	}
+
+	/**
+	 * @param machineCode - run RISC-V jobs as encoded machine code rather than IR
+	 */
+	public void setMachineCode(boolean machineCode) {
+		_machineCode = machineCode;
+	}
+
+	/**
+	 * @param layout - where every job's program is placed in memory
+	 */
+	public void setMemoryLayout(MemoryLayout layout) {
+		_layout = layout;
+	}
+
+	//SECTION: RUN
+	/**
+	 * Runs every job and waits for all of them to finish.
+	 * @return a result for each job, in the order of jobs
+	 */
+	public List<Result> runAll(List<Job> jobs) throws InterruptedException {
+		List<Callable<Result>> tasks = new ArrayList<>();
+		for (Job job : jobs) {
+			tasks.add(() -> runJob(job));
+		}
+		return invokeAll(tasks);
+	}
+
+	/**
+	 * Runs jobs that all have the same program, and differ only in input and budget.
+	 * The program is parsed and loaded once, and every job runs on a fork of that
+	 * virtual machine, which shares its memory until the job writes to it. RISC-V
+	 * jobs always run as IR here, whether machine code is on or not.
+	 * @return a result for each job, in the order of jobs
+	 */
+	public List<Result> runForked(List<Job> jobs) throws InterruptedException {
+		if (jobs.isEmpty()) {
+			return new ArrayList<>();
+		}
+		Job first = jobs.get(0);
+		BatchRunner loaded = new BatchRunner(first._instructionType, new BatchRunner_IOF(null, new PrintStream(new ByteArrayOutputStream())));
+		loaded.setOptimizer(_optimizer);
+		loaded.setMemoryLayout(_layout);
+		if (!loaded.prepare(first._source)) {
+			List<Result> results = new ArrayList<>();
+			for (Job job : jobs) {
+				String report = loaded.report(job._name, ExitState.PARSE_ERROR);
+				report = report.substring(0, report.length() - 1) + ",\"output\":\"\"}";
+				results.add(new Result(job, ExitState.PARSE_ERROR, "", 0, 0, loaded.getError(), report));
+			}
+			return results;
+		}
+		List<Callable<Result>> tasks = new ArrayList<>();
+		for (Job job : jobs) {
+			//forks are taken here, on the thread that owns the loaded machine
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			PrintStream out = new PrintStream(bytes, true);
+			BatchRunner runner = loaded.fork(new BatchRunner_IOF(input(job), out));
+			runner.setTimeout(job._timeoutMillis);
+			tasks.add(() -> execute(job, runner, bytes, out, () -> runner.execute(job._budget)));
+		}
+		return invokeAll(tasks);
+	}
+
+	private List<Result> invokeAll(List<Callable<Result>> tasks) throws InterruptedException {
+		ExecutorService pool = Executors.newWorkStealingPool(_parallelism);
+		try {
+			List<Result> results = new ArrayList<>();
+			for (Future<Result> f : pool.invokeAll(tasks)) {
+				results.add(f.get());
+			}
+			return results;
+		}catch (ExecutionException e) {
+			//runJob turns every failure into an ERROR result
+			throw new IllegalStateException(e.getCause());
+		}finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Runs one job on a BatchRunner of its own, on the calling thread.
+	 */
+	public Result runJob(Job job) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		PrintStream out = new PrintStream(bytes, true);
+		BatchRunner runner = new BatchRunner(job._instructionType, new BatchRunner_IOF(input(job), out));
+		runner.setOptimizer(_optimizer);
+		runner.setMachineCode(_machineCode);
+		runner.setMemoryLayout(_layout);
+		runner.setTimeout(job._timeoutMillis);
+		return execute(job, runner, bytes, out, () -> runner.run(job._source, job._budget));
+	}
+
+	private static BufferedReader input(Job job) {
+		return job._input != null ? new BufferedReader(new StringReader(job._input)) : null;
+	}
+
+	/**
+	 * Makes a job's result from running it on runner, with the output printed to out.
+	 */
+	private static Result execute(Job job, BatchRunner runner, ByteArrayOutputStream bytes, PrintStream out,
+			Supplier<ExitState> run) {
+		ExitState state;
+		String error;
+		String report;
+		try {
+			state = run.get();
+			error = runner.getError();
+			report = runner.report(job._name, state);
+		}catch (RuntimeException e) {
+			//a program the parser or loader trips over fails only its own job
+			state = ExitState.ERROR;
+			error = e.toString();
+			report = "{\"file\":" + BatchRunner.quote(job._name)
+					+ ",\"state\":" + BatchRunner.quote(state.name())
+					+ ",\"error\":" + BatchRunner.quote(error) + "}";
+		}
+		out.flush();
+		String output = bytes.toString();
+		report = report.substring(0, report.length() - 1) + ",\"output\":" + BatchRunner.quote(output) + "}";
+		return new Result(job, state, output, runner.getInstructionCount(), runner.getWallNanos(), error, report);
+	}
+}
@@ -0,0 +1,494 @@
+package textInterface;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+import RISC.RiscRegisters;
+import RISC.RiscvParse;
+import YAAL.YaalParse;
+import backEndParsing.AbsToMachine;
+import intermediateRepresentation.intermediateRepresentation;
+import parse.Optimizer;
+import parse.ParseException;
+import parse.ParseInterface;
+import parse.ParseOutput;
+import util.Pair;
+import virtual_machine.ExecVM;
+import virtual_machine.HartGroup;
+import virtual_machine.HeapAllocator;
+import virtual_machine.MachineVM;
+import virtual_machine.MemoryException;
+import virtual_machine.MemoryLayout;
+import virtual_machine.MemorySystem;
+import virtual_machine.StopReason;
+import virtual_machine.TierManager;
+import virtual_machine.VMSnapshot;
+
+/**
+ * Non-interactive entry point: parses one program, runs it to completion at full speed
+ * and prints a one line JSON report of how it stopped to standard error, including the
+ * loops the VM promoted to compiled code and their share of the instructions executed,
+ * and how much of the heap is in use.
+ * Program output goes to standard out, so runs can be scripted and run side by side.
+ *
+ * usage: BatchRunner (r | y) source-file [-i input-file | -i -] [-b instruction-budget] [-O all | pass,pass...] [-e ir | machine] [-t harts] [-T timeout-ms] [-R snapshot-in] [-S snapshot-out] [-m small | large | segment=base:size,...]
+ *
+ * -O runs the IR optimizer between parsing and execution, with all passes or a comma
+ * separated list of Optimizer.Pass names.
+ * -e machine assembles a RISC-V program to machine code and runs the encoded words on a
+ * MachineVM instead of interpreting the IR; the reported pc is then the machine code line.
+ * -t runs a RISC-V program on that many harts at once over shared memory, see HartGroup.
+ * The budget is then per hart, and the reported count and pc are the total and hart 0's.
+ * -T stops a run that takes longer than that many milliseconds with TIMEOUT.
+ * -R restores the state a VMSnapshot saved of the same program before running it, and -S
+ * saves the state the run stopped in, so a run cut short by its budget can be carried on
+ * later. Snapshots are of the IR engine on one hart.
+ * -m places the program's segments with a MemoryLayout, small by default.
+ *
+ * The exit status is the ordinal of the final state: 0 HALTED, 1 BUDGET, 2 BLOCKED,
+ * 3 ERROR, 4 PARSE_ERROR, 5 TIMEOUT.
+ */
+public class BatchRunner {
+
+	public enum ExitState {
+		HALTED,		//program ran off the end or stopped itself
+		BUDGET,		//instruction budget ran out first
+		BLOCKED,	//waiting on a key or click handler with no input possible
+		ERROR,		//runtime exception
+		PARSE_ERROR,//program did not parse
+		TIMEOUT		//wall clock timeout ran out first
+	}
+
+	private static final long DEFAULT_BUDGET = 100_000_000L;
+	//instructions run between looks at the clock when there is a timeout
+	private static final long TIMEOUT_SLICE = 1 << 20;
+
+	public static void main(String args[]) throws IOException {
+		if (args.length < 2 || !(args[0].equals("r") || args[0].equals("y"))) {
+			System.err.println("usage: BatchRunner (r | y) source-file [-i input-file | -i -] [-b instruction-budget] [-O all | pass,pass...] [-e ir | machine] [-t harts] [-T timeout-ms] [-R snapshot-in] [-S snapshot-out] [-m small | large | segment=base:size,...]");
+			System.exit(64);
+		}
+		String instructionType = args[0];
+		String filename = args[1];
+		BufferedReader input = null;
+		long budget = DEFAULT_BUDGET;
+		Optimizer optimizer = null;
+		boolean machine = false;
+		int harts = 1;
+		long timeout = 0;
+		Path restoreFrom = null;
+		Path saveTo = null;
+		MemoryLayout layout = MemoryLayout.DEFAULT;
+
+		for (int a = 2; a + 1 < args.length; a += 2) {
+			if (args[a].equals("-i")) {
+				if (args[a + 1].equals("-")) {
+					input = new BufferedReader(new InputStreamReader(System.in));
+				}else {
+					input = Files.newBufferedReader(Paths.get(args[a + 1]));
+				}
+			}else if (args[a].equals("-b")) {
+				budget = Long.parseLong(args[a + 1]);
+			}else if (args[a].equals("-O")) {
+				optimizer = Optimizer.fromSpec(args[a + 1]);
+			}else if (args[a].equals("-e")) {
+				machine = args[a + 1].equals("machine");
+			}else if (args[a].equals("-t")) {
+				harts = Integer.parseInt(args[a + 1]);
+			}else if (args[a].equals("-T")) {
+				timeout = Long.parseLong(args[a + 1]);
+			}else if (args[a].equals("-R")) {
+				restoreFrom = Paths.get(args[a + 1]);
+			}else if (args[a].equals("-S")) {
+				saveTo = Paths.get(args[a + 1]);
+			}else if (args[a].equals("-m")) {
+				layout = MemoryLayout.fromSpec(args[a + 1]);
+			}
+		}
+		if (harts < 1 || (harts > 1 && machine)) {
+			System.err.println("-t needs at least one hart, and machine code runs on one");
+			System.exit(64);
+		}
+		if ((restoreFrom != null || saveTo != null) && (harts > 1 || machine)) {
+			System.err.println("snapshots are only taken of IR runs on one hart");
+			System.exit(64);
+		}
+
+		String source = new String(Files.readAllBytes(Paths.get(filename)));
+		BatchRunner_IOF iof = new BatchRunner_IOF(input, System.out);
+		BatchRunner runner = new BatchRunner(instructionType, iof);
+		runner.setOptimizer(optimizer);
+		runner.setMachineCode(machine);
+		runner.setHarts(harts);
+		runner.setTimeout(timeout);
+		runner.setSnapshots(restoreFrom, saveTo);
+		runner.setMemoryLayout(layout);
+		ExitState state = runner.run(source, budget);
+		System.out.flush();
+		System.err.println(runner.report(filename, state));
+		System.exit(state.ordinal());
+	}
+
+	private String _instructionType;
+	private BatchRunner_IOF _iof;
+	private ExecVM _execVM;
+	private MachineVM _machineVM;
+	private boolean _machineCode;
+	private HartGroup _hartGroup;
+	private int _harts = 1;
+	private long _timeoutNanos;
+	private Path _restoreFrom;
+	private Path _saveTo;
+	private long _instructionCount;
+	private long _wallNanos;
+	private String _error;
+	private Optimizer _optimizer;
+	private MemoryLayout _layout = MemoryLayout.DEFAULT;
+
+	public BatchRunner(String instructionType, BatchRunner_IOF iof) {
+		_instructionType = instructionType;
+		_iof = iof;
+	}
+
+	/**
+	 * @param optimizer - applied to every program run parses, or null to run it as written
+	 */
+	public void setOptimizer(Optimizer optimizer) {
+		_optimizer = optimizer;
+	}
+
+	/**
+	 * @param machineCode - run RISC-V programs as encoded machine code rather than IR
+	 */
+	public void setMachineCode(boolean machineCode) {
+		_machineCode = machineCode;
+	}
+
+	/**
+	 * @param millis - wall clock time a run may take before it stops with TIMEOUT, 0 for no limit.
+	 * The clock is checked between slices of instructions, and not while harts run.
+	 */
+	public void setTimeout(long millis) {
+		_timeoutNanos = millis * 1_000_000L;
+	}
+
+	/**
+	 * @param restoreFrom - snapshot to restore after loading a program, or null to run it from the start
+	 * @param saveTo - where to save a snapshot once a run stops, or null for none
+	 */
+	public void setSnapshots(Path restoreFrom, Path saveTo) {
+		_restoreFrom = restoreFrom;
+		_saveTo = saveTo;
+	}
+
+	/**
+	 * @param layout - where the virtual machine places the program in memory
+	 */
+	public void setMemoryLayout(MemoryLayout layout) {
+		_layout = layout;
+	}
+
+	/**
+	 * @param harts - how many harts run RISC-V programs, 1 for a single ExecVM
+	 */
+	public void setHarts(int harts) {
+		_harts = harts;
+	}
+
+	/**
+	 * Parses and runs source, see execute.
+	 */
+	public ExitState run(String source, long budget) {
+		if (!prepare(source)) {
+			return ExitState.PARSE_ERROR;
+		}
+		try {
+			if (_restoreFrom != null) {
+				VMSnapshot.restore(_execVM, _restoreFrom);
+			}
+			ExitState state = execute(budget);
+			if (_saveTo != null) {
+				VMSnapshot.save(_execVM, _saveTo);
+			}
+			return state;
+		}catch (IOException e) {
+			_error = e.getMessage();
+			return ExitState.ERROR;
+		}
+	}
+
+	/**
+	 * Parses and loads source without running it.
+	 * @return false if it could not be, with the reason in getError
+	 */
+	public boolean prepare(String source) {
+		try {
+			ParseOutput parsed = parse(_instructionType, source);
+			if (_optimizer != null) {
+				parsed = _optimizer.optimize(parsed);
+			}
+			load(parsed);
+			return true;
+		}catch (ParseException e) {
+			_error = e.getLineNumber() == null ? e.getMessage() : e.getMessage() + " on line " + e.getLineNumber();
+		}catch (MemoryException e) {
+			_error = e.getMessage();
+		}
+		return false;
+	}
+
+	/**
+	 * A runner for a fork of this runner's virtual machine, paused where it is, see
+	 * ExecVM.fork. Forks are cheap, and can be executed on separate threads, but must
+	 * be taken on the thread that owns this runner.
+	 * @param iof - where the fork reads its input and prints its output
+	 * @throws IllegalStateException if the program runs on harts or as machine code
+	 */
+	public BatchRunner fork(BatchRunner_IOF iof) {
+		if (_hartGroup != null || _machineVM != null) {
+			throw new IllegalStateException("Only IR runs on one hart can be forked");
+		}
+		BatchRunner fork = new BatchRunner(_instructionType, iof);
+		fork._optimizer = _optimizer;
+		fork._timeoutNanos = _timeoutNanos;
+		fork._layout = _layout;
+		fork._execVM = _execVM.fork(iof);
+		return fork;
+	}
+
+	/**
+	 * Runs the loaded program until it halts, blocks, fails, or executes budget instructions.
+	 */
+	public ExitState execute(long budget) {
+		_error = null;
+		ExitState state = null;
+		long count = 0;
+		long startTime = System.nanoTime();
+		if (_hartGroup != null) {
+			state = executeHarts(budget);
+			_wallNanos = System.nanoTime() - startTime;
+			_instructionCount = _hartGroup.getTotalRunCount();
+			return state;
+		}
+		long deadline = startTime + _timeoutNanos;
+		try {
+			while (state == null) {
+				long slice = _timeoutNanos > 0 ? Math.min(TIMEOUT_SLICE, budget - count) : budget - count;
+				StopReason reason;
+				if (_machineVM != null) {
+					reason = _machineVM.run(slice);
+					count += _machineVM.getLastRunCount();
+				}else {
+					reason = _execVM.run(slice);
+					count += _execVM.getLastRunCount();
+				}
+				switch (reason) {
+				case HALT:
+					state = ExitState.HALTED;
+					break;
+				case BUDGET:
+					if (count >= budget) {
+						state = ExitState.BUDGET;
+					}else if (System.nanoTime() - deadline > 0) {
+						state = ExitState.TIMEOUT;
+					}
+					break;
+				case ERROR:
+					Exception error = _machineVM != null ? _machineVM.getLastError() : _execVM.getLastError();
+					_error = error.getMessage() + " on line " + getPC();
+					state = ExitState.ERROR;
+					break;
+				case BLOCKED_READ:
+					state = ExitState.BLOCKED;
+					break;
+				case WAITING:
+					//a scheduled event is still to come, anything else needs a key or click
+					if (_execVM.awaitingInput()) {
+						state = ExitState.BLOCKED;
+					}else if (_timeoutNanos <= 0) {
+						_execVM.awaitEvent(Long.MAX_VALUE);
+					}else if (System.nanoTime() - deadline > 0) {
+						state = ExitState.TIMEOUT;
+					}else {
+						_execVM.awaitEvent(deadline - System.nanoTime());
+					}
+					break;
+				default:
+					break;
+				}
+			}
+		}catch (RuntimeException e) {
+			_error = e + " on line " + getPC();
+			state = ExitState.ERROR;
+		}
+		_wallNanos = System.nanoTime() - startTime;
+		_instructionCount = count;
+		return state;
+	}
+
+	private ExitState executeHarts(long budget) {
+		StopReason reason;
+		try {
+			reason = _hartGroup.run(budget);
+		}catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			_error = "interrupted";
+			return ExitState.ERROR;
+		}
+		switch (reason) {
+		case HALT:
+			return ExitState.HALTED;
+		case BUDGET:
+			return ExitState.BUDGET;
+		case ERROR:
+			int h = _hartGroup.getFailedHart();
+			_error = "hart " + h + ": " + _hartGroup.getFirstError().getMessage()
+					+ " on line " + _hartGroup.getHart(h).getPC();
+			return ExitState.ERROR;
+		default:
+			return ExitState.BLOCKED;
+		}
+	}
+
+	public static ParseOutput parse(String instructionType, String source) throws ParseException {
+		ParseInterface parser = instructionType.equals("r") ? new RiscvParse() : new YaalParse();
+		return parser.parseSource(source);
+	}
+
+	/**
+	 * Sets up a fresh virtual machine for an already parsed program, and assembles it to
+	 * machine code first when machine code is on.
+	 */
+	public void load(ParseOutput parsedInput) throws MemoryException, ParseException {
+		List<intermediateRepresentation> instructions = new ArrayList<>();
+		for (Pair<intermediateRepresentation, Integer> pair : parsedInput.getInstructions().getList()) {
+			instructions.add(pair.first());
+		}
+
+		boolean harts = _harts > 1 && _instructionType.equals("r");
+		_execVM = new ExecVM(_iof, harts ? MemorySystem.Backend.SHARED : MemorySystem.Backend.PAGED, _layout);
+		_execVM.setTracking(false);
+		_execVM.loadInstructions(instructions);
+		_execVM.loadSymbolTable(parsedInput.getSymbolTable());
+		_execVM.loadFrameLayout(parsedInput.getFrameLayout());
+
+		if (_instructionType.equals("r")) {
+			Map<String, Integer> regList = new TreeMap<>();
+			for (String reg : RiscRegisters.REGISTERS) {
+				regList.put(reg, reg.equals("sp") ? _execVM.getOS().getStackPointer() : 0);
+			}
+			_execVM.loadGlobals(regList, false);
+			_execVM.loadData(parsedInput.getData());
+			_execVM.loadROs(RiscRegisters.READ_ONLY);
+		}
+
+		_hartGroup = harts ? new HartGroup(_execVM, _harts) : null;
+		_machineVM = null;
+		if (_machineCode && _instructionType.equals("r")) {
+			List<Integer> words = AbsToMachine.parseAbstracts(parsedInput.getInstructions(), parsedInput.getSymbolTable(), parsedInput.getData());
+			_machineVM = new MachineVM(_execVM);
+			_machineVM.load(words, parsedInput.getData());
+		}
+	}
+
+	public ExecVM getVM() {
+		return _execVM;
+	}
+
+	/**
+	 * @return the line execution is at, in machine code when running machine code
+	 */
+	public int getPC() {
+		if (_machineVM != null) {
+			return _machineVM.getLine();
+		}
+		return _execVM != null ? _execVM.getPC() : -1;
+	}
+
+	public long getInstructionCount() {
+		return _instructionCount;
+	}
+
+	public long getWallNanos() {
+		return _wallNanos;
+	}
+
+	/**
+	 * @return why the last run failed, null if it did not
+	 */
+	public String getError() {
+		return _error;
+	}
+
+	public String report(String filename, ExitState state) {
+		double wallMillis = _wallNanos / 1e6;
+		long perSecond = _wallNanos > 0 ? (long) (_instructionCount * 1e9 / _wallNanos) : 0;
+		return "{\"file\":" + quote(filename)
+				+ ",\"arch\":" + quote(_instructionType)
+				+ ",\"state\":" + quote(state.name())
+				+ ",\"instructions\":" + _instructionCount
+				+ ",\"wall_ms\":" + String.format(Locale.ROOT, "%.3f", wallMillis)
+				+ ",\"instructions_per_sec\":" + perSecond
+				+ ",\"engine\":" + quote(_machineVM != null ? "machine" : "ir")
+				+ ",\"harts\":" + (_hartGroup != null ? _hartGroup.getHartCount() : 1)
+				+ ",\"pc\":" + getPC()
+				+ ",\"io_errors\":" + _iof.getErrorCount()
+				+ ",\"error\":" + (_error != null ? quote(_error) : "null")
+				+ ",\"promoted_loops\":" + promotedLoops()
+				+ ",\"heap\":" + heapStats()
+				+ "}";
+	}
+
+	private String heapStats() {
+		if (_execVM == null) {
+			return "null";
+		}
+		HeapAllocator heap = _execVM.getOS().getHeap();
+		return "{\"live_bytes\":" + heap.getLiveBytes()
+				+ ",\"live_blocks\":" + heap.getLiveBlocks()
+				+ ",\"free_bytes\":" + heap.getFreeBytes()
+				+ ",\"heap_bytes\":" + (heap.getTop() - heap.getBase())
+				+ ",\"fragmentation\":" + String.format(Locale.ROOT, "%.3f", heap.getFragmentation())
+				+ "}";
+	}
+
+	private String promotedLoops() {
+		TierManager tiers = _execVM != null ? _execVM.getTiers() : null;
+		if (tiers == null) {
+			return "[]";
+		}
+		List<String> loops = new ArrayList<>();
+		for (TierManager.Region r : tiers.getRegions()) {
+			double share = _instructionCount > 0 ? (double) r.getExecuted() / _instructionCount : 0;
+			loops.add("{\"start\":" + r.getStart()
+					+ ",\"end\":" + r.getEnd()
+					+ ",\"iterations\":" + r.getBackEdges()
+					+ ",\"share\":" + String.format(Locale.ROOT, "%.3f", share)
+					+ "}");
+		}
+		return "[" + String.join(",", loops) + "]";
+	}
+
+	static String quote(String s) {
+		StringBuilder q = new StringBuilder("\"");
+		for (char c : s.toCharArray()) {
+			if (c == '"' || c == '\\') {
+				q.append('\\').append(c);
+			}else if (c < 0x20) {
+				q.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+			}else {
+				q.append(c);
+			}
+		}
+		return q.append('"').toString();
+	}
+}
@@ -0,0 +1,126 @@
+package textInterface;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+
+import virtual_machine.IOFunctions;
+
+/**
+ * IOFunctions for unattended runs: input is read from a script instead of prompting,
+ * program output goes to the given stream and errors are counted rather than printed.
+ * Once the script runs out, reads return 0 or an empty string.
+ */
+public class BatchRunner_IOF implements IOFunctions {
+
+	private BufferedReader _input;
+	private PrintStream _out;
+	private int _errors;
+
+	/**
+	 * @param input - scripted input, or null if the program should see no input
+	 * @param out - where program output is printed
+	 */
+	public BatchRunner_IOF(BufferedReader input, PrintStream out) {
+		_input = input;
+		_out = out;
+		_errors = 0;
+	}
+
+	public void printInt(int i) {
+		_out.println(i);
+	}
+
+	public Integer readInt(String message) {
+		String token = nextToken();
+		try {
+			return Integer.parseInt(token);
+		}catch (NumberFormatException e) {
+			reportError("Error: Non-integer entered, using default value 0");
+			return 0;
+		}
+	}
+
+	public byte[] readString(String message) {
+		String line = nextLine();
+		return line == null ? new byte[0] : line.getBytes();
+	}
+
+	public void printString(String s) {
+		_out.println(s);
+	}
+
+	public void printChar(char c) {
+		_out.print(c);
+	}
+
+	public Character readChar(String message) {
+		int c = nextChar();
+		while (c == '\n' || c == '\r') {
+			c = nextChar();
+		}
+		return c < 0 ? 0 : (char) c;
+	}
+
+	public void reportError(String message) {
+		_errors++;
+	}
+
+	public int getErrorCount() {
+		return _errors;
+	}
+
+	//SECTION: SCRIPT READING
+	private String nextLine() {
+		if (_input == null) {
+			return null;
+		}
+		try {
+			return _input.readLine();
+		}catch (IOException e) {
+			return null;
+		}
+	}
+
+	private int nextChar() {
+		if (_input == null) {
+			return -1;
+		}
+		try {
+			return _input.read();
+		}catch (IOException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Reads the next whitespace separated token, and the one whitespace character after it;
+	 * a token ending a line takes the whole line break, so a line read next starts after it.
+	 */
+	private String nextToken() {
+		StringBuilder token = new StringBuilder();
+		int c = nextChar();
+		while (c >= 0 && Character.isWhitespace(c)) {
+			c = nextChar();
+		}
+		while (c >= 0 && !Character.isWhitespace(c)) {
+			token.append((char) c);
+			c = nextChar();
+		}
+		if (c == '\r') {
+			skipNewline();
+		}
+		return token.toString();
+	}
+
+	private void skipNewline() {
+		try {
+			_input.mark(1);
+			if (_input.read() != '\n') {
+				_input.reset();
+			}
+		}catch (IOException e) {
+			//nothing more to read
+		}
+	}
+}
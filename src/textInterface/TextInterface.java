@@ -22,23 +22,36 @@ import parse.ParseOutput;
 import virtual_machine.ExecVM;
 import virtual_machine.IOFunctions;
 import virtual_machine.MemoryException;
+import virtual_machine.MemoryLayout;
+import virtual_machine.MemorySystem;
+import virtual_machine.StopReason;
+import virtual_machine.UndoLog;
 
 public class TextInterface {
 
 	private static Scanner _scanner = new Scanner(System.in);
 	private static ExecVM _execVM;
 	private static IOFunctions _fo = new TextInterface_IOF();
+	private static MemoryLayout _layout = MemoryLayout.DEFAULT;
 
 	static ParseOutput _parsedInput;
 	static List<intermediateRepresentation> _instructions;
 
+	/**
+	 * usage: TextInterface [-m small | large | segment=base:size,...]
+	 * -m places programs in memory with that MemoryLayout.
+	 */
 	public static void main(String args[]) throws IOException, ParseException, MemoryException {
+		if (args.length > 1 && args[0].equals("-m")) {
+			_layout = MemoryLayout.fromSpec(args[1]);
+		}
 
 		String RISCcommands = 
 						" l) load instructions from file \n" +
 						" i) enter single instruction \n" +
 						" e) execute all instructions \n" + 
 						" n) execute next instruction \n" + 
+						" b) step back one instruction \n" + 
 						" r) view altered registers \n" + 
 						" m) view altered  main memory \n" +
 						" p) view program counter \n" +
@@ -52,6 +65,7 @@ public class TextInterface {
 						" l) load instructions from file \n" +
 						" e) execute all instructions \n" + 
 						" n) execute next instruction \n" + 
+						" b) step back one instruction \n" + 
 						" r) view altered registers \n" + 
 						" m) view altered  main memory \n" +
 						" p) view program counter \n" +
@@ -93,16 +107,21 @@ public class TextInterface {
 
 			}else if (command.equals("e")) {
 
-				long startTime = System.currentTimeMillis();
+				long startTime = System.nanoTime();
 				while (_execVM.running()) {
-					try {
-						_execVM.tick();
-					} catch (OperationException | MemoryException e) {
-						System.out.println(e.getMessage() + " on line " + _execVM.getPC());
+					StopReason reason = _execVM.run(Long.MAX_VALUE);
+					if (reason == StopReason.ERROR) {
+						System.out.println(_execVM.getLastError().getMessage() + " on line " + _execVM.getPC());
+					}else if (reason == StopReason.WAITING) {
+						if (_execVM.awaitingInput()) {
+							System.out.println("Waiting for a key event (k)");
+							break;
+						}
+						_execVM.awaitEvent(Long.MAX_VALUE);
 					}
 				}
-				long endTime = System.currentTimeMillis();
-				long runTime = endTime - startTime;
+				long endTime = System.nanoTime();
+				long runTime = (endTime - startTime) / 1000000;
 				System.out.println("Execution complete in " + runTime + "ms");
 
 
@@ -119,6 +138,14 @@ public class TextInterface {
 
 				}
 
+			}else if (command.equals("b")) {
+				long steps = _execVM.stepBack();
+				if (steps == 0) {
+					System.out.println("No instruction to step back to");
+				}else if (steps > 1) {
+					System.out.println("Went back " + steps + " instructions to the last checkpoint");
+				}
+
 			}else if (command.equals("r")) {
 				try {
 					//System.out.println("Registers: " + _execVM.prinTemps() + "..." +  _execVM.printGlobals());
@@ -142,7 +169,7 @@ public class TextInterface {
 				}
 
 			}else if (command.equals("c") && instructionType.equals("r")) {
-				ArrayList<Integer> machineCode = AbsToMachine.parseAbstracts(_instructions, _parsedInput.getSymbolTable(), _parsedInput.getData());
+				ArrayList<Integer> machineCode = AbsToMachine.parseAbstracts(_parsedInput.getInstructions(), _parsedInput.getSymbolTable(), _parsedInput.getData());
 				System.out.println("Machine Code: " + printMachineCode(machineCode));
 
 			}else if (command.equals("a")) {
@@ -188,7 +215,7 @@ public class TextInterface {
 		try {
 			_parsedInput = parser.parseSource(source);
 		}catch (ParseException e) {
-			System.out.println(e.getMessage() + " on line " + e.getLineNumber());
+			System.out.println(e.getLineNumber() == null ? e.getMessage() : e.getMessage() + " on line " + e.getLineNumber());
 		}
 
 		_instructions = new ArrayList<>();
@@ -197,9 +224,11 @@ public class TextInterface {
 		}
 
 		//INITIALIZE EXECUTION ENVIRONMENT
-		_execVM = new ExecVM(_fo);
+		_execVM = new ExecVM(_fo, MemorySystem.Backend.PAGED, _layout);
+		_execVM.setRecording(new UndoLog());
 		_execVM.loadInstructions(_instructions);
 		_execVM.loadSymbolTable(_parsedInput.getSymbolTable());
+		_execVM.loadFrameLayout(_parsedInput.getFrameLayout());
 		
 		if(instructionType.equals("r")) {
 			 _execVM.loadGlobals(makeRiscRegs(), false);
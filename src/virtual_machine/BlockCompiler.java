@@ -0,0 +1,461 @@
+package virtual_machine;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+import intermediateRepresentation.Temporary;
+import operation_syntax.Operation;
+
+/**
+ * Compiles basic blocks of a DecodedProgram to JVM bytecode, one hidden class per block,
+ * when the TierManager finds them hot.
+ * Blocks start at leaders: line 0, branch and jump targets, and the line after any
+ * control transfer. From its leader a block takes decoded lines that only touch RISC-V
+ * registers and memory, up to and including the first branch or jump. Anything else
+ * (syscalls, YAAL frames, division, which reports errors) ends the block and stays
+ * with the interpreter, as do runs with a breakpoint inside the block.
+ */
+public class BlockCompiler {
+
+	public static final int DEFAULT_THRESHOLD = 1000;
+	private static final int MAX_LINES = 128;
+	//stay under HotSpot's limit for compiling a method
+	private static final int MAX_CODE = 7000;
+	private static final int NOT_LEADER = -1;
+	private static final int LEADER = 0;
+	private static final int TRIED = 1;
+
+	private static final String VM = "virtual_machine/ExecVM";
+	private static final String BLOCK = "virtual_machine/CompiledBlock";
+	private static final String EXECUTE = "([ILvirtual_machine/ExecVM;)I";
+
+	private final DecodedProgram _program;
+	private final int[] _state;
+	private final CompiledBlock[] _blocks;
+	private final int[] _lengths;
+	private int _compiled;
+
+	public BlockCompiler(DecodedProgram program) {
+		_program = program;
+		int size = program.size();
+		_state = new int[size];
+		_blocks = new CompiledBlock[size];
+		_lengths = new int[size];
+		_compiled = 0;
+		findLeaders();
+	}
+
+	/**
+	 * @return the compiled blocks indexed by their first line, null where there is none
+	 */
+	public CompiledBlock[] getBlocks() {
+		return _blocks;
+	}
+
+	/**
+	 * @return the number of lines the block starting at pc executes
+	 */
+	public int blockLength(int pc) {
+		return _lengths[pc];
+	}
+
+	public int getCompiledCount() {
+		return _compiled;
+	}
+
+	/**
+	 * Compiles the block starting at pc, unless no block starts there or it was already tried.
+	 */
+	void promote(int pc) {
+		if (_state[pc] == LEADER) {
+			compile(pc);
+		}
+	}
+
+	//SECTION: BASIC BLOCKS
+	private void findLeaders() {
+		int[] code = _program.getCode();
+		for (int pc = 0; pc < _state.length; pc++) {
+			_state[pc] = NOT_LEADER;
+		}
+		if (_state.length > 0) {
+			_state[0] = LEADER;
+		}
+		for (int pc = 0; pc < _state.length; pc++) {
+			int at = pc * DecodedProgram.STRIDE;
+			switch (DecodedProgram.opcode(code[at])) {
+			case DecodedProgram.BRANCH_TT:
+			case DecodedProgram.BRANCH_TI:
+			case DecodedProgram.JUMP:
+				leader(code[at + 3]);
+				leader(pc + 1);
+				break;
+			case DecodedProgram.JUMP_T:
+			case DecodedProgram.GENERIC:
+				leader(pc + 1);
+				break;
+			default:
+			}
+		}
+	}
+
+	private void leader(int pc) {
+		if (pc >= 0 && pc < _state.length && _state[pc] == NOT_LEADER) {
+			_state[pc] = LEADER;
+		}
+	}
+
+	private static boolean endsBlock(int opcode) {
+		return opcode == DecodedProgram.BRANCH_TT || opcode == DecodedProgram.BRANCH_TI
+				|| opcode == DecodedProgram.JUMP || opcode == DecodedProgram.JUMP_T;
+	}
+
+	//SECTION: COMPILATION
+	private void compile(int start) {
+		_state[start] = TRIED;
+		int[] code = _program.getCode();
+		ClassFileWriter w = new ClassFileWriter();
+		int pc = start;
+		boolean ended = false;
+		while (!ended && pc < _state.length && pc - start < MAX_LINES
+				&& w.codeLength() < MAX_CODE && compilable(code, pc * DecodedProgram.STRIDE)) {
+			ended = endsBlock(DecodedProgram.opcode(code[pc * DecodedProgram.STRIDE]));
+			emitLine(w, code, pc);
+			pc++;
+		}
+		if (pc == start) {
+			return;
+		}
+		if (!ended) {
+			w.pushInt(pc);
+			w.op(ClassFileWriter.IRETURN);
+		}
+		try {
+			byte[] bytes = w.toClassFile("virtual_machine/Block", BLOCK, "execute", EXECUTE, 8, 3);
+			MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+			_blocks[start] = (CompiledBlock) lookup.findConstructor(lookup.lookupClass(),
+					MethodType.methodType(void.class)).invoke();
+			_lengths[start] = pc - start;
+			_compiled++;
+		}catch (Throwable e) {
+			//leave the block to the interpreter
+			_blocks[start] = null;
+		}
+	}
+
+	private boolean compilable(int[] code, int at) {
+		int header = code[at];
+		switch (DecodedProgram.opcode(header)) {
+		case DecodedProgram.MOVE_T:
+			return dest(code[at + 1]) && reg(code[at + 2]);
+		case DecodedProgram.MOVE_I:
+			return dest(code[at + 1]);
+		case DecodedProgram.ALU_TT:
+			return inline(header) && dest(code[at + 1]) && reg(code[at + 2]) && reg(code[at + 3]);
+		case DecodedProgram.ALU_TI:
+			return inline(header) && dest(code[at + 1]) && reg(code[at + 2]);
+		case DecodedProgram.ALU_IT:
+			return inline(header) && dest(code[at + 1]) && reg(code[at + 3]);
+		case DecodedProgram.LOAD:
+			return dest(code[at + 1]) && reg(code[at + 2]);
+		case DecodedProgram.STORE:
+			return reg(code[at + 1]) && reg(code[at + 2]);
+		case DecodedProgram.LOAD_X:
+			return dest(code[at + 1]) && reg(code[at + 2]) && (indexImm(header) || reg(code[at + 3]));
+		case DecodedProgram.STORE_X:
+			return (valueImm(header) || reg(code[at + 1])) && reg(code[at + 2])
+					&& (indexImm(header) || reg(code[at + 3]));
+		case DecodedProgram.BRANCH_TT:
+			return inline(header) && reg(code[at + 1]) && reg(code[at + 2]);
+		case DecodedProgram.BRANCH_TI:
+			return inline(header) && reg(code[at + 1]);
+		case DecodedProgram.JUMP:
+			return dest(code[at + 1]);
+		case DecodedProgram.JUMP_T:
+			return dest(code[at + 1]) && reg(code[at + 3]);
+		default:
+			return false;
+		}
+	}
+
+	private static boolean inline(int header) {
+		switch (Operation.values()[DecodedProgram.operation(header)]) {
+		case DIV:
+		case DIV_U:
+		case REM:
+		case REM_U:
+			return false;
+		default:
+			return true;
+		}
+	}
+
+	private static boolean indexImm(int header) {
+		return (DecodedProgram.operation(header) & DecodedProgram.INDEX_IMM) != 0;
+	}
+
+	private static boolean valueImm(int header) {
+		return (DecodedProgram.operation(header) & DecodedProgram.VALUE_IMM) != 0;
+	}
+
+	private boolean reg(int temp) {
+		Temporary t = _program.getTemps()[temp];
+		return t.isGlobal() && t.getIndex() >= 0;
+	}
+
+	private boolean dest(int temp) {
+		return temp == DecodedProgram.NO_DEST || reg(temp);
+	}
+
+	//SECTION: CODE GENERATION
+	//locals: 0 this, 1 int[] registers, 2 ExecVM
+	private void emitLine(ClassFileWriter w, int[] code, int pc) {
+		int at = pc * DecodedProgram.STRIDE;
+		int header = code[at];
+		int a = code[at + 1];
+		int b = code[at + 2];
+		int c = code[at + 3];
+		Operation op = Operation.values()[DecodedProgram.operation(header)];
+		int size = DecodedProgram.memSize(header);
+
+		switch (DecodedProgram.opcode(header)) {
+		case DecodedProgram.MOVE_T:
+			if (a != DecodedProgram.NO_DEST) {
+				beginWrite(w, a);
+				readReg(w, b);
+				w.op(ClassFileWriter.IASTORE);
+			}
+			break;
+		case DecodedProgram.MOVE_I:
+			if (a != DecodedProgram.NO_DEST) {
+				beginWrite(w, a);
+				w.pushInt(b);
+				w.op(ClassFileWriter.IASTORE);
+			}
+			break;
+		case DecodedProgram.ALU_TT:
+		case DecodedProgram.ALU_TI:
+		case DecodedProgram.ALU_IT:
+			if (a != DecodedProgram.NO_DEST) {
+				beginWrite(w, a);
+				int opcode = DecodedProgram.opcode(header);
+				emitOperand(w, op, opcode == DecodedProgram.ALU_IT, b);
+				emitOperand(w, op, opcode == DecodedProgram.ALU_TI, c);
+				emitCalculate(w, op);
+				w.op(ClassFileWriter.IASTORE);
+			}
+			break;
+		case DecodedProgram.LOAD:
+			beginWrite(w, a);
+			w.op(ClassFileWriter.ALOAD_2);
+			readReg(w, b);
+			w.pushInt(c);
+			w.op(ClassFileWriter.IADD);
+			emitLoad(w, a, size, pc);
+			break;
+		case DecodedProgram.LOAD_X:
+			beginWrite(w, a);
+			w.op(ClassFileWriter.ALOAD_2);
+			emitScaled(w, header, b, c);
+			emitLoad(w, a, size, pc);
+			break;
+		case DecodedProgram.STORE:
+			w.op(ClassFileWriter.ALOAD_2);
+			readReg(w, b);
+			w.pushInt(c);
+			w.op(ClassFileWriter.IADD);
+			w.pushInt(size);
+			readReg(w, a);
+			emitStore(w, pc);
+			break;
+		case DecodedProgram.STORE_X:
+			w.op(ClassFileWriter.ALOAD_2);
+			emitScaled(w, header, b, c);
+			w.pushInt(size);
+			if (valueImm(header)) {
+				w.pushInt(a);
+			}else {
+				readReg(w, a);
+			}
+			emitStore(w, pc);
+			break;
+		case DecodedProgram.BRANCH_TT:
+		case DecodedProgram.BRANCH_TI: {
+			int taken = w.newLabel();
+			emitOperand(w, op, false, a);
+			emitOperand(w, op, DecodedProgram.opcode(header) == DecodedProgram.BRANCH_TI, b);
+			int compare = compareOpcode(op);
+			if (compare < 0) {
+				//taken when the operation yields 1, as in the interpreter
+				emitCalculate(w, op);
+				w.op(ClassFileWriter.ICONST_1);
+				compare = ClassFileWriter.IF_ICMPEQ;
+			}
+			w.jump(compare, taken);
+			w.pushInt(pc + 1);
+			w.op(ClassFileWriter.IRETURN);
+			w.mark(taken);
+			w.pushInt(c);
+			w.op(ClassFileWriter.IRETURN);
+			break;
+		}
+		case DecodedProgram.JUMP:
+			writeLink(w, a, pc);
+			w.pushInt(c);
+			w.op(ClassFileWriter.IRETURN);
+			break;
+		case DecodedProgram.JUMP_T:
+			//the link is written before the target is read, as in the interpreter
+			writeLink(w, a, pc);
+			readReg(w, c);
+			w.op(ClassFileWriter.IRETURN);
+			break;
+		default:
+			throw new IllegalStateException("not compilable: " + pc);
+		}
+	}
+
+	/**
+	 * Pushes the register array and index for a following iastore,
+	 * or nothing when the destination is discarded.
+	 */
+	private void beginWrite(ClassFileWriter w, int dest) {
+		if (dest != DecodedProgram.NO_DEST) {
+			w.op(ClassFileWriter.ALOAD_1);
+			w.pushInt(register(dest));
+		}
+	}
+
+	private void writeLink(ClassFileWriter w, int dest, int pc) {
+		if (dest != DecodedProgram.NO_DEST) {
+			beginWrite(w, dest);
+			w.pushInt(pc + 1);
+			w.op(ClassFileWriter.IASTORE);
+		}
+	}
+
+	private void readReg(ClassFileWriter w, int temp) {
+		w.op(ClassFileWriter.ALOAD_1);
+		w.pushInt(register(temp));
+		w.op(ClassFileWriter.IALOAD);
+	}
+
+	private int register(int temp) {
+		return _program.getTemps()[temp].getIndex();
+	}
+
+	private void emitOperand(ClassFileWriter w, Operation op, boolean immediate, int value) {
+		if (immediate) {
+			w.pushInt(value);
+		}else {
+			readReg(w, value);
+		}
+		if (unsigned(op)) {
+			//flipping the sign bit turns an unsigned compare into a signed one
+			w.pushInt(Integer.MIN_VALUE);
+			w.op(ClassFileWriter.IXOR);
+		}
+	}
+
+	private void emitScaled(ClassFileWriter w, int header, int base, int index) {
+		readReg(w, base);
+		if (indexImm(header)) {
+			w.pushInt(index);
+		}else {
+			readReg(w, index);
+		}
+		w.op(ClassFileWriter.IADD);
+		w.pushInt(DecodedProgram.scale(header));
+		w.op(ClassFileWriter.IMUL);
+	}
+
+	//stack: [regs, reg,] vm, address -> stored, or dropped when there is no destination
+	private void emitLoad(ClassFileWriter w, int dest, int size, int pc) {
+		w.pushInt(size);
+		w.pushInt(pc + 1);
+		w.invoke(ClassFileWriter.INVOKEVIRTUAL, VM, "jitLoad", "(III)I");
+		w.op(dest != DecodedProgram.NO_DEST ? ClassFileWriter.IASTORE : ClassFileWriter.POP);
+	}
+
+	//stack: vm, address, size, value
+	private void emitStore(ClassFileWriter w, int pc) {
+		w.pushInt(pc + 1);
+		w.invoke(ClassFileWriter.INVOKEVIRTUAL, VM, "jitStore", "(IIII)V");
+	}
+
+	/**
+	 * Consumes two operands and pushes the result, with the semantics of ExecVM.calculate.
+	 */
+	private void emitCalculate(ClassFileWriter w, Operation op) {
+		switch (op) {
+		case ADD:
+			w.op(ClassFileWriter.IADD);
+			return;
+		case SUB:
+			w.op(ClassFileWriter.ISUB);
+			return;
+		case MULT:
+			w.op(ClassFileWriter.IMUL);
+			return;
+		case SHIFT_LEFT:
+			w.op(ClassFileWriter.ISHL);
+			return;
+		case SHIFT_RIGHT_L:
+			w.op(ClassFileWriter.IUSHR);
+			return;
+		case SHIFT_RIGHT_A:
+			w.op(ClassFileWriter.ISHR);
+			return;
+		case X_OR:
+			w.op(ClassFileWriter.IXOR);
+			return;
+		case AND:
+			w.op(ClassFileWriter.IAND);
+			return;
+		case OR:
+			w.op(ClassFileWriter.IOR);
+			return;
+		default:
+		}
+		int compare = compareOpcode(op);
+		if (compare < 0) {
+			throw new IllegalStateException("not inlined: " + op);
+		}
+		int yes = w.newLabel();
+		int done = w.newLabel();
+		w.jump(compare, yes);
+		w.op(ClassFileWriter.ICONST_0);
+		w.jump(ClassFileWriter.GOTO, done);
+		w.mark(yes);
+		w.op(ClassFileWriter.ICONST_1);
+		w.mark(done);
+	}
+
+	private static int compareOpcode(Operation op) {
+		switch (op) {
+		case EQUAL:
+			return ClassFileWriter.IF_ICMPEQ;
+		case NOT_EQUAL:
+			return ClassFileWriter.IF_ICMPNE;
+		case LESS:
+		case LESS_U:
+			return ClassFileWriter.IF_ICMPLT;
+		case LESS_EQUAL:
+		case LESS_EQUAL_U:
+			return ClassFileWriter.IF_ICMPLE;
+		case GREATER:
+		case GREATER_U:
+			return ClassFileWriter.IF_ICMPGT;
+		case GREATER_EQUAL:
+		case GREATER_EQUAL_U:
+			return ClassFileWriter.IF_ICMPGE;
+		default:
+			return -1;
+		}
+	}
+
+	private static boolean unsigned(Operation op) {
+		return op == Operation.LESS_U || op == Operation.LESS_EQUAL_U
+				|| op == Operation.GREATER_U || op == Operation.GREATER_EQUAL_U;
+	}
+}
@@ -0,0 +1,283 @@
+package virtual_machine;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Just enough of a class file writer for BlockCompiler: one class with a public
+ * no argument constructor and one public method whose code is built with the
+ * emit methods below. Class files are written as version 49, which the JVM
+ * verifies by type inference, so no stack map frames are needed for branches.
+ */
+class ClassFileWriter {
+
+	//SECTION: OPCODES
+	static final int ICONST_0 = 0x03;
+	static final int ICONST_1 = 0x04;
+	static final int BIPUSH = 0x10;
+	static final int SIPUSH = 0x11;
+	static final int LDC = 0x12;
+	static final int LDC_W = 0x13;
+	static final int ALOAD_0 = 0x2a;
+	static final int ALOAD_1 = 0x2b;
+	static final int ALOAD_2 = 0x2c;
+	static final int IALOAD = 0x2e;
+	static final int IASTORE = 0x4f;
+	static final int POP = 0x57;
+	static final int IADD = 0x60;
+	static final int ISUB = 0x64;
+	static final int IMUL = 0x68;
+	static final int ISHL = 0x78;
+	static final int ISHR = 0x7a;
+	static final int IUSHR = 0x7c;
+	static final int IAND = 0x7e;
+	static final int IOR = 0x80;
+	static final int IXOR = 0x82;
+	static final int IF_ICMPEQ = 0x9f;
+	static final int IF_ICMPNE = 0xa0;
+	static final int IF_ICMPLT = 0xa1;
+	static final int IF_ICMPGE = 0xa2;
+	static final int IF_ICMPGT = 0xa3;
+	static final int IF_ICMPLE = 0xa4;
+	static final int GOTO = 0xa7;
+	static final int IRETURN = 0xac;
+	static final int RETURN = 0xb1;
+	static final int INVOKEVIRTUAL = 0xb6;
+	static final int INVOKESPECIAL = 0xb7;
+
+	private static final int VERSION = 49;
+	private static final int ACC_PUBLIC = 0x0001;
+	private static final int ACC_FINAL = 0x0010;
+	private static final int ACC_SUPER = 0x0020;
+
+	private static final int CONSTANT_UTF8 = 1;
+	private static final int CONSTANT_INTEGER = 3;
+	private static final int CONSTANT_CLASS = 7;
+	private static final int CONSTANT_METHODREF = 10;
+	private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+	private final ByteArrayOutputStream _pool;
+	private final DataOutputStream _poolOut;
+	private final Map<String, Integer> _poolIndex;
+	private int _poolCount;
+
+	private byte[] _code;
+	private int _length;
+	private final List<Integer> _labels;
+	private final List<int[]> _fixups;
+
+	ClassFileWriter() {
+		_pool = new ByteArrayOutputStream();
+		_poolOut = new DataOutputStream(_pool);
+		_poolIndex = new HashMap<>();
+		_poolCount = 1;
+		_code = new byte[256];
+		_length = 0;
+		_labels = new ArrayList<>();
+		_fixups = new ArrayList<>();
+	}
+
+	//SECTION: CODE
+	int codeLength() {
+		return _length;
+	}
+
+	void op(int opcode) {
+		u1(opcode);
+	}
+
+	void pushInt(int value) {
+		if (value >= -1 && value <= 5) {
+			u1(ICONST_0 + value);
+		}else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+			u1(BIPUSH);
+			u1(value);
+		}else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+			u1(SIPUSH);
+			u2(value);
+		}else {
+			int index = integer(value);
+			if (index <= 0xFF) {
+				u1(LDC);
+				u1(index);
+			}else {
+				u1(LDC_W);
+				u2(index);
+			}
+		}
+	}
+
+	void invoke(int opcode, String owner, String name, String descriptor) {
+		u1(opcode);
+		u2(methodRef(owner, name, descriptor));
+	}
+
+	int newLabel() {
+		_labels.add(-1);
+		return _labels.size() - 1;
+	}
+
+	void mark(int label) {
+		_labels.set(label, _length);
+	}
+
+	/**
+	 * Emits a goto or if_icmp to a label, which may be marked later.
+	 */
+	void jump(int opcode, int label) {
+		_fixups.add(new int[] {_length, label});
+		u1(opcode);
+		u2(0);
+	}
+
+	private void u1(int b) {
+		if (_length == _code.length) {
+			_code = Arrays.copyOf(_code, _length * 2);
+		}
+		_code[_length++] = (byte) b;
+	}
+
+	private void u2(int v) {
+		u1(v >> 8);
+		u1(v);
+	}
+
+	//SECTION: CONSTANT POOL
+	private int utf8(String s) {
+		return constant("U" + s, () -> {
+			_poolOut.writeByte(CONSTANT_UTF8);
+			_poolOut.writeUTF(s);
+		});
+	}
+
+	private int integer(int value) {
+		return constant("I" + value, () -> {
+			_poolOut.writeByte(CONSTANT_INTEGER);
+			_poolOut.writeInt(value);
+		});
+	}
+
+	private int classRef(String name) {
+		int nameIndex = utf8(name);
+		return constant("C" + name, () -> {
+			_poolOut.writeByte(CONSTANT_CLASS);
+			_poolOut.writeShort(nameIndex);
+		});
+	}
+
+	private int methodRef(String owner, String name, String descriptor) {
+		int ownerIndex = classRef(owner);
+		int nameIndex = utf8(name);
+		int typeIndex = utf8(descriptor);
+		int nameAndType = constant("N" + name + descriptor, () -> {
+			_poolOut.writeByte(CONSTANT_NAME_AND_TYPE);
+			_poolOut.writeShort(nameIndex);
+			_poolOut.writeShort(typeIndex);
+		});
+		return constant("M" + owner + "." + name + descriptor, () -> {
+			_poolOut.writeByte(CONSTANT_METHODREF);
+			_poolOut.writeShort(ownerIndex);
+			_poolOut.writeShort(nameAndType);
+		});
+	}
+
+	private interface Entry {
+		void write() throws IOException;
+	}
+
+	private int constant(String key, Entry e) {
+		Integer index = _poolIndex.get(key);
+		if (index == null) {
+			try {
+				e.write();
+			}catch (IOException ex) {
+				throw new IllegalStateException(ex);
+			}
+			index = _poolCount++;
+			_poolIndex.put(key, index);
+		}
+		return index;
+	}
+
+	//SECTION: CLASS FILE
+	/**
+	 * @param name - internal name of the class, e.g. virtual_machine/Block
+	 * @param iface - internal name of the one interface it implements
+	 * @param method - name of the method holding the emitted code
+	 * @param descriptor - descriptor of that method
+	 * @param maxStack - operand stack depth the code needs
+	 * @param maxLocals - local variables the code needs, including this and the parameters
+	 * @return the class file bytes
+	 */
+	byte[] toClassFile(String name, String iface, String method, String descriptor, int maxStack, int maxLocals) {
+		for (int[] f : _fixups) {
+			int target = _labels.get(f[1]);
+			if (target < 0) {
+				throw new IllegalStateException("unmarked label " + f[1]);
+			}
+			int offset = target - f[0];
+			_code[f[0] + 1] = (byte) (offset >> 8);
+			_code[f[0] + 2] = (byte) offset;
+		}
+		byte[] body = Arrays.copyOf(_code, _length);
+
+		//constructor: super()
+		int superInit = methodRef("java/lang/Object", "<init>", "()V");
+		byte[] initBody = {(byte) ALOAD_0, (byte) INVOKESPECIAL, (byte) (superInit >> 8), (byte) superInit, (byte) RETURN};
+
+		int thisIndex = classRef(name);
+		int superIndex = classRef("java/lang/Object");
+		int ifaceIndex = classRef(iface);
+		int codeName = utf8("Code");
+		int initName = utf8("<init>");
+		int initType = utf8("()V");
+		int methodName = utf8(method);
+		int methodType = utf8(descriptor);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			out.writeInt(0xCAFEBABE);
+			out.writeShort(0);
+			out.writeShort(VERSION);
+			out.writeShort(_poolCount);
+			_poolOut.flush();
+			_pool.writeTo(out);
+			out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+			out.writeShort(thisIndex);
+			out.writeShort(superIndex);
+			out.writeShort(1);
+			out.writeShort(ifaceIndex);
+			out.writeShort(0); //fields
+			out.writeShort(2); //methods
+			writeMethod(out, initName, initType, codeName, initBody, 1, 1);
+			writeMethod(out, methodName, methodType, codeName, body, maxStack, maxLocals);
+			out.writeShort(0); //attributes
+		}catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	private static void writeMethod(DataOutputStream out, int name, int type, int codeName,
+			byte[] body, int maxStack, int maxLocals) throws IOException {
+		out.writeShort(ACC_PUBLIC);
+		out.writeShort(name);
+		out.writeShort(type);
+		out.writeShort(1);
+		out.writeShort(codeName);
+		out.writeInt(12 + body.length);
+		out.writeShort(maxStack);
+		out.writeShort(maxLocals);
+		out.writeInt(body.length);
+		out.write(body);
+		out.writeShort(0); //exception table
+		out.writeShort(0); //attributes
+	}
+}
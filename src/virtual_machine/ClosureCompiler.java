@@ -0,0 +1,342 @@
+package virtual_machine;
+
+import java.util.List;
+
+import RISC.RiscRegisters;
+import intermediateRepresentation.*;
+import operation_syntax.Operation;
+import operation_syntax.OperationException;
+import parse.FrameLayout;
+
+/**
+ * Turns abstract instructions into chains of pre-linked closures, one per line, once that
+ * line is warm. Each expression node is specialised once when it is compiled: a register
+ * or frame slot read, an add of a literal, a base + offset load, a compare, and so on.
+ * Calls to YAAL functions are linked to their frame and code line ahead of time. Nothing
+ * is looked up by instanceof or switched on per execution, so the JVM can inline through
+ * the chain. What has no specialised form runs through the tree walking ExecVM code,
+ * which keeps every result identical to the interpreter.
+ */
+public class ClosureCompiler {
+
+	public static final int DEFAULT_THRESHOLD = 8;
+
+	@FunctionalInterface
+	interface Expr {
+		int eval(ExecVM vm) throws OperationException, MemoryException;
+	}
+
+	@FunctionalInterface
+	interface Step {
+		/**
+		 * Runs one line, after the pc has been moved past it.
+		 */
+		void execute(ExecVM vm) throws OperationException, MemoryException;
+	}
+
+	@FunctionalInterface
+	private interface Writer {
+		void write(ExecVM vm, int value);
+	}
+
+	private final ExecVM _vm;
+	private final List<intermediateRepresentation> _source;
+	private final int _threshold;
+	private final Step[] _steps;
+	private final int[] _visits;
+
+	public ClosureCompiler(ExecVM vm, List<intermediateRepresentation> source, int threshold) {
+		_vm = vm;
+		_source = source;
+		_threshold = threshold;
+		_steps = new Step[source.size()];
+		_visits = new int[source.size()];
+	}
+
+	/**
+	 * Counts one visit to pc.
+	 * @return the compiled line at pc, or null while it is not warm yet
+	 */
+	Step warm(int pc) {
+		Step s = _steps[pc];
+		if (s == null && ++_visits[pc] >= _threshold) {
+			s = compile(_source.get(pc));
+			_steps[pc] = s;
+		}
+		return s;
+	}
+
+	/**
+	 * Compiles the line at pc now, whatever its visit count.
+	 */
+	void promote(int pc) {
+		if (_steps[pc] == null) {
+			_steps[pc] = compile(_source.get(pc));
+		}
+	}
+
+	//SECTION: INSTRUCTIONS
+	Step compile(intermediateRepresentation i) {
+		if (i instanceof Move) {
+			return compileMove((Move) i);
+
+		}else if (i instanceof Branch) {
+			Branch b = (Branch) i;
+			Integer line = codeLine(b.getDestination());
+			if (line == null) {
+				return interpreted(i);
+			}
+			int target = line;
+			Expr relOp = compileExp(b.getRelOp());
+			return vm -> {
+				if (relOp.eval(vm) == 1) {
+					vm.changePC(target);
+				}
+			};
+
+		}else if (i instanceof Jump) {
+			Jump j = (Jump) i;
+			if (!(j.getRegForPC() instanceof Temporary)) {
+				return interpreted(i);
+			}
+			Writer link = compileWriter((Temporary) j.getRegForPC());
+			Expr target = compileExp(j.getTarget());
+			return vm -> {
+				link.write(vm, vm.getPC());
+				vm.changePC(target.eval(vm));
+			};
+
+		}else if (i instanceof Call) {
+			return compileCall((Call) i);
+
+		}else if (i instanceof Return) {
+			Abs_Expression value = ((Return) i).getValue();
+			Expr rv = value != null ? compileExp(value) : vm -> 0;
+			FrameStack frames = _vm.getFrameStack();
+			return vm -> {
+				if (frames.isEmpty()) {
+					vm.endPC();
+				}else {
+					int result = rv.eval(vm);
+					int returnAddress = frames.peekReturnPC();
+					Temporary destination = frames.peekDest();
+					frames.pop();
+					vm.changePC(returnAddress);
+					if (destination != null) {
+						vm.putVariable(destination, result);
+					}
+				}
+			};
+		}
+		return interpreted(i);
+	}
+
+	private Step compileMove(Move m) {
+		Abs_Expression dest = m.getDestination();
+		Expr value = compileSource(m.getSource());
+		if (dest instanceof MemoryAddress) {
+			MemoryAddress a = (MemoryAddress) dest;
+			Expr address = compileExp(a.getAddress());
+			int size = a.getSize();
+			return vm -> vm.putValueInMainMem(address.eval(vm), size, value.eval(vm));
+		}
+		if (!(dest instanceof Temporary)) {
+			return interpreted(m);
+		}
+		Writer w = compileWriter((Temporary) dest);
+		return vm -> w.write(vm, value.eval(vm));
+	}
+
+	private Step compileCall(Call c) {
+		String label = c.getSymbol();
+		Integer line = _vm.getSymbolTable() != null && _vm.getSymbolTable().containsSymbol(label)
+				? _vm.getSymbolTable().getCodeLine(label) : null;
+		if (line == null) {
+			//system operations and unknown labels
+			return interpreted(c);
+		}
+		int target = line;
+		FrameLayout.Frame callee = _vm.calleeFrame(label);
+		List<Abs_Expression> argList = c.getArgs();
+		Expr[] args = new Expr[argList.size()];
+		for (int n = 0; n < args.length; n++) {
+			args[n] = compileExp(argList.get(n));
+		}
+		Temporary destination = c.getDestReg();
+		FrameStack frames = _vm.getFrameStack();
+		return vm -> {
+			vm.setCallState(label);
+			int base = frames.prepareCall(callee);
+			for (int n = 0; n < args.length; n++) {
+				frames.setArg(base, callee, n, args[n].eval(vm));
+			}
+			frames.push(callee, base, vm.getPC(), destination);
+			vm.changePC(target);
+		};
+	}
+
+	private static Step interpreted(intermediateRepresentation i) {
+		return vm -> vm.executeInstr(i);
+	}
+
+	//SECTION: DESTINATIONS
+	private Writer compileWriter(Temporary t) {
+		String name = t.get();
+		int index = t.getIndex();
+		if (t.isGlobal() && index >= 0) {
+			if (index == RiscRegisters.ZERO_INDEX) {
+				return (vm, value) -> { };
+			}
+			return (vm, value) -> vm.setRegister(index, name, value);
+		}
+		if (index >= 0) {
+			return (vm, value) -> vm.setSlot(index, name, value);
+		}
+		if (_vm.isReadOnly(name)) {
+			return (vm, value) -> { };
+		}
+		return (vm, value) -> vm.storeVariable(t, value);
+	}
+
+	//SECTION: EXPRESSIONS
+	private Expr compileSource(Abs_Expression source) {
+		if (source instanceof Symbol) {
+			String s = ((Symbol) source).get();
+			Integer pooled = _vm.getStringPool().get(s);
+			if (pooled != null) {
+				int address = pooled;
+				return vm -> address;
+			}
+			return vm -> vm.internString(s);
+		}
+		return compileExp(source);
+	}
+
+	Expr compileExp(Abs_Expression e) {
+		if (e instanceof Literal) {
+			int k = ((Literal) e).get();
+			return vm -> k;
+
+		}else if (e instanceof Temporary) {
+			Temporary t = (Temporary) e;
+			int index = t.getIndex();
+			if (t.isGlobal() && index >= 0) {
+				int[] regs = _vm.getRiscRegisterArray();
+				return vm -> regs[index];
+			}
+			if (index >= 0) {
+				FrameStack frames = _vm.getFrameStack();
+				return vm -> frames.get(index);
+			}
+			return vm -> vm.getVariable(t);
+
+		}else if (e instanceof MemoryAddress) {
+			MemoryAddress m = (MemoryAddress) e;
+			int size = m.getSize();
+			if (m.getAddress() instanceof BinOp) {
+				BinOp b = (BinOp) m.getAddress();
+				if (b.getOp() == Operation.ADD && b.getArg1() instanceof Literal) {
+					int offset = ((Literal) b.getArg1()).get();
+					Expr base = compileExp(b.getArg2());
+					return vm -> vm.getValueInMainMem(offset + base.eval(vm), size);
+				}
+			}
+			Expr address = compileExp(m.getAddress());
+			return vm -> vm.getValueInMainMem(address.eval(vm), size);
+
+		}else if (e instanceof BinOp) {
+			return compileBinOp((BinOp) e);
+
+		}else if (e instanceof Symbol) {
+			Integer line = codeLine(e);
+			if (line != null) {
+				int k = line;
+				return vm -> k;
+			}
+
+		}else if (e instanceof DataLabel) {
+			Integer address = _vm.getDataTable().get(((DataLabel) e).getLabel().get());
+			if (address != null) {
+				int k = address;
+				return vm -> k;
+			}
+		}
+		return vm -> vm.evaluateExp(e);
+	}
+
+	private Expr compileBinOp(BinOp e) {
+		Operation op = e.getOp();
+		Expr a = compileExp(e.getArg1());
+		if (e.getArg2() instanceof Literal) {
+			int k = ((Literal) e.getArg2()).get();
+			switch (op) {
+			case ADD:
+				return vm -> a.eval(vm) + k;
+			case SUB:
+				return vm -> a.eval(vm) - k;
+			case MULT:
+				return vm -> a.eval(vm) * k;
+			case SHIFT_LEFT:
+				return vm -> a.eval(vm) << k;
+			case AND:
+				return vm -> a.eval(vm) & k;
+			case EQUAL:
+				return vm -> a.eval(vm) == k ? 1 : 0;
+			case NOT_EQUAL:
+				return vm -> a.eval(vm) != k ? 1 : 0;
+			case LESS:
+				return vm -> a.eval(vm) < k ? 1 : 0;
+			case LESS_EQUAL:
+				return vm -> a.eval(vm) <= k ? 1 : 0;
+			case GREATER:
+				return vm -> a.eval(vm) > k ? 1 : 0;
+			case GREATER_EQUAL:
+				return vm -> a.eval(vm) >= k ? 1 : 0;
+			default:
+			}
+		}
+		Expr b = compileExp(e.getArg2());
+		switch (op) {
+		case ADD:
+			return vm -> a.eval(vm) + b.eval(vm);
+		case SUB:
+			return vm -> a.eval(vm) - b.eval(vm);
+		case MULT:
+			return vm -> a.eval(vm) * b.eval(vm);
+		case SHIFT_LEFT:
+			return vm -> a.eval(vm) << b.eval(vm);
+		case SHIFT_RIGHT_L:
+			return vm -> a.eval(vm) >>> b.eval(vm);
+		case SHIFT_RIGHT_A:
+			return vm -> a.eval(vm) >> b.eval(vm);
+		case X_OR:
+			return vm -> a.eval(vm) ^ b.eval(vm);
+		case AND:
+			return vm -> a.eval(vm) & b.eval(vm);
+		case OR:
+			return vm -> a.eval(vm) | b.eval(vm);
+		case EQUAL:
+			return vm -> a.eval(vm) == b.eval(vm) ? 1 : 0;
+		case NOT_EQUAL:
+			return vm -> a.eval(vm) != b.eval(vm) ? 1 : 0;
+		case LESS:
+			return vm -> a.eval(vm) < b.eval(vm) ? 1 : 0;
+		case LESS_EQUAL:
+			return vm -> a.eval(vm) <= b.eval(vm) ? 1 : 0;
+		case GREATER:
+			return vm -> a.eval(vm) > b.eval(vm) ? 1 : 0;
+		case GREATER_EQUAL:
+			return vm -> a.eval(vm) >= b.eval(vm) ? 1 : 0;
+		default:
+			//division reports its own errors, unsigned compares are rare
+			return vm -> vm.calculate(op, a.eval(vm), b.eval(vm));
+		}
+	}
+
+	private Integer codeLine(Abs_Expression e) {
+		if (e instanceof Symbol && _vm.getSymbolTable() != null) {
+			return _vm.getSymbolTable().getCodeLine(((Symbol) e).get().trim());
+		}
+		return null;
+	}
+}
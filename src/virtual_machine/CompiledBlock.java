@@ -0,0 +1,15 @@
+package virtual_machine;
+
+/**
+ * A straight-line run of decoded instructions compiled to JVM bytecode by BlockCompiler.
+ * A block always executes every one of its lines; only the last may transfer control.
+ */
+public interface CompiledBlock {
+
+	/**
+	 * @param regs - the RISC-V register array of the VM
+	 * @param vm - the VM whose memory is read and written
+	 * @return the pc to continue at
+	 */
+	int execute(int[] regs, ExecVM vm) throws MemoryException;
+}
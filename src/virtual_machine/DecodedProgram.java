@@ -0,0 +1,113 @@
+package virtual_machine;
+
+import java.util.List;
+
+import intermediateRepresentation.Temporary;
+import intermediateRepresentation.intermediateRepresentation;
+
+/**
+ * Flat, load-time lowered form of a list of abstract instructions.
+ * Each instruction occupies STRIDE ints in the code array:
+ *   [header, a, b, c]
+ * where the header packs the opcode (bits 0-7), an Operation ordinal or flags (bits 8-15),
+ * a memory access size (bits 16-23) and a scale (bits 24-31). Register operands are
+ * indexes into the temporaries table, so no expression tree is walked while executing.
+ *
+ * The fused code is a copy of the code where the header of the first line of a common
+ * pair is replaced by a superinstruction that executes both lines. The operands of the
+ * second line are read from its own slot, which is left as it was, so every line can
+ * still be jumped to and stepped on its own.
+ */
+public class DecodedProgram {
+
+	public static final int STRIDE = 4;
+
+	//OPCODES:
+	public static final int GENERIC = 0;   //no fast form, execute the abstract instruction
+	public static final int MOVE_T = 1;    //a = temp b
+	public static final int MOVE_I = 2;    //a = imm b
+	public static final int ALU_TT = 3;    //a = op(temp b, temp c)
+	public static final int ALU_TI = 4;    //a = op(temp b, imm c)
+	public static final int LOAD = 5;      //a = mem[temp b + imm c]
+	public static final int STORE = 6;     //mem[temp b + imm c] = temp a
+	public static final int BRANCH_TT = 7; //if op(temp a, temp b) pc = c
+	public static final int BRANCH_TI = 8; //if op(temp a, imm b) pc = c
+	public static final int JUMP = 9;      //a = pc, pc = c
+	public static final int JUMP_T = 10;   //a = pc, pc = temp c
+	public static final int ALU_IT = 11;   //a = op(imm b, temp c)
+	public static final int LOAD_X = 12;   //a = mem[(temp b + c) * scale]
+	public static final int STORE_X = 13;  //mem[(temp b + c) * scale] = a
+
+	//FLAGS FOR LOAD_X AND STORE_X, IN THE OPERATION BITS:
+	public static final int INDEX_IMM = 1; //c is an immediate, not a temp
+	public static final int VALUE_IMM = 2; //a is an immediate value to store
+
+	//FUSED OPCODES, first line then the line after it:
+	public static final int FUSED = 16;
+	public static final int ALU_TT_BRANCH_TT = 16;
+	public static final int ALU_TT_BRANCH_TI = 17;
+	public static final int ALU_TI_BRANCH_TT = 18;
+	public static final int ALU_TI_BRANCH_TI = 19;
+	public static final int LOAD_BRANCH_TT = 20;
+	public static final int LOAD_BRANCH_TI = 21;
+	public static final int ALU_TI_LOAD = 22;
+
+	//destination index used when the destination is read only
+	public static final int NO_DEST = -1;
+
+	private final int[] _code;
+	private final int[] _fusedCode;
+	private final Temporary[] _temps;
+	private final List<intermediateRepresentation> _source;
+
+	DecodedProgram(int[] code, int[] fusedCode, Temporary[] temps, List<intermediateRepresentation> source) {
+		_code = code;
+		_fusedCode = fusedCode;
+		_temps = temps;
+		_source = source;
+	}
+
+	public int[] getCode() {
+		return _code;
+	}
+
+	public int[] getFusedCode() {
+		return _fusedCode;
+	}
+
+	public Temporary[] getTemps() {
+		return _temps;
+	}
+
+	public intermediateRepresentation getInstruction(int pc) {
+		return _source.get(pc);
+	}
+
+	public int size() {
+		return _source.size();
+	}
+
+	public static int opcode(int header) {
+		return header & 0xFF;
+	}
+
+	public static int operation(int header) {
+		return (header >>> 8) & 0xFF;
+	}
+
+	public static int memSize(int header) {
+		return (header >>> 16) & 0xFF;
+	}
+
+	public static int scale(int header) {
+		return header >>> 24;
+	}
+
+	static int header(int opcode, int operation, int size) {
+		return opcode | (operation << 8) | (size << 16);
+	}
+
+	static int header(int opcode, int operation, int size, int scale) {
+		return header(opcode, operation, size) | (scale << 24);
+	}
+}
@@ -0,0 +1,295 @@
+package virtual_machine;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import RISC.RiscRegisters;
+import intermediateRepresentation.*;
+import operation_syntax.Operation;
+import parse.SymbolTable;
+
+/**
+ * Lowers abstract instructions into a DecodedProgram once, at load time.
+ * Instructions with a fixed shape (register/immediate arithmetic, base + offset
+ * loads and stores, YAAL scaled index loads and stores, register compares, jumps
+ * to labels) get a compact opcode with their operands resolved. Everything else
+ * is left GENERIC and runs through the abstract instruction path in ExecVM, so
+ * results are identical either way. A second pass then fuses common pairs of
+ * adjacent lines into superinstructions, see DecodedProgram.
+ */
+public class Decoder {
+
+	private SymbolTable _st;
+	private Map<String, Integer> _dataTable;
+	private Set<String> _readOnlyVars;
+	private Map<String, Integer> _stringPool;
+	private List<Temporary> _temps;
+	private Map<String, Integer> _tempIndex;
+
+	private Decoder(SymbolTable st, Map<String, Integer> dataTable, Set<String> readOnlyVars,
+			Map<String, Integer> stringPool) {
+		_st = st;
+		_dataTable = dataTable;
+		_readOnlyVars = readOnlyVars;
+		_stringPool = stringPool;
+		_temps = new ArrayList<>();
+		_tempIndex = new HashMap<>();
+	}
+
+	public static DecodedProgram decode(List<intermediateRepresentation> instructions, SymbolTable st,
+			Map<String, Integer> dataTable, Set<String> readOnlyVars, Map<String, Integer> stringPool) {
+		Decoder d = new Decoder(st, dataTable, readOnlyVars, stringPool);
+		int[] code = new int[instructions.size() * DecodedProgram.STRIDE];
+		for (int pc = 0; pc < instructions.size(); pc++) {
+			d.decodeInstr(instructions.get(pc), code, pc * DecodedProgram.STRIDE);
+		}
+		return new DecodedProgram(code, fuse(code), d._temps.toArray(new Temporary[0]), instructions);
+	}
+
+	//SECTION: SUPERINSTRUCTION FUSION
+	/**
+	 * Compare-then-branch pairs (an ALU result or a load tested by the next line's branch)
+	 * and pointer walks (an immediate add followed by a load) are the common pairs.
+	 */
+	private static int[] fuse(int[] code) {
+		int[] fused = code.clone();
+		for (int at = 0; at + DecodedProgram.STRIDE < code.length; at += DecodedProgram.STRIDE) {
+			int first = DecodedProgram.opcode(code[at]);
+			int second = DecodedProgram.opcode(code[at + DecodedProgram.STRIDE]);
+			int op = fusedOpcode(first, second);
+			if (op != DecodedProgram.GENERIC) {
+				fused[at] = (code[at] & ~0xFF) | op;
+			}
+		}
+		return fused;
+	}
+
+	private static int fusedOpcode(int first, int second) {
+		boolean tt = second == DecodedProgram.BRANCH_TT;
+		boolean ti = second == DecodedProgram.BRANCH_TI;
+		switch (first) {
+		case DecodedProgram.ALU_TT:
+			return tt ? DecodedProgram.ALU_TT_BRANCH_TT : ti ? DecodedProgram.ALU_TT_BRANCH_TI : DecodedProgram.GENERIC;
+		case DecodedProgram.ALU_TI:
+			if (second == DecodedProgram.LOAD) {
+				return DecodedProgram.ALU_TI_LOAD;
+			}
+			return tt ? DecodedProgram.ALU_TI_BRANCH_TT : ti ? DecodedProgram.ALU_TI_BRANCH_TI : DecodedProgram.GENERIC;
+		case DecodedProgram.LOAD:
+			return tt ? DecodedProgram.LOAD_BRANCH_TT : ti ? DecodedProgram.LOAD_BRANCH_TI : DecodedProgram.GENERIC;
+		default:
+			return DecodedProgram.GENERIC;
+		}
+	}
+
+	//SECTION: INSTRUCTION LOWERING
+	private void decodeInstr(intermediateRepresentation i, int[] code, int at) {
+		code[at] = DecodedProgram.GENERIC;
+
+		if (i instanceof Move) {
+			decodeMove((Move) i, code, at);
+
+		}else if (i instanceof Branch) {
+			Branch b = (Branch) i;
+			Integer target = codeLine(b.getDestination());
+			if (target == null || !(b.getRelOp() instanceof BinOp)) {
+				return;
+			}
+			BinOp relOp = (BinOp) b.getRelOp();
+			int op = relOp.getOp().ordinal();
+			if (relOp.getArg1() instanceof Temporary && relOp.getArg2() instanceof Temporary) {
+				set(code, at, DecodedProgram.header(DecodedProgram.BRANCH_TT, op, 0),
+						source(relOp.getArg1()), source(relOp.getArg2()), target);
+			}else if (relOp.getArg1() instanceof Temporary && relOp.getArg2() instanceof Literal) {
+				set(code, at, DecodedProgram.header(DecodedProgram.BRANCH_TI, op, 0),
+						source(relOp.getArg1()), ((Literal) relOp.getArg2()).get(), target);
+			}
+
+		}else if (i instanceof Jump) {
+			Jump j = (Jump) i;
+			if (!(j.getRegForPC() instanceof Temporary)) {
+				return;
+			}
+			int link = destination((Temporary) j.getRegForPC());
+			if (j.getTarget() instanceof Temporary) {
+				set(code, at, DecodedProgram.JUMP_T, link, 0, source(j.getTarget()));
+			}else {
+				Integer target = codeLine(j.getTarget());
+				if (target != null) {
+					set(code, at, DecodedProgram.JUMP, link, 0, target);
+				}
+			}
+		}
+	}
+
+	private void decodeMove(Move m, int[] code, int at) {
+		Abs_Expression dest = m.getDestination();
+		Abs_Expression source = m.getSource();
+
+		//store instruction: Mem(ADD(offset, base)) <- register
+		if (dest instanceof MemoryAddress) {
+			MemoryAddress a = (MemoryAddress) dest;
+			if (source instanceof Temporary && isBaseOffset(a)) {
+				BinOp address = (BinOp) a.getAddress();
+				set(code, at, DecodedProgram.header(DecodedProgram.STORE, 0, a.getSize()),
+						source(source), source(address.getArg2()), ((Literal) address.getArg1()).get());
+
+			//YAAL store: Mem(MULT(ADD(base, index), scale)) <- register or literal
+			}else if ((source instanceof Temporary || source instanceof Literal) && isScaledIndex(a)) {
+				int flags = indexFlags(a);
+				int value;
+				if (source instanceof Literal) {
+					flags |= DecodedProgram.VALUE_IMM;
+					value = ((Literal) source).get();
+				}else {
+					value = source(source);
+				}
+				setScaled(code, at, DecodedProgram.STORE_X, flags, a, value);
+			}
+			return;
+		}
+		if (!(dest instanceof Temporary)) {
+			return;
+		}
+		int d = destination((Temporary) dest);
+
+		if (source instanceof Temporary) {
+			set(code, at, DecodedProgram.MOVE_T, d, source(source), 0);
+
+		}else if (source instanceof Literal) {
+			set(code, at, DecodedProgram.MOVE_I, d, ((Literal) source).get(), 0);
+
+		}else if (source instanceof DataLabel) {
+			Integer address = _dataTable.get(((DataLabel) source).getLabel().get());
+			if (address != null) {
+				set(code, at, DecodedProgram.MOVE_I, d, address, 0);
+			}
+
+		}else if (source instanceof Symbol) {
+			Integer address = _stringPool.get(((Symbol) source).get());
+			if (address != null) {
+				set(code, at, DecodedProgram.MOVE_I, d, address, 0);
+			}
+
+		}else if (source instanceof BinOp) {
+			BinOp b = (BinOp) source;
+			int op = b.getOp().ordinal();
+			if (b.getArg1() instanceof Temporary && b.getArg2() instanceof Temporary) {
+				set(code, at, DecodedProgram.header(DecodedProgram.ALU_TT, op, 0),
+						d, source(b.getArg1()), source(b.getArg2()));
+			}else if (b.getArg1() instanceof Temporary && b.getArg2() instanceof Literal) {
+				set(code, at, DecodedProgram.header(DecodedProgram.ALU_TI, op, 0),
+						d, source(b.getArg1()), ((Literal) b.getArg2()).get());
+			}else if (b.getArg1() instanceof Literal && b.getArg2() instanceof Temporary) {
+				set(code, at, DecodedProgram.header(DecodedProgram.ALU_IT, op, 0),
+						d, ((Literal) b.getArg1()).get(), source(b.getArg2()));
+			}
+
+		}else if (source instanceof MemoryAddress) {
+			MemoryAddress a = (MemoryAddress) source;
+			if (isBaseOffset(a)) {
+				BinOp address = (BinOp) a.getAddress();
+				set(code, at, DecodedProgram.header(DecodedProgram.LOAD, 0, a.getSize()),
+						d, source(address.getArg2()), ((Literal) address.getArg1()).get());
+			}else if (isScaledIndex(a)) {
+				setScaled(code, at, DecodedProgram.LOAD_X, indexFlags(a), a, d);
+			}
+		}
+	}
+
+	//SECTION: OPERAND RESOLUTION
+	private static boolean isBaseOffset(MemoryAddress a) {
+		if (a.getAddress() instanceof BinOp) {
+			BinOp b = (BinOp) a.getAddress();
+			return b.getOp() == Operation.ADD && b.getArg1() instanceof Literal
+					&& b.getArg2() instanceof Temporary;
+		}
+		return false;
+	}
+
+	/**
+	 * @return true for the YAAL address form MULT(ADD(temp, temp or literal), literal),
+	 * or MULT(temp, literal) once an optimizer has dropped an added 0
+	 */
+	private static boolean isScaledIndex(MemoryAddress a) {
+		if (!(a.getAddress() instanceof BinOp)) {
+			return false;
+		}
+		BinOp scaled = (BinOp) a.getAddress();
+		if (scaled.getOp() != Operation.MULT || !(scaled.getArg2() instanceof Literal)) {
+			return false;
+		}
+		int scale = ((Literal) scaled.getArg2()).get();
+		if (scale < 0 || scale > 0xFF) {
+			return false;
+		}
+		if (scaled.getArg1() instanceof Temporary) {
+			return true;
+		}
+		if (!(scaled.getArg1() instanceof BinOp)) {
+			return false;
+		}
+		BinOp sum = (BinOp) scaled.getArg1();
+		return sum.getOp() == Operation.ADD && sum.getArg1() instanceof Temporary
+				&& (sum.getArg2() instanceof Temporary || sum.getArg2() instanceof Literal);
+	}
+
+	private static int indexFlags(MemoryAddress a) {
+		Abs_Expression sum = ((BinOp) a.getAddress()).getArg1();
+		return sum instanceof Temporary || ((BinOp) sum).getArg2() instanceof Literal ? DecodedProgram.INDEX_IMM : 0;
+	}
+
+	private void setScaled(int[] code, int at, int opcode, int flags, MemoryAddress a, int value) {
+		BinOp scaled = (BinOp) a.getAddress();
+		int header = DecodedProgram.header(opcode, flags, a.getSize(), ((Literal) scaled.getArg2()).get());
+		if (scaled.getArg1() instanceof Temporary) {
+			set(code, at, header, value, source(scaled.getArg1()), 0);
+			return;
+		}
+		BinOp sum = (BinOp) scaled.getArg1();
+		int index = sum.getArg2() instanceof Literal ? ((Literal) sum.getArg2()).get() : source(sum.getArg2());
+		set(code, at, header, value, source(sum.getArg1()), index);
+	}
+
+	private Integer codeLine(Abs_Expression e) {
+		if (e instanceof Symbol && _st != null) {
+			return _st.getCodeLine(((Symbol) e).get().trim());
+		}
+		return null;
+	}
+
+	private int source(Abs_Expression e) {
+		Temporary t = (Temporary) e;
+		String key = (t.isGlobal() ? "$" : "") + t.get() + "#" + t.getIndex();
+		Integer index = _tempIndex.get(key);
+		if (index == null) {
+			index = _temps.size();
+			_temps.add(t);
+			_tempIndex.put(key, index);
+		}
+		return index;
+	}
+
+	private int destination(Temporary t) {
+		if (t.isGlobal() && t.getIndex() >= 0) {
+			if (t.getIndex() == RiscRegisters.ZERO_INDEX) {
+				return DecodedProgram.NO_DEST;
+			}
+			return source(t);
+		}
+		if (_readOnlyVars != null && _readOnlyVars.contains(t.get())) {
+			return DecodedProgram.NO_DEST;
+		}
+		return source(t);
+	}
+
+	private static void set(int[] code, int at, int header, int a, int b, int c) {
+		code[at] = header;
+		code[at + 1] = a;
+		code[at + 2] = b;
+		code[at + 3] = c;
+	}
+}
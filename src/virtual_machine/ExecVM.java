@@ -1,15 +1,22 @@
 package virtual_machine;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.PriorityQueue;
+import java.util.Objects;
 import java.util.Queue;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
 import java.util.Stack;
 
 import RISC.RiscRegisters;
@@ -17,29 +24,61 @@ import dataTypes.*;
 import intermediateRepresentation.*;
 import operation_syntax.*;
 import parse.Data;
+import parse.FrameLayout;
 import parse.SymbolTable;
 import util.Pair;
 
 public class ExecVM {
 
+	private static final Operation[] OPERATIONS = Operation.values();
+	private static final int NO_RESERVATION = -1;
+
 	//LOADED:
 	private List<intermediateRepresentation> _instructions;
+	private DecodedProgram _program;
+	private TierManager _tiers;
+	private int _compileThreshold;
+	private int _closureThreshold;
+	private int _loopThreshold;
+	private Map<String, Integer> _stringPool;
 	private Map<String, Integer> _dataTable;
 	private SymbolTable _st;
 	private Set<String> _readOnlyVars;
 	//INITIALIZED:
 	private OperatingSystem _os;
 	private IOFunctions _iof;
-	private static Queue<Task> _eventQ;
-	private Stack<TempRegFile> _registerStack;
+	private TimerWheel _timers;
+	private Queue<Task> _inputEvents;
+	private volatile Thread _waiter;
+	private FrameLayout _frameLayout;
+	private FrameStack _frameStack;
 	private Map<String, Integer> _tempRegFile;
 	private Map<String, Integer> _globalRegFile;
+	private RiscRegisterFile _riscRegFile;
+	private boolean _riscRegsLoaded;
+	private MemorySystem.Backend _memoryBackend;
+	private MemoryLayout _layout;
 	private MemorySystem _mainMem;
+	private List<MemoryChanges> _memoryWatchers;
+	private MemoryWatchpoints _memoryWatch;
+	private Map<String, Integer> _watchedNames;
+	private boolean _watching;
+	private String _registerHit;
 	private boolean _run;
+	private boolean _tracking;
+	private StopReason _pendingStop;
+	private BitSet _breakpoints;
+	private int _breakpointPC;
+	private long _lastRunCount;
+	private Exception _lastError;
 	private int _pc;
+	private int _reservation;
+	private int _reservedValue;
+	private UndoLog _undo;
+	private boolean _eventFromInput;
 	//STATE INFORMATION:
-	private Integer _keyHandler;
-	private Integer _clickHandler;
+	private volatile Integer _keyHandler;
+	private volatile Integer _clickHandler;
 	private Integer _memoryState;
 	private boolean _pcState;
 	private String _regState;
@@ -49,20 +88,111 @@ public class ExecVM {
 
 	//SECTION: CONSTRUCTOR
 	public ExecVM (IOFunctions iof) {
+		this(iof, MemorySystem.Backend.PAGED);
+	}
+	public ExecVM (IOFunctions iof, MemorySystem.Backend memoryBackend) {
+		this(iof, memoryBackend, MemoryLayout.DEFAULT);
+	}
+	public ExecVM (IOFunctions iof, MemorySystem.Backend memoryBackend, MemoryLayout layout) {
 		_iof = iof;
-		_registerStack = new Stack<>();
-		_eventQ = new PriorityQueue<>(new TaskComparator());
+		_memoryBackend = memoryBackend;
+		_layout = layout;
+		_frameStack = new FrameStack();
+		_timers = new TimerWheel(System.nanoTime());
+		_inputEvents = new ConcurrentLinkedQueue<>();
 		_keyHandler = null;
 		_clickHandler = null;
-		_os = new OperatingSystem();
+		_os = new OperatingSystem(_layout);
 		_tempRegFile = new HashMap<>();
 		_globalRegFile = new HashMap<>();
-		_mainMem = new MemorySystem();
+		_riscRegFile = new RiscRegisterFile();
+		_compileThreshold = BlockCompiler.DEFAULT_THRESHOLD;
+		_closureThreshold = ClosureCompiler.DEFAULT_THRESHOLD;
+		_loopThreshold = TierManager.DEFAULT_LOOP_THRESHOLD;
+		_mainMem = MemorySystem.create(_memoryBackend);
+		_memoryWatchers = new ArrayList<>();
+		_watchedNames = new HashMap<>();
+		_stringPool = new LinkedHashMap<>();
 		_dataTable = new HashMap<>();
 		_readOnlyVars = new HashSet<>();
 		stateReset();
 		_run = true;
+		_tracking = true;
+		_breakpoints = new BitSet();
+		_breakpointPC = -1;
 		_pc = 0;
+		_reservation = NO_RESERVATION;
+	}
+	/**
+	 * Another hart for primary's program. It runs on the same main memory and operating
+	 * system, reads the same code, labels, data, pooled strings and decoding, and starts
+	 * from a copy of primary's registers. Primary is decoded first, so the strings are
+	 * placed in memory once. Only a SHARED memory backend is safe to run harts on at once.
+	 */
+	ExecVM (ExecVM primary) throws MemoryException {
+		this(primary._iof, primary._memoryBackend, primary._layout);
+		primary.ensureDecoded();
+		_mainMem = primary._mainMem;
+		_os = primary._os;
+		_instructions = primary._instructions;
+		_program = primary._program;
+		_stringPool = primary._stringPool;
+		_st = primary._st;
+		_dataTable = primary._dataTable;
+		_readOnlyVars = primary._readOnlyVars;
+		_frameLayout = primary._frameLayout;
+		_globalRegFile.putAll(primary._globalRegFile);
+		System.arraycopy(primary._riscRegFile.getArray(), 0, _riscRegFile.getArray(), 0, RiscRegisters.REGISTERS.size());
+		_riscRegsLoaded = primary._riscRegsLoaded;
+		_compileThreshold = primary._compileThreshold;
+		_closureThreshold = primary._closureThreshold;
+		_loopThreshold = primary._loopThreshold;
+		_tracking = primary._tracking;
+	}
+	/**
+	 * @return a copy of this VM, paused where it is, that runs on its own from here
+	 */
+	public ExecVM fork() {
+		return fork(_iof);
+	}
+	/**
+	 * A copy of this VM, paused where it is, that runs on its own from here, on another
+	 * thread if need be. Registers, the call stack, the heap and pending events are copied;
+	 * main memory is shared copy on write, and the loaded program and its decoding are
+	 * shared as they are never changed. Compiled code, profiles, watchpoints and undo recording
+	 * are not carried over. This VM must not be running while it is forked.
+	 * @param iof - where the copy reads and writes, so forks on separate threads need not share it
+	 */
+	public ExecVM fork(IOFunctions iof) {
+		ExecVM fork = new ExecVM(iof, _memoryBackend, _layout);
+		fork._instructions = _instructions;
+		fork._program = _program;
+		fork._st = _st;
+		fork._readOnlyVars = _readOnlyVars;
+		fork._frameLayout = _frameLayout;
+		fork._dataTable.putAll(_dataTable);
+		fork._stringPool.putAll(_stringPool);
+		fork._mainMem = _mainMem.fork();
+		fork._os = _os.copy();
+		fork._frameStack = _frameStack.copy();
+		fork._globalRegFile.putAll(_globalRegFile);
+		fork._tempRegFile.putAll(_tempRegFile);
+		System.arraycopy(_riscRegFile.getArray(), 0, fork._riscRegFile.getArray(), 0, RiscRegisters.REGISTERS.size());
+		fork._riscRegsLoaded = _riscRegsLoaded;
+		for (Task t : _timers.getTasks()) {
+			fork._timers.add(t);
+		}
+		fork._inputEvents.addAll(_inputEvents);
+		fork._keyHandler = _keyHandler;
+		fork._clickHandler = _clickHandler;
+		fork._breakpoints = (BitSet) _breakpoints.clone();
+		fork._compileThreshold = _compileThreshold;
+		fork._closureThreshold = _closureThreshold;
+		fork._loopThreshold = _loopThreshold;
+		fork._tracking = _tracking;
+		fork._pc = _pc;
+		fork._run = _run;
+		return fork;
 	}
 	public void resetALL() {
 		stateReset();
@@ -74,26 +204,41 @@ public class ExecVM {
 		_readOnlyVars = null;
 		_keyHandler = null;
 		_clickHandler = null;
-		_registerStack.clear();
 		_dataTable.clear();
+		_program = null;
 		_run = true;
 		_dataTable.clear();
+		if (_undo != null) {
+			_undo.clear();
+		}
 	}
 
 	//SECTION: CALL TO RUN
 	public void tick() throws OperationException, MemoryException {
-		stateReset();
+		if (_tracking) {
+			stateReset();
+		}
+		if (_watching) {
+			resetWatches();
+		}
 		if(hasNextInstr()) {
+			if (_undo != null) {
+				beginStep();
+			}
 			executeNextInstr();
+			if (_watching) {
+				watchHit();
+			}
 
 		}else if(hasNextEvent()){
-			Task t = _eventQ.peek();
+			Task t = nextDueEvent();
 
-			if(t.getTimeStamp() <= System.nanoTime()) {
-				t = _eventQ.remove();
-				_eventState = t.getDescr();
-				changePC(t.getDestPC());
-				putVariable(new Temporary("@0"), t.getArg());
+			if(t != null) {
+				if (_undo != null) {
+					beginStep();
+					_undo.record(UndoLog.EVENT_TAKEN, _eventFromInput ? 1 : 0, 0, t);
+				}
+				dispatchEvent(t);
 			}
 
 		}else if(_keyHandler != null || _clickHandler != null) {
@@ -102,11 +247,641 @@ public class ExecVM {
 			stop();
 		}
 	}
+	/**
+	 * @return the earliest due timer or input event, removed from its queue, or null
+	 */
+	private Task nextDueEvent() {
+		Task input = _inputEvents.peek();
+		Task timer = _timers.isEmpty() ? null : _timers.peek(System.nanoTime());
+		_eventFromInput = input != null && (timer == null || input.getTimeStamp() <= timer.getTimeStamp());
+		if (_eventFromInput) {
+			return _inputEvents.poll();
+		}else if (timer != null) {
+			return _timers.poll(System.nanoTime());
+		}
+		return null;
+	}
+	/**
+	 * Parks the calling thread until the next scheduled event is due, an input event
+	 * is logged, or maxWaitNanos pass. Meant for runners that got WAITING from run;
+	 * returns at once if an event is already due.
+	 */
+	public void awaitEvent(long maxWaitNanos) {
+		_waiter = Thread.currentThread();
+		try {
+			long wait = Math.min(maxWaitNanos, _timers.nextDeadline() - System.nanoTime());
+			if (wait > 0 && _inputEvents.isEmpty()) {
+				LockSupport.parkNanos(this, wait);
+			}
+		} finally {
+			_waiter = null;
+		}
+	}
+	private void dispatchEvent(Task t) {
+		_eventState = t.getDescr();
+		changePC(t.getDestPC());
+		enterHandler(t.getDestPC(), t.getArg());
+	}
 
-	//SECTION: INSTRUCTION UNWRAPPING
+	//SECTION: RUN TO STOP
+	/**
+	 * Executes instructions in a tight loop, without the per tick state bookkeeping,
+	 * until something needs the caller's attention. Due events are dispatched and the
+	 * stop flag is checked between instructions. A breakpoint the previous run stopped
+	 * on is not reported again, so running again resumes past it. While recording to an
+	 * undo log, or while anything is watched, every line is interpreted on its own, without
+	 * compiled blocks or fused pairs, so a watchpoint stops it right after the line that hit it.
+	 * @param maxInstructions - most instructions to execute before returning BUDGET
+	 * @return the reason execution stopped
+	 */
+	public StopReason run(long maxInstructions) {
+		stateReset();
+		_pendingStop = null;
+		if (_watching) {
+			resetWatches();
+		}
+		boolean resume = _pc == _breakpointPC;
+		boolean checkBreaks = !_breakpoints.isEmpty();
+		int size = _instructions.size();
+		_breakpointPC = -1;
+		long executed = 0;
+		StopReason reason = null;
+		try {
+			ensureDecoded();
+			int[] fused = _program.getFusedCode();
+			TierManager tiers = _tiers;
+			boolean fuse = _undo == null && !_watching;
+			CompiledBlock[] blocks = fuse ? tiers.getBlocks() : null;
+			boolean watching = _watching;
+			int[] regs = _riscRegFile.getArray();
+			while (reason == null) {
+				if (!_run) {
+					reason = StopReason.HALT;
+
+				}else if (_pc < size) {
+					if (executed == maxInstructions) {
+						reason = StopReason.BUDGET;
+					}else if (checkBreaks && _breakpoints.get(_pc) && !(resume && executed == 0)) {
+						_breakpointPC = _pc;
+						reason = StopReason.BREAKPOINT;
+					}else if (blocks != null && blocks[_pc] != null && maxInstructions - executed >= tiers.blockLength(_pc)
+							&& !(checkBreaks && breakInside(_pc, tiers.blockLength(_pc)))) {
+						//a compiled block always runs to its end
+						int start = _pc;
+						int length = tiers.blockLength(start);
+						changePC(blocks[start].execute(regs, this));
+						executed += length;
+						tiers.ranBlock(start, length, _pc);
+					}else {
+						int pc = _pc;
+						int lines;
+						if (fuse && DecodedProgram.opcode(fused[pc * DecodedProgram.STRIDE]) >= DecodedProgram.FUSED
+								&& maxInstructions - executed >= 2 && !(checkBreaks && _breakpoints.get(pc + 1))) {
+							//a fused pair may run both lines, so only when neither budget nor a breakpoint ends it between them
+							lines = executeFusedInstr();
+						}else {
+							if (_undo != null) {
+								beginStep();
+							}
+							executeNextInstr();
+							lines = 1;
+						}
+						executed += lines;
+						reason = _pendingStop;
+						if (reason == null && watching && watchHit()) {
+							reason = StopReason.WATCHPOINT;
+						}
+						if (reason == null) {
+							tiers.interpreted(pc, lines, _pc);
+						}
+					}
+
+				}else if (hasNextEvent()) {
+					Task t = nextDueEvent();
+					if (t != null) {
+						if (_undo != null) {
+							beginStep();
+							_undo.record(UndoLog.EVENT_TAKEN, _eventFromInput ? 1 : 0, 0, t);
+						}
+						dispatchEvent(t);
+					}else {
+						reason = StopReason.WAITING;
+					}
+
+				}else if (_keyHandler != null || _clickHandler != null) {
+					reason = StopReason.WAITING;
+
+				}else {
+					stop();
+					reason = StopReason.HALT;
+				}
+			}
+		}catch (OperationException | MemoryException e) {
+			_lastError = e;
+			reason = StopReason.ERROR;
+		}
+		_pendingStop = null;
+		_lastRunCount = executed;
+		return reason;
+	}
+	/**
+	 * @return true if the next line to run is on one of the breakpoints last set
+	 */
+	public boolean atBreakpoint() {
+		return _pc >= 0 && _breakpoints.get(_pc);
+	}
+	private boolean breakInside(int start, int length) {
+		int next = _breakpoints.nextSetBit(start + 1);
+		return next >= 0 && next < start + length;
+	}
+	/**
+	 * Sets how many interpreted runs make a basic block hot enough to compile, 0 to interpret only.
+	 * Changing a threshold starts the tiers and their counts over.
+	 */
+	public void setCompileThreshold(int threshold) {
+		_compileThreshold = threshold;
+		_tiers = null;
+	}
+	/**
+	 * Sets how many visits make a line the decoder left generic warm enough to compile
+	 * to closures, 0 to always walk its expression trees.
+	 */
+	public void setClosureThreshold(int threshold) {
+		_closureThreshold = threshold;
+		_tiers = null;
+	}
+	/**
+	 * Sets how many times a loop has to go around before all of it is compiled, 0 to
+	 * leave loops to the per block and per line thresholds.
+	 */
+	public void setLoopThreshold(int threshold) {
+		_loopThreshold = threshold;
+		_tiers = null;
+	}
+	/**
+	 * @return the execution profile and compiled code of the assembled program,
+	 * or null before it first runs
+	 */
+	public TierManager getTiers() {
+		return _tiers;
+	}
+	public long getLastRunCount() {
+		return _lastRunCount;
+	}
+	public Exception getLastError() {
+		return _lastError;
+	}
+	public void setBreakpoints(Collection<Integer> lines) {
+		_breakpoints.clear();
+		for (int line : lines) {
+			if (line >= 0) {
+				_breakpoints.set(line);
+			}
+		}
+	}
+
+	//SECTION: WATCHPOINTS
+	/**
+	 * Has run stop, once the line that did it is done, when the program accesses the word
+	 * holding the byte at address the way kind says. Loads and the atomic operations read;
+	 * stores, including those the system functions make, write.
+	 * @param value - the value a VALUE watchpoint stops on, ignored for the others
+	 * @throws MemoryException if address is negative
+	 */
+	public void watchMemory(int address, MemoryWatchpoints.Kind kind, int value) throws MemoryException {
+		if (_memoryWatch == null) {
+			_memoryWatch = new MemoryWatchpoints();
+			_mainMem.setWatchpoints(_memoryWatch);
+		}
+		_memoryWatch.add(address, kind, value);
+		_watching = true;
+	}
+	public void watchMemory(int address, MemoryWatchpoints.Kind kind) throws MemoryException {
+		watchMemory(address, kind, 0);
+	}
+	/**
+	 * Has run stop when the RISC-V register, YAAL global or temporary called name changes value.
+	 */
+	public void watchRegister(String name) {
+		int index = RiscRegisters.indexOf(name);
+		if (index >= 0) {
+			_riscRegFile.watch(index);
+		}else {
+			_watchedNames.put(name, namedValue(name));
+		}
+		_watching = true;
+	}
+	public void clearWatchpoints() {
+		if (_memoryWatch != null) {
+			_mainMem.setWatchpoints(null);
+			_memoryWatch = null;
+		}
+		_riscRegFile.clearWatches();
+		_watchedNames.clear();
+		_registerHit = null;
+		_watching = false;
+	}
+	public boolean watching() {
+		return _watching;
+	}
+	/**
+	 * @return the memory watchpoints, with what the last hit was, or null if none are set
+	 */
+	public MemoryWatchpoints getMemoryWatchpoints() {
+		return _memoryWatch;
+	}
+	/**
+	 * @return the byte address of the watched word the last run or tick stopped on, null if none
+	 */
+	public Integer memoryWatchHit() {
+		return _memoryWatch != null && _memoryWatch.isHit() ? _memoryWatch.getHitAddress() : null;
+	}
+	/**
+	 * @return the watched register the last run or tick stopped on, null if none
+	 */
+	public String registerWatchHit() {
+		return _registerHit;
+	}
+	private Integer namedValue(String name) {
+		Integer value = _globalRegFile.get(name);
+		if (value == null) {
+			value = _frameLayout != null ? _frameStack.currentTemp(name) : _tempRegFile.get(name);
+		}
+		return value;
+	}
+	/**
+	 * Forgets the last hit and takes the registers' current values as the ones to compare
+	 * against, so what the interface, undo or the last stop did is not reported.
+	 */
+	private void resetWatches() {
+		if (_memoryWatch != null) {
+			_memoryWatch.clearHit();
+		}
+		_riscRegFile.resetWatches();
+		for (Entry<String, Integer> e : _watchedNames.entrySet()) {
+			e.setValue(namedValue(e.getKey()));
+		}
+		_registerHit = null;
+	}
+	/**
+	 * @return true if a watched word was accessed or a watched register changed since the last check
+	 */
+	private boolean watchHit() {
+		int index = _riscRegFile.changedWatch();
+		if (index >= 0) {
+			_registerHit = RiscRegisters.REGISTERS.get(index);
+			return true;
+		}
+		for (Entry<String, Integer> e : _watchedNames.entrySet()) {
+			Integer value = namedValue(e.getKey());
+			if (!Objects.equals(value, e.getValue())) {
+				e.setValue(value);
+				_registerHit = e.getKey();
+				return true;
+			}
+		}
+		return _memoryWatch != null && _memoryWatch.isHit();
+	}
+
+	//SECTION: REVERSE EXECUTION
+	/**
+	 * Starts or stops recording what each step overwrites, so it can be undone with stepBack.
+	 * A step is one instruction or one event dispatched. Output already printed and input
+	 * already read are not taken back, and compiled code is not used while recording.
+	 * @param undo - the log to record to, or null to stop recording
+	 */
+	public void setRecording(UndoLog undo) {
+		_undo = undo;
+		_frameStack.setUndoLog(undo);
+		_os.setUndoLog(undo);
+	}
+	public UndoLog getUndoLog() {
+		return _undo;
+	}
+	private void beginStep() {
+		if (_undo.checkpointDue()) {
+			_undo.addCheckpoint(VMSnapshot.capture(this));
+		}
+		_undo.mark(_pc);
+	}
+	/**
+	 * Takes the VM back to where it was before the last step it recorded. Once the log
+	 * holds no whole step any more, it goes back to the newest checkpoint instead, which
+	 * may undo up to a whole checkpoint interval of steps at once.
+	 * @return the number of steps undone, 0 if there is nothing recorded to go back to
+	 */
+	public long stepBack() {
+		if (_undo == null) {
+			return 0;
+		}
+		stateReset();
+		if (!_undo.canUndo()) {
+			long from = _undo.getStep();
+			byte[] checkpoint = _undo.rewindToCheckpoint();
+			if (checkpoint == null) {
+				return 0;
+			}
+			try {
+				VMSnapshot.restore(this, checkpoint);
+			}catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			//restoring is not a step of its own
+			_undo.clearEntries();
+			_pcState = true;
+			return from - _undo.getStep();
+		}
+		int kind;
+		do {
+			int e = _undo.pop();
+			kind = _undo.kind(e);
+			undo(kind, _undo.target(e), _undo.old(e), _undo.ref(e));
+		} while (kind != UndoLog.MARK);
+		_reservation = NO_RESERVATION;
+		_pendingStop = null;
+		_breakpointPC = -1;
+		_pcState = true;
+		return 1;
+	}
+	/**
+	 * Steps back until the pc reaches a breakpoint, or the log runs out of whole steps.
+	 * Running forward again resumes past the breakpoint it stopped on.
+	 * @return BREAKPOINT, BUDGET after maxSteps steps, or HALT if it ran out of steps
+	 */
+	public StopReason runBack(long maxSteps) {
+		for (long steps = 0; steps < maxSteps; steps++) {
+			if (_undo == null || !_undo.canUndo()) {
+				return StopReason.HALT;
+			}
+			stepBack();
+			if (_breakpoints.get(_pc)) {
+				_breakpointPC = _pc;
+				return StopReason.BREAKPOINT;
+			}
+		}
+		return StopReason.BUDGET;
+	}
+	@SuppressWarnings("unchecked")
+	private void undo(int kind, int target, int old, Object ref) {
+		switch (kind) {
+		case UndoLog.MARK:
+			_pc = target;
+			break;
+		case UndoLog.RISC_REGISTER:
+			_riscRegFile.put(target, old);
+			break;
+		case UndoLog.MEMORY:
+			try {
+				_mainMem.putMemory(target, 4, old);
+			}catch (MemoryException e) {
+				//only words that were written are recorded
+				throw new IllegalStateException(e);
+			}
+			_memoryState = target;
+			break;
+		case UndoLog.GLOBAL:
+			_globalRegFile.put((String) ref, old);
+			break;
+		case UndoLog.TEMP:
+			_tempRegFile.put((String) ref, old);
+			break;
+		case UndoLog.NEW_GLOBAL:
+			_globalRegFile.remove(ref);
+			break;
+		case UndoLog.NEW_TEMP:
+			_tempRegFile.remove(ref);
+			break;
+		case UndoLog.HEAP_POINTER:
+		case UndoLog.HEAP_FREE_PUSHED:
+		case UndoLog.HEAP_FREE_POPPED:
+		case UndoLog.HEAP_RANGE_ADDED:
+		case UndoLog.HEAP_RANGE_REMOVED:
+		case UndoLog.HEAP_LIVE_ADDED:
+		case UndoLog.HEAP_LIVE_REMOVED:
+			_os.getHeap().undo(kind, target, old);
+			break;
+		case UndoLog.STACK_POINTER:
+			try {
+				_os.setSP(target);
+			}catch (MemoryException e) {
+				throw new IllegalStateException(e);
+			}
+			break;
+		case UndoLog.RUN:
+			_run = old == 1;
+			break;
+		case UndoLog.KEY_HANDLER:
+			_keyHandler = old >= 0 ? old : null;
+			break;
+		case UndoLog.CLICK_HANDLER:
+			_clickHandler = old >= 0 ? old : null;
+			break;
+		case UndoLog.TIMER_ADDED:
+			_timers.remove((Task) ref);
+			break;
+		case UndoLog.EVENT_TAKEN:
+			if (target == 1) {
+				//back to the front of the queue
+				List<Task> later = new ArrayList<>(_inputEvents);
+				_inputEvents.clear();
+				_inputEvents.add((Task) ref);
+				_inputEvents.addAll(later);
+			}else {
+				_timers.add((Task) ref);
+			}
+			break;
+		case UndoLog.MEMORY_RESET:
+			Object[] dropped = (Object[]) ref;
+			replaceMainMem((MemorySystem) dropped[0]);
+			_os = (OperatingSystem) dropped[1];
+			_stringPool = (Map<String, Integer>) dropped[2];
+			_program = null;
+			break;
+		default:
+			_frameStack.undo(kind, target, old, ref);
+			break;
+		}
+	}
+	/**
+	 * Records the words of length bytes from address before they are written.
+	 */
+	private void recordWords(int address, int length) {
+		if (address < 0 || length <= 0) {
+			return;
+		}
+		int first = address & ~3;
+		int last = (address + length - 1) & ~3;
+		try {
+			for (int a = first; a <= last; a += 4) {
+				_undo.record(UndoLog.MEMORY, a, _mainMem.peekWord(a));
+			}
+		}catch (MemoryException e) {
+			//the write itself fails on the same address
+		}
+	}
+
+	//SECTION: DECODED EXECUTION
+	private void ensureDecoded() throws MemoryException {
+		if (_program == null) {
+			internStrings();
+			_program = Decoder.decode(_instructions, _st, _dataTable, _readOnlyVars, _stringPool);
+			_tiers = null;
+		}
+		if (_tiers == null) {
+			//a new program, or new thresholds, start again from the interpreter
+			_tiers = new TierManager(this, _program, _instructions, _compileThreshold, _closureThreshold, _loopThreshold);
+		}
+	}
 	public void executeNextInstr() throws OperationException, MemoryException {
+		ensureDecoded();
+		int[] code = _program.getCode();
+		Temporary[] temps = _program.getTemps();
+		int pc = _pc;
+		int at = pc * DecodedProgram.STRIDE;
+		int header = code[at];
+		incPC(1);
 
-		intermediateRepresentation i = getNextInstr();
+		switch (DecodedProgram.opcode(header)) {
+		case DecodedProgram.MOVE_T:
+			writeDecoded(temps, code[at + 1], getVariable(temps[code[at + 2]]));
+			break;
+		case DecodedProgram.MOVE_I:
+			writeDecoded(temps, code[at + 1], code[at + 2]);
+			break;
+		case DecodedProgram.ALU_TT:
+			writeDecoded(temps, code[at + 1], calculate(OPERATIONS[DecodedProgram.operation(header)],
+					getVariable(temps[code[at + 2]]), getVariable(temps[code[at + 3]])));
+			break;
+		case DecodedProgram.ALU_TI:
+			writeDecoded(temps, code[at + 1], calculate(OPERATIONS[DecodedProgram.operation(header)],
+					getVariable(temps[code[at + 2]]), code[at + 3]));
+			break;
+		case DecodedProgram.ALU_IT:
+			writeDecoded(temps, code[at + 1], calculate(OPERATIONS[DecodedProgram.operation(header)],
+					code[at + 2], getVariable(temps[code[at + 3]])));
+			break;
+		case DecodedProgram.LOAD:
+			writeDecoded(temps, code[at + 1], getValueInMainMem(
+					code[at + 3] + getVariable(temps[code[at + 2]]), DecodedProgram.memSize(header)));
+			break;
+		case DecodedProgram.STORE:
+			putValueInMainMem(code[at + 3] + getVariable(temps[code[at + 2]]),
+					DecodedProgram.memSize(header), getVariable(temps[code[at + 1]]));
+			break;
+		case DecodedProgram.LOAD_X:
+			writeDecoded(temps, code[at + 1], getValueInMainMem(scaledAddress(code, at, temps, header),
+					DecodedProgram.memSize(header)));
+			break;
+		case DecodedProgram.STORE_X:
+			putValueInMainMem(scaledAddress(code, at, temps, header), DecodedProgram.memSize(header),
+					(DecodedProgram.operation(header) & DecodedProgram.VALUE_IMM) != 0
+							? code[at + 1] : getVariable(temps[code[at + 1]]));
+			break;
+		case DecodedProgram.BRANCH_TT:
+			if (calculate(OPERATIONS[DecodedProgram.operation(header)],
+					getVariable(temps[code[at + 1]]), getVariable(temps[code[at + 2]])) == 1) {
+				changePC(code[at + 3]);
+			}
+			break;
+		case DecodedProgram.BRANCH_TI:
+			if (calculate(OPERATIONS[DecodedProgram.operation(header)],
+					getVariable(temps[code[at + 1]]), code[at + 2]) == 1) {
+				changePC(code[at + 3]);
+			}
+			break;
+		case DecodedProgram.JUMP:
+			writeDecoded(temps, code[at + 1], getPC());
+			changePC(code[at + 3]);
+			break;
+		case DecodedProgram.JUMP_T:
+			writeDecoded(temps, code[at + 1], getPC());
+			changePC(getVariable(temps[code[at + 3]]));
+			break;
+		default:
+			ClosureCompiler.Step step = _tiers.warm(pc);
+			if (step != null) {
+				step.execute(this);
+			}else {
+				executeInstr(_program.getInstruction(pc));
+			}
+		}
+	}
+	private int scaledAddress(int[] code, int at, Temporary[] temps, int header) {
+		int index = (DecodedProgram.operation(header) & DecodedProgram.INDEX_IMM) != 0
+				? code[at + 3] : getVariable(temps[code[at + 3]]);
+		return (getVariable(temps[code[at + 2]]) + index) * DecodedProgram.scale(header);
+	}
+
+	/**
+	 * Executes the instruction at pc, or the superinstruction starting there, from the fused code.
+	 * The pc is moved past each line before that line runs, as executeNextInstr does,
+	 * so an error in either half leaves the same state as stepping would.
+	 * @return the number of lines executed
+	 */
+	private int executeFusedInstr() throws OperationException, MemoryException {
+		int[] code = _program.getFusedCode();
+		Temporary[] temps = _program.getTemps();
+		int at = _pc * DecodedProgram.STRIDE;
+		int header = code[at];
+		int next = at + DecodedProgram.STRIDE;
+
+		switch (DecodedProgram.opcode(header)) {
+		case DecodedProgram.ALU_TT_BRANCH_TT:
+		case DecodedProgram.ALU_TT_BRANCH_TI:
+			incPC(1);
+			writeDecoded(temps, code[at + 1], calculate(OPERATIONS[DecodedProgram.operation(header)],
+					getVariable(temps[code[at + 2]]), getVariable(temps[code[at + 3]])));
+			break;
+		case DecodedProgram.ALU_TI_BRANCH_TT:
+		case DecodedProgram.ALU_TI_BRANCH_TI:
+		case DecodedProgram.ALU_TI_LOAD:
+			incPC(1);
+			writeDecoded(temps, code[at + 1], calculate(OPERATIONS[DecodedProgram.operation(header)],
+					getVariable(temps[code[at + 2]]), code[at + 3]));
+			break;
+		case DecodedProgram.LOAD_BRANCH_TT:
+		case DecodedProgram.LOAD_BRANCH_TI:
+			incPC(1);
+			writeDecoded(temps, code[at + 1], getValueInMainMem(
+					code[at + 3] + getVariable(temps[code[at + 2]]), DecodedProgram.memSize(header)));
+			break;
+		default:
+			executeNextInstr();
+			return 1;
+		}
+
+		//second line, operands from its own slot
+		int second = code[next];
+		incPC(1);
+		switch (DecodedProgram.opcode(header)) {
+		case DecodedProgram.ALU_TT_BRANCH_TT:
+		case DecodedProgram.ALU_TI_BRANCH_TT:
+		case DecodedProgram.LOAD_BRANCH_TT:
+			if (calculate(OPERATIONS[DecodedProgram.operation(second)],
+					getVariable(temps[code[next + 1]]), getVariable(temps[code[next + 2]])) == 1) {
+				changePC(code[next + 3]);
+			}
+			break;
+		case DecodedProgram.ALU_TI_LOAD:
+			writeDecoded(temps, code[next + 1], getValueInMainMem(
+					code[next + 3] + getVariable(temps[code[next + 2]]), DecodedProgram.memSize(second)));
+			break;
+		default:
+			if (calculate(OPERATIONS[DecodedProgram.operation(second)],
+					getVariable(temps[code[next + 1]]), code[next + 2]) == 1) {
+				changePC(code[next + 3]);
+			}
+		}
+		return 2;
+	}
+	private void writeDecoded(Temporary[] temps, int dest, int value) {
+		if (dest != DecodedProgram.NO_DEST) {
+			storeVariable(temps[dest], value);
+		}
+	}
+
+	//SECTION: INSTRUCTION UNWRAPPING
+	void executeInstr(intermediateRepresentation i) throws OperationException, MemoryException {
 
 		if (i instanceof Move) {
 
@@ -114,30 +889,17 @@ public class ExecVM {
 			Abs_Expression dest = m.getDestination();
 			Abs_Expression source = m.getSource();
 
-			//string constants
-			if(source instanceof Symbol) {
-				String s = ((Symbol) source).get();
-				int address =  _os.requestMemory(s.length() + 1);
-				source = new Literal(address);
-
-				for(byte b: s.getBytes()) {
-					putValueInMainMem(address, 1, b);
-					address += 1;
-				}
-				putValueInMainMem(address, 1, '\0');
-			}
-
 			//store instruction
 			if (dest instanceof MemoryAddress) {
 				MemoryAddress a = (MemoryAddress) dest;
 				int address = evaluateExp(a.getAddress());
 				int size = a.getSize();
-				int value = evaluateExp(source);
+				int value = evaluateSource(source);
 				putValueInMainMem(address, size, value);
 
 				//arithmetic and load instructions
 			}else {
-				int value = evaluateExp(source);
+				int value = evaluateSource(source);
 				putVariable((Temporary) dest, value);
 			}
 
@@ -158,21 +920,15 @@ public class ExecVM {
 
 			if(_st.containsSymbol(label)){
 
-				//save current registers to stack
-				TempRegFile _currentTemps = new TempRegFile(destination, getPC(), getTempsMap());
-				_registerStack.push(_currentTemps);
-
-				//find argument values according to pre-call reg file
-				List<Integer> evaluatedArgs = new ArrayList<>();
-				for(Abs_Expression a : args) {
-					evaluatedArgs.add(evaluateExp(a));
+				//argument values are found with the caller's frame still current
+				FrameLayout.Frame callee = calleeFrame(label);
+				int base = _frameStack.prepareCall(callee);
+				for(int n = 0; n < args.size(); n++) {
+					_frameStack.setArg(base, callee, n, evaluateExp(args.get(n)));
 				}
 
-				//put argument registers into new register file
-				clearTemps();
-				for(int n = 0; n < evaluatedArgs.size(); n++) {
-					putVariable(new Temporary("@" + n), evaluatedArgs.get(n));
-				}
+				//save return information and switch to the callee's frame
+				_frameStack.push(callee, base, getPC(), destination);
 
 				//change pc
 				int newPC = _st.getCodeLine(((Call) i).getSymbol());
@@ -183,6 +939,7 @@ public class ExecVM {
 				Integer result =  evaluateCommand(label, args);
 				if(result == null) {
 					_pc -= 1;
+					_pendingStop = StopReason.BLOCKED_READ;
 				}else if(destination != null) {
 					putVariable(destination, result);
 				}
@@ -191,7 +948,7 @@ public class ExecVM {
 			}
 
 		}else if (i instanceof Return) {
-			if(_registerStack.isEmpty()) {
+			if(_frameStack.isEmpty()) {
 				endPC();
 
 			}else {
@@ -200,11 +957,11 @@ public class ExecVM {
 					rv = evaluateExp(((Return)i).getValue());
 				}		
 
-				TempRegFile t = _registerStack.pop();
-				setTemps(t.getTemps());
-				changePC(t.returnAddress());
+				int returnAddress = _frameStack.peekReturnPC();
+				Temporary destination = _frameStack.peekDest();
+				_frameStack.pop();
+				changePC(returnAddress);
 
-				Temporary destination = t.getDestReg();
 				if(destination != null) {
 					putVariable(destination, rv);
 				}
@@ -221,19 +978,77 @@ public class ExecVM {
 			changePC(newPC);
 
 		}else if (i instanceof SysCall) {
-			int type = _globalRegFile.get(RiscRegisters.SYSCALL);
-			_callState = "syscall";
-
-			Integer result =  evaluateECall(type);
-			if(result == null) {
+			if (!ecall()) {
 				_pc -= 1;
-			}else {
-				_globalRegFile.put("a0", result);				
+				_pendingStop = StopReason.BLOCKED_READ;
 			}
+
+		}else if (i instanceof Atomic) {
+			Atomic a = (Atomic) i;
+			putVariable((Temporary) a.getDestination(), atomic(a.getKind(), evaluateExp(a.getAddress()),
+					a.getValue() != null ? evaluateExp(a.getValue()) : 0));
 		}
 	}
+	/**
+	 * Runs one A extension instruction on the word at address.
+	 * A store conditional succeeds if this hart's last lr.w was of address and the word
+	 * still holds what that lr.w read, so a write of the same value in between goes unnoticed.
+	 * @return the value for rd
+	 */
+	int atomic(Atomic.Kind kind, int address, int value) throws MemoryException {
+		switch (kind) {
+		case LOAD_RESERVED:
+			_reservedValue = _mainMem.getMemory(address, 4);
+			_reservation = address;
+			return _reservedValue;
+		case STORE_CONDITIONAL:
+			if (_undo != null) {
+				recordWords(address, 4);
+			}
+			boolean stored = _reservation == address && _mainMem.compareAndSet(address, _reservedValue, value);
+			_reservation = NO_RESERVATION;
+			if (stored) {
+				_memoryState = address;
+			}
+			return stored ? 0 : 1;
+		case SWAP:
+			if (_undo != null) {
+				recordWords(address, 4);
+			}
+			_memoryState = address;
+			return _mainMem.getAndSet(address, value);
+		default:
+			if (_undo != null) {
+				recordWords(address, 4);
+			}
+			_memoryState = address;
+			return _mainMem.getAndAdd(address, value);
+		}
+	}
+	/**
+	 * Runs the RISC-V environment call a7 selects, with its result in a0.
+	 * @return false if it is still waiting on input and has to be run again
+	 */
+	boolean ecall() throws MemoryException {
+		int type = _riscRegFile.get(RiscRegisters.SYSCALL_INDEX);
+		_callState = "syscall";
+
+		Integer result =  evaluateECall(type);
+		if(result == null) {
+			return false;
+		}
+		setRegister(RiscRegisters.A0_INDEX, "a0", result);
+		return true;
+	}
 
 	//SECTION: EXPRESSION UNWRAPPING
+	private int evaluateSource(Abs_Expression source) throws OperationException, MemoryException {
+		//string constants evaluate to their pooled address
+		if (source instanceof Symbol) {
+			return internString(((Symbol) source).get());
+		}
+		return evaluateExp(source);
+	}
 	int evaluateExp(Abs_Expression e) throws MemoryException, OperationException {
 		int result = 0;
 		if (e instanceof BinOp) {
@@ -259,7 +1074,7 @@ public class ExecVM {
 		return result;
 	}
 	private Integer evaluateECall(int type) throws MemoryException {
-		int a0 = _globalRegFile.get("a0");
+		int a0 = _riscRegFile.get(RiscRegisters.A0_INDEX);
 		switch(type) {
 
 		case 1: //print int
@@ -267,14 +1082,7 @@ public class ExecVM {
 			break;
 
 		case 4://print string
-			String s = "";
-			char l = (char) getValueInMainMem(a0, 1);
-			while(l != '\0') {
-				s += l;
-				a0 += 1;
-				l = (char) getValueInMainMem(a0, 1);
-			}
-			_iof.printString(s);
+			_iof.printString(getStringInMainMem(a0));
 			break;
 
 		case 5://read int
@@ -284,14 +1092,18 @@ public class ExecVM {
 			byte[] string = _iof.readString("Enter a string: ");
 
 			if(string != null) {
-				int address =  _os.requestMemory(string.length + 1);
+				int address =  allocate(string.length + 1);
 				putStringInMainMem(address, string);
 				return address;
 			}
 			return null;
 
 		case 9://request memory
-			return _os.requestMemory(a0);
+			return allocate(a0);
+
+		case 19://free memory
+			free(a0);
+			break;
 
 		case 10://quit
 			stop();
@@ -322,14 +1134,14 @@ public class ExecVM {
 
 		}else if (command.equals("_read_string")) {
 			byte[] s = _iof.readString("Enter a string: ");
-			int address =  _os.requestMemory(s.length + 1);
+			int address =  allocate(s.length + 1);
 			putStringInMainMem(address, s);
 
 			return address;
 
 		}else if (command.equals("_read_char")) {
 			char c = _iof.readChar("Enter a letter: ");
-			int address =  _os.requestMemory(1);
+			int address =  allocate(1);
 			putValueInMainMem(address, 1, c);
 			return address;
 
@@ -338,14 +1150,7 @@ public class ExecVM {
 
 			if (e instanceof Temporary) {
 				int address = getVariable((Temporary) e);
-				String s = "";
-				char l = (char) getValueInMainMem(address, 1);
-				while(l != '\0') {
-					s += l;
-					address += 1;
-					l = (char) getValueInMainMem(address, 1);
-				}
-				_iof.printString(s);
+				_iof.printString(getStringInMainMem(address));
 
 			}else {
 				throw new OperationException("syntax for " + command);
@@ -368,7 +1173,10 @@ public class ExecVM {
 
 		}else if (command.equals("_allocate")) {
 			int n = evaluateExp(args.get(0));
-			return _os.requestMemory(n);
+			return allocate(n);
+
+		}else if (command.equals("_free")) {
+			free(evaluateExp(args.get(0)));
 
 		}else if(command.equals("_random")) {
 			Random random = new Random();
@@ -380,28 +1188,48 @@ public class ExecVM {
 			String name = function.get();
 			int destPC = evaluateExp(function);
 			int waitTime = evaluateExp(args.get(1));
-			_eventQ.add(new Task(name, waitTime, 0, destPC));
+			Task t = new Task(name, waitTime, 0, destPC);
+			if (_undo != null) {
+				_undo.record(UndoLog.TIMER_ADDED, 0, 0, t);
+			}
+			_timers.add(t);
 
 		}else if(command.equals("_set_key_handler")) {
 			Symbol function = (Symbol) args.get(0);
+			if (_undo != null) {
+				_undo.record(UndoLog.KEY_HANDLER, 0, _keyHandler != null ? _keyHandler : -1);
+			}
 			_keyHandler = evaluateExp(function);
 
 		}else if(command.equals("_set_click_handler")) {
 			Symbol function = (Symbol) args.get(0);
+			if (_undo != null) {
+				_undo.record(UndoLog.CLICK_HANDLER, 0, _clickHandler != null ? _clickHandler : -1);
+			}
 			_clickHandler = evaluateExp(function);
 
 		}else if(command.equals("_clear_graphics")){
 			Pair<Integer, Integer> graphicsRange = getOS().getGraphicsRange();
-			for (int i = graphicsRange.first()*4; i < graphicsRange.second()*4; i+= 4) {
-				putValueInMainMem(i, 4, 0);
+			int count = graphicsRange.second() - graphicsRange.first();
+			if (count > 0) {
+				if (_undo != null) {
+					recordWords(graphicsRange.first()*4, count*4);
+				}
+				_mainMem.fillWords(graphicsRange.first()*4, count, 0);
+				_memoryState = graphicsRange.second()*4 - 4;
 			}
-			((window.GraphicsFunctObj) _iof).updateScreen();
+			updateGraphics();
 
 		}else if(command.equals("_clear_memory")) {
+			if (_undo != null) {
+				_undo.record(UndoLog.MEMORY_RESET, 0, 0,
+						new Object[] {_mainMem, _os, new LinkedHashMap<>(_stringPool)});
+			}
 			resetMainMem();
 
 		}else if(command.equals("_update_graphics")) {
-			((window.GraphicsFunctObj) _iof).updateScreen();
+			updateGraphics();
+			_pendingStop = StopReason.GRAPHICS;
 
 		}else {
 			throw new OperationException(command);
@@ -411,10 +1239,11 @@ public class ExecVM {
 
 	//SECTION: EXECUTION & CALCULATION
 	private int binOps(BinOp e) throws OperationException, MemoryException {
-		Operation op = e.getOp();
-
 		int arg1 = evaluateExp(e.getArg1());
 		int arg2 = evaluateExp(e.getArg2());
+		return calculate(e.getOp(), arg1, arg2);
+	}
+	int calculate(Operation op, int arg1, int arg2) throws OperationException {
 		int result = 0;
 		switch (op) {
 		case ADD:
@@ -515,10 +1344,22 @@ public class ExecVM {
 
 	//SECTION: RUN, STOP & HAS NEXT
 	private boolean hasNextEvent() {
-		return !_eventQ.isEmpty();
+		return !_timers.isEmpty() || !_inputEvents.isEmpty();
+	}
+	/**
+	 * @return true if there is nothing left to run until a key or click event is logged
+	 */
+	public boolean awaitingInput() {
+		return !hasNextInstr() && !hasNextEvent() && (_keyHandler != null || _clickHandler != null);
+	}
+	private void updateGraphics() {
+		if (_iof instanceof window.GraphicsFunctObj) {
+			((window.GraphicsFunctObj) _iof).updateScreen();
+		}
 	}
 	private void emptyQ() {
-		_eventQ.clear();
+		_timers.clear();
+		_inputEvents.clear();
 	}
 	public boolean hasNextInstr() {
 		if(_pc < _instructions.size()) {
@@ -527,11 +1368,6 @@ public class ExecVM {
 			return false;
 		}
 	}
-	private intermediateRepresentation getNextInstr() {
-		intermediateRepresentation next = _instructions.get(_pc);
-		incPC(1);
-		return next;
-	}
 	private void resetPC() {
 		_pcState = true;
 		_pc = 0;
@@ -552,6 +1388,9 @@ public class ExecVM {
 		_pc = _instructions.size();
 	}
 	public void stop() {
+		if (_undo != null) {
+			_undo.record(UndoLog.RUN, 0, _run ? 1 : 0);
+		}
 		_run = false;
 	}
 	public void restart() {
@@ -563,6 +1402,12 @@ public class ExecVM {
 
 	//SECTION: VARIABLE  OPERATIONS
 	public int getVariable(Temporary t) {
+		if (t.getIndex() >= 0) {
+			if (t.isGlobal()) {
+				return _riscRegFile.get(t.getIndex());
+			}
+			return _frameStack.get(t.getIndex());
+		}
 		Integer value;
 		if (t.isGlobal()) {
 			value = _globalRegFile.get(t.get());
@@ -576,44 +1421,141 @@ public class ExecVM {
 			return 0;
 		}
 	}
-	private void putVariable(Temporary t, int value) {
-		if (!_readOnlyVars.contains(t.get())) {
-			if (t.isGlobal()) {
-				_globalRegFile.put(t.get(), value);
-			}else {
-				_tempRegFile.put(t.get(), value);
+	void putVariable(Temporary t, int value) {
+		if (t.getIndex() >= 0) {
+			if (!t.isGlobal() || t.getIndex() != RiscRegisters.ZERO_INDEX) {
+				storeVariable(t, value);
+			}
+		}else if (!_readOnlyVars.contains(t.get())) {
+			storeVariable(t, value);
+		}
+	}
+	void storeVariable(Temporary t, int value) {
+		if (t.isGlobal() && t.getIndex() >= 0) {
+			if (_undo != null) {
+				_undo.record(UndoLog.RISC_REGISTER, t.getIndex(), _riscRegFile.get(t.getIndex()));
+			}
+			_riscRegFile.put(t.getIndex(), value);
+		}else if (t.getIndex() >= 0) {
+			_frameStack.set(t.getIndex(), value);
+		}else if (t.isGlobal()) {
+			Integer old = _globalRegFile.put(t.get(), value);
+			if (_undo != null) {
+				_undo.record(old != null ? UndoLog.GLOBAL : UndoLog.NEW_GLOBAL, 0, old != null ? old : 0, t.get());
 			}
-			_regState = t.get();
+		}else {
+			Integer old = _tempRegFile.put(t.get(), value);
+			if (_undo != null) {
+				_undo.record(old != null ? UndoLog.TEMP : UndoLog.NEW_TEMP, 0, old != null ? old : 0, t.get());
+			}
+		}
+		_regState = t.get();
+	}
+	void setRegister(int index, String name, int value) {
+		if (_undo != null) {
+			_undo.record(UndoLog.RISC_REGISTER, index, _riscRegFile.get(index));
 		}
+		_riscRegFile.put(index, value);
+		_regState = name;
+	}
+	void setSlot(int slot, String name, int value) {
+		_frameStack.set(slot, value);
+		_regState = name;
+	}
+	boolean isReadOnly(String name) {
+		return _readOnlyVars != null && _readOnlyVars.contains(name);
+	}
+	void setCallState(String label) {
+		_callState = label;
+	}
+	FrameStack getFrameStack() {
+		return _frameStack;
+	}
+	int[] getRiscRegisterArray() {
+		return _riscRegFile.getArray();
+	}
+	SymbolTable getSymbolTable() {
+		return _st;
+	}
+	Map<String, Integer> getDataTable() {
+		return _dataTable;
 	}
 	public Map<String, Integer> getTempsMap() {
+		if (_frameLayout != null) {
+			return _frameStack.currentTemps();
+		}
 		return _tempRegFile;
 	}
 	private void clearTemps() {
 		_tempRegFile = new HashMap<>();
-	}
-	private void setTemps(Map<String, Integer> regs) {
-		_tempRegFile = regs;
+		_frameStack.reset(_frameLayout != null ? _frameLayout.getEntryFrame() : null);
 	}
 	public String prinTemps() {
-		return _tempRegFile.toString();
+		return getTempsMap().toString();
 	}
 	public String showTempsStack() {
-		return _registerStack.toString();
+		return _frameStack.toString();
+	}
+	FrameLayout.Frame calleeFrame(String function) {
+		if (_frameLayout != null) {
+			return _frameLayout.getFrame(function);
+		}
+		return null;
+	}
+	private void enterHandler(int handlerPC, int arg) {
+		FrameLayout.Frame handler = null;
+		if (_frameLayout != null) {
+			for (FrameLayout.Frame f : _frameLayout.getFrames()) {
+				Integer line = _st.getCodeLine(f.getName());
+				if (line != null && line == handlerPC) {
+					handler = f;
+				}
+			}
+		}
+		if (handler != null) {
+			//handlers start from an empty call stack with the event argument in @0
+			_frameStack.reset(handler);
+			if (handler.argSlot(0) >= 0) {
+				_frameStack.set(handler.argSlot(0), arg);
+			}
+			_regState = "@0";
+		}else {
+			putVariable(new Temporary("@0"), arg);
+		}
 	}
 	public Map<String, Integer> getGlobalsMap() {
+		if (_riscRegsLoaded) {
+			return _riscRegFile;
+		}
 		return _globalRegFile;
 	}
+	public RiscRegisterFile getRiscRegisters() {
+		return _riscRegFile;
+	}
 	private void clearGlobals() {
 		_globalRegFile = new HashMap<>();
+		_riscRegFile.reset();
+		_riscRegsLoaded = false;
 	}
 	public String printGlobals() {
-		return _globalRegFile.toString();
+		return getGlobalsMap().toString();
 	}
 	public void setStackPointer(int sp){
 		try {
+			int oldSP = _os.getStackPointer();
 			_os.setSP(sp);
-			putVariable(new Temporary("sp"), sp);
+			if (_undo != null) {
+				_undo.record(UndoLog.STACK_POINTER, oldSP, 0);
+			}
+			if (_riscRegsLoaded) {
+				if (_undo != null) {
+					_undo.record(UndoLog.RISC_REGISTER, RiscRegisters.SP_INDEX, _riscRegFile.get(RiscRegisters.SP_INDEX));
+				}
+				_riscRegFile.put(RiscRegisters.SP_INDEX, sp);
+				_regState = "sp";
+			}else {
+				putVariable(new Temporary("sp"), sp);
+			}
 		} catch (MemoryException e) {
 			_iof.reportError("Cannot set stack pointer less than heap pointer");
 		}
@@ -624,93 +1566,361 @@ public class ExecVM {
 	public OperatingSystem getOS() {
 		return _os;
 	}
+	public MemorySystem.Backend getMemoryBackend() {
+		return _memoryBackend;
+	}
+	public MemoryLayout getMemoryLayout() {
+		return _layout;
+	}
+	/**
+	 * Moves the segments of memory, which clears it; the program's data has to be loaded again.
+	 */
+	public void setMemoryLayout(MemoryLayout layout) {
+		_layout = layout;
+		resetMainMem();
+	}
 	private void resetMainMem() {
-		_mainMem = new MemorySystem();
-		_os = new OperatingSystem();
+		replaceMainMem(MemorySystem.create(_memoryBackend));
+		_os = new OperatingSystem(_layout);
+		_os.setUndoLog(_undo);
+		_reservation = NO_RESERVATION;
+		//pooled strings are placed again in the new memory before the next instruction
+		_stringPool.clear();
+		_program = null;
+	}
+
+	/**
+	 * Heap allocation for running programs.
+	 */
+	private int allocate(int n) throws MemoryException {
+		return _os.requestMemory(n);
+	}
+	private void free(int address) throws MemoryException {
+		_os.freeMemory(address);
+	}
+
+	//SECTION: STRING CONSTANT POOL
+	private void internStrings() throws MemoryException {
+		for (intermediateRepresentation i : _instructions) {
+			if (i instanceof Move && ((Move) i).getSource() instanceof Symbol) {
+				internString(((Symbol) ((Move) i).getSource()).get());
+			}
+		}
+	}
+	int internString(String s) throws MemoryException {
+		Integer address = _stringPool.get(s);
+		if (address == null) {
+			byte[] bytes = s.getBytes();
+			address = _os.reserveMemory(bytes.length + 1);
+			_mainMem.putBytes(address, bytes, 0, bytes.length);
+			_mainMem.putMemory(address + bytes.length, 1, '\0');
+			_stringPool.put(s, address);
+		}
+		return address;
+	}
+	public Map<String, Integer> getStringPool() {
+		return _stringPool;
 	}
 	public int getValueInMainMem(int address, int size) throws MemoryException {
 		return _mainMem.getMemory(address, size);
 	}
 	public void putValueInMainMem(int address, int size, int value) throws MemoryException {
+		if (_undo != null) {
+			recordWords(address, size);
+		}
 		_mainMem.putMemory(address, size, value);
 		_memoryState = address;
 	}
+	/**
+	 * Memory access for compiled blocks. On an error the pc is left after the failing line,
+	 * where the interpreter would have left it.
+	 */
+	int jitLoad(int address, int size, int nextPC) throws MemoryException {
+		try {
+			return getValueInMainMem(address, size);
+		}catch (MemoryException e) {
+			changePC(nextPC);
+			throw e;
+		}
+	}
+	void jitStore(int address, int size, int value, int nextPC) throws MemoryException {
+		try {
+			putValueInMainMem(address, size, value);
+		}catch (MemoryException e) {
+			changePC(nextPC);
+			throw e;
+		}
+	}
 	public void putStringInMainMem(int address, byte[] bytes) throws MemoryException{
-		int j = address;
-		for (byte b : bytes) {
-			putValueInMainMem(j, 1, b);
-			j++;
+		if (_undo != null) {
+			recordWords(address, bytes.length);
+		}
+		_mainMem.putBytes(address, bytes, 0, bytes.length);
+		putValueInMainMem(address + bytes.length, 1, '\0');
+	}
+	public String getStringInMainMem(int address) throws MemoryException {
+		return _mainMem.readString(address);
+	}
+	public void putWordsInMainMem(int address, int[] words, int offset, int count) throws MemoryException {
+		if (_undo != null) {
+			recordWords(address, count * 4);
+		}
+		_mainMem.putWords(address, words, offset, count);
+		if (count > 0) {
+			_memoryState = address + (count - 1) * 4;
 		}
-		putValueInMainMem(j, 1, '\0');
+	}
+	public void getWordsInMainMem(int address, int[] words, int offset, int count) throws MemoryException {
+		_mainMem.getWords(address, words, offset, count);
 	}
 	public String printMainMem() {
 		return _mainMem.printMainMem();
 	}
 
+	//SECTION: SNAPSHOTS
+	/**
+	 * Writes everything a run changes, see VMSnapshot. Timer events are saved as the time
+	 * left until they are due, so they keep their delays across a restart.
+	 */
+	void writeState(VMSnapshot.Writer out) throws IOException {
+		out.putInt(_instructions.size());
+		out.putInt(programFingerprint());
+		out.putInt(_pc);
+		out.putBoolean(_run);
+		out.putInt(_keyHandler != null ? _keyHandler : -1);
+		out.putInt(_clickHandler != null ? _clickHandler : -1);
+
+		_os.writeTo(out);
+
+		out.putBoolean(_riscRegsLoaded);
+		out.putInts(_riscRegFile.getArray(), 0, RiscRegisters.REGISTERS.size());
+		out.putMap(_globalRegFile);
+		out.putMap(_tempRegFile);
+		_frameStack.writeTo(out);
+		out.putMap(_stringPool);
+		out.putMap(_dataTable);
+
+		long now = System.nanoTime();
+		writeTasks(out, _timers.getTasks(), now);
+		writeTasks(out, new ArrayList<>(_inputEvents), now);
+
+		int[] page = new int[PagedMemorySystem.PAGE_WORDS];
+		int pageBytes = PagedMemorySystem.PAGE_WORDS * 4;
+		int[] written = _mainMem.getWrittenPages();
+		out.putInt(PagedMemorySystem.PAGE_WORDS);
+		for (int p : written) {
+			try {
+				_mainMem.getWords(p * pageBytes, page, 0, page.length);
+			}catch (MemoryException e) {
+				throw new IOException(e.getMessage(), e);
+			}
+			if (!allZero(page)) {
+				out.putInt(p);
+				out.putInts(page, 0, page.length);
+			}
+		}
+		out.putInt(-1);
+	}
+	/**
+	 * Replaces the run state with one written by writeState. Compiled code and profiles
+	 * are dropped, so the tiers start again from the interpreter.
+	 */
+	void readState(VMSnapshot.Reader in) throws IOException {
+		int size = in.getInt();
+		int fingerprint = in.getInt();
+		if (size != _instructions.size() || fingerprint != programFingerprint()) {
+			throw new IOException("Snapshot was saved from another program");
+		}
+		stateReset();
+		_pc = in.getInt();
+		_run = in.getBoolean();
+		int keyHandler = in.getInt();
+		int clickHandler = in.getInt();
+		_keyHandler = keyHandler >= 0 ? keyHandler : null;
+		_clickHandler = clickHandler >= 0 ? clickHandler : null;
+
+		_os = new OperatingSystem(_layout);
+		_os.readFrom(in);
+		_os.setUndoLog(_undo);
+
+		_riscRegsLoaded = in.getBoolean();
+		in.getInts(_riscRegFile.getArray(), 0, RiscRegisters.REGISTERS.size());
+		_globalRegFile = new HashMap<>(in.getMap());
+		_tempRegFile = new HashMap<>(in.getMap());
+		_frameStack.readFrom(in, _frameLayout);
+		_stringPool = in.getMap();
+		_dataTable.clear();
+		_dataTable.putAll(in.getMap());
+
+		emptyQ();
+		long now = System.nanoTime();
+		for (Task t : readTasks(in, now)) {
+			_timers.add(t);
+		}
+		_inputEvents.addAll(readTasks(in, now));
+
+		int pageWords = in.getInt();
+		if (pageWords != PagedMemorySystem.PAGE_WORDS) {
+			throw new IOException("Snapshot pages of " + pageWords + " words cannot be read");
+		}
+		replaceMainMem(MemorySystem.create(_memoryBackend));
+		int[] page = new int[pageWords];
+		for (int p = in.getInt(); p >= 0; p = in.getInt()) {
+			in.getInts(page, 0, pageWords);
+			try {
+				_mainMem.putWords(p * pageWords * 4, page, 0, pageWords);
+			}catch (MemoryException e) {
+				throw new IOException(e.getMessage(), e);
+			}
+		}
+
+		_reservation = NO_RESERVATION;
+		_breakpointPC = -1;
+		_lastError = null;
+		_program = null;
+		_tiers = null;
+	}
+	private static void writeTasks(VMSnapshot.Writer out, List<Task> tasks, long now) throws IOException {
+		out.putInt(tasks.size());
+		for (Task t : tasks) {
+			out.putString(t.getDescr());
+			out.putLong(Math.max(0, t.getTimeStamp() - now));
+			out.putInt(t.getArg());
+			out.putInt(t.getDestPC());
+		}
+	}
+	private static List<Task> readTasks(VMSnapshot.Reader in, long now) throws IOException {
+		int count = in.getInt();
+		List<Task> tasks = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			String descr = in.getString();
+			long delay = in.getLong();
+			int arg = in.getInt();
+			tasks.add(Task.at(descr, now + delay, arg, in.getInt()));
+		}
+		return tasks;
+	}
+	private int programFingerprint() {
+		int hash = 1;
+		for (intermediateRepresentation i : _instructions) {
+			hash = 31 * hash + i.toString().hashCode();
+		}
+		return hash;
+	}
+	private static boolean allZero(int[] words) {
+		for (int w : words) {
+			if (w != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
 	//SECTION: DATA-IN FUNCTIONS FOR INTERFACE
 	public void loadSymbolTable(SymbolTable st) {
 		_st = st;
+		_program = null;
 	}
 	public void loadData(Data data) throws MemoryException {
 		Map<String, Integer> dataLabels = data.getDataAssignMap();
 		List<DataType> dataList = data.getDataList();
 		List<Integer> addressList = new ArrayList<>();
 		int address;
+		//consecutive .word values are contiguous, so each run is written in one pass
+		int[] words = new int[dataList.size()];
+		int wordCount = 0;
+		int wordStart = 0;
 		for (DataType dataPoint : dataList) {
 			if (dataPoint instanceof WordDir) {
-				int x = ((WordDir)dataPoint).getValue();
-				address = _os.requestMemory(4);
-				putValueInMainMem(address, 4, x);
+				address = _os.reserveMemory(4);
+				if (wordCount == 0) {
+					wordStart = address;
+				}
+				words[wordCount++] = ((WordDir)dataPoint).getValue();
 				addressList.add(address);
-				
-			}else if (dataPoint instanceof StringDir) {
+				continue;
+			}
+			putWordsInMainMem(wordStart, words, 0, wordCount);
+			wordCount = 0;
+
+			if (dataPoint instanceof StringDir) {
 				byte[] s = ((StringDir) dataPoint).getStringBytes();
-				address = _os.requestMemory(s.length + 1);
+				address = _os.reserveMemory(s.length + 1);
 				putStringInMainMem(address, s);
 				
 			}else if (dataPoint instanceof MemAllocDir) {
-				address = _os.requestMemory(((MemAllocDir) dataPoint).getSize());
+				address = _os.reserveMemory(((MemAllocDir) dataPoint).getSize());
 				addressList.add(address);
 			}
 		}
+		putWordsInMainMem(wordStart, words, 0, wordCount);
 
 		for (Entry<String, Integer> entry : dataLabels.entrySet()) {
 			_dataTable.put(entry.getKey(), addressList.get(entry.getValue()));
 		}
+		_program = null;
 	}
 	public void loadInstructions(List<intermediateRepresentation> instructions) {
 		_instructions = instructions;
+		_program = null;
 	}
 	public void loadGlobals(Map<String, Integer> specialVars, boolean graphics) throws MemoryException {
 		if (specialVars != null) {
 			for (String v: specialVars.keySet()) {
-				_globalRegFile.put(v.toLowerCase(), specialVars.get(v));
+				int index = RiscRegisters.indexOf(v.toLowerCase());
+				if (index >= 0) {
+					_riscRegFile.put(index, specialVars.get(v));
+					_riscRegsLoaded = true;
+				}else {
+					_globalRegFile.put(v.toLowerCase(), specialVars.get(v));
+				}
 			}
 		}
 		if (graphics) {
 			int gridSize = getVariable(new Temporary("_grid_size", true));
-			int graphicsStartIndex = _os.requestMemory(gridSize);
+			int graphicsStartIndex = _os.reserveMemory(gridSize);
 			_os.setGraphicsRange(graphicsStartIndex, graphicsStartIndex + gridSize);
 			_globalRegFile.put("_grid_index", graphicsStartIndex);
 		}
 	}
+	public void loadFrameLayout(FrameLayout frames) {
+		_frameLayout = frames;
+		clearTemps();
+	}
 	public void loadROs(Set<String> roVars) {
 		_readOnlyVars = roVars;
+		_program = null;
 	}
+	//key and click events may be logged from any thread
 	public void logKeyEvent(int key) {
-		if (_keyHandler != null) {
-			Task t = new Task("key", 0, key, _keyHandler);
-			_eventQ.add(t);
+		Integer handler = _keyHandler;
+		if (handler != null) {
+			logInputEvent(new Task("key", 0, key, handler));
 		}
 	}
 	public void logClickEvent(int coord) {
-		if (_clickHandler != null) {
-			Task t = new Task("click", 0, coord, _clickHandler);
-			_eventQ.add(t);
+		Integer handler = _clickHandler;
+		if (handler != null) {
+			logInputEvent(new Task("click", 0, coord, handler));
+		}
+	}
+	private void logInputEvent(Task t) {
+		_inputEvents.add(t);
+		Thread waiter = _waiter;
+		if (waiter != null) {
+			LockSupport.unpark(waiter);
 		}
 	}
 
 	//SECTION: State information for interface
+	/**
+	 * Turns the per tick state used by the interface displays on or off.
+	 * With tracking off the state getters are not cleared between ticks.
+	 */
+	public void setTracking(boolean tracking) {
+		_tracking = tracking;
+		stateReset();
+	}
 	private void stateReset() {
 		_memoryState = null;
 		_pcState = false;
@@ -719,9 +1929,38 @@ public class ExecVM {
 		_returnState = false;
 		_eventState = null;
 	}
+	/**
+	 * @return the address of the last word the last tick wrote, null if it wrote none
+	 */
 	public Integer memoryChange() {
 		return _memoryState;
 	}
+	/**
+	 * Starts keeping track of every word of main memory written from now on, for one
+	 * display or tool to collect as it needs them. Replacing main memory, as clearing it
+	 * or restoring a snapshot does, counts as changing all of it.
+	 * @return the changes, until they are given to untrackMemoryChanges
+	 */
+	public MemoryChanges trackMemoryChanges() {
+		MemoryChanges changes = new MemoryChanges();
+		_memoryWatchers.add(changes);
+		_mainMem.addChanges(changes);
+		return changes;
+	}
+	public void untrackMemoryChanges(MemoryChanges changes) {
+		_memoryWatchers.remove(changes);
+		_mainMem.removeChanges(changes);
+	}
+	private void replaceMainMem(MemorySystem mainMem) {
+		for (MemoryChanges c : _memoryWatchers) {
+			_mainMem.removeChanges(c);
+			mainMem.addChanges(c);
+			c.markAll();
+		}
+		_mainMem.setWatchpoints(null);
+		mainMem.setWatchpoints(_memoryWatch);
+		_mainMem = mainMem;
+	}
 	public boolean pcChange() {
 		return _pcState;
 	}
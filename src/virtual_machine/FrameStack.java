@@ -0,0 +1,385 @@
+package virtual_machine;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import intermediateRepresentation.Temporary;
+import parse.FrameLayout;
+
+/**
+ * Call stack for YAAL temporaries: one contiguous int array holding a window
+ * per active call, plus parallel arrays for the saved return information.
+ * Calls and returns only move the frame pointer; the arrays grow by doubling
+ * and are otherwise reused. Each slot also has a flag for whether it was assigned
+ * since its window was cleared, so reading one that was not can be reported.
+ */
+public class FrameStack {
+
+	private static final int INITIAL_SLOTS = 256;
+	private static final int INITIAL_DEPTH = 32;
+	private static final FrameLayout.Frame NO_FRAME =
+			new FrameLayout.Frame("", new String[0], new int[0]);
+
+	private int[] _slots;
+	private boolean[] _assigned;	//by slot
+	private int _fp;
+	private FrameLayout.Frame _frame;
+
+	private int _depth;
+	private int[] _returnPCs;
+	private int[] _savedFPs;
+	private Temporary[] _dests;
+	private FrameLayout.Frame[] _savedFrames;
+	private UndoLog _undo;
+
+	//what a pop or reset dropped, for undoing it
+	private static class Dropped {
+		int[] _slots;
+		boolean[] _assigned;
+		int _fp;
+		FrameLayout.Frame _frame;
+		int _depth;
+		int[] _returnPCs;
+		int[] _savedFPs;
+		Temporary[] _dests;
+		FrameLayout.Frame[] _savedFrames;
+	}
+
+	public FrameStack() {
+		_slots = new int[INITIAL_SLOTS];
+		_assigned = new boolean[INITIAL_SLOTS];
+		_returnPCs = new int[INITIAL_DEPTH];
+		_savedFPs = new int[INITIAL_DEPTH];
+		_dests = new Temporary[INITIAL_DEPTH];
+		_savedFrames = new FrameLayout.Frame[INITIAL_DEPTH];
+		reset(null);
+	}
+
+	/**
+	 * @return a stack with the same calls and slots, that is changed apart from this one
+	 */
+	FrameStack copy() {
+		FrameStack copy = new FrameStack();
+		copy._slots = Arrays.copyOf(_slots, _slots.length);
+		copy._assigned = Arrays.copyOf(_assigned, _assigned.length);
+		copy._fp = _fp;
+		copy._frame = _frame;
+		copy._depth = _depth;
+		copy._returnPCs = Arrays.copyOf(_returnPCs, _returnPCs.length);
+		copy._savedFPs = Arrays.copyOf(_savedFPs, _savedFPs.length);
+		copy._dests = Arrays.copyOf(_dests, _dests.length);
+		copy._savedFrames = Arrays.copyOf(_savedFrames, _savedFrames.length);
+		return copy;
+	}
+
+	/**
+	 * Drops every call and starts over with an empty window for the given function.
+	 * @param entry - the frame to run in, or null if no layout is known
+	 */
+	public void reset(FrameLayout.Frame entry) {
+		if (_undo != null) {
+			Dropped d = new Dropped();
+			//the slots the reset clears
+			d._slots = Arrays.copyOf(_slots, Math.max(entry != null ? entry.getSize() : 0, INITIAL_SLOTS));
+			d._assigned = Arrays.copyOf(_assigned, d._slots.length);
+			d._fp = _fp;
+			d._frame = _frame;
+			d._depth = _depth;
+			d._returnPCs = Arrays.copyOf(_returnPCs, _depth);
+			d._savedFPs = Arrays.copyOf(_savedFPs, _depth);
+			d._dests = Arrays.copyOf(_dests, _depth);
+			d._savedFrames = Arrays.copyOf(_savedFrames, _depth);
+			_undo.record(UndoLog.FRAME_RESET, 0, 0, d);
+		}
+		_depth = 0;
+		_fp = 0;
+		_frame = entry != null ? entry : NO_FRAME;
+		Arrays.fill(_dests, null);
+		clear(0, Math.max(_frame.getSize(), INITIAL_SLOTS));
+	}
+
+	//SECTION: SLOT ACCESS
+	/**
+	 * @return the value in slot of the current window, 0 with a warning if it was never assigned
+	 */
+	public int get(int slot) {
+		int i = _fp + slot;
+		if (i < _slots.length && _assigned[i]) {
+			return _slots[i];
+		}
+		System.err.println("Error: Variable T(" + _frame.getSlotName(slot) + ") undefined, defaulting to 0");
+		return 0;
+	}
+
+	public void set(int slot, int value) {
+		ensureSlots(_fp + slot + 1);
+		assign(_fp + slot, value);
+	}
+
+	private void assign(int i, int value) {
+		if (_undo != null) {
+			recordSlot(i);
+		}
+		_slots[i] = value;
+		_assigned[i] = true;
+	}
+
+	/**
+	 * Records slot i before it changes. A slot that was not assigned is recorded at ~i.
+	 */
+	private void recordSlot(int i) {
+		_undo.record(UndoLog.SLOT, _assigned[i] ? i : ~i, _slots[i]);
+	}
+
+	public FrameLayout.Frame currentFrame() {
+		return _frame;
+	}
+
+	//SECTION: CALL AND RETURN
+	/**
+	 * Clears the window a call to callee will use, directly above the current one.
+	 * Arguments can be written with setArg while the caller's frame is still current.
+	 * @return the base of the new window
+	 */
+	public int prepareCall(FrameLayout.Frame callee) {
+		int base = _fp + _frame.getSize();
+		ensureSlots(base + callee.getSize());
+		if (_undo != null) {
+			for (int i = base; i < base + callee.getSize(); i++) {
+				if (_assigned[i]) {
+					recordSlot(i);
+				}
+			}
+		}
+		clear(base, callee.getSize());
+		return base;
+	}
+
+	public void setArg(int base, FrameLayout.Frame callee, int n, int value) {
+		int slot = callee.argSlot(n);
+		if (slot >= 0) {
+			assign(base + slot, value);
+		}
+	}
+
+	public void push(FrameLayout.Frame callee, int base, int returnPC, Temporary dest) {
+		if (_undo != null) {
+			_undo.record(UndoLog.FRAME_PUSH, 0, 0);
+		}
+		ensureDepth(_depth + 1);
+		_returnPCs[_depth] = returnPC;
+		_savedFPs[_depth] = _fp;
+		_dests[_depth] = dest;
+		_savedFrames[_depth] = _frame;
+		_depth++;
+		_fp = base;
+		_frame = callee;
+	}
+
+	public boolean isEmpty() {
+		return _depth == 0;
+	}
+
+	public int depth() {
+		return _depth;
+	}
+
+	public int peekReturnPC() {
+		return _returnPCs[_depth - 1];
+	}
+
+	public Temporary peekDest() {
+		return _dests[_depth - 1];
+	}
+
+	public void pop() {
+		if (_undo != null) {
+			Dropped d = new Dropped();
+			d._fp = _fp;
+			d._frame = _frame;
+			d._returnPCs = new int[] {_returnPCs[_depth - 1]};
+			d._dests = new Temporary[] {_dests[_depth - 1]};
+			_undo.record(UndoLog.FRAME_POP, 0, 0, d);
+		}
+		_depth--;
+		_fp = _savedFPs[_depth];
+		_frame = _savedFrames[_depth];
+		_dests[_depth] = null;
+	}
+
+	//SECTION: VIEWS FOR INTERFACE
+	/**
+	 * @return name to value copy of the current window
+	 */
+	public Map<String, Integer> currentTemps() {
+		return windowToMap(_frame, _fp);
+	}
+
+	/**
+	 * @return the value of the temporary called name in the current window, null if it has none
+	 */
+	Integer currentTemp(String name) {
+		for (int slot = 0; _frame != null && slot < _frame.getSize(); slot++) {
+			if (_frame.getSlotName(slot).equals(name)) {
+				return _slots[_fp + slot];
+			}
+		}
+		return null;
+	}
+
+	private Map<String, Integer> windowToMap(FrameLayout.Frame frame, int fp) {
+		Map<String, Integer> temps = new LinkedHashMap<>();
+		for (int slot = 0; slot < frame.getSize(); slot++) {
+			temps.put(frame.getSlotName(slot), _slots[fp + slot]);
+		}
+		return temps;
+	}
+
+	@Override
+	public String toString() {
+		List<Map<String, Integer>> callers = new ArrayList<>();
+		for (int d = 0; d < _depth; d++) {
+			callers.add(windowToMap(_savedFrames[d], _savedFPs[d]));
+		}
+		return callers.toString();
+	}
+
+	//SECTION: UNDO
+	/**
+	 * @param undo - where calls, returns and slot writes are recorded, or null to stop recording
+	 */
+	void setUndoLog(UndoLog undo) {
+		_undo = undo;
+	}
+
+	/**
+	 * Undoes one entry this stack recorded. Entries are undone newest first, so the stack
+	 * is as it was right after the write being undone.
+	 */
+	void undo(int kind, int target, int old, Object ref) {
+		switch (kind) {
+		case UndoLog.SLOT:
+			_slots[target >= 0 ? target : ~target] = old;
+			_assigned[target >= 0 ? target : ~target] = target >= 0;
+			break;
+		case UndoLog.FRAME_PUSH:
+			_depth--;
+			_fp = _savedFPs[_depth];
+			_frame = _savedFrames[_depth];
+			_dests[_depth] = null;
+			break;
+		case UndoLog.FRAME_POP:
+			Dropped popped = (Dropped) ref;
+			ensureDepth(_depth + 1);
+			_returnPCs[_depth] = popped._returnPCs[0];
+			_savedFPs[_depth] = _fp;
+			_dests[_depth] = popped._dests[0];
+			_savedFrames[_depth] = _frame;
+			_depth++;
+			_fp = popped._fp;
+			_frame = popped._frame;
+			break;
+		default:
+			Dropped reset = (Dropped) ref;
+			System.arraycopy(reset._slots, 0, _slots, 0, reset._slots.length);
+			System.arraycopy(reset._assigned, 0, _assigned, 0, reset._assigned.length);
+			_fp = reset._fp;
+			_frame = reset._frame;
+			_depth = reset._depth;
+			ensureDepth(_depth);
+			System.arraycopy(reset._returnPCs, 0, _returnPCs, 0, _depth);
+			System.arraycopy(reset._savedFPs, 0, _savedFPs, 0, _depth);
+			System.arraycopy(reset._dests, 0, _dests, 0, _depth);
+			System.arraycopy(reset._savedFrames, 0, _savedFrames, 0, _depth);
+			break;
+		}
+	}
+
+	//SECTION: SNAPSHOTS
+	void writeTo(VMSnapshot.Writer out) throws IOException {
+		int used = _fp + _frame.getSize();
+		out.putInt(used);
+		out.putInts(_slots, 0, used);
+		out.putInt(_fp);
+		out.putString(_frame.getName());
+		out.putInt(_depth);
+		for (int d = 0; d < _depth; d++) {
+			out.putInt(_returnPCs[d]);
+			out.putInt(_savedFPs[d]);
+			out.putString(_savedFrames[d].getName());
+			Temporary dest = _dests[d];
+			out.putString(dest != null ? dest.get() : null);
+			if (dest != null) {
+				out.putBoolean(dest.isGlobal());
+				out.putInt(dest.getIndex());
+			}
+		}
+	}
+
+	/**
+	 * Replaces the whole stack with one written by writeTo.
+	 * @param layout - the frames of the program, looked up by name
+	 */
+	void readFrom(VMSnapshot.Reader in, FrameLayout layout) throws IOException {
+		int used = in.getInt();
+		reset(null);
+		ensureSlots(used);
+		in.getInts(_slots, 0, used);
+		//images do not keep which slots were assigned, so none is reported after a restore
+		Arrays.fill(_assigned, 0, used, true);
+		_fp = in.getInt();
+		_frame = frameNamed(layout, in.getString());
+		int depth = in.getInt();
+		ensureDepth(depth);
+		for (int d = 0; d < depth; d++) {
+			_returnPCs[d] = in.getInt();
+			_savedFPs[d] = in.getInt();
+			_savedFrames[d] = frameNamed(layout, in.getString());
+			String destName = in.getString();
+			if (destName != null) {
+				boolean global = in.getBoolean();
+				_dests[d] = new Temporary(destName, global, in.getInt());
+			}
+		}
+		_depth = depth;
+	}
+
+	private static FrameLayout.Frame frameNamed(FrameLayout layout, String name) throws IOException {
+		if (name.equals(NO_FRAME.getName())) {
+			return NO_FRAME;
+		}
+		FrameLayout.Frame frame = layout != null ? layout.getFrame(name) : null;
+		if (frame == null) {
+			throw new IOException("Snapshot has a call to " + name + ", which the program does not have");
+		}
+		return frame;
+	}
+
+	//SECTION: STORAGE
+	private void ensureSlots(int n) {
+		if (n > _slots.length) {
+			_slots = Arrays.copyOf(_slots, Math.max(n, _slots.length * 2));
+			_assigned = Arrays.copyOf(_assigned, _slots.length);
+		}
+	}
+
+	private void ensureDepth(int n) {
+		if (n > _returnPCs.length) {
+			int size = Math.max(n, _returnPCs.length * 2);
+			_returnPCs = Arrays.copyOf(_returnPCs, size);
+			_savedFPs = Arrays.copyOf(_savedFPs, size);
+			_dests = Arrays.copyOf(_dests, size);
+			_savedFrames = Arrays.copyOf(_savedFrames, size);
+		}
+	}
+
+	private void clear(int from, int length) {
+		ensureSlots(from + length);
+		Arrays.fill(_slots, from, from + length, 0);
+		Arrays.fill(_assigned, from, from + length, false);
+	}
+}
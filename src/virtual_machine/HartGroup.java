@@ -0,0 +1,178 @@
+package virtual_machine;
+
+import RISC.RiscRegisters;
+
+/**
+ * Runs one loaded RISC-V program on several harts at once, each on a thread of its own.
+ * Hart 0 is the ExecVM the program was loaded into; the others are made from it and share
+ * its main memory, so it has to use the SHARED memory backend. Every hart starts at line 0
+ * with its hart id in a0, the number of harts in a1, and a stack of its own just below the
+ * stack of the hart before it. Harts stop on their own; the group has finished when all
+ * of them have, and they coordinate through the atomic instructions.
+ */
+public class HartGroup {
+
+	public static final int DEFAULT_STACK_BYTES = 4096;
+	private static final int HART_COUNT_INDEX = RiscRegisters.indexOf("a1");
+
+	private final ExecVM[] _harts;
+	private final StopReason[] _stops;
+	private final long[] _runCounts;
+	private final Exception[] _errors;
+
+	/**
+	 * @param primary - a RISC-V program, loaded with its registers and data
+	 * @param count - how many harts to run it on, primary included
+	 * @param stackBytes - the stack each hart gets; the heap ends below the last of them
+	 */
+	public HartGroup(ExecVM primary, int count, int stackBytes) throws MemoryException {
+		if (primary.getMemoryBackend() != MemorySystem.Backend.SHARED) {
+			throw new IllegalArgumentException("harts need the SHARED memory backend");
+		}
+		if (count < 1) {
+			throw new IllegalArgumentException("a hart group needs at least one hart, not " + count);
+		}
+		int top = primary.getOS().getStackPointer();
+		primary.getOS().setSP(top - count * stackBytes);
+		_harts = new ExecVM[count];
+		for (int h = 0; h < count; h++) {
+			ExecVM hart = h == 0 ? primary : new ExecVM(primary);
+			int[] regs = hart.getRiscRegisterArray();
+			regs[RiscRegisters.SP_INDEX] = top - h * stackBytes;
+			regs[RiscRegisters.A0_INDEX] = h;
+			regs[HART_COUNT_INDEX] = count;
+			_harts[h] = hart;
+		}
+		_stops = new StopReason[count];
+		_runCounts = new long[count];
+		_errors = new Exception[count];
+	}
+
+	public HartGroup(ExecVM primary, int count) throws MemoryException {
+		this(primary, count, DEFAULT_STACK_BYTES);
+	}
+
+	//SECTION: RUN
+	/**
+	 * Runs every hart until it halts, fails, blocks, or executes maxInstructions of its own.
+	 * A hart waiting only on a scheduled event waits for it on its own thread, and
+	 * graphics updates are not reported.
+	 * @return ERROR if any hart failed, else BLOCKED_READ or WAITING if any hart is stuck
+	 * on input, else BUDGET if any hart ran out, else HALT
+	 */
+	public StopReason run(long maxInstructions) throws InterruptedException {
+		Thread[] threads = new Thread[_harts.length];
+		for (int h = 0; h < _harts.length; h++) {
+			int hart = h;
+			threads[h] = new Thread(() -> runHart(hart, maxInstructions), "hart-" + h);
+			threads[h].start();
+		}
+		for (Thread t : threads) {
+			t.join();
+		}
+
+		StopReason result = StopReason.HALT;
+		for (StopReason r : _stops) {
+			if (rank(r) > rank(result)) {
+				result = r;
+			}
+		}
+		return result;
+	}
+
+	private void runHart(int h, long maxInstructions) {
+		ExecVM hart = _harts[h];
+		long count = 0;
+		StopReason reason = null;
+		try {
+			while (reason == null) {
+				reason = hart.run(maxInstructions - count);
+				count += hart.getLastRunCount();
+				if (reason == StopReason.WAITING && !hart.awaitingInput()) {
+					hart.awaitEvent(Long.MAX_VALUE);
+					reason = null;
+				}else if (reason == StopReason.GRAPHICS) {
+					//no screen to redraw between harts
+					reason = null;
+				}
+			}
+			_errors[h] = reason == StopReason.ERROR ? hart.getLastError() : null;
+		}catch (RuntimeException e) {
+			_errors[h] = e;
+			reason = StopReason.ERROR;
+		}
+		_runCounts[h] = count;
+		_stops[h] = reason;
+	}
+
+	private static int rank(StopReason r) {
+		switch (r) {
+		case ERROR:
+			return 3;
+		case BLOCKED_READ:
+		case WAITING:
+		case BREAKPOINT:
+		case WATCHPOINT:
+			return 2;
+		case BUDGET:
+			return 1;
+		default:
+			return 0;
+		}
+	}
+
+	//SECTION: RESULTS
+	public int getHartCount() {
+		return _harts.length;
+	}
+
+	public ExecVM getHart(int h) {
+		return _harts[h];
+	}
+
+	/**
+	 * @return why hart h stopped in the last run, null before the first
+	 */
+	public StopReason getStopReason(int h) {
+		return _stops[h];
+	}
+
+	public long getRunCount(int h) {
+		return _runCounts[h];
+	}
+
+	/**
+	 * @return the instructions every hart executed in the last run, added up
+	 */
+	public long getTotalRunCount() {
+		long total = 0;
+		for (long n : _runCounts) {
+			total += n;
+		}
+		return total;
+	}
+
+	/**
+	 * @return the first error a hart stopped on in the last run, null if none did
+	 */
+	public Exception getFirstError() {
+		for (Exception e : _errors) {
+			if (e != null) {
+				return e;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return the first hart that stopped on an error in the last run, -1 if none did
+	 */
+	public int getFailedHart() {
+		for (int h = 0; h < _errors.length; h++) {
+			if (_errors[h] != null) {
+				return h;
+			}
+		}
+		return -1;
+	}
+}
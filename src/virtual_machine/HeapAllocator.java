@@ -0,0 +1,449 @@
+package virtual_machine;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * The heap between the end of the program's data and the stack. Blocks are whole words.
+ * Small blocks are kept, once freed, on one free list per size and handed out again last
+ * in first out. Large blocks are freed into ranges that merge with free neighbours, and are
+ * taken back out by best fit. Anything no free block can hold is cut from the top of the heap,
+ * which drops again when the block at the top is freed. Small blocks only merge once the
+ * heap would otherwise grow past its limit, or once every block is freed: then the small
+ * free lists are emptied into the ranges, and what reaches the top is given back.
+ *
+ * Only the bookkeeping is here, none of it is in main memory. Memory that is handed out
+ * again, from a free list, a range or the top after it dropped, keeps whatever was last
+ * stored in it; only memory the heap has never reached before is zero.
+ * Every change to the bookkeeping goes through one of a few primitives that record it to
+ * the UndoLog, if one is set, so stepping back can reverse it.
+ */
+public class HeapAllocator {
+
+	static final int WORD_SIZE = 4;
+	//blocks up to this many bytes are small
+	public static final int SMALL_LIMIT = 256;
+	private static final int INITIAL_LIST = 16;
+
+	private final int _base;
+	private int _top;
+	private final int[][] _freeLists;	//by size in words, less one
+	private final int[] _freeCounts;
+	private final TreeMap<Integer, Integer> _ranges;	//free large ranges, address to bytes
+	private final TreeSet<Long> _rangesBySize;	//bytes << 32 | address
+	private final Map<Integer, Integer> _live;	//allocated block to bytes
+	private long _liveBytes;
+	private long _freeBytes;
+	private long _listBytes;	//of _freeBytes, on the small free lists
+	private UndoLog _undo;
+
+	public HeapAllocator(int base) {
+		_base = base;
+		_top = base;
+		_freeLists = new int[SMALL_LIMIT / WORD_SIZE][];
+		_freeCounts = new int[SMALL_LIMIT / WORD_SIZE];
+		_ranges = new TreeMap<>();
+		_rangesBySize = new TreeSet<>();
+		_live = new HashMap<>();
+	}
+
+	/**
+	 * @return a heap with the same blocks and free lists, that is changed apart from this one
+	 */
+	HeapAllocator copy() {
+		HeapAllocator copy = new HeapAllocator(_base);
+		copy._top = _top;
+		for (int c = 0; c < _freeCounts.length; c++) {
+			if (_freeLists[c] != null) {
+				copy._freeLists[c] = Arrays.copyOf(_freeLists[c], Math.max(_freeCounts[c], INITIAL_LIST));
+			}
+			copy._freeCounts[c] = _freeCounts[c];
+		}
+		copy._ranges.putAll(_ranges);
+		copy._rangesBySize.addAll(_rangesBySize);
+		copy._live.putAll(_live);
+		copy._liveBytes = _liveBytes;
+		copy._freeBytes = _freeBytes;
+		copy._listBytes = _listBytes;
+		return copy;
+	}
+
+	void setUndoLog(UndoLog undo) {
+		_undo = undo;
+	}
+
+	//SECTION: ALLOCATION
+	/**
+	 * @param limit - the heap may not grow to reach this address
+	 * @return the address of a new block of at least n bytes, at least one word
+	 */
+	int allocate(int n, int limit) throws MemoryException {
+		int size = blockSize(n);
+		int address = -1;
+		if (size <= SMALL_LIMIT && _freeCounts[sizeClass(size)] > 0) {
+			address = popFree(sizeClass(size));
+		}else {
+			address = takeRange(size);
+		}
+		if (address < 0 && _listBytes > 0 && (long) _top + size >= limit) {
+			//out of room, unless the small free blocks merge into one big enough
+			reclaimFreeLists();
+			address = takeRange(size);
+		}
+		if (address < 0) {
+			address = grow(size, limit, n);
+		}
+		addLive(address, size);
+		return address;
+	}
+
+	/**
+	 * @return the address of n bytes cut from the top that are never freed, for the program's data
+	 */
+	int reserve(int n, int limit) throws MemoryException {
+		return grow(blockSize(n), limit, n);
+	}
+
+	/**
+	 * @return the bytes in the block at address
+	 * @throws MemoryException if no block starts at address
+	 */
+	int sizeOf(int address) throws MemoryException {
+		Integer size = _live.get(address);
+		if (size == null) {
+			throw new MemoryException("Cannot free address " + address + ", it was not allocated or was already freed");
+		}
+		return size;
+	}
+
+	/**
+	 * Returns the block at address to the heap.
+	 * @return its size in bytes
+	 */
+	int free(int address) throws MemoryException {
+		int size = sizeOf(address);
+		removeLive(address, size);
+		if (size <= SMALL_LIMIT && address + size != _top) {
+			pushFree(sizeClass(size), address);
+		}else {
+			release(address, size);
+		}
+		if (_live.isEmpty() && _listBytes > 0) {
+			//all freed, so the small blocks merge and the heap shrinks back
+			reclaimFreeLists();
+		}
+		return size;
+	}
+
+	private static int blockSize(int n) throws MemoryException {
+		if (n < 0) {
+			throw new MemoryException("Cannot allocate " + n + " bytes");
+		}
+		long size = ((long) n + WORD_SIZE - 1) / WORD_SIZE * WORD_SIZE;
+		return size == 0 ? WORD_SIZE : (int) Math.min(size, Integer.MAX_VALUE & ~(WORD_SIZE - 1));
+	}
+
+	private static int sizeClass(int size) {
+		return size / WORD_SIZE - 1;
+	}
+
+	private int grow(int size, int limit, int n) throws MemoryException {
+		if ((long) _top + size >= limit) {
+			throw new MemoryException("Not enough memory remaining to assign " + n + " bytes");
+		}
+		int address = _top;
+		setTop(_top + size);
+		return address;
+	}
+
+	/**
+	 * @return the start of the smallest free range that holds size bytes, with what is left
+	 * of it freed again, or -1 if none does
+	 */
+	private int takeRange(int size) {
+		Long fit = _rangesBySize.ceiling((long) size << 32);
+		if (fit == null) {
+			return -1;
+		}
+		int address = (int) (long) fit;
+		int rangeSize = (int) (fit >>> 32);
+		removeRange(address);
+		if (rangeSize > size) {
+			addRange(address + size, rangeSize - size);
+		}
+		return address;
+	}
+
+	/**
+	 * Frees a block into the ranges; at the top of the heap it gives the memory back instead.
+	 */
+	private void release(int address, int size) {
+		addMerged(address, size);
+		dropTop();
+	}
+
+	/**
+	 * Adds a free range, merged with the free ranges either side of it.
+	 */
+	private void addMerged(int address, int size) {
+		int start = address;
+		int end = address + size;
+		Map.Entry<Integer, Integer> before = _ranges.lowerEntry(start);
+		if (before != null && before.getKey() + before.getValue() == start) {
+			start = before.getKey();
+			removeRange(start);
+		}
+		Integer after = _ranges.get(end);
+		if (after != null) {
+			removeRange(end);
+			end += after;
+		}
+		addRange(start, end - start);
+	}
+
+	/**
+	 * Gives back the free range at the top of the heap, if there is one.
+	 */
+	private void dropTop() {
+		Map.Entry<Integer, Integer> last = _ranges.lastEntry();
+		if (last != null && last.getKey() + last.getValue() == _top) {
+			removeRange(last.getKey());
+			setTop(last.getKey());
+		}
+	}
+
+	/**
+	 * Moves every block on the small free lists into the ranges, where it merges with its
+	 * free neighbours, and gives back the range that reaches the top.
+	 */
+	private void reclaimFreeLists() {
+		for (int c = 0; c < _freeCounts.length; c++) {
+			while (_freeCounts[c] > 0) {
+				addMerged(popFree(c), (c + 1) * WORD_SIZE);
+			}
+		}
+		dropTop();
+	}
+
+	//SECTION: PRIMITIVES
+	private void setTop(int top) {
+		if (_undo != null) {
+			_undo.record(UndoLog.HEAP_POINTER, _top, 0);
+		}
+		_top = top;
+	}
+
+	private void pushFree(int c, int address) {
+		if (_undo != null) {
+			_undo.record(UndoLog.HEAP_FREE_PUSHED, c, 0);
+		}
+		rawPushFree(c, address);
+	}
+
+	private int popFree(int c) {
+		int address = rawPopFree(c);
+		if (_undo != null) {
+			_undo.record(UndoLog.HEAP_FREE_POPPED, c, address);
+		}
+		return address;
+	}
+
+	private void addRange(int address, int size) {
+		if (_undo != null) {
+			_undo.record(UndoLog.HEAP_RANGE_ADDED, address, 0);
+		}
+		rawAddRange(address, size);
+	}
+
+	private void removeRange(int address) {
+		int size = rawRemoveRange(address);
+		if (_undo != null) {
+			_undo.record(UndoLog.HEAP_RANGE_REMOVED, address, size);
+		}
+	}
+
+	private void addLive(int address, int size) {
+		if (_undo != null) {
+			_undo.record(UndoLog.HEAP_LIVE_ADDED, address, 0);
+		}
+		_live.put(address, size);
+		_liveBytes += size;
+	}
+
+	private void removeLive(int address, int size) {
+		if (_undo != null) {
+			_undo.record(UndoLog.HEAP_LIVE_REMOVED, address, size);
+		}
+		_live.remove(address);
+		_liveBytes -= size;
+	}
+
+	private void rawPushFree(int c, int address) {
+		int[] list = _freeLists[c];
+		if (list == null) {
+			list = _freeLists[c] = new int[INITIAL_LIST];
+		}else if (_freeCounts[c] == list.length) {
+			list = _freeLists[c] = Arrays.copyOf(list, list.length * 2);
+		}
+		list[_freeCounts[c]++] = address;
+		_freeBytes += (c + 1) * WORD_SIZE;
+		_listBytes += (c + 1) * WORD_SIZE;
+	}
+
+	private int rawPopFree(int c) {
+		_freeBytes -= (c + 1) * WORD_SIZE;
+		_listBytes -= (c + 1) * WORD_SIZE;
+		return _freeLists[c][--_freeCounts[c]];
+	}
+
+	private void rawAddRange(int address, int size) {
+		_ranges.put(address, size);
+		_rangesBySize.add((long) size << 32 | address);
+		_freeBytes += size;
+	}
+
+	private int rawRemoveRange(int address) {
+		int size = _ranges.remove(address);
+		_rangesBySize.remove((long) size << 32 | address);
+		_freeBytes -= size;
+		return size;
+	}
+
+	/**
+	 * Reverses one of the entries the primitives recorded.
+	 */
+	void undo(int kind, int target, int old) {
+		switch (kind) {
+		case UndoLog.HEAP_POINTER:
+			_top = target;
+			break;
+		case UndoLog.HEAP_FREE_PUSHED:
+			rawPopFree(target);
+			break;
+		case UndoLog.HEAP_FREE_POPPED:
+			rawPushFree(target, old);
+			break;
+		case UndoLog.HEAP_RANGE_ADDED:
+			rawRemoveRange(target);
+			break;
+		case UndoLog.HEAP_RANGE_REMOVED:
+			rawAddRange(target, old);
+			break;
+		case UndoLog.HEAP_LIVE_ADDED:
+			_liveBytes -= _live.remove(target);
+			break;
+		default:
+			_live.put(target, old);
+			_liveBytes += old;
+			break;
+		}
+	}
+
+	//SECTION: STATISTICS
+	public int getBase() {
+		return _base;
+	}
+
+	/**
+	 * @return the address the heap has grown up to
+	 */
+	public int getTop() {
+		return _top;
+	}
+
+	/**
+	 * Moves the top without any bookkeeping, for memory the program lays out itself.
+	 */
+	void setTopUnchecked(int top) {
+		_top = top;
+	}
+
+	public long getLiveBytes() {
+		return _liveBytes;
+	}
+
+	public int getLiveBlocks() {
+		return _live.size();
+	}
+
+	/**
+	 * @return the bytes below the top that are free to be allocated again
+	 */
+	public long getFreeBytes() {
+		return _freeBytes;
+	}
+
+	/**
+	 * @return the biggest block that could be allocated without growing the heap
+	 */
+	public int getLargestFree() {
+		int largest = _rangesBySize.isEmpty() ? 0 : (int) (_rangesBySize.last() >>> 32);
+		for (int c = _freeCounts.length - 1; c >= 0 && (c + 1) * WORD_SIZE > largest; c--) {
+			if (_freeCounts[c] > 0) {
+				return (c + 1) * WORD_SIZE;
+			}
+		}
+		return largest;
+	}
+
+	/**
+	 * @return how broken up the free memory is: 0 if it is all one block, close to 1
+	 * if it is spread over many small ones
+	 */
+	public double getFragmentation() {
+		return _freeBytes == 0 ? 0 : 1 - (double) getLargestFree() / _freeBytes;
+	}
+
+	//SECTION: SNAPSHOTS
+	void writeTo(VMSnapshot.Writer out) throws IOException {
+		out.putInt(_top);
+		for (int c = 0; c < _freeCounts.length; c++) {
+			out.putInt(_freeCounts[c]);
+			if (_freeCounts[c] > 0) {
+				out.putInts(_freeLists[c], 0, _freeCounts[c]);
+			}
+		}
+		out.putInt(_ranges.size());
+		for (Map.Entry<Integer, Integer> r : _ranges.entrySet()) {
+			out.putInt(r.getKey());
+			out.putInt(r.getValue());
+		}
+		out.putInt(_live.size());
+		for (Map.Entry<Integer, Integer> b : _live.entrySet()) {
+			out.putInt(b.getKey());
+			out.putInt(b.getValue());
+		}
+	}
+
+	/**
+	 * Reads the heap writeTo wrote into this empty one.
+	 */
+	void readFrom(VMSnapshot.Reader in) throws IOException {
+		_top = in.getInt();
+		for (int c = 0; c < _freeCounts.length; c++) {
+			int count = in.getInt();
+			if (count < 0) {
+				throw new IOException("Snapshot has a free list of " + count + " blocks");
+			}
+			for (int i = 0; i < count; i++) {
+				rawPushFree(c, in.getInt());
+			}
+		}
+		int ranges = in.getInt();
+		for (int i = 0; i < ranges; i++) {
+			int address = in.getInt();
+			rawAddRange(address, in.getInt());
+		}
+		int live = in.getInt();
+		for (int i = 0; i < live; i++) {
+			int address = in.getInt();
+			int size = in.getInt();
+			_live.put(address, size);
+			_liveBytes += size;
+		}
+	}
+}
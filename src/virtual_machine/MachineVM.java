@@ -0,0 +1,534 @@
+package virtual_machine;
+
+import java.util.List;
+import java.util.Map.Entry;
+
+import RISC.RiscRegisters;
+import backEndParsing.MachineNumber;
+import intermediateRepresentation.Atomic;
+import operation_syntax.Operation;
+import operation_syntax.OperationException;
+import parse.Data;
+
+/**
+ * Runs RV32IMA machine code, in the encoding AbsToMachine produces, without going back
+ * to abstract instructions. The words are stored in main memory and the pc is a real
+ * byte address into them. A word is fetched from memory and decoded the first time the
+ * pc reaches it, into a cache indexed by pc; a store into the code drops what it
+ * overwrote from the cache. Registers, memory, the operating system and environment
+ * calls are those of the ExecVM underneath, so a program sees the same machine on both.
+ */
+public class MachineVM {
+
+	private static final int STRIDE = 4; //kind, rd, rs1, rs2 or immediate
+
+	//SECTION: DECODED KINDS
+	private static final int UNDECODED = 0;
+	private static final int ADD = 1;
+	private static final int SUB = 2;
+	private static final int SLL = 3;
+	private static final int SLT = 4;
+	private static final int SLTU = 5;
+	private static final int XOR = 6;
+	private static final int SRL = 7;
+	private static final int SRA = 8;
+	private static final int OR = 9;
+	private static final int AND = 10;
+	private static final int MUL = 11;
+	private static final int DIV = 12;
+	private static final int REM = 13;
+	private static final int ADDI = 14;
+	private static final int SLTI = 15;
+	private static final int SLTIU = 16;
+	private static final int XORI = 17;
+	private static final int ORI = 18;
+	private static final int ANDI = 19;
+	private static final int SLLI = 20;
+	private static final int SRLI = 21;
+	private static final int SRAI = 22;
+	private static final int LB = 23;
+	private static final int LH = 24;
+	private static final int LW = 25;
+	private static final int SB = 26;
+	private static final int SH = 27;
+	private static final int SW = 28;
+	private static final int BEQ = 29;
+	private static final int BNE = 30;
+	private static final int BLT = 31;
+	private static final int BGE = 32;
+	private static final int BLTU = 33;
+	private static final int BGEU = 34;
+	private static final int JAL = 35;
+	private static final int JALR = 36;
+	private static final int ECALL = 37;
+	private static final int LA = 38;
+	private static final int LR_W = 39;
+	private static final int SC_W = 40;
+	private static final int AMOSWAP_W = 41;
+	private static final int AMOADD_W = 42;
+
+	private final ExecVM _vm;
+	private final int[] _regs;
+	private int[] _decoded;
+	private int[] _dataAddresses;
+	private int _codeBase;
+	private int _codeSize;
+	private int _pc;
+	private long _lastRunCount;
+	private Exception _lastError;
+
+	public MachineVM(ExecVM vm) {
+		_vm = vm;
+		_regs = vm.getRiscRegisterArray();
+		_decoded = new int[0];
+		_dataAddresses = new int[0];
+	}
+
+	/**
+	 * Copies words into newly requested memory and moves the pc to the first of them.
+	 * @param words - the program, one instruction per word
+	 * @param data - the data section la instructions index into, already loaded into the
+	 * ExecVM with loadData, or null if there is none
+	 */
+	public void load(List<Integer> words, Data data) throws MemoryException {
+		int[] code = new int[words.size()];
+		for (int i = 0; i < code.length; i++) {
+			code[i] = words.get(i);
+		}
+		_codeSize = code.length * MachineNumber.WORD_SIZE;
+		_codeBase = _vm.getOS().reserveCode(_codeSize);
+		_vm.putWordsInMainMem(_codeBase, code, 0, code.length);
+		_decoded = new int[code.length * STRIDE];
+		_pc = _codeBase;
+
+		_dataAddresses = new int[0];
+		if (data != null) {
+			_dataAddresses = new int[data.getDataList().size()];
+			for (Entry<String, Integer> label : data.getDataAssignMap().entrySet()) {
+				Integer address = _vm.getDataTable().get(label.getKey());
+				if (address != null && label.getValue() < _dataAddresses.length) {
+					_dataAddresses[label.getValue()] = address;
+				}
+			}
+		}
+	}
+
+	public int getPC() {
+		return _pc;
+	}
+
+	public void setPC(int pc) {
+		_pc = pc;
+	}
+
+	public int getCodeBase() {
+		return _codeBase;
+	}
+
+	/**
+	 * @return the index of the instruction at the pc, which is its line in the abstract code
+	 */
+	public int getLine() {
+		return (_pc - _codeBase) / MachineNumber.WORD_SIZE;
+	}
+
+	public long getLastRunCount() {
+		return _lastRunCount;
+	}
+
+	public Exception getLastError() {
+		return _lastError;
+	}
+
+	//SECTION: EXECUTION
+	/**
+	 * Fetches, decodes and executes instructions until the program stops, runs off the
+	 * end of its code, waits on input, fails, or runs maxInstructions of them.
+	 * @return the reason execution stopped
+	 */
+	public StopReason run(long maxInstructions) {
+		int[] regs = _regs;
+		long executed = 0;
+		StopReason reason = null;
+		try {
+			while (reason == null) {
+				int offset = _pc - _codeBase;
+				if (!_vm.running()) {
+					reason = StopReason.HALT;
+
+				}else if (offset == _codeSize) {
+					_vm.stop();
+					reason = StopReason.HALT;
+
+				}else if (offset < 0 || offset > _codeSize || (offset & 3) != 0) {
+					throw new OperationException("pc " + _pc + " is outside the program");
+
+				}else if (executed == maxInstructions) {
+					reason = StopReason.BUDGET;
+
+				}else {
+					int[] d = _decoded;
+					int at = (offset >> 2) * STRIDE;
+					if (d[at] == UNDECODED) {
+						decode(_vm.getValueInMainMem(_pc, MachineNumber.WORD_SIZE), at);
+					}
+					//a is rd, or rs1 of a branch, or the register a store writes out
+					int a = d[at + 1];
+					int b = d[at + 2];
+					int c = d[at + 3];
+					int next = _pc + MachineNumber.WORD_SIZE;
+
+					switch (d[at]) {
+					case ADD:
+						regs[a] = regs[b] + regs[c];
+						break;
+					case SUB:
+						regs[a] = regs[b] - regs[c];
+						break;
+					case SLL:
+						regs[a] = regs[b] << regs[c];
+						break;
+					case SLT:
+						regs[a] = regs[b] < regs[c] ? 1 : 0;
+						break;
+					case SLTU:
+						regs[a] = Integer.compareUnsigned(regs[b], regs[c]) < 0 ? 1 : 0;
+						break;
+					case XOR:
+						regs[a] = regs[b] ^ regs[c];
+						break;
+					case SRL:
+						regs[a] = regs[b] >>> regs[c];
+						break;
+					case SRA:
+						regs[a] = regs[b] >> regs[c];
+						break;
+					case OR:
+						regs[a] = regs[b] | regs[c];
+						break;
+					case AND:
+						regs[a] = regs[b] & regs[c];
+						break;
+					case MUL:
+						regs[a] = regs[b] * regs[c];
+						break;
+					case DIV:
+						//division by zero is reported as the interpreter reports it
+						regs[a] = _vm.calculate(Operation.DIV, regs[b], regs[c]);
+						break;
+					case REM:
+						regs[a] = _vm.calculate(Operation.REM, regs[b], regs[c]);
+						break;
+					case ADDI:
+						regs[a] = regs[b] + c;
+						break;
+					case SLTI:
+						regs[a] = regs[b] < c ? 1 : 0;
+						break;
+					case SLTIU:
+						regs[a] = Integer.compareUnsigned(regs[b], c) < 0 ? 1 : 0;
+						break;
+					case XORI:
+						regs[a] = regs[b] ^ c;
+						break;
+					case ORI:
+						regs[a] = regs[b] | c;
+						break;
+					case ANDI:
+						regs[a] = regs[b] & c;
+						break;
+					case SLLI:
+						regs[a] = regs[b] << c;
+						break;
+					case SRLI:
+						regs[a] = regs[b] >>> c;
+						break;
+					case SRAI:
+						regs[a] = regs[b] >> c;
+						break;
+					case LB:
+						regs[a] = _vm.getValueInMainMem(regs[b] + c, MachineNumber.B_BYTES);
+						break;
+					case LH:
+						regs[a] = _vm.getValueInMainMem(regs[b] + c, MachineNumber.H_BYTES);
+						break;
+					case LW:
+						regs[a] = _vm.getValueInMainMem(regs[b] + c, MachineNumber.W_BYTES);
+						break;
+					case SB:
+						store(regs[b] + c, MachineNumber.B_BYTES, regs[a]);
+						break;
+					case SH:
+						store(regs[b] + c, MachineNumber.H_BYTES, regs[a]);
+						break;
+					case SW:
+						store(regs[b] + c, MachineNumber.W_BYTES, regs[a]);
+						break;
+					case BEQ:
+						if (regs[a] == regs[b]) {
+							next = _pc + c;
+						}
+						break;
+					case BNE:
+						if (regs[a] != regs[b]) {
+							next = _pc + c;
+						}
+						break;
+					case BLT:
+						if (regs[a] < regs[b]) {
+							next = _pc + c;
+						}
+						break;
+					case BGE:
+						if (regs[a] >= regs[b]) {
+							next = _pc + c;
+						}
+						break;
+					case BLTU:
+						if (Integer.compareUnsigned(regs[a], regs[b]) < 0) {
+							next = _pc + c;
+						}
+						break;
+					case BGEU:
+						if (Integer.compareUnsigned(regs[a], regs[b]) >= 0) {
+							next = _pc + c;
+						}
+						break;
+					case JAL:
+						regs[a] = next;
+						next = _pc + c;
+						break;
+					case JALR:
+						int target = (regs[b] + c) & ~1;
+						regs[a] = next;
+						next = target;
+						break;
+					case ECALL:
+						if (!_vm.ecall()) {
+							//run the call again once there is input
+							next = _pc;
+							reason = StopReason.BLOCKED_READ;
+						}
+						break;
+					case LA:
+						regs[a] = c;
+						break;
+					case LR_W:
+						regs[a] = _vm.atomic(Atomic.Kind.LOAD_RESERVED, regs[b], 0);
+						break;
+					case SC_W:
+						regs[a] = atomic(Atomic.Kind.STORE_CONDITIONAL, regs[b], regs[c]);
+						break;
+					case AMOSWAP_W:
+						regs[a] = atomic(Atomic.Kind.SWAP, regs[b], regs[c]);
+						break;
+					case AMOADD_W:
+						regs[a] = atomic(Atomic.Kind.ADD, regs[b], regs[c]);
+						break;
+					default:
+					}
+					regs[RiscRegisters.ZERO_INDEX] = 0;
+					_pc = next;
+					if (reason == null) {
+						executed++;
+					}
+				}
+			}
+		}catch (OperationException | MemoryException e) {
+			_lastError = e;
+			reason = StopReason.ERROR;
+		}
+		_lastRunCount = executed;
+		return reason;
+	}
+
+	private void store(int address, int size, int value) throws MemoryException {
+		_vm.putValueInMainMem(address, size, value);
+		invalidate(address, size);
+	}
+
+	private int atomic(Atomic.Kind kind, int address, int value) throws MemoryException {
+		int result = _vm.atomic(kind, address, value);
+		invalidate(address, MachineNumber.W_BYTES);
+		return result;
+	}
+
+	private void invalidate(int address, int size) {
+		if (address < _codeBase + _codeSize && address + size > _codeBase) {
+			//self modifying code: decode the changed words again when they are reached
+			int first = Math.max(address - _codeBase, 0) >> 2;
+			int last = Math.min(address + size - 1 - _codeBase, _codeSize - 1) >> 2;
+			for (int i = first; i <= last; i++) {
+				_decoded[i * STRIDE] = UNDECODED;
+			}
+		}
+	}
+
+	//SECTION: DECODING
+	private void decode(int word, int at) throws OperationException {
+		int rd = (word & MachineNumber.RD_MASK) >> MachineNumber.RD_SHAMT;
+		int rs1 = (word & MachineNumber.RS1_MASK) >> MachineNumber.RS1_SHAMT;
+		int rs2 = (word & MachineNumber.RS2_MASK) >> MachineNumber.RS2_SHAMT;
+		int funct3 = (word & MachineNumber.FUNCT3_MASK) >> MachineNumber.FUNCT3_SHAMT;
+		int funct7 = (word >>> MachineNumber.FUNCT7_SHAMT);
+		int kind;
+		int a = rd;
+		int b = rs1;
+		int c = MachineNumber.iImmediate(word);
+
+		switch (word & MachineNumber.OP_MASK) {
+		case MachineNumber.R_OPCODE:
+			kind = rKind(funct3, funct7);
+			c = rs2;
+			break;
+		case MachineNumber.I_OPCODE:
+			kind = iKind(funct3, funct7);
+			if (kind == SLLI || kind == SRLI || kind == SRAI) {
+				c = rs2; //the shift amount
+			}
+			break;
+		case MachineNumber.L_OPCODE:
+			kind = funct3 == MachineNumber.LB_FUNCT3 ? LB
+					: funct3 == MachineNumber.LH_FUNCT3 ? LH
+					: funct3 == MachineNumber.LW_FUNCT3 ? LW : UNDECODED;
+			break;
+		case MachineNumber.S_OPCODE:
+			kind = funct3 == MachineNumber.SB_FUNCT3 ? SB
+					: funct3 == MachineNumber.SH_FUNCT3 ? SH
+					: funct3 == MachineNumber.SW_FUNCT3 ? SW : UNDECODED;
+			a = rs2; //the value stored
+			c = MachineNumber.sImmediate(word);
+			break;
+		case MachineNumber.B_OPCODE:
+			kind = bKind(funct3);
+			a = rs1;
+			b = rs2;
+			c = MachineNumber.bImmediate(word);
+			break;
+		case MachineNumber.JAL_OPCODE:
+			kind = JAL;
+			c = MachineNumber.jImmediate(word);
+			break;
+		case MachineNumber.JALR_OPCODE:
+			kind = JALR;
+			break;
+		case MachineNumber.ECALL_OPCODE:
+			kind = ECALL;
+			break;
+		case MachineNumber.AMO_OPCODE:
+			kind = funct3 == MachineNumber.AMO_W_FUNCT3 ? amoKind(funct7 >> 2) : UNDECODED;
+			c = rs2;
+			break;
+		case MachineNumber.DATA_OPCODE:
+			int index = word >>> MachineNumber.U_IMM_SHAMT;
+			if (index >= _dataAddresses.length) {
+				throw new OperationException("la of data item " + index + ", which was not loaded");
+			}
+			kind = LA;
+			c = _dataAddresses[index];
+			break;
+		default:
+			kind = UNDECODED;
+		}
+		if (kind == UNDECODED) {
+			throw new OperationException("illegal instruction " + Integer.toHexString(word) + " at " + _pc);
+		}
+		_decoded[at] = kind;
+		_decoded[at + 1] = a;
+		_decoded[at + 2] = b;
+		_decoded[at + 3] = c;
+	}
+
+	private static int rKind(int funct3, int funct7) {
+		if (funct7 == MachineNumber.MULT_DIV_FUNCT7) {
+			switch (funct3) {
+			case MachineNumber.MUL_FUNCT3:
+				return MUL;
+			case MachineNumber.DIV_FUNCT3:
+				return DIV;
+			case MachineNumber.REM_FUNCT3:
+				return REM;
+			default:
+				return UNDECODED;
+			}
+		}
+		boolean alt = funct7 == MachineNumber.SUB_FUNCT7;
+		switch (funct3) {
+		case MachineNumber.ADD_FUNCT3:
+			return alt ? SUB : ADD;
+		case MachineNumber.SLL_FUNCT3:
+			return SLL;
+		case MachineNumber.SLT_FUNCT3:
+			return SLT;
+		case MachineNumber.SLTU_FUNCT3:
+			return SLTU;
+		case MachineNumber.XOR_FUNCT3:
+			return XOR;
+		case MachineNumber.SRL_FUNCT3:
+			return alt ? SRA : SRL;
+		case MachineNumber.OR_FUNCT3:
+			return OR;
+		case MachineNumber.AND_FUNCT3:
+			return AND;
+		default:
+			return UNDECODED;
+		}
+	}
+
+	private static int iKind(int funct3, int funct7) {
+		switch (funct3) {
+		case MachineNumber.ADDI_FUNCT3:
+			return ADDI;
+		case MachineNumber.SLLI_FUNCT3:
+			return SLLI;
+		case MachineNumber.SLTI_FUNCT3:
+			return SLTI;
+		case MachineNumber.SLTIU_FUNCT3:
+			return SLTIU;
+		case MachineNumber.XORI_FUNCT3:
+			return XORI;
+		case MachineNumber.SRLI_FUNCT3:
+			return funct7 == MachineNumber.SRA_FUNCT7 ? SRAI : SRLI;
+		case MachineNumber.ORI_FUNCT3:
+			return ORI;
+		case MachineNumber.ANDI_FUNCT3:
+			return ANDI;
+		default:
+			return UNDECODED;
+		}
+	}
+
+	private static int amoKind(int funct5) {
+		switch (funct5) {
+		case MachineNumber.LR_FUNCT5:
+			return LR_W;
+		case MachineNumber.SC_FUNCT5:
+			return SC_W;
+		case MachineNumber.AMOSWAP_FUNCT5:
+			return AMOSWAP_W;
+		case MachineNumber.AMOADD_FUNCT5:
+			return AMOADD_W;
+		default:
+			return UNDECODED;
+		}
+	}
+
+	private static int bKind(int funct3) {
+		switch (funct3) {
+		case MachineNumber.BEQ_FUNCT3:
+			return BEQ;
+		case MachineNumber.BNE_FUNCT3:
+			return BNE;
+		case MachineNumber.BLT_FUNCT3:
+			return BLT;
+		case MachineNumber.BGE_FUNCT3:
+			return BGE;
+		case MachineNumber.BLTU_FUNCT3:
+			return BLTU;
+		case MachineNumber.BGEU_FUNCT3:
+			return BGEU;
+		default:
+			return UNDECODED;
+		}
+	}
+}
@@ -0,0 +1,59 @@
+package virtual_machine;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Main memory kept as a map from word index to word value.
+ */
+public class MapMemorySystem extends MemorySystem {
+	
+	private Map<Integer, Integer> _mainMem;
+	
+	public MapMemorySystem() {
+		_mainMem = new HashMap<Integer, Integer>();
+	}
+
+	@Override
+	protected int readWord(int baseAddress) {
+		return _mainMem.getOrDefault(baseAddress, 0);
+	}
+
+	@Override
+	protected void writeWord(int baseAddress, int value) {
+		_mainMem.put(baseAddress, value);
+		changed(baseAddress);
+	}
+	
+	@Override
+	public MemorySystem fork() {
+		MapMemorySystem copy = new MapMemorySystem();
+		copy._mainMem.putAll(_mainMem);
+		return copy;
+	}
+	
+	@Override
+	public int[] getWrittenPages() {
+		TreeSet<Integer> pages = new TreeSet<>();
+		for (int baseAddress : _mainMem.keySet()) {
+			pages.add(baseAddress >>> PagedMemorySystem.PAGE_BITS);
+		}
+		int[] written = new int[pages.size()];
+		int n = 0;
+		for (int p : pages) {
+			written[n++] = p;
+		}
+		return written;
+	}
+
+	@Override
+	public String printMainMem() {
+		ArrayList<String> nonEmpties = new ArrayList<>();
+		for(Integer i : _mainMem.keySet()) {
+			nonEmpties.add(i + ": " + _mainMem.get(i));
+		}
+		return nonEmpties.toString();
+	}
+}
@@ -0,0 +1,143 @@
+package virtual_machine;
+
+import java.util.Arrays;
+
+/**
+ * The words of main memory written since a consumer last asked, for displays and tools
+ * that only want to redraw or save what changed. Kept as one bit per written word,
+ * in bitmaps of PagedMemorySystem.PAGE_WORDS words, and one bit per page that has any,
+ * so collecting costs about the number of changed pages and words rather than the size
+ * of memory. Each consumer has its own, from ExecVM.trackMemoryChanges; writes from
+ * several harts may mark one at once.
+ */
+public class MemoryChanges {
+
+	private static final int PAGE_BITS = PagedMemorySystem.PAGE_BITS;
+	private static final int PAGE_MASK = PagedMemorySystem.PAGE_WORDS - 1;
+	private static final int PAGE_LONGS = PagedMemorySystem.PAGE_WORDS / Long.SIZE;
+	private static final int INITIAL_PAGES = 64;
+
+	private long[] _pages;		//bit per page with a changed word
+	private long[][] _words;	//by page, bit per changed word
+	private int _count;
+	private boolean _all;
+
+	MemoryChanges() {
+		_pages = new long[INITIAL_PAGES / Long.SIZE];
+		_words = new long[INITIAL_PAGES][];
+	}
+
+	//SECTION: MARKING
+	synchronized void mark(int baseAddress) {
+		set(baseAddress);
+	}
+
+	synchronized void mark(int baseAddress, int count) {
+		for (int i = 0; i < count; i++) {
+			set(baseAddress + i);
+		}
+	}
+
+	/**
+	 * Records that all of memory may have changed, as when it is replaced.
+	 */
+	synchronized void markAll() {
+		clear();
+		_all = true;
+	}
+
+	private void set(int baseAddress) {
+		int p = baseAddress >>> PAGE_BITS;
+		if (p >= _words.length) {
+			_words = Arrays.copyOf(_words, Math.max(p + 1, _words.length * 2));
+			_pages = Arrays.copyOf(_pages, (_words.length + Long.SIZE - 1) / Long.SIZE);
+		}
+		long[] words = _words[p];
+		if (words == null) {
+			words = _words[p] = new long[PAGE_LONGS];
+		}
+		int w = baseAddress & PAGE_MASK;
+		long bit = 1L << w;
+		if ((words[w >>> 6] & bit) == 0) {
+			words[w >>> 6] |= bit;
+			_pages[p >>> 6] |= 1L << p;
+			_count++;
+		}
+	}
+
+	//SECTION: COLLECTING
+	/**
+	 * Forgets the changes, once returned.
+	 * @return the byte addresses of the words written since the last collect, in increasing
+	 * order, or null if all of memory may have changed since
+	 */
+	public synchronized int[] collect() {
+		if (_all) {
+			_all = false;
+			return null;
+		}
+		int[] changed = new int[_count];
+		int n = 0;
+		for (int i = 0; i < _pages.length; i++) {
+			for (long pages = _pages[i]; pages != 0; pages &= pages - 1) {
+				int p = i * Long.SIZE + Long.numberOfTrailingZeros(pages);
+				long[] words = _words[p];
+				for (int j = 0; j < PAGE_LONGS; j++) {
+					for (long bits = words[j]; bits != 0; bits &= bits - 1) {
+						int w = j * Long.SIZE + Long.numberOfTrailingZeros(bits);
+						changed[n++] = ((p << PAGE_BITS) | w) * 4;
+					}
+					words[j] = 0;
+				}
+			}
+			_pages[i] = 0;
+		}
+		_count = 0;
+		return changed;
+	}
+
+	/**
+	 * Forgets the changes, once returned.
+	 * @return the numbers of the pages written since the last collect, in increasing
+	 * order, or null if all of memory may have changed since
+	 */
+	public synchronized int[] collectPages() {
+		if (_all) {
+			_all = false;
+			return null;
+		}
+		int pageCount = 0;
+		for (long pages : _pages) {
+			pageCount += Long.bitCount(pages);
+		}
+		int[] changed = new int[pageCount];
+		int n = 0;
+		for (int i = 0; i < _pages.length; i++) {
+			for (long pages = _pages[i]; pages != 0; pages &= pages - 1) {
+				int p = i * Long.SIZE + Long.numberOfTrailingZeros(pages);
+				changed[n++] = p;
+				Arrays.fill(_words[p], 0);
+			}
+			_pages[i] = 0;
+		}
+		_count = 0;
+		return changed;
+	}
+
+	/**
+	 * @return the number of words written since the last collect, not counting a change to all of memory
+	 */
+	public synchronized int size() {
+		return _count;
+	}
+
+	private void clear() {
+		for (int i = 0; i < _pages.length; i++) {
+			for (long pages = _pages[i]; pages != 0; pages &= pages - 1) {
+				Arrays.fill(_words[i * Long.SIZE + Long.numberOfTrailingZeros(pages)], 0);
+			}
+			_pages[i] = 0;
+		}
+		_count = 0;
+	}
+}
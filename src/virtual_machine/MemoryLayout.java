@@ -0,0 +1,209 @@
+package virtual_machine;
+
+/**
+ * Where the segments of a program go in main memory: machine code (text), data, heap and
+ * stack. The heap grows up from its base and the stack down from its top. A text or data
+ * segment of size 0 is not a segment of its own: what would go there is placed at the start
+ * of the heap instead, ahead of anything the program allocates. A heap or stack of size 0
+ * may grow until it meets the other one.
+ *
+ * Memory is paged and a page is only allocated once it is written, so a layout can spread
+ * its segments over hundreds of MB without the untouched space costing anything.
+ */
+public class MemoryLayout {
+
+	private static final int WORD_SIZE = 4;
+
+	//everything in 76KB, as the simulator always had it
+	public static final MemoryLayout SMALL = new MemoryLayout(0, 0, 0, 0, 4000, 0, 80000, 0);
+	//16MB of text and of data, a 256MB heap and a 64MB stack ending at 512MB
+	public static final MemoryLayout LARGE = new MemoryLayout(
+			0x00010000, 0x00FF0000,
+			0x01000000, 0x01000000,
+			0x02000000, 0x10000000,
+			0x20000000, 0x04000000);
+	public static final MemoryLayout DEFAULT = SMALL;
+
+	private final int _textBase;
+	private final int _textSize;
+	private final int _dataBase;
+	private final int _dataSize;
+	private final int _heapBase;
+	private final int _heapSize;
+	private final int _stackTop;
+	private final int _stackSize;
+
+	/**
+	 * @throws IllegalArgumentException if an address is not word aligned, or segments overlap
+	 */
+	public MemoryLayout(int textBase, int textSize, int dataBase, int dataSize,
+			int heapBase, int heapSize, int stackTop, int stackSize) {
+		_textBase = textBase;
+		_textSize = textSize;
+		_dataBase = dataBase;
+		_dataSize = dataSize;
+		_heapBase = heapBase;
+		_heapSize = heapSize;
+		_stackTop = stackTop;
+		_stackSize = stackSize;
+		check();
+	}
+
+	private void check() {
+		int[] values = {_textBase, _textSize, _dataBase, _dataSize, _heapBase, _heapSize, _stackTop, _stackSize};
+		for (int v : values) {
+			if (v < 0 || v % WORD_SIZE != 0) {
+				throw new IllegalArgumentException("Memory layout addresses and sizes must be positive and word aligned: " + this);
+			}
+		}
+		if ((long) _heapBase + _heapSize > (long) _stackTop - _stackSize || _heapBase >= _stackTop) {
+			throw new IllegalArgumentException("Heap and stack overlap: " + this);
+		}
+		//the heap and stack may grow over everything from the heap base to the stack top
+		int growth = _stackTop - _heapBase;
+		if (_textSize > 0 && (intersect(_textBase, _textSize, _heapBase, growth)
+				|| (_dataSize > 0 && intersect(_textBase, _textSize, _dataBase, _dataSize)))) {
+			throw new IllegalArgumentException("Text segment overlaps another: " + this);
+		}
+		if (_dataSize > 0 && intersect(_dataBase, _dataSize, _heapBase, growth)) {
+			throw new IllegalArgumentException("Data segment overlaps another: " + this);
+		}
+	}
+
+	private static boolean intersect(int base, int size, int otherBase, int otherSize) {
+		return base < (long) otherBase + otherSize && otherBase < (long) base + size;
+	}
+
+	/**
+	 * @param spec - "small", "large", or segments to change from small, separated by commas,
+	 * each name=base or name=base:size for text, data, heap and stack, where a stack's base
+	 * is its top. Numbers may be hex with 0x, and sizes may end in K or M.
+	 * e.g. heap=0x100000,stack=0x8000000:1M
+	 */
+	public static MemoryLayout fromSpec(String spec) {
+		if (spec.equalsIgnoreCase("small")) {
+			return SMALL;
+		}else if (spec.equalsIgnoreCase("large")) {
+			return LARGE;
+		}
+		int[] values = {SMALL._textBase, SMALL._textSize, SMALL._dataBase, SMALL._dataSize,
+				SMALL._heapBase, SMALL._heapSize, SMALL._stackTop, SMALL._stackSize};
+		for (String segment : spec.split(",")) {
+			String[] nameValue = segment.trim().split("=");
+			if (nameValue.length != 2) {
+				throw new IllegalArgumentException("Expected segment=base[:size] in memory layout, not " + segment);
+			}
+			int s;
+			switch (nameValue[0].trim().toLowerCase()) {
+			case "text":
+				s = 0;
+				break;
+			case "data":
+				s = 2;
+				break;
+			case "heap":
+				s = 4;
+				break;
+			case "stack":
+				s = 6;
+				break;
+			default:
+				throw new IllegalArgumentException("No memory segment called " + nameValue[0]);
+			}
+			String[] baseSize = nameValue[1].split(":");
+			values[s] = parseSize(baseSize[0]);
+			values[s + 1] = baseSize.length > 1 ? parseSize(baseSize[1]) : 0;
+		}
+		return new MemoryLayout(values[0], values[1], values[2], values[3],
+				values[4], values[5], values[6], values[7]);
+	}
+
+	private static int parseSize(String s) {
+		s = s.trim().toUpperCase();
+		long scale = 1;
+		if (s.endsWith("K")) {
+			scale = 1 << 10;
+			s = s.substring(0, s.length() - 1);
+		}else if (s.endsWith("M")) {
+			scale = 1 << 20;
+			s = s.substring(0, s.length() - 1);
+		}
+		long value = s.startsWith("0X") ? Long.parseLong(s.substring(2), 16) : Long.parseLong(s);
+		value *= scale;
+		if (value > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException(s + " is past the end of memory");
+		}
+		return (int) value;
+	}
+
+	public int getTextBase() {
+		return _textBase;
+	}
+
+	/**
+	 * @return the size of the text segment, 0 if code goes at the start of the heap
+	 */
+	public int getTextSize() {
+		return _textSize;
+	}
+
+	public int getDataBase() {
+		return _dataBase;
+	}
+
+	/**
+	 * @return the size of the data segment, 0 if data goes at the start of the heap
+	 */
+	public int getDataSize() {
+		return _dataSize;
+	}
+
+	public int getHeapBase() {
+		return _heapBase;
+	}
+
+	/**
+	 * @return the most the heap may grow to, 0 if it may grow until it reaches the stack
+	 */
+	public int getHeapSize() {
+		return _heapSize;
+	}
+
+	public int getStackTop() {
+		return _stackTop;
+	}
+
+	/**
+	 * @return the most the stack may grow to, 0 if it may grow until it reaches the heap
+	 */
+	public int getStackSize() {
+		return _stackSize;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof MemoryLayout)) {
+			return false;
+		}
+		MemoryLayout l = (MemoryLayout) o;
+		return _textBase == l._textBase && _textSize == l._textSize && _dataBase == l._dataBase
+				&& _dataSize == l._dataSize && _heapBase == l._heapBase && _heapSize == l._heapSize
+				&& _stackTop == l._stackTop && _stackSize == l._stackSize;
+	}
+
+	@Override
+	public int hashCode() {
+		return ((_textBase * 31 + _dataBase) * 31 + _heapBase) * 31 + _stackTop;
+	}
+
+	/**
+	 * @return the layout as a spec fromSpec reads back
+	 */
+	@Override
+	public String toString() {
+		return "text=0x" + Integer.toHexString(_textBase) + ":" + _textSize
+				+ ",data=0x" + Integer.toHexString(_dataBase) + ":" + _dataSize
+				+ ",heap=0x" + Integer.toHexString(_heapBase) + ":" + _heapSize
+				+ ",stack=0x" + Integer.toHexString(_stackTop) + ":" + _stackSize;
+	}
+}
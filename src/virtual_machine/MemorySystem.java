@@ -1,18 +1,130 @@
 package virtual_machine;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
-public class MemorySystem {
-	
-	private Map<Integer, Integer> _mainMem;
+/**
+ * Word addressed main memory. Handles alignment and sub-word masking;
+ * subclasses only decide how words are stored. The atomic operations
+ * are only atomic in a SharedMemorySystem; elsewhere one thread owns memory.
+ * Subclasses report every word they write to the MemoryChanges watching them, and
+ * to the watchpoints if any are set; loads and the atomic operations check for read
+ * watchpoints here.
+ */
+public abstract class MemorySystem {
 	
 	private static final int WORDSIZE = 32;
-	
-	public MemorySystem() {
-		_mainMem = new HashMap<Integer, Integer>();
+	private static final MemoryChanges[] NO_CHANGES = new MemoryChanges[0];
+
+	private MemoryChanges[] _changes = NO_CHANGES;
+	private MemoryWatchpoints _watch;	//null while nothing is watched
+
+	public enum Backend {
+		MAP,	//one map entry per touched word
+		PAGED,	//int[] pages allocated on first write
+		SHARED	//paged and thread safe, for harts running at once
+	}
+
+	public static MemorySystem create(Backend backend) {
+		switch (backend) {
+		case MAP:
+			return new MapMemorySystem();
+		case SHARED:
+			return new SharedMemorySystem();
+		default:
+			return new PagedMemorySystem();
+		}
+	}
+
+	/**
+	 * @return the word at word index baseAddress, 0 if it was never written
+	 */
+	protected abstract int readWord(int baseAddress);
+
+	protected abstract void writeWord(int baseAddress, int value);
+
+	/**
+	 * Replaces the bits of mask in the word at word index baseAddress with those of bits.
+	 */
+	protected void writeMasked(int baseAddress, int mask, int bits) {
+		writeWord(baseAddress, (readWord(baseAddress) & ~mask) | (bits & mask));
+	}
+
+	public abstract String printMainMem();
+
+	//SECTION: CHANGES
+	/**
+	 * Has every word written from now on marked in changes, until it is removed.
+	 * Watchers are added and removed while no hart is running.
+	 */
+	void addChanges(MemoryChanges changes) {
+		_changes = Arrays.copyOf(_changes, _changes.length + 1);
+		_changes[_changes.length - 1] = changes;
+	}
+
+	void removeChanges(MemoryChanges changes) {
+		MemoryChanges[] kept = new MemoryChanges[_changes.length];
+		int n = 0;
+		for (MemoryChanges c : _changes) {
+			if (c != changes) {
+				kept[n++] = c;
+			}
+		}
+		_changes = n == 0 ? NO_CHANGES : Arrays.copyOf(kept, n);
 	}
+
+	protected final void changed(int baseAddress) {
+		for (MemoryChanges c : _changes) {
+			c.mark(baseAddress);
+		}
+		if (_watch != null) {
+			_watch.written(this, baseAddress);
+		}
+	}
+
+	protected final void changed(int baseAddress, int count) {
+		for (MemoryChanges c : _changes) {
+			c.mark(baseAddress, count);
+		}
+		if (_watch != null) {
+			_watch.written(this, baseAddress, count);
+		}
+	}
+
+	//SECTION: WATCHPOINTS
+	/**
+	 * Has every access checked against watch, or nothing checked if it is null.
+	 * Set while no hart is running.
+	 */
+	void setWatchpoints(MemoryWatchpoints watch) {
+		_watch = watch;
+	}
+
+	protected final void accessed(int baseAddress) {
+		if (_watch != null) {
+			_watch.read(baseAddress);
+		}
+	}
+
+	/**
+	 * @return the word at the word aligned address, without it counting as a read
+	 * for watchpoints, for the VM's own bookkeeping
+	 */
+	int peekWord(int address) throws MemoryException {
+		checkWordAddress(address);
+		return readWord(address >>> 2);
+	}
+
+	/**
+	 * @return a memory holding the same words, that is written apart from this one.
+	 * The two may be used from different threads once the fork has been handed over.
+	 */
+	public abstract MemorySystem fork();
+
+	/**
+	 * @return the numbers of the PagedMemorySystem.PAGE_WORDS word pages that have
+	 * been written to, in increasing order
+	 */
+	public abstract int[] getWrittenPages();
 	
 	public void putMemory(int address, int size, int value) throws MemoryException {
 		int baseAddress = address / 4;
@@ -24,16 +136,17 @@ public class MemorySystem {
 			throw new MemoryException("Cannot access negative memory address " + address);
 		}
 
+		if (size == 4) {
+			writeWord(baseAddress, value);
+			return;
+		}
+
 		int sizeN = size * 8;
 		int offsetK = offset * 8;
 		
 		int mask = (-1 >>> (WORDSIZE - sizeN)) << offsetK;
 		
-		int valueV = (value << offsetK) & mask;
-		int valueU = _mainMem.getOrDefault(baseAddress, 0) & (~mask);
-		
-		int insertValue = valueU | valueV;
-		_mainMem.put(baseAddress, insertValue); 
+		writeMasked(baseAddress, mask, value << offsetK);
 	}
 	
 	public int getMemory(int address, int size) throws MemoryException {
@@ -46,7 +159,8 @@ public class MemorySystem {
 			throw new MemoryException("Cannot access negative memory address " + address);
 		}
 		
-		int baseValue = _mainMem.getOrDefault(baseAddress, 0);
+		int baseValue = readWord(baseAddress);
+		accessed(baseAddress);
 		
 		if (size == 4) { //word
 			return baseValue;
@@ -61,12 +175,130 @@ public class MemorySystem {
 			throw new MemoryException("Requesting invalid number of bytes");
 		}
 	}
-	
-	public String printMainMem() {
-		ArrayList<String> nonEmpties = new ArrayList<>();
-		for(Integer i : _mainMem.keySet()) {
-			nonEmpties.add(i + ": " + _mainMem.get(i));
+
+	//SECTION: BULK OPERATIONS
+	/**
+	 * Copies length bytes of bytes, starting at offset, into memory at address.
+	 * Whole words are written at once; only partial words at either end are merged.
+	 */
+	public void putBytes(int address, byte[] bytes, int offset, int length) throws MemoryException {
+		checkAddress(address);
+		int end = address + length;
+		int a = address;
+		while (a < end) {
+			int baseAddress = a >>> 2;
+			int first = a & 3;
+			int last = Math.min(4, end - (baseAddress << 2));
+			int word = 0;
+			int mask = 0;
+			for (int b = first; b < last; b++) {
+				int shift = b * 8;
+				word |= (bytes[offset + (a - address)] & 0xFF) << shift;
+				mask |= 0xFF << shift;
+				a++;
+			}
+			if (mask == -1) {
+				writeWord(baseAddress, word);
+			}else {
+				writeMasked(baseAddress, mask, word);
+			}
+		}
+	}
+
+	/**
+	 * @return the characters from address up to, not including, the first '\0'
+	 */
+	public String readString(int address) throws MemoryException {
+		checkAddress(address);
+		StringBuilder s = new StringBuilder();
+		int a = address;
+		while (true) {
+			int word = readWord(a >>> 2);
+			for (int b = a & 3; b < 4; b++) {
+				int c = (word >>> (b * 8)) & 0xFF;
+				if (c == 0) {
+					return s.toString();
+				}
+				s.append((char) c);
+				a++;
+			}
+		}
+	}
+
+	public void getWords(int address, int[] words, int offset, int count) throws MemoryException {
+		checkWordAddress(address);
+		int baseAddress = address >>> 2;
+		for (int i = 0; i < count; i++) {
+			words[offset + i] = readWord(baseAddress + i);
+		}
+	}
+
+	public void putWords(int address, int[] words, int offset, int count) throws MemoryException {
+		checkWordAddress(address);
+		int baseAddress = address >>> 2;
+		for (int i = 0; i < count; i++) {
+			writeWord(baseAddress + i, words[offset + i]);
+		}
+	}
+
+	/**
+	 * Sets count words starting at the word aligned address to value.
+	 */
+	public void fillWords(int address, int count, int value) throws MemoryException {
+		checkWordAddress(address);
+		int baseAddress = address >>> 2;
+		for (int i = 0; i < count; i++) {
+			writeWord(baseAddress + i, value);
+		}
+	}
+
+	//SECTION: ATOMIC OPERATIONS
+	/**
+	 * Stores value at the word aligned address if it still holds expected.
+	 * @return true if value was stored
+	 */
+	public boolean compareAndSet(int address, int expected, int value) throws MemoryException {
+		checkWordAddress(address);
+		accessed(address >>> 2);
+		if (readWord(address >>> 2) != expected) {
+			return false;
+		}
+		writeWord(address >>> 2, value);
+		return true;
+	}
+
+	/**
+	 * @return the word at the word aligned address before delta was added to it
+	 */
+	public int getAndAdd(int address, int delta) throws MemoryException {
+		checkWordAddress(address);
+		accessed(address >>> 2);
+		int old = readWord(address >>> 2);
+		writeWord(address >>> 2, old + delta);
+		return old;
+	}
+
+	/**
+	 * @return the word at the word aligned address before it was replaced with value
+	 */
+	public int getAndSet(int address, int value) throws MemoryException {
+		checkWordAddress(address);
+		accessed(address >>> 2);
+		int old = readWord(address >>> 2);
+		writeWord(address >>> 2, value);
+		return old;
+	}
+
+	protected static void checkAddress(int address) throws MemoryException {
+		if (address < 0) {
+			throw new MemoryException("Cannot access negative memory address " + address);
+		}
+	}
+
+	protected static void checkWordAddress(int address) throws MemoryException {
+		checkAddress(address);
+		if (address % 4 != 0) {
+			throw new MemoryException("Address " + address + " is not word alligned");
 		}
-		return nonEmpties.toString();
 	}
 }
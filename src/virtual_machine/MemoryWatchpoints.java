@@ -0,0 +1,176 @@
+package virtual_machine;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Words of main memory that stop execution when the program reads or writes them, like a
+ * debugger's hardware watchpoints. The MemorySystem they are set on checks each access against
+ * one bit per page of PagedMemorySystem.PAGE_WORDS words, one bitmap for reads and one for
+ * writes, and only looks the word up on a page that has a watchpoint, so accesses anywhere
+ * else cost a bit test. A hit is kept until the VM collects it, which it does after each line.
+ */
+public class MemoryWatchpoints {
+
+	public enum Kind {
+		READ,	//the program loads the word
+		WRITE,	//the program stores to the word
+		VALUE	//a store leaves the word holding a given value
+	}
+
+	private static final int PAGE_BITS = PagedMemorySystem.PAGE_BITS;
+	private static final int READ = 1 << Kind.READ.ordinal();
+	private static final int WRITE = 1 << Kind.WRITE.ordinal();
+	private static final int VALUE = 1 << Kind.VALUE.ordinal();
+
+	private long[] _readPages;	//bit per page with a read watchpoint
+	private long[] _writePages;	//bit per page with a write or value watchpoint
+	private final Map<Integer, Integer> _kinds;		//word index to bits of Kind
+	private final Map<Integer, Integer> _values;	//word index to the value a VALUE watchpoint waits for
+	private volatile boolean _hit;
+	private int _hitAddress;
+	private Kind _hitKind;
+
+	MemoryWatchpoints() {
+		_readPages = new long[0];
+		_writePages = new long[0];
+		_kinds = new HashMap<>();
+		_values = new HashMap<>();
+	}
+
+	//SECTION: SETTING
+	/**
+	 * Watches the word holding the byte at address.
+	 * @param value - the value a VALUE watchpoint stops on, ignored for the others
+	 */
+	void add(int address, Kind kind, int value) throws MemoryException {
+		MemorySystem.checkAddress(address);
+		int baseAddress = address >>> 2;
+		_kinds.merge(baseAddress, 1 << kind.ordinal(), (a, b) -> a | b);
+		if (kind == Kind.VALUE) {
+			_values.put(baseAddress, value);
+		}
+		int p = baseAddress >>> PAGE_BITS;
+		if (kind == Kind.READ) {
+			_readPages = flag(_readPages, p);
+		}else {
+			_writePages = flag(_writePages, p);
+		}
+	}
+
+	private static long[] flag(long[] pages, int p) {
+		if ((p >>> 6) >= pages.length) {
+			pages = Arrays.copyOf(pages, (p >>> 6) + 1);
+		}
+		pages[p >>> 6] |= 1L << p;
+		return pages;
+	}
+
+	private static boolean flagged(long[] pages, int p) {
+		return (p >>> 6) < pages.length && (pages[p >>> 6] & (1L << p)) != 0;
+	}
+
+	public boolean isEmpty() {
+		return _kinds.isEmpty();
+	}
+
+	/**
+	 * @return the kinds watched on each word, by byte address in increasing order
+	 */
+	public Map<Integer, Kind[]> getWatched() {
+		Map<Integer, Kind[]> watched = new TreeMap<>();
+		for (Map.Entry<Integer, Integer> e : _kinds.entrySet()) {
+			Kind[] kinds = new Kind[Integer.bitCount(e.getValue())];
+			int n = 0;
+			for (Kind k : Kind.values()) {
+				if ((e.getValue() & (1 << k.ordinal())) != 0) {
+					kinds[n++] = k;
+				}
+			}
+			watched.put(e.getKey() * 4, kinds);
+		}
+		return watched;
+	}
+
+	/**
+	 * @return the value the VALUE watchpoint on the word at address stops on, null if it has none
+	 */
+	public Integer getValue(int address) {
+		return _values.get(address >>> 2);
+	}
+
+	//SECTION: CHECKING
+	void read(int baseAddress) {
+		if (flagged(_readPages, baseAddress >>> PAGE_BITS)) {
+			Integer kinds = _kinds.get(baseAddress);
+			if (kinds != null && (kinds & READ) != 0) {
+				hit(baseAddress, Kind.READ);
+			}
+		}
+	}
+
+	/**
+	 * Checks a store to the word at word index baseAddress, once mem holds the new value.
+	 */
+	void written(MemorySystem mem, int baseAddress) {
+		if (flagged(_writePages, baseAddress >>> PAGE_BITS)) {
+			Integer kinds = _kinds.get(baseAddress);
+			if (kinds == null) {
+				return;
+			}
+			if ((kinds & WRITE) != 0) {
+				hit(baseAddress, Kind.WRITE);
+			}else if ((kinds & VALUE) != 0 && mem.readWord(baseAddress) == _values.get(baseAddress)) {
+				hit(baseAddress, Kind.VALUE);
+			}
+		}
+	}
+
+	void written(MemorySystem mem, int baseAddress, int count) {
+		int end = baseAddress + count;
+		for (int a = baseAddress; a < end; a++) {
+			if (!flagged(_writePages, a >>> PAGE_BITS)) {
+				//skip to the next page
+				a |= (1 << PAGE_BITS) - 1;
+			}else {
+				written(mem, a);
+			}
+		}
+	}
+
+	private void hit(int baseAddress, Kind kind) {
+		if (!_hit) {
+			_hitAddress = baseAddress * 4;
+			_hitKind = kind;
+			_hit = true;
+		}
+	}
+
+	boolean isHit() {
+		return _hit;
+	}
+
+	/**
+	 * Forgets the hit, so the next access to a watched word is reported.
+	 */
+	void clearHit() {
+		_hit = false;
+		_hitKind = null;
+	}
+
+	/**
+	 * @return the byte address of the first watched word accessed since the hit was cleared
+	 */
+	public int getHitAddress() {
+		return _hitAddress;
+	}
+
+	/**
+	 * @return how the watched word was accessed, null if none has been since the hit was cleared
+	 */
+	public Kind getHitKind() {
+		return _hitKind;
+	}
+}
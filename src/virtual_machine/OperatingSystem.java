@@ -1,5 +1,6 @@
 package virtual_machine;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 
@@ -7,13 +8,16 @@ import util.Pair;
 
 public class OperatingSystem {
 	
-	private int _memAllocPointer;
+	private final MemoryLayout _layout;
+	private final HeapAllocator _heap;
+	private int _textPointer;
+	private int _dataPointer;
 	private int _stackPointer;
 	private Pair<Integer, Integer> _graphicsRange;
 	
 	private static final ArrayList<String> systemOps = new ArrayList<>(Arrays.asList(
 						"_read", "_read_string", "_print", "_print_string", "_update_graphics",
-						"_random", "_allocate","_stop", "_print_char", "_read_char", "_schedule",
+						"_random", "_allocate", "_free", "_stop", "_print_char", "_read_char", "_schedule",
 						"_set_key_handler", "_set_click_handler", "_clear_graphics", "_clear_memory")); 
 	
 	public static ArrayList<String> getSystemOps() {
@@ -21,19 +25,99 @@ public class OperatingSystem {
 	}
 	
 	public OperatingSystem(){
-		_memAllocPointer = 4000; //memory grows up
-		_stackPointer = 80000;   //stack grows down
+		this(MemoryLayout.DEFAULT);
 	}
 	
-	public int requestMemory(int n) throws MemoryException {
-		final int WORD_SIZE = 4;
-		int a = _memAllocPointer;
-		_memAllocPointer += n + ((WORD_SIZE - (n % WORD_SIZE)) % WORD_SIZE);
-		
-		if(_memAllocPointer >= _stackPointer || a - n < 0) {
-			throw new MemoryException("Not enough memory remaining to assign " + n + " bytes");
+	public OperatingSystem(MemoryLayout layout) {
+		_layout = layout;
+		_heap = new HeapAllocator(layout.getHeapBase()); //memory grows up
+		_stackPointer = layout.getStackTop();   //stack grows down
+		_textPointer = layout.getTextBase();
+		_dataPointer = layout.getDataBase();
+	}
+	
+	/**
+	 * @return an operating system in the same state, for a forked VM
+	 */
+	synchronized OperatingSystem copy() {
+		OperatingSystem copy = new OperatingSystem(_layout, _heap.copy());
+		copy._textPointer = _textPointer;
+		copy._dataPointer = _dataPointer;
+		copy._stackPointer = _stackPointer;
+		copy._graphicsRange = _graphicsRange;
+		return copy;
+	}
+	
+	private OperatingSystem(MemoryLayout layout, HeapAllocator heap) {
+		_layout = layout;
+		_heap = heap;
+	}
+	
+	public MemoryLayout getLayout() {
+		return _layout;
+	}
+	
+	//harts share one operating system, so the heap is only changed under its lock
+	/**
+	 * Allocates a block of n bytes that the program may free again.
+	 */
+	public synchronized int requestMemory(int n) throws MemoryException {
+		return _heap.allocate(n, heapLimit());
+	}
+	
+	/**
+	 * Sets aside n bytes for good in the data segment, for the program's data, strings and screen.
+	 */
+	public synchronized int reserveMemory(int n) throws MemoryException {
+		if (_layout.getDataSize() == 0) {
+			return _heap.reserve(n, heapLimit());
+		}
+		int address = _dataPointer;
+		_dataPointer = bump(_dataPointer, n, _layout.getDataBase() + _layout.getDataSize(), "data");
+		return address;
+	}
+	
+	/**
+	 * Sets aside n bytes for good in the text segment, for machine code.
+	 */
+	public synchronized int reserveCode(int n) throws MemoryException {
+		if (_layout.getTextSize() == 0) {
+			return _heap.reserve(n, heapLimit());
+		}
+		int address = _textPointer;
+		_textPointer = bump(_textPointer, n, _layout.getTextBase() + _layout.getTextSize(), "text");
+		return address;
+	}
+	
+	private static int bump(int pointer, int n, int end, String segment) throws MemoryException {
+		long next = (long) pointer + ((n + 3L) & ~3L);
+		if (n < 0 || next > end) {
+			throw new MemoryException("Not enough room in the " + segment + " segment to assign " + n + " bytes");
 		}
-		return a;
+		return (int) next;
+	}
+	
+	private int heapLimit() {
+		if (_layout.getHeapSize() == 0) {
+			return _stackPointer;
+		}
+		return Math.min(_stackPointer, _layout.getHeapBase() + _layout.getHeapSize());
+	}
+	
+	/**
+	 * Gives back the block requestMemory returned at address.
+	 * @return its size in bytes
+	 */
+	public synchronized int freeMemory(int address) throws MemoryException {
+		return _heap.free(address);
+	}
+	
+	public HeapAllocator getHeap() {
+		return _heap;
+	}
+	
+	void setUndoLog(UndoLog undo) {
+		_heap.setUndoLog(undo);
 	}
 	
 	public int getStackPointer() {
@@ -41,11 +125,11 @@ public class OperatingSystem {
 	}
 	
 	public int getMemAllocPointer() {
-		return _memAllocPointer;
+		return _heap.getTop();
 	}
 	
 	public void setMemAllocPointer(int hp) {
-		_memAllocPointer = hp;
+		_heap.setTopUnchecked(hp);
 	}
 	
 	public boolean isSystemOp(String op) {
@@ -60,10 +144,45 @@ public class OperatingSystem {
 		return _graphicsRange;
 	}
 	
-	public void setSP(int sp) throws MemoryException {
-		if(sp <= _memAllocPointer) {
+	public synchronized void setSP(int sp) throws MemoryException {
+		if(sp <= _heap.getTop()) {
 			throw new MemoryException("Cannot set stack pointer less than heap pointer");
+		}else if (_layout.getStackSize() > 0 && sp < _layout.getStackTop() - _layout.getStackSize()) {
+			throw new MemoryException("Stack overflow: cannot set stack pointer below "
+					+ (_layout.getStackTop() - _layout.getStackSize()));
 		}
 		_stackPointer = sp;
 	}
+	
+	//SECTION: SNAPSHOTS
+	void writeTo(VMSnapshot.Writer out) throws IOException {
+		out.putString(_layout.toString());
+		_heap.writeTo(out);
+		out.putInt(_textPointer);
+		out.putInt(_dataPointer);
+		out.putInt(_stackPointer);
+		out.putBoolean(_graphicsRange != null);
+		if (_graphicsRange != null) {
+			out.putInt(_graphicsRange.first());
+			out.putInt(_graphicsRange.second());
+		}
+	}
+	
+	/**
+	 * Reads what writeTo wrote into this new operating system, which must have the same layout.
+	 */
+	void readFrom(VMSnapshot.Reader in) throws IOException {
+		String layout = in.getString();
+		if (!_layout.toString().equals(layout)) {
+			throw new IOException("Snapshot was saved with memory layout " + layout + ", not " + _layout);
+		}
+		_heap.readFrom(in);
+		_textPointer = in.getInt();
+		_dataPointer = in.getInt();
+		_stackPointer = in.getInt();
+		if (in.getBoolean()) {
+			int start = in.getInt();
+			setGraphicsRange(start, in.getInt());
+		}
+	}
 }
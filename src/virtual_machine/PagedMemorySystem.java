@@ -0,0 +1,187 @@
+package virtual_machine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Main memory kept in fixed size int[] pages, indexed by word address.
+ * A page is only allocated the first time one of its words is written;
+ * reads from missing pages return 0.
+ *
+ * A fork shares every page with the memory it was forked from, copy on write: a page
+ * that is marked shared is never written again by anyone, each side copies it the first
+ * time it writes there. Only the page table is copied at the fork, so the two memories
+ * can be run on separate threads without locking.
+ */
+public class PagedMemorySystem extends MemorySystem {
+
+	public static final int PAGE_BITS = 10;
+	public static final int PAGE_WORDS = 1 << PAGE_BITS;	//4KB pages
+	private static final int PAGE_MASK = PAGE_WORDS - 1;
+	private static final int INITIAL_PAGES = 32;
+
+	private int[][] _pages;
+	private boolean[] _shared;	//null until forked
+
+	public PagedMemorySystem() {
+		_pages = new int[INITIAL_PAGES][];
+	}
+
+	@Override
+	public MemorySystem fork() {
+		if (_shared == null || _shared.length < _pages.length) {
+			_shared = _shared == null ? new boolean[_pages.length] : Arrays.copyOf(_shared, _pages.length);
+		}
+		for (int p = 0; p < _pages.length; p++) {
+			if (_pages[p] != null) {
+				_shared[p] = true;
+			}
+		}
+		PagedMemorySystem copy = new PagedMemorySystem();
+		copy._pages = _pages.clone();
+		copy._shared = _shared.clone();
+		return copy;
+	}
+
+	@Override
+	protected int readWord(int baseAddress) {
+		int p = baseAddress >>> PAGE_BITS;
+		if (p < _pages.length) {
+			int[] page = _pages[p];
+			if (page != null) {
+				return page[baseAddress & PAGE_MASK];
+			}
+		}
+		return 0;
+	}
+
+	@Override
+	protected void writeWord(int baseAddress, int value) {
+		page(baseAddress >>> PAGE_BITS)[baseAddress & PAGE_MASK] = value;
+		changed(baseAddress);
+	}
+
+	@Override
+	public void getWords(int address, int[] words, int offset, int count) throws MemoryException {
+		checkWordAddress(address);
+		int baseAddress = address >>> 2;
+		while (count > 0) {
+			int p = baseAddress >>> PAGE_BITS;
+			int w = baseAddress & PAGE_MASK;
+			int n = Math.min(count, PAGE_WORDS - w);
+			int[] page = p < _pages.length ? _pages[p] : null;
+			if (page != null) {
+				System.arraycopy(page, w, words, offset, n);
+			}else {
+				Arrays.fill(words, offset, offset + n, 0);
+			}
+			baseAddress += n;
+			offset += n;
+			count -= n;
+		}
+	}
+
+	@Override
+	public void putWords(int address, int[] words, int offset, int count) throws MemoryException {
+		checkWordAddress(address);
+		int baseAddress = address >>> 2;
+		while (count > 0) {
+			int w = baseAddress & PAGE_MASK;
+			int n = Math.min(count, PAGE_WORDS - w);
+			System.arraycopy(words, offset, page(baseAddress >>> PAGE_BITS), w, n);
+			changed(baseAddress, n);
+			baseAddress += n;
+			offset += n;
+			count -= n;
+		}
+	}
+
+	@Override
+	public void fillWords(int address, int count, int value) throws MemoryException {
+		checkWordAddress(address);
+		int baseAddress = address >>> 2;
+		while (count > 0) {
+			int p = baseAddress >>> PAGE_BITS;
+			int w = baseAddress & PAGE_MASK;
+			int n = Math.min(count, PAGE_WORDS - w);
+			//clearing a page that was never written leaves it unallocated
+			if (value != 0 || (p < _pages.length && _pages[p] != null)) {
+				Arrays.fill(page(p), w, w + n, value);
+				changed(baseAddress, n);
+			}
+			baseAddress += n;
+			count -= n;
+		}
+	}
+
+	private int[] page(int p) {
+		if (p >= _pages.length) {
+			_pages = Arrays.copyOf(_pages, Math.max(p + 1, _pages.length * 2));
+		}
+		int[] page = _pages[p];
+		if (page == null) {
+			page = new int[PAGE_WORDS];
+			_pages[p] = page;
+		}else if (_shared != null && p < _shared.length && _shared[p]) {
+			page = page.clone();
+			_pages[p] = page;
+			_shared[p] = false;
+		}
+		return page;
+	}
+
+	/**
+	 * @return the number of pages that have been allocated
+	 */
+	public int getPageCount() {
+		int n = 0;
+		for (int[] page : _pages) {
+			if (page != null) {
+				n++;
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * @return the number of pages still shared with a fork, or the memory this was forked from
+	 */
+	public int getSharedPageCount() {
+		int n = 0;
+		for (int p = 0; _shared != null && p < _shared.length; p++) {
+			if (_shared[p]) {
+				n++;
+			}
+		}
+		return n;
+	}
+
+	@Override
+	public int[] getWrittenPages() {
+		int[] written = new int[getPageCount()];
+		int n = 0;
+		for (int p = 0; p < _pages.length; p++) {
+			if (_pages[p] != null) {
+				written[n++] = p;
+			}
+		}
+		return written;
+	}
+
+	@Override
+	public String printMainMem() {
+		ArrayList<String> nonEmpties = new ArrayList<>();
+		for (int p = 0; p < _pages.length; p++) {
+			int[] page = _pages[p];
+			if (page == null) {
+				continue;
+			}
+			for (int w = 0; w < PAGE_WORDS; w++) {
+				if (page[w] != 0) {
+					nonEmpties.add(((p << PAGE_BITS) | w) + ": " + page[w]);
+				}
+			}
+		}
+		return nonEmpties.toString();
+	}
+}
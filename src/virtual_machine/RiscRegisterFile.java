@@ -0,0 +1,159 @@
+package virtual_machine;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import RISC.RiscRegisters;
+
+/**
+ * RISC-V integer registers stored in a flat array, indexed in the order of
+ * RiscRegisters.REGISTERS. Register zero is hardwired and ignores writes.
+ * The class doubles as a live name to value map for the register displays.
+ * Registers may be watched: a mask of them is kept with the values they had when last
+ * checked, so finding which changed costs nothing while none are watched.
+ */
+public class RiscRegisterFile extends AbstractMap<String, Integer> {
+
+	private final int[] _regs;
+	private long _watchMask;
+	private final int[] _watchedValues;
+
+	public RiscRegisterFile() {
+		_regs = new int[RiscRegisters.REGISTERS.size()];
+		_watchedValues = new int[_regs.length];
+	}
+
+	public int get(int index) {
+		return _regs[index];
+	}
+
+	public void put(int index, int value) {
+		if (index != RiscRegisters.ZERO_INDEX) {
+			_regs[index] = value;
+		}
+	}
+
+	public int[] getArray() {
+		return _regs;
+	}
+
+	public void reset() {
+		for (int i = 0; i < _regs.length; i++) {
+			_regs[i] = 0;
+		}
+	}
+
+	//SECTION: WATCHING
+	public void watch(int index) {
+		_watchMask |= 1L << index;
+		_watchedValues[index] = _regs[index];
+	}
+
+	public void clearWatches() {
+		_watchMask = 0;
+	}
+
+	public long getWatchMask() {
+		return _watchMask;
+	}
+
+	/**
+	 * Takes the current values of the watched registers as the ones to compare against.
+	 */
+	void resetWatches() {
+		for (long m = _watchMask; m != 0; m &= m - 1) {
+			int i = Long.numberOfTrailingZeros(m);
+			_watchedValues[i] = _regs[i];
+		}
+	}
+
+	/**
+	 * @return the index of the first watched register whose value changed since the last
+	 * check, with its new value taken as the one to compare against, or -1 if none did
+	 */
+	int changedWatch() {
+		for (long m = _watchMask; m != 0; m &= m - 1) {
+			int i = Long.numberOfTrailingZeros(m);
+			if (_regs[i] != _watchedValues[i]) {
+				_watchedValues[i] = _regs[i];
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	//SECTION: NAME VIEW
+	@Override
+	public Integer get(Object name) {
+		int index = RiscRegisters.REGISTERS.indexOf(name);
+		if (index < 0) {
+			return null;
+		}
+		return _regs[index];
+	}
+
+	@Override
+	public Integer put(String name, Integer value) {
+		int index = RiscRegisters.indexOf(name);
+		if (index < 0) {
+			throw new IllegalArgumentException("Not a RISC-V register: " + name);
+		}
+		int old = _regs[index];
+		put(index, value);
+		return old;
+	}
+
+	@Override
+	public boolean containsKey(Object name) {
+		return RiscRegisters.REGISTERS.contains(name);
+	}
+
+	@Override
+	public int size() {
+		return _regs.length;
+	}
+
+	@Override
+	public Set<Map.Entry<String, Integer>> entrySet() {
+		return new AbstractSet<Map.Entry<String, Integer>>() {
+			@Override
+			public Iterator<Map.Entry<String, Integer>> iterator() {
+				return new Iterator<Map.Entry<String, Integer>>() {
+					private int _next = 0;
+
+					@Override
+					public boolean hasNext() {
+						return _next < _regs.length;
+					}
+
+					@Override
+					public Map.Entry<String, Integer> next() {
+						if (!hasNext()) {
+							throw new NoSuchElementException();
+						}
+						final int index = _next++;
+						return new AbstractMap.SimpleEntry<String, Integer>(
+								RiscRegisters.REGISTERS.get(index), _regs[index]) {
+							private static final long serialVersionUID = 1L;
+
+							@Override
+							public Integer setValue(Integer value) {
+								put(index, value);
+								return super.setValue(value);
+							}
+						};
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return _regs.length;
+			}
+		};
+	}
+}
@@ -0,0 +1,201 @@
+package virtual_machine;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Main memory that several harts can use at once from their own threads.
+ * Words are kept in int[] pages like PagedMemorySystem, but behind a fixed
+ * two level directory, so a page is installed with one compare and set and
+ * the directory never has to be copied while another hart is reading it.
+ * Every word is read with acquire and written with release semantics through
+ * VarHandles, so a word written before a releasing store is seen by a hart
+ * that reads that store. Sub-word writes and the atomic operations are
+ * compare and set loops on the whole word.
+ */
+public class SharedMemorySystem extends MemorySystem {
+
+	private static final int PAGE_BITS = PagedMemorySystem.PAGE_BITS;
+	private static final int PAGE_WORDS = PagedMemorySystem.PAGE_WORDS;
+	private static final int PAGE_MASK = PAGE_WORDS - 1;
+	private static final int TABLE_BITS = 10;
+	private static final int TABLE_PAGES = 1 << TABLE_BITS;
+	private static final int TABLE_MASK = TABLE_PAGES - 1;
+	//word indexes of non-negative addresses fit in 29 bits
+	private static final int DIRECTORY_SIZE = 1 << (29 - PAGE_BITS - TABLE_BITS);
+
+	private static final VarHandle WORDS = MethodHandles.arrayElementVarHandle(int[].class);
+	private static final VarHandle PAGES = MethodHandles.arrayElementVarHandle(int[][].class);
+	private static final VarHandle TABLES = MethodHandles.arrayElementVarHandle(int[][][].class);
+
+	private final int[][][] _directory;
+
+	public SharedMemorySystem() {
+		_directory = new int[DIRECTORY_SIZE][][];
+	}
+
+	@Override
+	protected int readWord(int baseAddress) {
+		int[] page = existingPage(baseAddress >>> PAGE_BITS);
+		return page != null ? (int) WORDS.getAcquire(page, baseAddress & PAGE_MASK) : 0;
+	}
+
+	@Override
+	protected void writeWord(int baseAddress, int value) {
+		WORDS.setRelease(page(baseAddress >>> PAGE_BITS), baseAddress & PAGE_MASK, value);
+		changed(baseAddress);
+	}
+
+	@Override
+	protected void writeMasked(int baseAddress, int mask, int bits) {
+		int[] page = page(baseAddress >>> PAGE_BITS);
+		int w = baseAddress & PAGE_MASK;
+		int old;
+		do {
+			old = (int) WORDS.getVolatile(page, w);
+		} while (!WORDS.compareAndSet(page, w, old, (old & ~mask) | (bits & mask)));
+		changed(baseAddress);
+	}
+
+	//SECTION: ATOMIC OPERATIONS
+	@Override
+	public boolean compareAndSet(int address, int expected, int value) throws MemoryException {
+		checkWordAddress(address);
+		int baseAddress = address >>> 2;
+		accessed(baseAddress);
+		if (WORDS.compareAndSet(page(baseAddress >>> PAGE_BITS), baseAddress & PAGE_MASK, expected, value)) {
+			changed(baseAddress);
+			return true;
+		}
+		return false;
+	}
+
+	@Override
+	public int getAndAdd(int address, int delta) throws MemoryException {
+		checkWordAddress(address);
+		int baseAddress = address >>> 2;
+		accessed(baseAddress);
+		int old = (int) WORDS.getAndAdd(page(baseAddress >>> PAGE_BITS), baseAddress & PAGE_MASK, delta);
+		changed(baseAddress);
+		return old;
+	}
+
+	@Override
+	public int getAndSet(int address, int value) throws MemoryException {
+		checkWordAddress(address);
+		int baseAddress = address >>> 2;
+		accessed(baseAddress);
+		int old = (int) WORDS.getAndSet(page(baseAddress >>> PAGE_BITS), baseAddress & PAGE_MASK, value);
+		changed(baseAddress);
+		return old;
+	}
+
+	//SECTION: PAGES
+	private int[] existingPage(int p) {
+		int[][] table = (int[][]) TABLES.getAcquire(_directory, p >>> TABLE_BITS);
+		return table != null ? (int[]) PAGES.getAcquire(table, p & TABLE_MASK) : null;
+	}
+
+	/**
+	 * @return page p, installing an empty one if no hart has written to it yet
+	 */
+	private int[] page(int p) {
+		int t = p >>> TABLE_BITS;
+		int[][] table = (int[][]) TABLES.getAcquire(_directory, t);
+		if (table == null) {
+			int[][] fresh = new int[TABLE_PAGES][];
+			table = (int[][]) TABLES.compareAndExchange(_directory, t, null, fresh);
+			if (table == null) {
+				table = fresh;
+			}
+		}
+		int s = p & TABLE_MASK;
+		int[] page = (int[]) PAGES.getAcquire(table, s);
+		if (page == null) {
+			int[] fresh = new int[PAGE_WORDS];
+			page = (int[]) PAGES.compareAndExchange(table, s, null, fresh);
+			if (page == null) {
+				page = fresh;
+			}
+		}
+		return page;
+	}
+
+	/**
+	 * Copies every page, since harts may still be writing the ones here.
+	 */
+	@Override
+	public MemorySystem fork() {
+		SharedMemorySystem copy = new SharedMemorySystem();
+		for (int t = 0; t < DIRECTORY_SIZE; t++) {
+			int[][] table = (int[][]) TABLES.getAcquire(_directory, t);
+			for (int s = 0; table != null && s < TABLE_PAGES; s++) {
+				int[] page = (int[]) PAGES.getAcquire(table, s);
+				if (page != null) {
+					int[] target = copy.page((t << TABLE_BITS) | s);
+					for (int w = 0; w < PAGE_WORDS; w++) {
+						target[w] = (int) WORDS.getAcquire(page, w);
+					}
+				}
+			}
+		}
+		return copy;
+	}
+
+	/**
+	 * @return the number of pages that have been allocated
+	 */
+	public int getPageCount() {
+		int n = 0;
+		for (int t = 0; t < DIRECTORY_SIZE; t++) {
+			int[][] table = (int[][]) TABLES.getAcquire(_directory, t);
+			for (int s = 0; table != null && s < TABLE_PAGES; s++) {
+				if (PAGES.getAcquire(table, s) != null) {
+					n++;
+				}
+			}
+		}
+		return n;
+	}
+
+	@Override
+	public int[] getWrittenPages() {
+		int[] written = new int[getPageCount()];
+		int n = 0;
+		for (int t = 0; t < DIRECTORY_SIZE; t++) {
+			int[][] table = (int[][]) TABLES.getAcquire(_directory, t);
+			for (int s = 0; table != null && s < TABLE_PAGES && n < written.length; s++) {
+				if (PAGES.getAcquire(table, s) != null) {
+					written[n++] = (t << TABLE_BITS) | s;
+				}
+			}
+		}
+		//another hart may have installed pages since they were counted
+		return Arrays.copyOf(written, n);
+	}
+
+	@Override
+	public String printMainMem() {
+		ArrayList<String> nonEmpties = new ArrayList<>();
+		for (int t = 0; t < DIRECTORY_SIZE; t++) {
+			if (TABLES.getAcquire(_directory, t) == null) {
+				continue;
+			}
+			for (int p = t << TABLE_BITS; p < (t + 1) << TABLE_BITS; p++) {
+				int[] page = existingPage(p);
+				if (page == null) {
+					continue;
+				}
+				for (int w = 0; w < PAGE_WORDS; w++) {
+					int value = (int) WORDS.getAcquire(page, w);
+					if (value != 0) {
+						nonEmpties.add(((p << PAGE_BITS) | w) + ": " + value);
+					}
+				}
+			}
+		}
+		return nonEmpties.toString();
+	}
+}
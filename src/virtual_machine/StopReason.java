@@ -0,0 +1,15 @@
+package virtual_machine;
+
+/**
+ * Why ExecVM.run returned control to its caller.
+ */
+public enum StopReason {
+	HALT,			//program finished or stopped itself
+	BUDGET,			//executed the requested number of instructions
+	BLOCKED_READ,	//a read is waiting on input, run again once it arrives
+	BREAKPOINT,		//the next instruction is on a breakpoint line
+	ERROR,			//an instruction threw, see ExecVM.getLastError
+	WAITING,		//nothing to run until a scheduled, key or click event arrives
+	GRAPHICS,		//the program asked for the screen to be redrawn
+	WATCHPOINT		//the last line accessed a watched word or changed a watched register
+}
@@ -14,6 +14,15 @@ public class Task{
 		_destPC = destPC;
 	}
 	
+	/**
+	 * @return a task due at the System.nanoTime timeStamp
+	 */
+	static Task at(String descr, long timeStamp, int arg, int destPC) {
+		Task t = new Task(descr, 0, arg, destPC);
+		t._timeStamp = timeStamp;
+		return t;
+	}
+	
 	
 	public long getTimeStamp() {
 		return _timeStamp;
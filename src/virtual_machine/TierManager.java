@@ -0,0 +1,247 @@
+package virtual_machine;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import intermediateRepresentation.Branch;
+import intermediateRepresentation.intermediateRepresentation;
+
+/**
+ * Decides when code moves up from the decoded interpreter to a compiled tier, and keeps
+ * the counters that decision is made on. ExecVM.run counts every line it executes, and
+ * every branch or jump it takes backwards counts a back edge at its target.
+ * A line that starts a basic block is compiled on its own once it has run blockThreshold
+ * times. A loop is promoted as a whole once its header has seen loopThreshold back edges:
+ * every block and generic line from the header to the branch that closes the loop is
+ * compiled at once. A TierManager belongs to one decoded program, so reassembling drops
+ * it with all of its compiled code and counts.
+ */
+public class TierManager {
+
+	public static final int DEFAULT_LOOP_THRESHOLD = 100;
+
+	/**
+	 * A promoted loop, with the counts it had when it was asked for.
+	 */
+	public static class Region {
+		private final int _start;
+		private final int _end;
+		private final long _backEdges;
+		private final long _executed;
+
+		Region(int start, int end, long backEdges, long executed) {
+			_start = start;
+			_end = end;
+			_backEdges = backEdges;
+			_executed = executed;
+		}
+
+		/**
+		 * @return the loop header, the first line of the region
+		 */
+		public int getStart() {
+			return _start;
+		}
+
+		/**
+		 * @return the last line that branches back to the header
+		 */
+		public int getEnd() {
+			return _end;
+		}
+
+		/**
+		 * @return how many times the loop went around
+		 */
+		public long getBackEdges() {
+			return _backEdges;
+		}
+
+		/**
+		 * @return how many instructions were executed on lines of the region
+		 */
+		public long getExecuted() {
+			return _executed;
+		}
+	}
+
+	private final DecodedProgram _program;
+	private final BlockCompiler _blocks;
+	private final ClosureCompiler _closures;
+	private final int _blockThreshold;
+	private final int _loopThreshold;
+
+	private final long[] _executions;
+	private final long[] _blockRuns;
+	private final long[] _backEdges;
+	private final int[] _regionEnd;
+	private final List<Integer> _headers;
+
+	/**
+	 * @param blockThreshold - runs of a block's first line before it is compiled, 0 to never compile blocks
+	 * @param closureThreshold - visits to a generic line before it becomes closures, 0 to always interpret them
+	 * @param loopThreshold - back edges to a loop header before the loop is promoted, 0 to never promote loops
+	 */
+	TierManager(ExecVM vm, DecodedProgram program, List<intermediateRepresentation> source,
+			int blockThreshold, int closureThreshold, int loopThreshold) {
+		_program = program;
+		_blocks = blockThreshold > 0 ? new BlockCompiler(program) : null;
+		_closures = closureThreshold > 0 ? new ClosureCompiler(vm, source, closureThreshold) : null;
+		_blockThreshold = blockThreshold;
+		_loopThreshold = loopThreshold;
+		int size = program.size();
+		_executions = new long[size];
+		_blockRuns = new long[size];
+		_backEdges = new long[size];
+		_regionEnd = new int[size];
+		for (int pc = 0; pc < size; pc++) {
+			_regionEnd[pc] = -1;
+		}
+		_headers = new ArrayList<>();
+	}
+
+	//SECTION: TIERS
+	/**
+	 * @return the compiled blocks indexed by their first line, or null when blocks are off
+	 */
+	CompiledBlock[] getBlocks() {
+		return _blocks != null ? _blocks.getBlocks() : null;
+	}
+
+	int blockLength(int pc) {
+		return _blocks.blockLength(pc);
+	}
+
+	/**
+	 * Counts one visit to a generic line.
+	 * @return the closures for pc, or null while it is still interpreted
+	 */
+	ClosureCompiler.Step warm(int pc) {
+		return _closures != null ? _closures.warm(pc) : null;
+	}
+
+	public int getCompiledBlockCount() {
+		return _blocks != null ? _blocks.getCompiledCount() : 0;
+	}
+
+	//SECTION: COUNTERS
+	/**
+	 * Counts lines the interpreter just executed.
+	 * @param pc - the first line executed
+	 * @param lines - how many lines from pc on, 2 for a superinstruction
+	 * @param next - the pc execution continues at
+	 */
+	void interpreted(int pc, int lines, int next) {
+		long count = ++_executions[pc];
+		if (lines > 1) {
+			_executions[pc + 1]++;
+		}
+		if (count == _blockThreshold && _blocks != null) {
+			_blocks.promote(pc);
+		}
+		if (next < pc + lines) {
+			backEdge(pc + lines - 1, next);
+		}
+	}
+
+	/**
+	 * Counts one run of the compiled block at start.
+	 */
+	void ranBlock(int start, int length, int next) {
+		_blockRuns[start]++;
+		if (next < start + length) {
+			backEdge(start + length - 1, next);
+		}
+	}
+
+	private void backEdge(int source, int target) {
+		if (target < 0 || !loopBranch(source, target)) {
+			return;
+		}
+		long count = ++_backEdges[target];
+		if (_loopThreshold > 0 && count >= _loopThreshold && source > _regionEnd[target]) {
+			promote(target, source);
+		}
+	}
+
+	/**
+	 * Returns and calls can also go backwards; only a branch or jump to a fixed line closes a loop.
+	 */
+	private boolean loopBranch(int source, int target) {
+		int at = source * DecodedProgram.STRIDE;
+		int[] code = _program.getCode();
+		switch (DecodedProgram.opcode(code[at])) {
+		case DecodedProgram.BRANCH_TT:
+		case DecodedProgram.BRANCH_TI:
+		case DecodedProgram.JUMP:
+			return code[at + 3] == target;
+		case DecodedProgram.GENERIC:
+			intermediateRepresentation i = _program.getInstruction(source);
+			return i instanceof Branch;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Compiles what is not compiled yet of the loop from header to end.
+	 */
+	private void promote(int header, int end) {
+		int[] code = _program.getCode();
+		int from = _regionEnd[header] < 0 ? header : _regionEnd[header] + 1;
+		for (int pc = from; pc <= end; pc++) {
+			if (_blocks != null) {
+				_blocks.promote(pc);
+			}
+			if (_closures != null && DecodedProgram.opcode(code[pc * DecodedProgram.STRIDE]) == DecodedProgram.GENERIC) {
+				_closures.promote(pc);
+			}
+		}
+		if (_regionEnd[header] < 0) {
+			_headers.add(header);
+		}
+		_regionEnd[header] = end;
+	}
+
+	//SECTION: PROFILE
+	/**
+	 * @return how many times each line was executed, by the interpreter or in a compiled block
+	 */
+	public long[] getExecutionCounts() {
+		long[] counts = _executions.clone();
+		CompiledBlock[] blocks = getBlocks();
+		if (blocks != null) {
+			for (int start = 0; start < blocks.length; start++) {
+				if (_blockRuns[start] > 0) {
+					for (int pc = start; pc < start + _blocks.blockLength(start); pc++) {
+						counts[pc] += _blockRuns[start];
+					}
+				}
+			}
+		}
+		return counts;
+	}
+
+	/**
+	 * @return how many back edges went to each line
+	 */
+	public long[] getBackEdgeCounts() {
+		return _backEdges.clone();
+	}
+
+	/**
+	 * @return the promoted loops, in the order they were promoted
+	 */
+	public List<Region> getRegions() {
+		long[] counts = getExecutionCounts();
+		List<Region> regions = new ArrayList<>();
+		for (int header : _headers) {
+			long executed = 0;
+			for (int pc = header; pc <= _regionEnd[header]; pc++) {
+				executed += counts[pc];
+			}
+			regions.add(new Region(header, _regionEnd[header], _backEdges[header], executed));
+		}
+		return regions;
+	}
+}
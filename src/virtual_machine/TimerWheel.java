@@ -0,0 +1,298 @@
+package virtual_machine;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hierarchical timer wheel for scheduled Tasks, with a resolution of one millisecond.
+ * Level 0 has a slot per millisecond for the next 256ms; each level above has 64 slots
+ * that each span a whole turn of the level below, and its tasks are moved down a level
+ * as time reaches them. Tasks further out than the top level wait in an overflow list.
+ * A task becomes due once the current time reaches its time stamp; tasks due together
+ * come out in time stamp order, then in the order they were added.
+ */
+public class TimerWheel {
+
+	private static final int ROOT_BITS = 8;
+	private static final int LEVEL_BITS = 6;
+	private static final int LEVELS = 4;
+	private static final long NANOS_PER_TICK = 1000000;
+	//gaps longer than this are crossed by re-adding every task instead of stepping
+	private static final long MAX_STEP = 1 << 14;
+
+	private final long _origin;
+	private final ArrayDeque<Task>[][] _levels;
+	private final List<Task> _overflow;
+	private final ArrayDeque<Task> _due;
+	private long _now;
+	private int _count;
+	private final TaskComparator _order;
+
+	public TimerWheel(long originNanos) {
+		_origin = originNanos;
+		_levels = newLevels();
+		for (int level = 0; level < LEVELS; level++) {
+			_levels[level] = newSlots(1 << bits(level));
+		}
+		_overflow = new ArrayList<>();
+		_due = new ArrayDeque<>();
+		_order = new TaskComparator();
+		_now = 0;
+		_count = 0;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static ArrayDeque<Task>[][] newLevels() {
+		return (ArrayDeque<Task>[][]) new ArrayDeque<?>[LEVELS][];
+	}
+
+	@SuppressWarnings("unchecked")
+	private static ArrayDeque<Task>[] newSlots(int count) {
+		return (ArrayDeque<Task>[]) new ArrayDeque<?>[count];
+	}
+
+	public void add(Task t) {
+		_count++;
+		place(t);
+	}
+
+	/**
+	 * @return the earliest task that is due at nowNanos, without removing it, or null
+	 */
+	public Task peek(long nowNanos) {
+		advance(nowNanos);
+		return _due.peekFirst();
+	}
+
+	/**
+	 * @return the earliest task that is due at nowNanos, or null if none is due yet
+	 */
+	public Task poll(long nowNanos) {
+		advance(nowNanos);
+		Task t = _due.pollFirst();
+		if (t != null) {
+			_count--;
+		}
+		return t;
+	}
+
+	/**
+	 * @return the time stamp of the earliest task, or Long.MAX_VALUE if there are none
+	 */
+	public long nextDeadline() {
+		if (!_due.isEmpty()) {
+			return _due.peekFirst().getTimeStamp();
+		}
+		long earliest = Long.MAX_VALUE;
+		for (int level = 0; level < LEVELS; level++) {
+			ArrayDeque<Task>[] slots = _levels[level];
+			int shift = shift(level);
+			long position = _now >>> shift;
+			//the first occupied slot after the current position holds this level's earliest tasks,
+			//the slot at the position itself is a whole turn away
+			for (int i = 1; i <= slots.length; i++) {
+				ArrayDeque<Task> slot = slots[(int) ((position + i) & (slots.length - 1))];
+				if (slot != null && !slot.isEmpty()) {
+					for (Task t : slot) {
+						earliest = Math.min(earliest, t.getTimeStamp());
+					}
+					break;
+				}
+			}
+		}
+		for (Task t : _overflow) {
+			earliest = Math.min(earliest, t.getTimeStamp());
+		}
+		return earliest;
+	}
+
+	public boolean isEmpty() {
+		return _count == 0;
+	}
+
+	/**
+	 * Takes t out of the wheel, due or not.
+	 * @return false if it was not in the wheel
+	 */
+	public boolean remove(Task t) {
+		boolean removed = _due.remove(t) || _overflow.remove(t);
+		for (int level = 0; level < LEVELS && !removed; level++) {
+			for (ArrayDeque<Task> slot : _levels[level]) {
+				if (slot != null && slot.remove(t)) {
+					removed = true;
+					break;
+				}
+			}
+		}
+		if (removed) {
+			_count--;
+		}
+		return removed;
+	}
+
+	/**
+	 * @return every task still in the wheel, due or not, in time stamp order
+	 */
+	public List<Task> getTasks() {
+		List<Task> tasks = new ArrayList<>(_due);
+		for (ArrayDeque<Task>[] slots : _levels) {
+			for (ArrayDeque<Task> slot : slots) {
+				if (slot != null) {
+					tasks.addAll(slot);
+				}
+			}
+		}
+		tasks.addAll(_overflow);
+		tasks.sort(_order);
+		return tasks;
+	}
+
+	public int size() {
+		return _count;
+	}
+
+	public void clear() {
+		for (ArrayDeque<Task>[] slots : _levels) {
+			for (ArrayDeque<Task> slot : slots) {
+				if (slot != null) {
+					slot.clear();
+				}
+			}
+		}
+		_overflow.clear();
+		_due.clear();
+		_count = 0;
+	}
+
+	//SECTION: PLACEMENT
+	private void place(Task t) {
+		long tick = tickOf(t.getTimeStamp());
+		long delta = tick - _now;
+		if (delta <= 0) {
+			addDue(t);
+			return;
+		}
+		for (int level = 0; level < LEVELS; level++) {
+			if (delta < (1L << (shift(level) + bits(level)))) {
+				ArrayDeque<Task>[] slots = _levels[level];
+				int index = (int) ((tick >>> shift(level)) & (slots.length - 1));
+				if (slots[index] == null) {
+					slots[index] = new ArrayDeque<>();
+				}
+				slots[index].addLast(t);
+				return;
+			}
+		}
+		_overflow.add(t);
+	}
+
+	private void addDue(Task t) {
+		//keep the due list in time stamp order, stable for equal stamps
+		if (_due.isEmpty() || _order.compare(_due.peekLast(), t) <= 0) {
+			_due.addLast(t);
+			return;
+		}
+		List<Task> later = new ArrayList<>();
+		while (!_due.isEmpty() && _order.compare(_due.peekLast(), t) > 0) {
+			later.add(_due.pollLast());
+		}
+		_due.addLast(t);
+		for (int i = later.size() - 1; i >= 0; i--) {
+			_due.addLast(later.get(i));
+		}
+	}
+
+	//SECTION: ADVANCING TIME
+	private void advance(long nowNanos) {
+		long target = Math.max(0, (nowNanos - _origin) / NANOS_PER_TICK);
+		if (target <= _now) {
+			return;
+		}
+		if (_count == _due.size()) {
+			_now = target;
+			return;
+		}
+		if (target - _now > MAX_STEP) {
+			_now = target;
+			List<Task> pending = drainWheel();
+			for (Task t : pending) {
+				place(t);
+			}
+			return;
+		}
+		while (_now < target) {
+			_now++;
+			cascade(1);
+			expire(_levels[0], (int) (_now & ((1 << ROOT_BITS) - 1)));
+		}
+	}
+
+	private void cascade(int level) {
+		if (level >= LEVELS) {
+			if ((_now & ((1L << shift(LEVELS)) - 1)) == 0 && !_overflow.isEmpty()) {
+				List<Task> pending = new ArrayList<>(_overflow);
+				_overflow.clear();
+				for (Task t : pending) {
+					place(t);
+				}
+			}
+			return;
+		}
+		if ((_now & ((1L << shift(level)) - 1)) != 0) {
+			return;
+		}
+		cascade(level + 1);
+		ArrayDeque<Task>[] slots = _levels[level];
+		ArrayDeque<Task> slot = slots[(int) ((_now >>> shift(level)) & (slots.length - 1))];
+		if (slot != null && !slot.isEmpty()) {
+			List<Task> pending = new ArrayList<>(slot);
+			slot.clear();
+			for (Task t : pending) {
+				place(t);
+			}
+		}
+	}
+
+	private void expire(ArrayDeque<Task>[] slots, int index) {
+		ArrayDeque<Task> slot = slots[index];
+		if (slot == null) {
+			return;
+		}
+		while (!slot.isEmpty()) {
+			addDue(slot.pollFirst());
+		}
+	}
+
+	private List<Task> drainWheel() {
+		List<Task> pending = new ArrayList<>();
+		for (ArrayDeque<Task>[] slots : _levels) {
+			for (ArrayDeque<Task> slot : slots) {
+				if (slot != null) {
+					pending.addAll(slot);
+					slot.clear();
+				}
+			}
+		}
+		pending.addAll(_overflow);
+		_overflow.clear();
+		return pending;
+	}
+
+	private long tickOf(long nanos) {
+		//round up, so a task never comes due before its time stamp
+		long elapsed = nanos - _origin;
+		if (elapsed <= 0) {
+			return 0;
+		}
+		return (elapsed + NANOS_PER_TICK - 1) / NANOS_PER_TICK;
+	}
+
+	private static int bits(int level) {
+		return level == 0 ? ROOT_BITS : LEVEL_BITS;
+	}
+
+	private static int shift(int level) {
+		return level == 0 ? 0 : ROOT_BITS + (level - 1) * LEVEL_BITS;
+	}
+}
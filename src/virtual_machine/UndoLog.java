@@ -0,0 +1,236 @@
+package virtual_machine;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * Bounded history of what the steps of an ExecVM overwrote, so they can be undone
+ * from the newest back. Every write is one entry of a kind, a target and the value
+ * it replaced, kept three ints to an entry in a ring; the few kinds that need an object,
+ * like a popped call, keep it in a parallel array. A step starts with a MARK entry.
+ * Once the ring is full the oldest entries are overwritten, and with them the oldest
+ * steps. For going back further than that, a full checkpoint of the VM is kept every
+ * checkpointInterval steps, up to maxCheckpoints of them.
+ */
+public class UndoLog {
+
+	public static final int DEFAULT_CAPACITY = 1 << 16;
+	public static final int DEFAULT_CHECKPOINT_INTERVAL = 1 << 16;
+	public static final int DEFAULT_CHECKPOINTS = 8;
+
+	//entry kinds, with what their target and old value hold
+	static final int MARK = 0;				//pc the step started at
+	static final int RISC_REGISTER = 1;		//register index, value
+	static final int SLOT = 2;				//frame stack slot from the bottom of the stack, value
+	static final int MEMORY = 3;			//word address, word
+	static final int GLOBAL = 4;			//value; ref: name
+	static final int TEMP = 5;				//value; ref: name
+	static final int NEW_GLOBAL = 6;		//ref: name, which had no value
+	static final int NEW_TEMP = 7;			//ref: name, which had no value
+	static final int FRAME_PUSH = 8;
+	static final int FRAME_POP = 9;			//ref: the call it dropped
+	static final int FRAME_RESET = 10;		//ref: the whole stack it dropped
+	static final int HEAP_POINTER = 11;		//top of the heap
+	static final int STACK_POINTER = 12;	//pointer
+	static final int RUN = 13;				//1 if it was running
+	static final int KEY_HANDLER = 14;		//handler pc, -1 for none
+	static final int CLICK_HANDLER = 15;	//handler pc, -1 for none
+	static final int TIMER_ADDED = 16;		//ref: the task
+	static final int EVENT_TAKEN = 17;		//1 for an input event; ref: the task
+	static final int MEMORY_RESET = 18;		//ref: memory, operating system and string pool it dropped
+	//heap bookkeeping, see HeapAllocator
+	static final int HEAP_FREE_PUSHED = 19;	//size class
+	static final int HEAP_FREE_POPPED = 20;	//size class, address
+	static final int HEAP_RANGE_ADDED = 21;	//address
+	static final int HEAP_RANGE_REMOVED = 22;	//address, bytes
+	static final int HEAP_LIVE_ADDED = 23;	//address
+	static final int HEAP_LIVE_REMOVED = 24;	//address, bytes
+
+	private static class Checkpoint {
+		final long _step;
+		final byte[] _image;
+
+		Checkpoint(long step, byte[] image) {
+			_step = step;
+			_image = image;
+		}
+	}
+
+	private final int[] _entries;
+	private final Object[] _refs;
+	private final int _capacity;
+	private int _head;
+	private int _size;
+	private int _marks;
+	private long _step;
+	private final int _checkpointInterval;
+	private final int _maxCheckpoints;
+	private final ArrayDeque<Checkpoint> _checkpoints;
+
+	public UndoLog() {
+		this(DEFAULT_CAPACITY, DEFAULT_CHECKPOINT_INTERVAL, DEFAULT_CHECKPOINTS);
+	}
+
+	/**
+	 * @param capacity - most entries kept
+	 * @param checkpointInterval - steps between checkpoints, 0 for none
+	 * @param maxCheckpoints - most checkpoints kept, the oldest are dropped first
+	 */
+	public UndoLog(int capacity, int checkpointInterval, int maxCheckpoints) {
+		_capacity = capacity;
+		_entries = new int[capacity * 3];
+		_refs = new Object[capacity];
+		_checkpointInterval = checkpointInterval;
+		_maxCheckpoints = maxCheckpoints;
+		_checkpoints = new ArrayDeque<>();
+	}
+
+	//SECTION: RECORDING
+	/**
+	 * Starts the next step.
+	 */
+	void mark(int pc) {
+		record(MARK, pc, 0, null);
+		_step++;
+	}
+
+	void record(int kind, int target, int old) {
+		record(kind, target, old, null);
+	}
+
+	void record(int kind, int target, int old, Object ref) {
+		if (_size == _capacity) {
+			//_head is also the oldest entry
+			if (_entries[_head * 3] == MARK) {
+				_marks--;
+			}
+			_size--;
+		}
+		int e = _head * 3;
+		_entries[e] = kind;
+		_entries[e + 1] = target;
+		_entries[e + 2] = old;
+		_refs[_head] = ref;
+		if (kind == MARK) {
+			_marks++;
+		}
+		_head = _head + 1 == _capacity ? 0 : _head + 1;
+		_size++;
+	}
+
+	//SECTION: UNDOING
+	/**
+	 * @return true if the newest step is still whole in the log
+	 */
+	public boolean canUndo() {
+		return _marks > 0;
+	}
+
+	/**
+	 * Removes the newest entry; its fields are read with kind, target, old and ref.
+	 * @return the entry
+	 */
+	int pop() {
+		_head = _head == 0 ? _capacity - 1 : _head - 1;
+		_size--;
+		if (_entries[_head * 3] == MARK) {
+			_marks--;
+			_step--;
+			//a checkpoint of a step that is undone may not be taken again the same way
+			while (!_checkpoints.isEmpty() && _checkpoints.peekLast()._step > _step) {
+				_checkpoints.pollLast();
+			}
+		}
+		return _head;
+	}
+
+	int kind(int entry) {
+		return _entries[entry * 3];
+	}
+
+	int target(int entry) {
+		return _entries[entry * 3 + 1];
+	}
+
+	int old(int entry) {
+		return _entries[entry * 3 + 2];
+	}
+
+	Object ref(int entry) {
+		Object ref = _refs[entry];
+		_refs[entry] = null;
+		return ref;
+	}
+
+	/**
+	 * Forgets every entry, but not the checkpoints or the step count.
+	 */
+	void clearEntries() {
+		_head = 0;
+		_size = 0;
+		_marks = 0;
+		Arrays.fill(_refs, null);
+	}
+
+	/**
+	 * Forgets everything, and starts counting steps from 0 again.
+	 */
+	public void clear() {
+		clearEntries();
+		_checkpoints.clear();
+		_step = 0;
+	}
+
+	/**
+	 * @return the number of steps recorded since the log was started or cleared,
+	 * less those undone
+	 */
+	public long getStep() {
+		return _step;
+	}
+
+	public int getSize() {
+		return _size;
+	}
+
+	//SECTION: CHECKPOINTS
+	/**
+	 * @return true if a checkpoint should be taken before the next step
+	 */
+	boolean checkpointDue() {
+		return _checkpointInterval > 0 && _step % _checkpointInterval == 0
+				&& (_checkpoints.isEmpty() || _checkpoints.peekLast()._step != _step);
+	}
+
+	void addCheckpoint(byte[] image) {
+		if (_maxCheckpoints <= 0) {
+			return;
+		}
+		if (_checkpoints.size() == _maxCheckpoints) {
+			_checkpoints.pollFirst();
+		}
+		_checkpoints.addLast(new Checkpoint(_step, image));
+	}
+
+	/**
+	 * Drops the checkpoints at or after the current step, and the entries, and moves the
+	 * step count back to the newest checkpoint left.
+	 * @return that checkpoint's image, or null if there is none
+	 */
+	byte[] rewindToCheckpoint() {
+		while (!_checkpoints.isEmpty() && _checkpoints.peekLast()._step >= _step) {
+			_checkpoints.pollLast();
+		}
+		Checkpoint c = _checkpoints.peekLast();
+		if (c == null) {
+			return null;
+		}
+		clearEntries();
+		_step = c._step;
+		return c._image;
+	}
+
+	public int getCheckpointCount() {
+		return _checkpoints.size();
+	}
+}
@@ -0,0 +1,260 @@
+package virtual_machine;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Saves the whole run state of an ExecVM to a binary image file, and puts it back.
+ * An image holds the pc, the register files, the YAAL call stack, the memory layout, the
+ * heap's blocks and free lists, the segment and stack pointers, the string pool, pending
+ * events and handlers, and every page of main memory that holds a non-zero word. The program itself is not in the image: it is restored into
+ * a VM that has the same program loaded, which is checked against a fingerprint.
+ *
+ * Images are big endian and start with a magic number and format version. They are written
+ * through a FileChannel in buffered chunks; large images are memory mapped to restore them,
+ * so the pages are copied straight out of the file.
+ * The same images are kept in memory as UndoLog checkpoints.
+ */
+public class VMSnapshot {
+
+	private static final int MAGIC = 0x564D5331;	//"VMS1"
+	public static final int VERSION = 3;
+	private static final int END = 0x454E4421;		//"END!"
+	private static final int BUFFER_BYTES = 1 << 16;
+	//images at least this big are mapped rather than read
+	private static final long MAP_THRESHOLD = 1 << 20;
+
+	private VMSnapshot() {
+	}
+
+	/**
+	 * Writes vm's current state to file, replacing what was there.
+	 */
+	public static void save(ExecVM vm, Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			write(vm, channel);
+		}
+	}
+
+	/**
+	 * @return vm's current state as an image in memory, for checkpoints
+	 */
+	static byte[] capture(ExecVM vm) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try {
+			write(vm, Channels.newChannel(bytes));
+		}catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	private static void write(ExecVM vm, WritableByteChannel channel) throws IOException {
+		Writer out = new Writer(channel);
+		out.putInt(MAGIC);
+		out.putInt(VERSION);
+		vm.writeState(out);
+		out.putInt(END);
+		out.flush();
+	}
+
+	/**
+	 * Replaces vm's state with the one saved in file. The VM must have the program
+	 * the image was saved from loaded.
+	 * @throws IOException if the file is not an image of this version, or of another program
+	 */
+	public static void restore(ExecVM vm, Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = channel.size();
+			ByteBuffer buffer;
+			if (size >= MAP_THRESHOLD) {
+				buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			}else {
+				buffer = ByteBuffer.allocate((int) size);
+				while (buffer.hasRemaining()) {
+					if (channel.read(buffer) < 0) {
+						break;
+					}
+				}
+				buffer.flip();
+			}
+			read(vm, buffer, file.toString());
+		}
+	}
+
+	/**
+	 * Puts back a state capture returned.
+	 */
+	static void restore(ExecVM vm, byte[] image) throws IOException {
+		read(vm, ByteBuffer.wrap(image), "checkpoint");
+	}
+
+	private static void read(ExecVM vm, ByteBuffer buffer, String name) throws IOException {
+		try {
+			Reader in = new Reader(buffer);
+			if (in.getInt() != MAGIC) {
+				throw new IOException(name + " is not a VM snapshot");
+			}
+			int version = in.getInt();
+			if (version != VERSION) {
+				throw new IOException("Snapshot version " + version + " cannot be read, expected " + VERSION);
+			}
+			vm.readState(in);
+			if (in.getInt() != END) {
+				throw new IOException(name + " is not a complete VM snapshot");
+			}
+		}catch (BufferUnderflowException e) {
+			throw new IOException(name + " is truncated", e);
+		}
+	}
+
+	//SECTION: WRITING
+	/**
+	 * Buffered writes of the image's values; the buffer goes to the channel whenever it fills.
+	 */
+	static class Writer {
+		private final WritableByteChannel _channel;
+		private final ByteBuffer _buffer;
+
+		Writer(WritableByteChannel channel) {
+			_channel = channel;
+			_buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+		}
+
+		void putInt(int value) throws IOException {
+			ensure(4);
+			_buffer.putInt(value);
+		}
+
+		void putLong(long value) throws IOException {
+			ensure(8);
+			_buffer.putLong(value);
+		}
+
+		void putBoolean(boolean value) throws IOException {
+			ensure(1);
+			_buffer.put((byte) (value ? 1 : 0));
+		}
+
+		/**
+		 * Writes s as a length and UTF-8 bytes, or a length of -1 for null.
+		 */
+		void putString(String s) throws IOException {
+			if (s == null) {
+				putInt(-1);
+				return;
+			}
+			byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+			putInt(bytes.length);
+			int done = 0;
+			while (done < bytes.length) {
+				ensure(1);
+				int n = Math.min(bytes.length - done, _buffer.remaining());
+				_buffer.put(bytes, done, n);
+				done += n;
+			}
+		}
+
+		void putInts(int[] values, int offset, int count) throws IOException {
+			while (count > 0) {
+				ensure(4);
+				int n = Math.min(count, _buffer.remaining() / 4);
+				_buffer.asIntBuffer().put(values, offset, n);
+				_buffer.position(_buffer.position() + n * 4);
+				offset += n;
+				count -= n;
+			}
+		}
+
+		void putMap(Map<String, Integer> map) throws IOException {
+			putInt(map.size());
+			for (Map.Entry<String, Integer> e : map.entrySet()) {
+				putString(e.getKey());
+				putInt(e.getValue());
+			}
+		}
+
+		private void ensure(int n) throws IOException {
+			if (_buffer.remaining() < n) {
+				flush();
+			}
+		}
+
+		void flush() throws IOException {
+			_buffer.flip();
+			while (_buffer.hasRemaining()) {
+				_channel.write(_buffer);
+			}
+			_buffer.clear();
+		}
+	}
+
+	//SECTION: READING
+	/**
+	 * Reads the image's values back out of a buffer holding all of the file.
+	 */
+	static class Reader {
+		private final ByteBuffer _buffer;
+
+		Reader(ByteBuffer buffer) {
+			_buffer = buffer;
+		}
+
+		int getInt() {
+			return _buffer.getInt();
+		}
+
+		long getLong() {
+			return _buffer.getLong();
+		}
+
+		boolean getBoolean() {
+			return _buffer.get() != 0;
+		}
+
+		String getString() throws IOException {
+			int length = getInt();
+			if (length < 0) {
+				return null;
+			}
+			if (length > _buffer.remaining()) {
+				throw new IOException("Snapshot string runs past the end of the file");
+			}
+			byte[] bytes = new byte[length];
+			_buffer.get(bytes);
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+
+		void getInts(int[] values, int offset, int count) {
+			IntBuffer ints = _buffer.asIntBuffer();
+			ints.get(values, offset, count);
+			_buffer.position(_buffer.position() + count * 4);
+		}
+
+		/**
+		 * @return the map in the order it was written
+		 */
+		Map<String, Integer> getMap() throws IOException {
+			int size = getInt();
+			Map<String, Integer> map = new LinkedHashMap<>();
+			for (int i = 0; i < size; i++) {
+				String key = getString();
+				map.put(key, getInt());
+			}
+			return map;
+		}
+	}
+}
@@ -105,6 +105,13 @@ public class EventLists {
 		keys.clear();
 	}
 	
+	/**
+	 * @return the code line numbers of all breakpoints
+	 */
+	public List<Integer> getBreaks() {
+		return breaks;
+	}
+	
 	/**
 	 * Returns true if the argument is contained in the list of breakpoints.
 	 * @param pc - the line number that is being searched for in the breakpoints
@@ -157,7 +157,7 @@ public class GraphicsFunctObj implements IOFunctions{
 	 */
 	public void updateScreen() {
 		if (_screen != null) {
-			_screen.paintAll();
+			_screen.paintChanges();
 		}
 	}
 	
@@ -21,13 +21,14 @@ public class HighlightedInput {
 			"nop", "li", "mv", "seqz", "snez", "not", "neg", "sltz", "sgtz",
 			"ecall", "lw", "lb", "lh", "sw", "sb", "sh", "la", "mul", "div", "rem",
 			"jal", "jalr", "jr", "j", "beq", "bne", "blt", "bge", "bgeu", "bltu",
-			"beqz", "bnez", "blez", "bgez", "bltz", "bgtz", "bgt", "ble", "ret"
+			"beqz", "bnez", "blez", "bgez", "bltz", "bgtz", "bgt", "ble", "ret",
+			"lr", "sc", "amoadd", "amoswap"
 	};
 	
 	/** List of YAAL function words for highlighting **/
 	private static final String[] FUNCT_WORDS = {
 			"function", "call", "return", "_stop", "_print", "_read", "_clear_graphics",
-			"_print_string", "_read_string", "_random", "_allocate", "_print_char", "_read_char",
+			"_print_string", "_read_string", "_random", "_allocate", "_free", "_print_char", "_read_char",
 			"schedule", "handle", "with",
 	};
 	
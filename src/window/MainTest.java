@@ -61,6 +61,7 @@ import javafx.stage.Modality;
 import javafx.stage.Stage;
 import operation_syntax.OperationException;
 import parse.Data;
+import parse.Instructions;
 import parse.ParseException;
 import parse.ParseInterface;
 import parse.ParseOutput;
@@ -150,6 +151,7 @@ public class MainTest extends Application {
 		ec = new ErrorConsole();
 		gfo = new GraphicsFunctObj(ec);
 		vm = new ExecVM(gfo);
+		vm.setRecording(new UndoLog());
 		regFile = new RegisterGraphics(ec, vm, currentMode);
 		memory = new MemoryGraphics(ec, vm, currentMode);
 		gridView = new ScreenGrid(vm, ec, events);
@@ -378,6 +380,8 @@ public class MainTest extends Application {
 		tb.setStart(event -> startProgram());
 		tb.setPause(event -> pauseProgram());
 		tb.setStep(event -> stepProgram());
+		tb.setStepBack(event -> stepBackProgram());
+		tb.setRunBack(event -> runBackProgram());
 		tb.setStop(event -> stopProgram());
 		tb.setReset(event -> resetProgram());
 		tb.setAssemble(event -> assemble());
@@ -551,12 +555,12 @@ public class MainTest extends Application {
 		runPrefs.getItems().addAll(runner.setRunPrefMem(), runner.setRunPrefReg(), runner.setRunPrefPC(),
 				runner.setRunPrefCall(), runner.setRunPrefRet(), runner.setRunPrefEvent(), runner.setRunPrefSpeed(stage));
 		system.getItems().addAll(assembler, disassembler, spValue, animationRunnerItem,
-				setRegWatcher, setMemWatcher, clearWatchPoints, runPrefs);
+				setRegWatcher, setMemWatcher, clearWatchPoints, runPrefs, runner.showHotLoops());
 		
 		//Creates options menu, with option for changing mode
 		Menu optionMenu = new Menu("Options");
 		Menu modeMenu = makeModeMenu();
-		optionMenu.getItems().add(modeMenu);
+		optionMenu.getItems().addAll(modeMenu, makeLayoutMenu());
 		
 		//Help menu opens a web browser to display the documentation and examples.
 		Menu helpMenu = new Menu("Help");
@@ -615,6 +619,38 @@ public class MainTest extends Application {
 		return moder;
 	}
 	
+	/**
+	 * Initializes the Memory Layout menu, where user can choose where programs are placed in memory.
+	 * @return the Menu that displays the layout options.
+	 */
+	private Menu makeLayoutMenu() {
+		Menu layouts = new Menu("Memory Layout");
+		final ToggleGroup groupLayout = new ToggleGroup();
+		String[] names = {"Small", "Large"};
+		MemoryLayout[] values = {MemoryLayout.SMALL, MemoryLayout.LARGE};
+		for (int i = 0; i < names.length; i++) {
+			RadioMenuItem layoutItem = new RadioMenuItem(names[i]);
+			layoutItem.setSelected(values[i].equals(vm.getMemoryLayout()));
+			layoutItem.setUserData(values[i]);
+			layoutItem.setToggleGroup(groupLayout);
+			layouts.getItems().add(layoutItem);
+		}
+		groupLayout.selectedToggleProperty().addListener(new ChangeListener<Toggle>() {
+			public void changed(ObservableValue<? extends Toggle> ov, Toggle oldToggle, Toggle new_toggle) {
+				if (groupLayout.getSelectedToggle() != null) {
+					MemoryLayout layout = (MemoryLayout) groupLayout.getSelectedToggle().getUserData();
+					if (!layout.equals(vm.getMemoryLayout())) {
+						//the program is placed again in the new layout the next time it is run
+						vm.setMemoryLayout(layout);
+						clear();
+						ec.printPrompt("Memory layout: " + layout);
+					}
+				}
+			}
+		});
+		return layouts;
+	}
+	
 	/**
 	 * Switches the application from the current mode to a different mode.
 	 * @param newMode - the name of the application's new mode.
@@ -648,6 +684,7 @@ public class MainTest extends Application {
 			}
 			clear();
 			tb.setMode(newMode);
+			gridView.detach();
 			gridView = new ScreenGrid(vm, ec, events);
 			gfo.attachScreen(gridView);
 			runner.loadVM(vm);
@@ -854,13 +891,20 @@ public class MainTest extends Application {
 			//Abstract instruction list is then turned into string to display, and assembled into machine code
 			setText(_middle, absToString(instructions));
 			if (currentMode.equals(MODES[1])) {
-				setText(_output, abstractAssembleRiscV(instructions, pair.getData()));
+				//the program still runs as IR when it has no machine code form
+				try {
+					setText(_output, abstractAssembleRiscV(pair.getInstructions(), pair.getData()));
+				} catch (ParseException e) {
+					setText(_output, "");
+					ec.reportError("No machine code: " + e.getMessage(), e.getLineNumber(), line -> highlightLine(line));
+				}
 			}
 			_input.setStyleSpans(0, HighlightedInput.computeHighlighting(_input.getText()));
 
 			//instructions and symbol table are then loaded into virtual machine and execution, in order to run the program. 
 			vm.loadInstructions(instructions);
 			vm.loadSymbolTable(st);
+			vm.loadFrameLayout(pair.getFrameLayout());
 			//Now that assembly is complete, housekeeping
 			assembled = true;
 			
@@ -909,6 +953,7 @@ public class MainTest extends Application {
 				//instructions and symbol table are then loaded into virtual machine and execution for running the program. 
 				vm.loadInstructions(instructions);
 				vm.loadSymbolTable(null);
+				vm.loadFrameLayout(null);
 				//Now that disassembly is complete, housekeeping.
 				tb.setStatus("assembled");
 			} catch (ParseException e) {
@@ -937,11 +982,11 @@ public class MainTest extends Application {
 	
 	/**
 	 * Turns the intermediate code into machine code for displaying in the _output pane.
-	 * @param instructions - the list of intermediate code to fully disassemble
+	 * @param instructions - the intermediate code to fully disassemble, with its source lines
 	 * @return the String version of the machine code to display.
 	 * @throws ParseException if the instructions have invalid syntax
 	 */
-	private String abstractAssembleRiscV(List<intermediateRepresentation> instructions, Data data) throws ParseException {
+	private String abstractAssembleRiscV(Instructions instructions, Data data) throws ParseException {
 		ArrayList<Integer> machine = AbsToMachine.parseAbstracts(instructions, symTab.getParseTable(), data);
 		String s = "";
 		for (int cog : machine) {
@@ -1598,9 +1643,7 @@ public class MainTest extends Application {
 				ec.reportError(eMessage, vm.getPC(), line -> highlightLine(line));
 			}
 			highlightLine(vm.getPC());
-			if (vm.memoryChange() != null) {
-				gridView.paintOne(vm.memoryChange());
-			}
+			gridView.paintChanges();
 			updateGraphicsDisplays(0);
 		} else if (assembled) {
 			//assumes the program has finished, which is why vm.running() would return false.
@@ -1611,6 +1654,29 @@ public class MainTest extends Application {
 		}
 	}
 	
+	/**
+	 * Moves the program one instruction back, undoing what it changed, and highlights
+	 * the line it is back on.
+	 */
+	private void stepBackProgram() {
+		if (!assembled) {
+			ec.printPrompt("program not assembled");
+		} else if (!runner.stepBack()) {
+			ec.printPrompt("nothing to step back to");
+		}
+	}
+	
+	/**
+	 * Moves the program back to the previous breakpoint, or as far back as was recorded.
+	 */
+	private void runBackProgram() {
+		if (assembled) {
+			runner.runBack();
+		} else {
+			ec.printPrompt("program not assembled");
+		}
+	}
+	
 	/**
 	 * Clears all fields and resets memory, registers, and the virtual machine.
 	 */
@@ -19,12 +19,14 @@ public class MainToolBar {
 	private Button start = new Button();
 	private Button pause = new Button();
 	private Button step = new Button();
+	private Button stepBack = new Button();
+	private Button runBack = new Button();
 	private Button stop = new Button();
 	private Button reset = new Button();
 	private Button assemble = new Button();
 	private Button disassemble = new Button();
 
-	private Button[] execButtons = {start, step, pause, stop, reset};
+	private Button[] execButtons = {start, step, stepBack, runBack, pause, stop, reset};
 	
 	private Text programStatus = new Text("Input: not assembled");
 	private final int textSize = 11;
@@ -34,7 +36,8 @@ public class MainToolBar {
 	private Tooltip[] tips = { 
 			new Tooltip("Play: Run the program"), new Tooltip("Step through one instruction"),
 			new Tooltip("Pause program"), new Tooltip("Stop the program"), new Tooltip("Reset the program"),
-			new Tooltip("Assemble (Ctrl+Shift+A)"), new Tooltip("Disassemble (Ctrl+Shift+D)")
+			new Tooltip("Assemble (Ctrl+Shift+A)"), new Tooltip("Disassemble (Ctrl+Shift+D)"),
+			new Tooltip("Step back one instruction"), new Tooltip("Run back to the previous breakpoint")
 			};
 	
 	/**
@@ -52,12 +55,14 @@ public class MainToolBar {
 		start.setGraphic(new ImageView(new Image("/resources/start.png", imageSize, imageSize, false, false)));
 		pause.setGraphic(new ImageView(new Image("/resources/pause.png", imageSize, imageSize, false, false)));
 		step.setGraphic(new ImageView(new Image("/resources/step.png", imageSize, imageSize, false, false)));
+		stepBack.setGraphic(mirrored("/resources/step.png", imageSize));
+		runBack.setGraphic(mirrored("/resources/start.png", imageSize));
 		stop.setGraphic(new ImageView(new Image("/resources/stop.png", imageSize, imageSize, false, false)));
 		reset.setGraphic(new ImageView(new Image("/resources/reset.png", imageSize, imageSize, false, false)));
 		assemble.setGraphic(new ImageView(new Image("/resources/assemble.png", imageSize, imageSize, false, false)));
 		disassemble.setGraphic(new ImageView(new Image("/resources/disassemble.png", imageSize, imageSize, false, false)));
 		//run goes before skip on the tool bar
-		tb.getItems().addAll(start, step, pause, stop, reset,
+		tb.getItems().addAll(start, step, stepBack, runBack, pause, stop, reset,
 				new Separator(), assemble, disassemble, new Separator(), programStatus);
 	}
 	
@@ -88,6 +93,24 @@ public class MainToolBar {
 		step.setTooltip(tips[1]);
 	}
 	
+	/**
+	 * Sets the action function and the Tooltip for the step back button
+	 * @param action - the lambda function attached to the step back button
+	 */
+	void setStepBack(ButtonSetter action) {
+		stepBack.setOnAction(event -> action.buttonAction(event));
+		stepBack.setTooltip(tips[7]);
+	}
+	
+	/**
+	 * Sets the action function and the Tooltip for the run back button
+	 * @param action - the lambda function attached to the run back button
+	 */
+	void setRunBack(ButtonSetter action) {
+		runBack.setOnAction(event -> action.buttonAction(event));
+		runBack.setTooltip(tips[8]);
+	}
+	
 	/**
 	 * Sets the action function and the tool tip for the stop button
 	 * @param action - the lambda function attached to the stop button
@@ -167,6 +190,8 @@ public class MainToolBar {
 			disassemble.setDisable(false);
 		} else if (status.equals("assembled")) {
 			disableExec(false);
+			stepBack.setDisable(true);
+			runBack.setDisable(true);
 			pause.setDisable(true);
 			stop.setDisable(true);
 			assemble.setDisable(false);
@@ -174,6 +199,8 @@ public class MainToolBar {
 		} else if (status.equals("running")) {
 			start.setDisable(true);
 			step.setDisable(true);
+			stepBack.setDisable(true);
+			runBack.setDisable(true);
 			pause.setDisable(false);
 			stop.setDisable(false);
 			reset.setDisable(true);
@@ -182,6 +209,8 @@ public class MainToolBar {
 		} else if (status.equals("paused") || status.equals("stopped") || status.equals("break")) {
 			start.setDisable(false);
 			step.setDisable(false);
+			stepBack.setDisable(false);
+			runBack.setDisable(false);
 			pause.setDisable(true);
 			stop.setDisable(true);
 			reset.setDisable(false);
@@ -190,6 +219,8 @@ public class MainToolBar {
 		} else if (status.equals("finished")) {
 			start.setDisable(true);
 			step.setDisable(true);
+			stepBack.setDisable(false);
+			runBack.setDisable(false);
 			pause.setDisable(false);
 			stop.setDisable(false);
 			reset.setDisable(false);
@@ -215,12 +246,23 @@ public class MainToolBar {
 		start.setGraphic(new ImageView(new Image("/resources/start.png", newImageSize, newImageSize, false, false)));
 		pause.setGraphic(new ImageView(new Image("/resources/pause.png", newImageSize, newImageSize, false, false)));
 		step.setGraphic(new ImageView(new Image("/resources/step.png", newImageSize, newImageSize, false, false)));
+		stepBack.setGraphic(mirrored("/resources/step.png", newImageSize));
+		runBack.setGraphic(mirrored("/resources/start.png", newImageSize));
 		stop.setGraphic(new ImageView(new Image("/resources/stop.png", newImageSize, newImageSize, false, false)));
 		reset.setGraphic(new ImageView(new Image("/resources/reset.png", newImageSize, newImageSize, false, false)));
 		assemble.setGraphic(new ImageView(new Image("/resources/assemble.png", newImageSize, newImageSize, false, false)));
 		disassemble.setGraphic(new ImageView(new Image("/resources/disassemble.png", newImageSize, newImageSize, false, false)));
 	}
 	
+	/**
+	 * The backwards buttons use the forward images turned around.
+	 */
+	private ImageView mirrored(String image, double size) {
+		ImageView view = new ImageView(new Image(image, size, size, false, false));
+		view.setScaleX(-1);
+		return view;
+	}
+	
 	/**
 	 * Sets the mode so that if we're in YAAL the disassemble button is always disabled.
 	 * @param modeName - the name of the new mode
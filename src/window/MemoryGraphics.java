@@ -8,6 +8,7 @@ import java.util.Map;
 import javafx.geometry.Pos;
 import javafx.scene.control.TextField;
 import javafx.scene.text.Text;
+import virtual_machine.MemoryChanges;
 import virtual_machine.MemoryException;
 import virtual_machine.ExecVM;
 
@@ -29,6 +30,7 @@ public class MemoryGraphics {
 	private String decFormatShort = "%03d";
 	
 	ExecVM _vm;
+	private MemoryChanges _changes;
 	private Map<Integer, List<TextField>> _memDisplays = new HashMap<>(DISPLAY_RANGE);
 	private List<Text> _displayAddresses = new ArrayList<>(DISPLAY_RANGE);
 
@@ -80,44 +82,71 @@ public class MemoryGraphics {
 		int displayStop;
 		displayStop = address + (DISPLAY_RANGE * 4);
 		while (address < displayStop) {
-			List<TextField> l = _memDisplays.get(i);
-			if (simpleMode) {
-				String aDisp = String.format("%9s", address/4);
-				Text addressDisplay = _displayAddresses.get(i);
-				addressDisplay.setText(aDisp);
-				int wordInt = 0;
+			displayRow(i, address);
+			address += 4;
+			i++;
+		}
+		//everything shown is up to date
+		_changes.collectPages();
+	}
+	
+	/**
+	 * Updates only the displayed words that the program wrote since the display was last updated,
+	 * or all of them if memory was replaced.
+	 */
+	public void displayChanges() {
+		int[] changed = _changes.collect();
+		if (changed == null) {
+			display(0);
+			return;
+		}
+		int displayStop = displayStartIndex + (DISPLAY_RANGE * 4);
+		for (int address : changed) {
+			if (address >= displayStartIndex && address < displayStop) {
+				displayRow((address - displayStartIndex) / 4, address);
+			}
+		}
+	}
+	
+	/**
+	 * Shows the word at address in the display's row i.
+	 */
+	private void displayRow(int i, int address) {
+		List<TextField> l = _memDisplays.get(i);
+		if (simpleMode) {
+			String aDisp = String.format("%9s", address/4);
+			Text addressDisplay = _displayAddresses.get(i);
+			addressDisplay.setText(aDisp);
+			int wordInt = 0;
+			try {
+				wordInt = _vm.getValueInMainMem(address, 4);
+			} catch (MemoryException e) {
+				String errorMessage = e.getMessage() + " in graphics";
+				ec.reportError(errorMessage, null, null);
+			}
+			l.get(0).setText(""+wordInt);
+		} else {
+			String aDisp = String.format(hexFormatLong, address);
+			Text addressDisplay = _displayAddresses.get(i);
+			addressDisplay.setText(aDisp);
+			int k = 0;
+			for (int j = l.size() - 1; j >= 0; j--) {
+				int byteInt = 0;
 				try {
-					wordInt = _vm.getValueInMainMem(address, 4);
+					byteInt = _vm.getValueInMainMem(address + j, 1);
 				} catch (MemoryException e) {
 					String errorMessage = e.getMessage() + " in graphics";
 					ec.reportError(errorMessage, null, null);
 				}
-				l.get(0).setText(""+wordInt);
-			} else {
-				String aDisp = String.format(hexFormatLong, address);
-				Text addressDisplay = _displayAddresses.get(i);
-				addressDisplay.setText(aDisp);
-				int k = 0;
-				for (int j = l.size() - 1; j >= 0; j--) {
-					int byteInt = 0;
-					try {
-						byteInt = _vm.getValueInMainMem(address + j, 1);
-					} catch (MemoryException e) {
-						String errorMessage = e.getMessage() + " in graphics";
-						ec.reportError(errorMessage, null, null);
-					}
-					String format;
-					if (radix == 10) {
-						format = decFormatShort;
-					} else {
-						format = hexFormatShort;
-					}
-					l.get(k).setText(String.format(format, byteInt));
-					k++;
+				String format;
+				if (radix == 10) {
+					format = decFormatShort;
+				} else {
+					format = hexFormatShort;
 				}
+				l.get(k).setText(String.format(format, byteInt));
+				k++;
 			}
-			address += 4;
-			i++;
 		}
 	}
 	
@@ -293,7 +322,11 @@ public class MemoryGraphics {
 	 * @param mode - the mode being switched to
 	 */
 	public void loadVM(ExecVM vm, String mode) {
+		if (_changes != null) {
+			_vm.untrackMemoryChanges(_changes);
+		}
 		_vm = vm;
+		_changes = vm.trackMemoryChanges();
 		if (mode.equals("yaal")) {
 			simpleMode = true;
 			switchToSimpleMode();
@@ -346,9 +379,9 @@ public class MemoryGraphics {
 	}
 	
 	/**
-	 * The Runner class keeps track of the memory watchpoints and knows when those points change.
-	 * To indicate that a watched memory address has changed, this method highlights said address label.
-	 * @param watcher - the watched address that has been changed
+	 * The VM stops when a watched memory address is accessed, and the Runner passes on which one.
+	 * To indicate that a watched memory address was accessed, this method highlights said address label.
+	 * @param watcher - the watched address that was accessed
 	 */
 	public void markWatcher(int watcher) {
 		boolean watched = false;
@@ -362,7 +395,7 @@ public class MemoryGraphics {
 			}
 		}
 		if (!watched) {
-			ec.printPrompt("Watched memory address " + watcher + " has changed.");
+			ec.printPrompt("Watched memory address " + watcher + " was accessed.");
 		}
 	}
 }
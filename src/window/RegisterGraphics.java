@@ -86,10 +86,7 @@ public class RegisterGraphics {
 	public RegisterGraphics(ErrorConsole error, ExecVM vm, String mode) {
 		_ec = error;
 		_vm = vm;
-		OperatingSystem _os = _vm.getOS();
-		spStartVal = _os.getStackPointer();
-		maStartVal = _os.getMemAllocPointer();
-		totalStackSize = spStartVal - maStartVal;
+		readMemoryBounds();
 		pcView = new TextField();
 		pcView.setStyle(baseStyle + pcFontSize + "px;");
 		pcView.setOnKeyPressed(key -> {
@@ -465,10 +462,21 @@ public class RegisterGraphics {
 		return pcView;
 	}
 	
+	/**
+	 * Reads where the stack and heap start, which move with the virtual machine's memory layout.
+	 */
+	private void readMemoryBounds() {
+		OperatingSystem _os = _vm.getOS();
+		spStartVal = _os.getStackPointer();
+		maStartVal = _os.getMemAllocPointer();
+		totalStackSize = spStartVal - maStartVal;
+	}
+	
 	/**
 	 * Resets the register displays. Assumes the virtual machine has already been reset
 	 */
 	public void reset() {
+		readMemoryBounds();
 		try {
 			if (simpleMode) {
 				_vm.loadGlobals(ScreenGrid.getGraphicsConstants(), true);
@@ -652,7 +660,7 @@ public class RegisterGraphics {
 	}
 	
 	/**
-	 * If a register has been set as a watchpoint in Runner, then Runner will know when that register changes.
+	 * If a register has been set as a watchpoint, the VM stops when that register changes and Runner passes it on.
 	 * To indicate that a watched register has changed, the name of the register is marked in purple.
 	 * @param regName - the watched register being changed
 	 */
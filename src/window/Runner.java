@@ -2,6 +2,7 @@ package window;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 import javafx.animation.AnimationTimer;
 import javafx.beans.value.ChangeListener;
@@ -13,6 +14,9 @@ import javafx.stage.Window;
 import operation_syntax.OperationException;
 import virtual_machine.ExecVM;
 import virtual_machine.MemoryException;
+import virtual_machine.MemoryWatchpoints;
+import virtual_machine.StopReason;
+import virtual_machine.TierManager;
 
 public class Runner extends AnimationTimer {
 	
@@ -40,8 +44,8 @@ public class Runner extends AnimationTimer {
 	// (number of instructions per 1/60th of a second).
 	private int runSpeed = speed;
 	
+	//the VM checks the watchpoints, these are kept to set them again on a new VM
 	private List<String> regsToWatch = new ArrayList<>();
-	private List<Integer> memToWatch = new ArrayList<>();
 	
 	/**
 	 * Constructor creates the Runner and passes in the elements necessary from the main class
@@ -71,7 +75,23 @@ public class Runner extends AnimationTimer {
 	 * @param vm - the new ExecVM being added to the runner.
 	 */
 	public void loadVM(ExecVM vm) {
+		MemoryWatchpoints memWatches = _vm.getMemoryWatchpoints();
 		_vm = vm;
+		for (String reg : regsToWatch) {
+			_vm.watchRegister(reg);
+		}
+		if (memWatches != null) {
+			try {
+				for (Map.Entry<Integer, MemoryWatchpoints.Kind[]> w : memWatches.getWatched().entrySet()) {
+					for (MemoryWatchpoints.Kind kind : w.getValue()) {
+						Integer value = memWatches.getValue(w.getKey());
+						_vm.watchMemory(w.getKey(), kind, value != null ? value : 0);
+					}
+				}
+			} catch (MemoryException e) {
+				//the addresses were already checked when first watched
+			}
+		}
 	}
 	
 	/**
@@ -123,12 +143,16 @@ public class Runner extends AnimationTimer {
 	 */
 	@Override
 	public void handle(long currentNano) {
-		if (_vm.running()) {
+		if (_vm.running() && !animation) {
+			runFrame();
+		} else if (_vm.running()) {
 			boolean stateChange = false;
 			boolean eventocc = false;
 			boolean rchange = false;
 			boolean mchange = false;
+			boolean watchHit = false;
 			int loops = 0;
+			_vm.setBreakpoints(_events.getBreaks());
 			do {
 				loops++;
 				try {
@@ -154,14 +178,20 @@ public class Runner extends AnimationTimer {
 					if (_vm.callOccur() != null && _vm.callOccur().equals("_update_graphics")) {
 						break;
 					}
-					if ((checkMemChanged || !memToWatch.isEmpty()) && !stateChange) {
+					if (_vm.watching() && (_vm.memoryWatchHit() != null || _vm.registerWatchHit() != null)) {
+						watchHit = true;
+						mchange = true;
+						rchange = true;
+						break;
+					}
+					if (checkMemChanged && !stateChange) {
 						stateChange = _vm.memoryChange() != null;
 						mchange = true;
 					}
 					if (checkPcChanged && !stateChange) {
 						stateChange = _vm.pcChange();
 					}
-					if ((checkRegsChanged || !regsToWatch.isEmpty()) && !stateChange) {
+					if (checkRegsChanged && !stateChange) {
 						stateChange = (_vm.regChange() != null);
 						rchange = true;
 					}
@@ -186,28 +216,20 @@ public class Runner extends AnimationTimer {
 				if (loops == speed) {
 					break;
 				}
-			} while (!reading && !stateChange && (!_events.breaksContain(_vm.getPC()) && _vm.running()));
+			} while (!reading && !stateChange && !_vm.atBreakpoint() && _vm.running());
+			screen.paintChanges();
 			if (mchange) {
-				memory.display(0);
-				Integer changedMem = _vm.memoryChange();
-				if (changedMem != null) {
-					screen.paintOne(changedMem);
-					if (memToWatch.contains(changedMem)) {
-						memory.markWatcher(changedMem);
-					}
-				}
+				memory.displayChanges();
 			}
 			if (rchange) {
 				regFile.updateDisplay();
-				String changedReg = _vm.regChange();
-				if (changedReg != null && regsToWatch.contains(changedReg)) {
-					regFile.markWatcher(changedReg);
-				}
 			}
 			if (eventocc) {
 				//Left blank for future possibilities
 			}
-			if (_events.breaksContain(_vm.getPC())) {
+			if (watchHit) {
+				showWatchHit();
+			} else if (_vm.atBreakpoint()) {
 				stop();
 				_ec.logErrors("Breakpoint reached");
 				_tb.setStatus("stopped");
@@ -220,6 +242,109 @@ public class Runner extends AnimationTimer {
 		}
 	}
 	
+	/**
+	 * Run mode: executes up to speed instructions through ExecVM.run, which skips the
+	 * per-instruction state checks and stops itself on breakpoints and watchpoints,
+	 * then refreshes the displays once.
+	 */
+	private void runFrame() {
+		while (!_events.keysEmpty()) {
+			_vm.logKeyEvent(_events.getNextKey());
+		}
+		while (!_events.clicksEmpty()) {
+			_vm.logClickEvent(_events.getNextClick());
+		}
+		if (reading) {
+			return;
+		}
+		_vm.setBreakpoints(_events.getBreaks());
+		StopReason reason;
+		try {
+			reason = _vm.run(speed);
+		} catch (IllegalStateException y) {
+			String eMessage = "Screen error: " + y.toString();
+			_ec.reportError(eMessage, null, null);
+			return;
+		}
+		if (reason == StopReason.ERROR) {
+			_ec.reportError(_vm.getLastError().toString(), _vm.getPC(), line -> coloring.colorLine(line));
+			stopRunning();
+			return;
+		}
+		if (!regFile.testSP()) {
+			_ec.reportError("no more memory available - stack pointer and heap pointer have collided.", null, null);
+			stopRunning();
+			return;
+		}
+		if (reason == StopReason.BREAKPOINT) {
+			stop();
+			_ec.logErrors("Breakpoint reached");
+			_tb.setStatus("stopped");
+		}
+		memory.displayChanges();
+		regFile.updateDisplay();
+		screen.paintChanges();
+		if (reason == StopReason.WATCHPOINT) {
+			showWatchHit();
+		}
+	}
+	
+	/**
+	 * Stops at the watchpoint the VM stopped on, and highlights the address or register it watches.
+	 */
+	private void showWatchHit() {
+		stop();
+		_ec.logErrors("Watchpoint reached");
+		_tb.setStatus("stopped");
+		Integer address = _vm.memoryWatchHit();
+		if (address != null) {
+			memory.markWatcher(address);
+		}
+		String reg = _vm.registerWatchHit();
+		if (reg != null) {
+			regFile.markWatcher(reg);
+		}
+	}
+	
+	/**
+	 * Undoes the last recorded instruction and shows the state it left. Past the start of
+	 * the recording it goes back to the last checkpoint, and says how far that was.
+	 * @return false if nothing was recorded to go back to
+	 */
+	public boolean stepBack() {
+		long steps = _vm.stepBack();
+		if (steps == 0) {
+			return false;
+		}
+		if (steps > 1) {
+			_ec.printPrompt("Went back " + steps + " instructions to the last checkpoint");
+		}
+		showPausedState();
+		return true;
+	}
+	
+	/**
+	 * Undoes instructions until a breakpoint is reached or the recording runs out.
+	 */
+	public void runBack() {
+		_vm.setBreakpoints(_events.getBreaks());
+		StopReason reason = _vm.runBack(Long.MAX_VALUE);
+		if (reason == StopReason.BREAKPOINT) {
+			_ec.logErrors("Breakpoint reached");
+		} else {
+			_ec.printPrompt("Reached the start of the recorded execution");
+		}
+		showPausedState();
+	}
+	
+	private void showPausedState() {
+		coloring.colorLine(_vm.getPC());
+		memory.display(0);
+		regFile.updateDisplay();
+		screen.paintChanges();
+		_tb.setStatus("stopped");
+	}
+	
 	/**
 	 * Convenience method gives us the ability to stop the program and log errors at the same time
 	 */
@@ -373,18 +498,47 @@ public class Runner extends AnimationTimer {
 		return speedPref;
 	}
 	
+	/**
+	 * Creates the MenuItem that lists the loops the VM promoted to compiled code in the output field,
+	 * with how many times each went around and its share of the instructions executed so far.
+	 * @return the MenuItem that prints the list.
+	 */
+	public MenuItem showHotLoops() {
+		MenuItem hotLoops = new MenuItem("Show hot loops");
+		hotLoops.setOnAction(event -> {
+			TierManager tiers = _vm.getTiers();
+			if (tiers == null || tiers.getRegions().isEmpty()) {
+				_ec.printPrompt("No loops promoted yet");
+				return;
+			}
+			long total = 0;
+			for (long count : tiers.getExecutionCounts()) {
+				total += count;
+			}
+			for (TierManager.Region r : tiers.getRegions()) {
+				double percent = total > 0 ? 100.0 * r.getExecuted() / total : 0;
+				_ec.printPrompt(String.format("lines %d-%d: %d iterations, %.1f%% of instructions",
+						r.getStart() + 1, r.getEnd() + 1, r.getBackEdges(), percent));
+			}
+		});
+		return hotLoops;
+	}
+	
 	/**
 	 * Creates a pop-up to get user input for setting a watchpoint for a register name.
 	 * @param mainStage - the stage where the pop-up will show up
 	 */
 	public void setRegWatchPt(Stage mainStage) {
 		if (!MainTest.isProgramRunning()) {
-			String prompt = "If one or more register watchpoints are set,\nthe program will highlight "
+			String prompt = "If one or more register watchpoints are set,\nthe program will stop and highlight "
 					+ "\nwhenever those registers change.\n"
 					+ "Current watchpoints: \n" + String.join("\n", regsToWatch);
 			InputTextPrompt prompter = new InputTextPrompt(mainStage.getOwner(), prompt);
-			String watchReg = prompter.getResult();
-			regsToWatch.add(watchReg);
+			String watchReg = prompter.getResult().trim();
+			if (!watchReg.isEmpty()) {
+				_vm.watchRegister(watchReg);
+				regsToWatch.add(watchReg);
+			}
 		}
 	}
 	
@@ -395,18 +549,36 @@ public class Runner extends AnimationTimer {
 	public void setMemWatchPt(Stage mainStage) {
 		if (!MainTest.isProgramRunning()) {
 			List<String> tempMem = new ArrayList<String>();
-			for (Integer mem : memToWatch) {
-				tempMem.add(String.valueOf(mem));
+			MemoryWatchpoints memWatches = _vm.getMemoryWatchpoints();
+			if (memWatches != null) {
+				for (Map.Entry<Integer, MemoryWatchpoints.Kind[]> w : memWatches.getWatched().entrySet()) {
+					for (MemoryWatchpoints.Kind kind : w.getValue()) {
+						tempMem.add(w.getKey() + (kind == MemoryWatchpoints.Kind.READ ? " r"
+								: kind == MemoryWatchpoints.Kind.VALUE ? " = " + memWatches.getValue(w.getKey()) : ""));
+					}
+				}
 			}
-			String prompt = "If one or more memory watchpoints are set,\n the program will highlight \n"
-					+ "whenever those memory addresses change."
+			String prompt = "If one or more memory watchpoints are set,\n the program will stop and highlight \n"
+					+ "whenever those memory addresses change.\n"
+					+ "Add \" r\" to stop when the address is read instead,\n"
+					+ "or \" = value\" to stop when it is set to value.\n"
 					+ "Current watchpoints: \n" + String.join("\n", tempMem);
 			InputTextPrompt prompter = new InputTextPrompt(mainStage.getOwner(), prompt);
 			String watchMem = prompter.getResult();
 			try {
-				int memPoint = Integer.parseInt(watchMem);
-				memToWatch.add(memPoint);
-			} catch (NumberFormatException e) {
+				String address = watchMem.trim();
+				MemoryWatchpoints.Kind kind = MemoryWatchpoints.Kind.WRITE;
+				int value = 0;
+				if (address.contains("=")) {
+					kind = MemoryWatchpoints.Kind.VALUE;
+					value = Integer.parseInt(address.substring(address.indexOf('=') + 1).trim());
+					address = address.substring(0, address.indexOf('=')).trim();
+				} else if (address.endsWith(" r")) {
+					kind = MemoryWatchpoints.Kind.READ;
+					address = address.substring(0, address.length() - 2).trim();
+				}
+				_vm.watchMemory(Integer.parseInt(address), kind, value);
+			} catch (NumberFormatException | MemoryException e) {
 				_ec.reportError("Invalid memory address for watchpoint: " + watchMem, null, null);
 			}
 		}
@@ -417,7 +589,7 @@ public class Runner extends AnimationTimer {
 	 */
 	public void clearWatchers() {
 		regsToWatch.clear();
-		memToWatch.clear();
+		_vm.clearWatchpoints();
 	}
 	
 	/**
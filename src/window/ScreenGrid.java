@@ -11,6 +11,7 @@ import javafx.scene.paint.Color;
 import javafx.scene.text.Font;
 
 import util.Pair;
+import virtual_machine.MemoryChanges;
 import virtual_machine.MemoryException;
 import virtual_machine.ExecVM;
 import window.ErrorConsole;
@@ -29,6 +30,7 @@ public class ScreenGrid {
 	private final static int MEMORY_SIZE = COLUMNS * ROWS; //total number of memory addresses displayed on screen
 	
 	private ExecVM _vm;
+	private MemoryChanges _changes;
 	private ErrorConsole _ec;
 	private EventLists _events;
 	private Color bgColor = Color.web("#143800");
@@ -44,6 +46,7 @@ public class ScreenGrid {
 	 */
 	public ScreenGrid(ExecVM vm, ErrorConsole iof, EventLists events) {
 		_vm = vm;
+		_changes = vm.trackMemoryChanges();
 		_ec = iof;
 		_events = events;
 		canvas.setOnMouseClicked(event -> addClickEvent(event.getX(), event.getY()));
@@ -109,6 +112,28 @@ public class ScreenGrid {
 		}
 	}
 
+	/**
+	 * Paints only the addresses written since the screen was last painted, or all of it if
+	 * memory was replaced, so a frame costs as much as what changed in it.
+	 */
+	public void paintChanges() {
+		int[] changed = _changes.collect();
+		if (changed == null) {
+			paintAll();
+			return;
+		}
+		for (int address : changed) {
+			paintOne(address);
+		}
+	}
+	
+	/**
+	 * Stops keeping track of what the virtual machine writes, for a screen that is being replaced.
+	 */
+	public void detach() {
+		_vm.untrackMemoryChanges(_changes);
+	}
+	
 	/**
 	 * Draws the contents of memory on the canvas. If the value contained in the memory slot
 	 * doesn't correspond to a valid CharacterIcon, the address is highlighted on screen, but
@@ -129,8 +154,9 @@ public class ScreenGrid {
 						if (code < 32) {
 							charText = ' ';
 						}
-						int x = address % COLUMNS;
-						int y = address / COLUMNS;
+						int cell = (address - gridRange.first() * 4) / 4;
+						int x = cell % COLUMNS;
+						int y = cell / COLUMNS;
 						Pair<Integer, Integer> position = new Pair<Integer, Integer>(x, y);
 						renderChar(gc, charText, position);
 					}